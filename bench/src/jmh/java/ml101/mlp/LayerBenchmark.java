@@ -0,0 +1,127 @@
+package ml101.mlp;
+
+import ml101.mlp.activation.LogisticFn;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single sample and batched kernels of the first layer of a network, with the second layer
+ * as the one errors are propagated from. The *Jagged benchmarks run the single sample kernels on the
+ * weights as one array per row, the layout before they were flattened, for comparison.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LayerBenchmark {
+    @Param({"2-2-1", "784-1200-10"})
+    String shape;
+
+    @Param({"32"})
+    int batchSize;
+
+    private Layer hidden;
+    private Layer output;
+    private double[] input;
+    private double[] inputs;
+    private double[][] hiddenJagged;
+    private double[][] outputJagged;
+
+    @Setup
+    public void setUp() {
+        final int[] nodesPerLayer = Shapes.parse(shape);
+        final Random random = new Random(1);
+        hidden = new Layer(new LogisticFn(1.0), nodesPerLayer[0], nodesPerLayer[1], random);
+        output = new Layer(new LogisticFn(1.0), nodesPerLayer[1], nodesPerLayer[2], random);
+        for (Layer layer : new Layer[] {hidden, output}) {
+            layer.initializeComputationBuffers();
+            layer.initializeBatchBuffers(batchSize);
+        }
+        input = Shapes.vector(random, nodesPerLayer[0]);
+        inputs = Shapes.vector(random, batchSize * nodesPerLayer[0]);
+        // fill outputs and errors, so the backward kernels work on realistic values
+        output.computeErrorAtOutputLayer(Shapes.vector(random, nodesPerLayer[2]),
+                output.feedForward(hidden.feedForward(input)));
+        output.computeErrorAtOutputLayer(Shapes.vector(random, batchSize * nodesPerLayer[2]),
+                output.feedForward(hidden.feedForward(inputs, batchSize), batchSize), batchSize);
+        hiddenJagged = toJagged(hidden);
+        outputJagged = toJagged(output);
+    }
+
+    private static double[][] toJagged(Layer layer) {
+        final double[][] jagged = new double[layer.numOutputs()][layer.numInputs()];
+        for (int j = 0; j < layer.numOutputs(); j++) {
+            System.arraycopy(layer.weights, j * layer.numInputs(), jagged[j], 0, layer.numInputs());
+        }
+        return jagged;
+    }
+
+    @Benchmark
+    public double[] crossMultiply() {
+        NumUtilities.crossMultiply(hidden.output, hidden.weights, hidden.numInputs(), input);
+        return hidden.output;
+    }
+
+    @Benchmark
+    public double[] crossMultiplyJagged() {
+        NumUtilities.crossMultiply(hidden.output, hiddenJagged, input);
+        return hidden.output;
+    }
+
+    @Benchmark
+    public double[] feedForward() {
+        return hidden.feedForward(input);
+    }
+
+    @Benchmark
+    public double[] propagateErrors() {
+        hidden.propagateErrors(output);
+        return hidden.errors;
+    }
+
+    /*
+     * The errors of the output layer times its weights, column by column, without the activation derivative
+     */
+    @Benchmark
+    public double[] propagateErrorsJagged() {
+        for (int i = 0; i < hidden.numOutputs(); i++) {
+            double delta = 0.0;
+            for (int j = 0; j < output.numOutputs(); j++) {
+                delta += outputJagged[j][i] * output.errors[j];
+            }
+            hidden.errors[i] = delta;
+        }
+        return hidden.errors;
+    }
+
+    @Benchmark
+    public Layer computeDeltaWeightsAndBias() {
+        hidden.computeDeltaWeightsAndBias(input, 0.01);
+        return hidden;
+    }
+
+    @Benchmark
+    public double[] feedForwardBatch() {
+        return hidden.feedForward(inputs, batchSize);
+    }
+
+    @Benchmark
+    public double[] propagateErrorsBatch() {
+        hidden.propagateErrors(output, batchSize);
+        return hidden.batchErrors;
+    }
+
+    @Benchmark
+    public Layer computeDeltaWeightsAndBiasBatch() {
+        hidden.computeDeltaWeightsAndBias(inputs, batchSize, 0.01);
+        return hidden;
+    }
+}
@@ -0,0 +1,100 @@
+package ml101.mlp;
+
+import ml101.mlp.data.TrainingData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole network inference and one training epoch over synthetic data.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MLPBenchmark {
+    @Param({"2-2-1", "784-1200-10"})
+    String shape;
+
+    @Param({"512"})
+    int samples;
+
+    @Param({"32"})
+    int batchSize;
+
+    @Param({"1"})
+    int threads;
+
+    // fraction of zero weights in the network served by predictSparse
+    @Param({"0.9"})
+    double sparsity;
+
+    private MLP mlp;
+    private SparseMLP sparse;
+    private MLP trainer;
+    private TrainingData data;
+    private double[] input;
+    private double[] result;
+    private double[][] inputs;
+
+    @Setup
+    public void setUp() {
+        mlp = Shapes.network(shape).load();
+        trainer = Shapes.network(shape)
+                .learningRate(0.01)
+                .batchSize(batchSize)
+                .shuffle(true)
+                .threads(threads)
+                .stopWhen((iteration, cost) -> true)
+                .load();
+        data = Shapes.data(shape, samples);
+        final MLP pruned = Shapes.network(shape).load();
+        pruned.prune(sparsity);
+        sparse = pruned.toSparse();
+        final int[] nodesPerLayer = Shapes.parse(shape);
+        final Random random = new Random(3);
+        input = Shapes.vector(random, nodesPerLayer[0]);
+        result = new double[nodesPerLayer[nodesPerLayer.length - 1]];
+        inputs = new double[batchSize][];
+        for (int b = 0; b < batchSize; b++) {
+            inputs[b] = Shapes.vector(random, nodesPerLayer[0]);
+        }
+    }
+
+    @Benchmark
+    public double[] feedForward() {
+        return mlp.feedForward(input);
+    }
+
+    @Benchmark
+    public double[] predict() {
+        return mlp.predict(input, result);
+    }
+
+    @Benchmark
+    public double[] predictSparse() {
+        return sparse.predict(input, result);
+    }
+
+    @Benchmark
+    public double[][] feedForwardBatch() {
+        return mlp.feedForward(inputs);
+    }
+
+    /**
+     * One epoch of mini-batch training over 'samples' samples; the stop criteria end training after one epoch.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public MLP trainEpoch() {
+        trainer.train(data);
+        return trainer;
+    }
+}
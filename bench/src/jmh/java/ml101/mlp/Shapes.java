@@ -0,0 +1,59 @@
+package ml101.mlp;
+
+import ml101.mlp.activation.LogisticFn;
+import ml101.mlp.data.PlainData;
+import ml101.mlp.data.TrainingData;
+
+import java.util.Random;
+
+/**
+ * Synthetic networks and data for the benchmarks, so they run without the MNIST files.
+ */
+final class Shapes {
+    private Shapes() {
+    }
+
+    /**
+     * @param shape  Nodes per layer separated by dashes, e.g. "784-1200-10"
+     */
+    static int[] parse(String shape) {
+        final String[] parts = shape.split("-");
+        final int[] nodesPerLayer = new int[parts.length];
+        for (int l = 0; l < parts.length; l++) {
+            nodesPerLayer[l] = Integer.parseInt(parts[l]);
+        }
+        return nodesPerLayer;
+    }
+
+    static MLP.Builder network(String shape) {
+        return new MLP.Builder()
+                .activation(new LogisticFn(1.0))
+                .layers(parse(shape))
+                .seed(1)
+                .reportStatus((iteration, cost) -> { });
+    }
+
+    static double[] vector(Random random, int length) {
+        final double[] vector = new double[length];
+        for (int i = 0; i < length; i++) {
+            vector[i] = random.nextDouble();
+        }
+        return vector;
+    }
+
+    /**
+     * Random inputs with one-hot outputs.
+     */
+    static TrainingData data(String shape, int samples) {
+        final int[] nodesPerLayer = parse(shape);
+        final int numOutputs = nodesPerLayer[nodesPerLayer.length - 1];
+        final Random random = new Random(2);
+        final double[][] inputs = new double[samples][];
+        final double[][] outputs = new double[samples][numOutputs];
+        for (int n = 0; n < samples; n++) {
+            inputs[n] = vector(random, nodesPerLayer[0]);
+            outputs[n][random.nextInt(numOutputs)] = 1.0;
+        }
+        return new PlainData(inputs, outputs);
+    }
+}
@@ -0,0 +1,293 @@
+package ml101.mlp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Sums arrays across a group of processes, e.g. several JVMs training the same network on different shards of
+ * the data: after sum(values), every process holds the element-wise sum of everyone's values.
+ *
+ * The processes form a ring over TCP, each one sending to the next and receiving from the previous. An array is
+ * split into one chunk per process; the chunks are first passed around the ring and added to (reduce-scatter),
+ * until each process holds one complete sum, and then passed around again and copied (allgather). Every process
+ * sends and receives about twice the array, however many processes there are, and the sums come out bitwise
+ * identical everywhere.
+ *
+ * Every process calls connect with its own rank and the same list of addresses, one per rank, and then the same
+ * sequence of sums with arrays of the same length. Set on MLP.Builder with distributed(...).
+ */
+public class AllReduce implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(AllReduce.class);
+
+    private final int rank;
+    private final int size;
+    private final SocketChannel next;
+    private final SocketChannel previous;
+    private final Selector selector;
+    private final SelectionKey sending;
+    private final SelectionKey receiving;
+    private ByteBuffer sendBuffer = ByteBuffer.allocateDirect(0);
+    private ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(0);
+
+    private AllReduce(int rank, int size, SocketChannel next, SocketChannel previous) throws IOException {
+        this.rank = rank;
+        this.size = size;
+        this.next = next;
+        this.previous = previous;
+        if (size > 1) {
+            this.selector = Selector.open();
+            next.configureBlocking(false);
+            previous.configureBlocking(false);
+            this.sending = next.register(selector, 0);
+            this.receiving = previous.register(selector, 0);
+        }
+        else {
+            this.selector = null;
+            this.sending = null;
+            this.receiving = null;
+        }
+    }
+
+    /**
+     * Joins the ring, waiting up to a minute for the other processes.
+     * @see #connect(int, List, Duration)
+     */
+    public static AllReduce connect(int rank, List<InetSocketAddress> addresses) throws IOException {
+        return connect(rank, addresses, Duration.ofMinutes(1));
+    }
+
+    /**
+     * Joins the ring: listens on addresses[rank], connects to the next process and accepts the previous one.
+     * The processes can be started in any order, within 'timeout' of each other.
+     * With a single address, there's no one to connect to, and sums leave arrays as they are.
+     */
+    public static AllReduce connect(int rank, List<InetSocketAddress> addresses, Duration timeout)
+            throws IOException {
+        final int size = addresses.size();
+        if (rank < 0 || rank >= size) {
+            throw new IllegalArgumentException("Rank " + rank + " is not in [0, " + size + ")");
+        }
+        if (size == 1) {
+            return new AllReduce(rank, size, null, null);
+        }
+        final long deadline = System.nanoTime() + timeout.toNanos();
+        SocketChannel next = null;
+        SocketChannel previous = null;
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            server.bind(addresses.get(rank));
+            next = connect(addresses.get((rank + 1) % size), deadline);
+            next.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            writeHeader(next, rank, size);
+            previous = accept(server, deadline);
+            final ByteBuffer header = readHeader(previous);
+            final int previousRank = (rank + size - 1) % size;
+            if (header.getInt(0) != previousRank || header.getInt(4) != size) {
+                throw new IOException("Expected rank " + previousRank + " of " + size + ", got rank "
+                        + header.getInt(0) + " of " + header.getInt(4));
+            }
+            logger.debug("Rank {} of {} connected", rank, size);
+            return new AllReduce(rank, size, next, previous);
+        }
+        catch (IOException | RuntimeException ex) {
+            close(next);
+            close(previous);
+            throw ex;
+        }
+    }
+
+    /*
+     * The next process may not be listening yet, so connecting is retried until the deadline.
+     */
+    private static SocketChannel connect(InetSocketAddress address, long deadline) throws IOException {
+        while (true) {
+            try {
+                return SocketChannel.open(address);
+            }
+            catch (ConnectException ex) {
+                if (System.nanoTime() > deadline) {
+                    throw ex;
+                }
+            }
+            try {
+                Thread.sleep(20);
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while connecting to " + address);
+            }
+        }
+    }
+
+    private static SocketChannel accept(ServerSocketChannel server, long deadline) throws IOException {
+        server.configureBlocking(false);
+        try (Selector selector = Selector.open()) {
+            server.register(selector, SelectionKey.OP_ACCEPT);
+            while (true) {
+                final SocketChannel channel = server.accept();
+                if (channel != null) {
+                    return channel;
+                }
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new SocketTimeoutException("No connection from the previous process on "
+                            + server.getLocalAddress());
+                }
+                selector.select(Math.max(1, remaining / 1_000_000));
+                selector.selectedKeys().clear();
+            }
+        }
+    }
+
+    private static void writeHeader(SocketChannel channel, int rank, int size) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(8).putInt(rank).putInt(size).flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+    }
+
+    private static ByteBuffer readHeader(SocketChannel channel) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(8);
+        while (header.hasRemaining()) {
+            if (channel.read(header) < 0) {
+                throw new EOFException("The previous process closed the connection");
+            }
+        }
+        return header;
+    }
+
+    public int rank() {
+        return rank;
+    }
+
+    /**
+     * @return Returns the number of processes
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Replaces 'values' with the element-wise sum of the values of every process.
+     * Blocks until the neighbours in the ring have called it too.
+     */
+    public void sum(double[] values) {
+        if (size == 1) {
+            return;
+        }
+        try {
+            // after step s, chunk rank - s - 1 holds the sum of the values of s + 2 processes
+            for (int s = 0; s < size - 1; s++) {
+                exchange(values, rank - s, rank - s - 1, true);
+            }
+            // this process now holds the complete chunk rank + 1: pass the complete chunks around
+            for (int s = 0; s < size - 1; s++) {
+                exchange(values, rank + 1 - s, rank - s, false);
+            }
+        }
+        catch (IOException ex) {
+            throw new IllegalStateException("Allreduce failed", ex);
+        }
+    }
+
+    /**
+     * @return Returns the values of every process, by rank
+     */
+    public double[] gather(double value) {
+        final double[] values = new double[size];
+        values[rank] = value;
+        sum(values);
+        return values;
+    }
+
+    /*
+     * Sends one chunk of 'values' to the next process while receiving another from the previous one, which is
+     * added to the values or copied over them.
+     */
+    private void exchange(double[] values, int sendChunk, int receiveChunk, boolean add) throws IOException {
+        // chunks are numbered around the ring, so chunk -1 is chunk size - 1
+        final int send = Math.floorMod(sendChunk, size);
+        final int receive = Math.floorMod(receiveChunk, size);
+        final int sendFrom = chunkStart(values, send);
+        final int sendLength = chunkStart(values, send + 1) - sendFrom;
+        final int receiveFrom = chunkStart(values, receive);
+        final int receiveLength = chunkStart(values, receive + 1) - receiveFrom;
+        final int capacity = (values.length + size - 1) / size * Double.BYTES;
+        if (sendBuffer.capacity() < capacity) {
+            sendBuffer = ByteBuffer.allocateDirect(capacity).order(ByteOrder.LITTLE_ENDIAN);
+            receiveBuffer = ByteBuffer.allocateDirect(capacity).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        sendBuffer.clear();
+        sendBuffer.asDoubleBuffer().put(values, sendFrom, sendLength);
+        sendBuffer.limit(sendLength * Double.BYTES);
+        receiveBuffer.clear().limit(receiveLength * Double.BYTES);
+
+        while (true) {
+            if (sendBuffer.hasRemaining()) {
+                next.write(sendBuffer);
+            }
+            if (receiveBuffer.hasRemaining() && previous.read(receiveBuffer) < 0) {
+                throw new EOFException("The previous process closed the connection");
+            }
+            if (!sendBuffer.hasRemaining() && !receiveBuffer.hasRemaining()) {
+                break;
+            }
+            // neither side can make progress: wait until a socket can take or give more
+            sending.interestOps(sendBuffer.hasRemaining() ? SelectionKey.OP_WRITE : 0);
+            receiving.interestOps(receiveBuffer.hasRemaining() ? SelectionKey.OP_READ : 0);
+            selector.select();
+            selector.selectedKeys().clear();
+        }
+
+        final DoubleBuffer received = receiveBuffer.flip().asDoubleBuffer();
+        if (add) {
+            for (int k = 0; k < receiveLength; k++) {
+                values[receiveFrom + k] += received.get(k);
+            }
+        }
+        else {
+            received.get(values, receiveFrom, receiveLength);
+        }
+    }
+
+    private int chunkStart(double[] values, int chunk) {
+        return (int) ((long) chunk * values.length / size);
+    }
+
+    @Override
+    public void close() {
+        if (size > 1) {
+            close(selector);
+            close(next);
+            close(previous);
+        }
+    }
+
+    private static void close(AutoCloseable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            }
+            catch (Exception ex) {
+                logger.warn("Failed to close {}", closeable, ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package ml101.mlp;
+
+import ml101.mlp.data.IdxData;
+import ml101.mlp.data.TrainingData;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Offline scoring of a whole data set with a trained network, on all cores: loss, accuracy, top-k accuracy,
+ * the confusion matrix and the throughput, and optionally every prediction, written to a memory-mapped file.
+ *
+ * Each thread has its own InferenceContext and takes chunks of samples in turn from a shared counter, and
+ * feeds them forward MLP.BLOCK_SIZE at a time, as matrix-matrix multiplications. The weights are only read,
+ * so the network must not be trained meanwhile.
+ *
+ * The predictions file is little-endian:
+ * <pre>
+ *   "MLPS"                      magic
+ *   int     version             currently 1
+ *   long    number of samples
+ *   int     numOutputs
+ *   int     k
+ *   per sample, in data set order, each record padded to a multiple of 8 bytes:
+ *     double[numOutputs]        outputs
+ *     int[k]                    the k most likely classes, most likely first
+ * </pre>
+ * Records have a fixed size, so each thread writes its own samples straight into the mapping.
+ */
+public class BatchScorer {
+    static final int MAGIC = 0x53504c4d; // "MLPS", read as a little-endian int
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 24;
+    // samples claimed at a time, so threads don't contend on the shared counter
+    private static final int CHUNK = 8 * MLP.BLOCK_SIZE;
+    private static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    private static final ValueLayout.OfLong LONG = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    private static final ValueLayout.OfDouble DOUBLE =
+            ValueLayout.JAVA_DOUBLE_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+
+    private final MLP mlp;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int k = 5;
+    private String predictions;
+
+    /**
+     * Loss and accuracy as in Validation, the fraction of samples whose class is among the k most likely ones,
+     * and confusion[actual][predicted] counts. A single output is two classes, split at 0.5.
+     */
+    public record Report(long samples, int threads, double seconds, double loss, double accuracy, int k,
+                         double topKAccuracy, long[][] confusion) {
+        public double samplesPerSecond() {
+            return samples / seconds;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder text = new StringBuilder(String.format(
+                    "%d samples in %.3f s on %d threads: %.0f samples/s%nloss %.6f, accuracy %.4f, top-%d %.4f%n",
+                    samples, seconds, threads, samplesPerSecond(), loss, accuracy, k, topKAccuracy));
+            text.append("actual \\ predicted");
+            for (int c = 0; c < confusion.length; c++) {
+                text.append(String.format("%8d", c));
+            }
+            for (int c = 0; c < confusion.length; c++) {
+                text.append(String.format("%n%18d", c));
+                for (long count : confusion[c]) {
+                    text.append(String.format("%8d", count));
+                }
+            }
+            return text.toString();
+        }
+    }
+
+    public BatchScorer(final MLP mlp) {
+        this.mlp = mlp;
+    }
+
+    /**
+     * Number of threads (all processors by default).
+     */
+    public BatchScorer threads(final int threads) {
+        this.threads = Math.max(1, threads);
+        return this;
+    }
+
+    /**
+     * Number of most likely classes counted in the top-k accuracy and written per prediction (5 by default).
+     */
+    public BatchScorer topK(final int k) {
+        this.k = Math.max(1, k);
+        return this;
+    }
+
+    /**
+     * Also write every prediction into this file, replacing it.
+     */
+    public BatchScorer predictions(final String filename) {
+        this.predictions = filename;
+        return this;
+    }
+
+    /**
+     * @return Returns the size of a sample's record in the predictions file
+     */
+    static long recordSize(final int numOutputs, final int k) {
+        return (8L * numOutputs + 4L * k + 7) & ~7L;
+    }
+
+    public Report score(final TrainingData data) throws IOException {
+        final int length = data.length();
+        if (length > 0 && data.input(0).length != mlp.numInputs()) {
+            throw new IllegalArgumentException("The network takes " + mlp.numInputs() + " inputs, not "
+                    + data.input(0).length);
+        }
+        final int classes = classes(mlp.numOutputs());
+        // a single output gives one class per sample
+        final int top = mlp.numOutputs() == 1 ? 1 : Math.min(k, classes);
+        final Worker[] workers = new Worker[Math.min(threads, Math.max(1, (length + CHUNK - 1) / CHUNK))];
+        for (int w = 0; w < workers.length; w++) {
+            workers[w] = new Worker(top);
+        }
+        final long start = System.nanoTime();
+        try (Arena arena = Arena.ofShared()) {
+            final MemorySegment segment = predictions != null ? map(arena, length, top) : null;
+            final AtomicInteger next = new AtomicInteger();
+            if (workers.length == 1) {
+                workers[0].score(data, next, segment);
+            }
+            else {
+                final ForkJoinPool pool = new ForkJoinPool(workers.length);
+                try {
+                    final ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[workers.length];
+                    for (int w = 0; w < workers.length; w++) {
+                        final Worker worker = workers[w];
+                        tasks[w] = pool.submit(() -> worker.score(data, next, segment));
+                    }
+                    for (ForkJoinTask<?> task : tasks) {
+                        task.join();
+                    }
+                }
+                finally {
+                    pool.shutdown();
+                }
+            }
+            if (segment != null) {
+                segment.force();
+            }
+        }
+        final double seconds = (System.nanoTime() - start) / 1e9;
+
+        double loss = 0.0;
+        long correct = 0;
+        long topCorrect = 0;
+        final long[][] confusion = new long[classes][classes];
+        for (Worker worker : workers) {
+            loss += worker.loss;
+            correct += worker.correct;
+            topCorrect += worker.topCorrect;
+            for (int c = 0; c < classes; c++) {
+                for (int p = 0; p < classes; p++) {
+                    confusion[c][p] += worker.confusion[c][p];
+                }
+            }
+        }
+        final double samples = Math.max(1, length);
+        return new Report(length, workers.length, seconds, loss / samples, correct / samples, top,
+                topCorrect / samples, confusion);
+    }
+
+    private MemorySegment map(final Arena arena, final int length, final int top) throws IOException {
+        final long size = HEADER_SIZE + length * recordSize(mlp.numOutputs(), top);
+        try (FileChannel channel = FileChannel.open(Paths.get(predictions), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final MemorySegment segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, size, arena);
+            segment.set(INT, 0, MAGIC);
+            segment.set(INT, 4, VERSION);
+            segment.set(LONG, 8, length);
+            segment.set(INT, 16, mlp.numOutputs());
+            segment.set(INT, 20, top);
+            return segment;
+        }
+    }
+
+    private static int classes(final int numOutputs) {
+        return numOutputs == 1 ? 2 : numOutputs;
+    }
+
+    private static int classOf(final double[] values) {
+        return values.length == 1 ? (values[0] >= 0.5 ? 1 : 0) : Validation.argmax(values);
+    }
+
+    /*
+     * Writes the indices of the 'top.length' largest outputs into 'top', largest first. Among equal outputs,
+     * the lowest index goes first.
+     */
+    private static void topClasses(final double[] output, final int[] top) {
+        if (output.length == 1) {
+            top[0] = classOf(output);
+            return;
+        }
+        for (int t = 0; t < top.length; t++) {
+            int best = -1;
+            for (int j = 0; j < output.length; j++) {
+                if ((best < 0 || output[j] > output[best]) && !contains(top, t, j)) {
+                    best = j;
+                }
+            }
+            top[t] = best;
+        }
+    }
+
+    private static boolean contains(final int[] values, final int length, final int value) {
+        for (int i = 0; i < length; i++) {
+            if (values[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Scratch space and partial results of one scoring thread.
+     */
+    private class Worker {
+        final InferenceContext context = mlp.newInferenceContext();
+        final double[][] inputs = new double[MLP.BLOCK_SIZE][mlp.numInputs()];
+        final double[][] outputs = new double[MLP.BLOCK_SIZE][mlp.numOutputs()];
+        final int[] top;
+        final long[][] confusion;
+        double loss;
+        long correct;
+        long topCorrect;
+
+        Worker(final int k) {
+            top = new int[k];
+            confusion = new long[classes(mlp.numOutputs())][classes(mlp.numOutputs())];
+        }
+
+        void score(final TrainingData data, final AtomicInteger next, final MemorySegment segment) {
+            final int length = data.length();
+            final int numInputs = mlp.numInputs();
+            final int numOutputs = mlp.numOutputs();
+            final long recordSize = recordSize(numOutputs, top.length);
+            int start;
+            while ((start = next.getAndAdd(CHUNK)) < length) {
+                final int end = Math.min(start + CHUNK, length);
+                for (int from = start; from < end; from += MLP.BLOCK_SIZE) {
+                    final int size = Math.min(MLP.BLOCK_SIZE, end - from);
+                    // copied, since data sets may decode input(n) into a buffer that the next call overwrites
+                    for (int b = 0; b < size; b++) {
+                        System.arraycopy(data.input(from + b), 0, inputs[b], 0, numInputs);
+                    }
+                    if (size == MLP.BLOCK_SIZE) {
+                        context.feedForward(inputs, outputs);
+                    }
+                    else {
+                        context.feedForward(Arrays.copyOf(inputs, size), Arrays.copyOf(outputs, size));
+                    }
+                    for (int b = 0; b < size; b++) {
+                        final double[] output = outputs[b];
+                        final double[] expected = data.output(from + b);
+                        loss += mlp.computeCost(expected, output, numOutputs);
+                        topClasses(output, top);
+                        final int actual = classOf(expected);
+                        confusion[actual][top[0]]++;
+                        correct += actual == top[0] ? 1 : 0;
+                        topCorrect += contains(top, top.length, actual) ? 1 : 0;
+                        if (segment != null) {
+                            final long offset = HEADER_SIZE + (from + b) * recordSize;
+                            MemorySegment.copy(output, 0, segment, DOUBLE, offset, numOutputs);
+                            MemorySegment.copy(top, 0, segment, INT, offset + 8L * numOutputs, top.length);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Command line scorer: BatchScorer model data-inputs.idx data-labels.idx [predictions] [threads] [k],
+     * e.g. on the MNIST t10k-images-idx3-ubyte and t10k-labels-idx1-ubyte files.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("Usage: BatchScorer <model.mlp|model.mlpb> <inputs.idx> <labels.idx> "
+                    + "[predictions] [threads] [k]");
+            System.exit(1);
+        }
+        final MLP mlp = new MLP.Builder().load(args[0]);
+        final TrainingData data = new IdxData(args[1], args[2], mlp.numOutputs() > 1 ? mlp.numOutputs() : 0);
+        final BatchScorer scorer = new BatchScorer(mlp);
+        if (args.length > 3 && !args[3].equals("-")) {
+            scorer.predictions(args[3]);
+        }
+        if (args.length > 4) {
+            scorer.threads(Integer.parseInt(args[4]));
+        }
+        if (args.length > 5) {
+            scorer.topK(Integer.parseInt(args[5]));
+        }
+        System.out.println(scorer.score(data));
+    }
+}
@@ -0,0 +1,332 @@
+package ml101.mlp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Periodic checkpoints of a network while it trains, every N epochs and/or every T seconds.
+ *
+ * At the end of an epoch that is due, the weights, the optimizer state and the iteration counter are copied,
+ * and the copy is written on a background thread: first to a temporary file, which is then renamed over the
+ * checkpoint, so the checkpoint on disk is always complete. If the previous checkpoint is still being written,
+ * the next due epoch is tried instead, so training never waits on the disk. A checkpoint that fails to be written
+ * doesn't stop training: the first failure is thrown when training ends.
+ *
+ * A checkpoint is a binary model file (see ModelFile) followed by the training state, so MLP.Builder.load reads
+ * it as a plain model, and MLP.Builder.resume continues training from it.
+ * Set on MLP.Builder with checkpoints(...).
+ */
+public class Checkpointing {
+    private static final Logger logger = LoggerFactory.getLogger(Checkpointing.class);
+    private static final int TRAILER_MAGIC = 0x54504c4d; // "MLPT", read as a little-endian int
+    private static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    private static final ValueLayout.OfLong LONG = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    private static final ValueLayout.OfDouble DOUBLE =
+            ValueLayout.JAVA_DOUBLE_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+
+    private final Path path;
+    private int everyEpochs = 0;
+    private long everyNanos = 0;
+
+    private final AtomicBoolean busy = new AtomicBoolean();
+    private final AtomicReference<Exception> failure = new AtomicReference<>();
+    private ExecutorService executor;
+    private Future<?> pending;
+    private long lastEpoch;
+    private long lastTime;
+
+    /**
+     * Training state read back from a checkpoint: the optimizer (class name) and the state of each layer.
+     */
+    record State(MLP mlp, long iteration, String[] optimizers, double[][][][] optimizerStates) {
+
+        /*
+         * Restores the optimizer state into 'resumed', whose layers were set up for 'optimizer'.
+         * The checkpoint must have been written with the same kind of optimizer, with state of the same shape.
+         */
+        void restore(final MLP resumed, final String optimizer) {
+            for (int l = 0; l < resumed.layers.length; l++) {
+                if (!optimizers[l].equals(optimizer)) {
+                    throw new IllegalArgumentException("The checkpoint was trained with " + optimizers[l]
+                            + ", not " + optimizer + "; resume with the same optimizer");
+                }
+                final double[][][] expected = resumed.layers[l].saveOptimizerState();
+                for (int k = 0; k < expected.length; k++) {
+                    boolean fits = expected[k].length == optimizerStates[l][k].length;
+                    for (int a = 0; fits && a < expected[k].length; a++) {
+                        fits = expected[k][a].length == optimizerStates[l][k][a].length;
+                    }
+                    if (!fits) {
+                        throw new IllegalArgumentException("The checkpoint's optimizer state doesn't fit layer " + l);
+                    }
+                }
+                resumed.layers[l].restoreOptimizerState(optimizerStates[l]);
+            }
+        }
+    }
+
+    public Checkpointing(final String filename) {
+        this.path = Paths.get(filename);
+    }
+
+    /**
+     * Checkpoint every this many epochs.
+     */
+    public Checkpointing everyEpochs(final int epochs) {
+        this.everyEpochs = epochs;
+        return this;
+    }
+
+    /**
+     * Checkpoint at the end of the first epoch after this many seconds since the last checkpoint.
+     */
+    public Checkpointing everySeconds(final long seconds) {
+        this.everyNanos = seconds * 1_000_000_000L;
+        return this;
+    }
+
+    synchronized void start(final long iteration) {
+        lastEpoch = iteration;
+        lastTime = System.nanoTime();
+        failure.set(null);
+        if (executor == null) {
+            executor = Executors.newSingleThreadExecutor(Thread.ofPlatform().daemon().name("mlp-checkpoint").factory());
+        }
+    }
+
+    /*
+     * Called by the training thread at the end of each epoch. Copies the state only when a checkpoint is due
+     * and the writer is idle.
+     */
+    void epochEnded(final long iteration, final MLP mlp) {
+        final long now = System.nanoTime();
+        final boolean due = (everyEpochs > 0 && iteration - lastEpoch >= everyEpochs)
+                || (everyNanos > 0 && now - lastTime >= everyNanos);
+        if (!due || !busy.compareAndSet(false, true)) {
+            return;
+        }
+        lastEpoch = iteration;
+        lastTime = now;
+        final MLP snapshot = mlp.snapshot();
+        final String optimizer = mlp.optimizerName();
+        final double[][][][] optimizerStates = new double[mlp.layers.length][][][];
+        for (int l = 0; l < mlp.layers.length; l++) {
+            optimizerStates[l] = mlp.layers[l].saveOptimizerState();
+        }
+        pending = executor.submit(() -> {
+            try {
+                write(path, snapshot, iteration, optimizer, optimizerStates);
+            }
+            catch (final IOException | RuntimeException ex) {
+                // later checkpoints are still tried, the disk may only have been full for a while
+                logger.warn("Checkpoint at iteration {} failed: {}", iteration, ex.toString());
+                if (!failure.compareAndSet(null, ex)) {
+                    failure.get().addSuppressed(ex);
+                }
+            }
+            finally {
+                busy.set(false);
+            }
+        });
+    }
+
+    /*
+     * Called by the training thread when training ends: waits for the checkpoint being written, and throws the
+     * first checkpoint that failed, if any.
+     */
+    void finish() {
+        try {
+            if (pending != null) {
+                pending.get();
+            }
+        }
+        catch (final Exception ex) {
+            throw new IllegalStateException("Checkpointing failed", ex);
+        }
+        finally {
+            executor.shutdown();
+            executor = null;
+            pending = null;
+        }
+        final Exception first = failure.getAndSet(null);
+        if (first != null) {
+            throw new IllegalStateException("Checkpointing failed", first);
+        }
+    }
+
+    /*
+     * Writes the model, appends the training state, then renames the file into place. The temporary file is
+     * deleted if anything fails.
+     * Trailer, little-endian: long iteration, int number of layers, then for each layer the optimizer's class name
+     * (int length and UTF-8 bytes) and the weight and bias optimizer states (int number of arrays, then each array
+     * as int length and doubles), and last the long offset of the trailer and the trailer magic.
+     */
+    static void write(final Path path, final MLP mlp, final long iteration, final String optimizer,
+                      final double[][][][] optimizerStates) throws IOException {
+        final Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            ModelFile.write(mlp, temporary.toString());
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND)) {
+                final long offset = channel.size();
+                final TrailerWriter trailer = new TrailerWriter(channel);
+                trailer.putLong(iteration);
+                trailer.putInt(optimizerStates.length);
+                final byte[] name = optimizer.getBytes(StandardCharsets.UTF_8);
+                for (double[][][] layerState : optimizerStates) {
+                    trailer.putInt(name.length);
+                    trailer.put(name);
+                    for (double[][] state : layerState) {
+                        trailer.putInt(state.length);
+                        for (double[] array : state) {
+                            trailer.putInt(array.length);
+                            trailer.put(array);
+                        }
+                    }
+                }
+                trailer.putLong(offset);
+                trailer.putInt(TRAILER_MAGIC);
+                trailer.flush();
+                channel.force(true);
+            }
+            Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        finally {
+            try {
+                Files.deleteIfExists(temporary);
+            }
+            catch (final IOException ex) {
+                logger.warn("Can't delete {}: {}", temporary, ex.toString());
+            }
+        }
+    }
+
+    /*
+     * Writes through one small buffer, so a trailer of any size takes no more heap than that.
+     */
+    private static final class TrailerWriter {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+
+        TrailerWriter(final FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void putInt(final int value) throws IOException {
+            room(4);
+            buffer.putInt(value);
+        }
+
+        void putLong(final long value) throws IOException {
+            room(8);
+            buffer.putLong(value);
+        }
+
+        void put(final byte[] bytes) throws IOException {
+            for (int start = 0; start < bytes.length; ) {
+                room(1);
+                final int count = Math.min(bytes.length - start, buffer.remaining());
+                buffer.put(bytes, start, count);
+                start += count;
+            }
+        }
+
+        void put(final double[] array) throws IOException {
+            for (int start = 0; start < array.length; ) {
+                room(8);
+                final int count = Math.min(array.length - start, buffer.remaining() / 8);
+                buffer.asDoubleBuffer().put(array, start, count);
+                buffer.position(buffer.position() + 8 * count);
+                start += count;
+            }
+        }
+
+        private void room(final int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    static State read(final String filename) throws IOException {
+        final MLP mlp = ModelFile.read(filename);
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+             Arena arena = Arena.ofConfined()) {
+            final MemorySegment segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), arena);
+            final long end = segment.byteSize();
+            if (end < 12 || segment.get(INT, end - 4) != TRAILER_MAGIC) {
+                throw new IllegalArgumentException("Not a checkpoint (no training state): " + filename);
+            }
+            // everything read is checked to lie before the trailer's offset and magic, at 'limit'
+            final long limit = end - 12;
+            long offset = segment.get(LONG, limit);
+            check(offset >= 0 && offset <= limit - 12, "trailer offset", filename);
+            final long iteration = segment.get(LONG, offset);
+            final int numLayers = segment.get(INT, offset + 8);
+            check(numLayers == mlp.layers.length, "layer count", filename);
+            offset += 12;
+            final String[] optimizers = new String[numLayers];
+            final double[][][][] optimizerStates = new double[numLayers][2][][];
+            for (int l = 0; l < numLayers; l++) {
+                check(offset <= limit - 4, "optimizer", filename);
+                final int nameLength = segment.get(INT, offset);
+                offset += 4;
+                check(nameLength >= 0 && nameLength <= limit - offset, "optimizer", filename);
+                optimizers[l] = new String(segment.asSlice(offset, nameLength).toArray(ValueLayout.JAVA_BYTE),
+                        StandardCharsets.UTF_8);
+                offset += nameLength;
+                for (int k = 0; k < 2; k++) {
+                    check(offset <= limit - 4, "optimizer state", filename);
+                    final int arrays = segment.get(INT, offset);
+                    offset += 4;
+                    check(arrays >= 0 && arrays <= (limit - offset) / 4, "optimizer state", filename);
+                    optimizerStates[l][k] = new double[arrays][];
+                    for (int a = 0; a < arrays; a++) {
+                        check(offset <= limit - 4, "optimizer state", filename);
+                        final int length = segment.get(INT, offset);
+                        offset += 4;
+                        check(length >= 0 && length <= (limit - offset) / 8, "optimizer state", filename);
+                        optimizerStates[l][k][a] = new double[length];
+                        MemorySegment.copy(segment, DOUBLE, offset, optimizerStates[l][k][a], 0, length);
+                        offset += 8L * length;
+                    }
+                }
+            }
+            check(offset == limit, "trailer length", filename);
+            return new State(mlp, iteration, optimizers, optimizerStates);
+        }
+    }
+
+    private static void check(final boolean valid, final String what, final String filename) {
+        if (!valid) {
+            throw new IllegalArgumentException("Truncated or corrupt checkpoint (" + what + "): " + filename);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package ml101.mlp;
+
+import ml101.mlp.activation.ActivationFn;
+
+import java.lang.foreign.MemorySegment;
+
+import static java.lang.foreign.ValueLayout.JAVA_DOUBLE;
+
+/**
+ * Read-only copy of a trained MLP in single precision, for serving.
+ * Weights take half the memory of the double model, so feed forward moves half the bytes.
+ * Safe to use from many threads; each thread gets its own scratch buffers.
+ */
+public class FloatMLP {
+    private final int[] numInputs;
+    private final int[] numOutputs;
+    private final float[][] weights;
+    private final float[][] bias;
+    private final ActivationFn[] activationFns;
+    private final ThreadLocal<float[][]> buffers;
+    // pre-activation sums of one layer, so whole rows go through the activation function
+    private final ThreadLocal<double[]> sums;
+
+    FloatMLP(final Layer[] layers) {
+        numInputs = new int[layers.length];
+        numOutputs = new int[layers.length];
+        weights = new float[layers.length][];
+        bias = new float[layers.length][];
+        activationFns = new ActivationFn[layers.length];
+        for (int l = 0; l < layers.length; l++) {
+            numInputs[l] = layers[l].numInputs();
+            numOutputs[l] = layers[l].numOutputs();
+            weights[l] = toFloat(layers[l].weightSegment());
+            bias[l] = toFloat(layers[l].bias);
+            activationFns[l] = layers[l].activationFn();
+        }
+        buffers = ThreadLocal.withInitial(() -> {
+            final float[][] outputs = new float[layers.length + 1][];
+            outputs[0] = new float[numInputs[0]];
+            for (int l = 0; l < layers.length; l++) {
+                outputs[l + 1] = new float[numOutputs[l]];
+            }
+            return outputs;
+        });
+        int widest = 0;
+        for (int size : numOutputs) {
+            widest = Math.max(widest, size);
+        }
+        final int rowSize = widest;
+        sums = ThreadLocal.withInitial(() -> new double[rowSize]);
+    }
+
+    /**
+     * Feed forward computation, copying the output into 'result'
+     */
+    public double[] predict(double[] input, double[] result) {
+        final float[][] outputs = buffers.get();
+        final double[] sums = this.sums.get();
+        for (int i = 0; i < numInputs[0]; i++) {
+            outputs[0][i] = (float) input[i];
+        }
+        for (int l = 0; l < weights.length; l++) {
+            feedForward(l, outputs[l], sums, outputs[l + 1]);
+        }
+        final float[] output = outputs[weights.length];
+        for (int j = 0; j < output.length; j++) {
+            result[j] = output[j];
+        }
+        return result;
+    }
+
+    /**
+     * @return Returns the memory taken by the weights and biases
+     */
+    public long sizeInBytes() {
+        long size = 0;
+        for (int l = 0; l < weights.length; l++) {
+            size += 4L * (weights[l].length + bias[l].length);
+        }
+        return size;
+    }
+
+    private void feedForward(int l, float[] input, double[] sums, float[] output) {
+        final float[] w = weights[l];
+        final int columns = numInputs[l];
+        for (int j = 0; j < output.length; j++) {
+            final int row = j * columns;
+            float sum0 = 0.0f, sum1 = 0.0f, sum2 = 0.0f, sum3 = 0.0f;
+            int i = 0;
+            for (; i + 3 < columns; i += 4) {
+                sum0 += input[i]     * w[row + i];
+                sum1 += input[i + 1] * w[row + i + 1];
+                sum2 += input[i + 2] * w[row + i + 2];
+                sum3 += input[i + 3] * w[row + i + 3];
+            }
+            for (; i < columns; i++) {
+                sum0 += input[i] * w[row + i];
+            }
+            sums[j] = (sum0 + sum1) + (sum2 + sum3) + bias[l][j];
+        }
+        activationFns[l].compute(sums, 0, output.length);
+        for (int j = 0; j < output.length; j++) {
+            output[j] = (float) sums[j];
+        }
+    }
+
+    private static float[] toFloat(MemorySegment values) {
+        final float[] result = new float[(int) (values.byteSize() / Double.BYTES)];
+        for (int k = 0; k < result.length; k++) {
+            result[k] = (float) values.getAtIndex(JAVA_DOUBLE, k);
+        }
+        return result;
+    }
+
+    private static float[] toFloat(double[] values) {
+        final float[] result = new float[values.length];
+        for (int k = 0; k < values.length; k++) {
+            result[k] = (float) values[k];
+        }
+        return result;
+    }
+}
@@ -0,0 +1,76 @@
+package ml101.mlp;
+
+/**
+ * Scratch space for running a trained MLP.
+ * The network's weights are only read, so any number of contexts can use one MLP at the same time without locks,
+ * as long as it isn't being trained. Each context must only be used by one thread at a time.
+ * Buffers are allocated up front, so feed forward doesn't allocate.
+ */
+public class InferenceContext {
+    private final Layer[] layers;
+    private final double[][] outputs;
+    private double[][] batchOutputs;
+    private double[] block;
+
+    InferenceContext(final Layer[] layers) {
+        this.layers = layers;
+        this.outputs = new double[layers.length][];
+        for (int l = 0; l < layers.length; l++) {
+            outputs[l] = new double[layers[l].numOutputs()];
+        }
+    }
+
+    /**
+     * Feed forward computation
+     * @return Returns this context's output buffer, which is overwritten by the next call
+     */
+    public double[] feedForward(double... input) {
+        double[] layerOutput = input;
+        for (int l = 0; l < layers.length; l++) {
+            layerOutput = layers[l].feedForward(layerOutput, outputs[l]);
+        }
+        return layerOutput;
+    }
+
+    /**
+     * Feed forward computation, copying the output into 'result'
+     */
+    public double[] predict(double[] input, double[] result) {
+        final double[] output = feedForward(input);
+        System.arraycopy(output, 0, result, 0, output.length);
+        return result;
+    }
+
+    /**
+     * Feed forward computation for many samples, MLP.BLOCK_SIZE at a time, as matrix-matrix multiplications.
+     * Outputs are copied into the rows of 'results'. The block buffers are allocated on the first call.
+     */
+    public void feedForward(double[][] inputs, double[][] results) {
+        if (block == null) {
+            initializeBatchBuffers();
+        }
+        final int numInputs = layers[0].numInputs();
+        final int numOutputs = layers[layers.length - 1].numOutputs();
+        for (int start = 0; start < inputs.length; start += MLP.BLOCK_SIZE) {
+            final int size = Math.min(MLP.BLOCK_SIZE, inputs.length - start);
+            for (int b = 0; b < size; b++) {
+                System.arraycopy(inputs[start + b], 0, block, b * numInputs, numInputs);
+            }
+            double[] layerOutput = block;
+            for (int l = 0; l < layers.length; l++) {
+                layerOutput = layers[l].feedForward(layerOutput, size, batchOutputs[l]);
+            }
+            for (int b = 0; b < size; b++) {
+                System.arraycopy(layerOutput, b * numOutputs, results[start + b], 0, numOutputs);
+            }
+        }
+    }
+
+    private void initializeBatchBuffers() {
+        batchOutputs = new double[layers.length][];
+        for (int l = 0; l < layers.length; l++) {
+            batchOutputs[l] = new double[MLP.BLOCK_SIZE * layers[l].numOutputs()];
+        }
+        block = new double[MLP.BLOCK_SIZE * layers[0].numInputs()];
+    }
+}
@@ -0,0 +1,150 @@
+package ml101.mlp;
+
+import ml101.mlp.activation.ActivationFn;
+
+import java.lang.foreign.MemorySegment;
+
+import static java.lang.foreign.ValueLayout.JAVA_DOUBLE;
+
+/**
+ * Read-only copy of a trained MLP with weights quantized to 8 bit integers, for serving.
+ *
+ * Post-training quantization: each row of weights gets its own scale, max(|w|) / 127, and is stored as bytes.
+ * Layer inputs are quantized the same way on the fly, so dot products are done in integer arithmetic and
+ * scaled back once per output. Biases and activations stay in float.
+ * Safe to use from many threads; each thread gets its own scratch buffers.
+ */
+public class Int8MLP {
+    private final int[] numInputs;
+    private final int[] numOutputs;
+    private final byte[][] weights;
+    private final float[][] scales;
+    private final float[][] bias;
+    private final ActivationFn[] activationFns;
+    private final ThreadLocal<Buffers> buffers;
+
+    /*
+     * Per-thread scratch: the float output of every layer, the quantized input of every layer,
+     * and one layer's pre-activation values, so whole rows go through the activation function.
+     */
+    private static class Buffers {
+        final float[][] outputs;
+        final byte[][] quantized;
+        final double[] sums;
+
+        Buffers(int[] numInputs, int[] numOutputs) {
+            outputs = new float[numOutputs.length][];
+            quantized = new byte[numInputs.length][];
+            int widest = 0;
+            for (int l = 0; l < numOutputs.length; l++) {
+                outputs[l] = new float[numOutputs[l]];
+                quantized[l] = new byte[numInputs[l]];
+                widest = Math.max(widest, numOutputs[l]);
+            }
+            sums = new double[widest];
+        }
+    }
+
+    Int8MLP(final Layer[] layers) {
+        numInputs = new int[layers.length];
+        numOutputs = new int[layers.length];
+        weights = new byte[layers.length][];
+        scales = new float[layers.length][];
+        bias = new float[layers.length][];
+        activationFns = new ActivationFn[layers.length];
+        for (int l = 0; l < layers.length; l++) {
+            final Layer layer = layers[l];
+            numInputs[l] = layer.numInputs();
+            numOutputs[l] = layer.numOutputs();
+            final double[] rowWeights = new double[numInputs[l]];
+            weights[l] = new byte[numInputs[l] * numOutputs[l]];
+            scales[l] = new float[numOutputs[l]];
+            bias[l] = new float[numOutputs[l]];
+            activationFns[l] = layer.activationFn();
+            for (int j = 0; j < numOutputs[l]; j++) {
+                final int row = j * numInputs[l];
+                MemorySegment.copy(layer.weightSegment(), JAVA_DOUBLE, (long) row * Double.BYTES, rowWeights, 0,
+                        numInputs[l]);
+                scales[l][j] = quantize(rowWeights, 0, numInputs[l], weights[l], row);
+                bias[l][j] = (float) layer.bias[j];
+            }
+        }
+        buffers = ThreadLocal.withInitial(() -> new Buffers(numInputs, numOutputs));
+    }
+
+    /**
+     * Feed forward computation, copying the output into 'result'
+     */
+    public double[] predict(double[] input, double[] result) {
+        final Buffers scratch = buffers.get();
+        float inputScale = quantize(input, 0, numInputs[0], scratch.quantized[0], 0);
+        for (int l = 0; l < weights.length; l++) {
+            final float[] output = scratch.outputs[l];
+            feedForward(l, scratch.quantized[l], inputScale, scratch.sums, output);
+            if (l + 1 < weights.length) {
+                inputScale = quantize(output, scratch.quantized[l + 1]);
+            }
+        }
+        final float[] output = scratch.outputs[weights.length - 1];
+        for (int j = 0; j < output.length; j++) {
+            result[j] = output[j];
+        }
+        return result;
+    }
+
+    /**
+     * @return Returns the memory taken by the weights, scales and biases
+     */
+    public long sizeInBytes() {
+        long size = 0;
+        for (int l = 0; l < weights.length; l++) {
+            size += weights[l].length + 4L * (scales[l].length + bias[l].length);
+        }
+        return size;
+    }
+
+    private void feedForward(int l, byte[] input, float inputScale, double[] sums, float[] output) {
+        final byte[] w = weights[l];
+        final int columns = numInputs[l];
+        for (int j = 0; j < output.length; j++) {
+            final int row = j * columns;
+            int sum = 0;
+            for (int i = 0; i < columns; i++) {
+                sum += input[i] * w[row + i];
+            }
+            sums[j] = sum * scales[l][j] * inputScale + bias[l][j];
+        }
+        activationFns[l].compute(sums, 0, output.length);
+        for (int j = 0; j < output.length; j++) {
+            output[j] = (float) sums[j];
+        }
+    }
+
+    /*
+     * Quantizes values[from .. from + length) into bytes, symmetric around zero.
+     * @return Returns the scale to multiply the bytes by, to get the values back
+     */
+    private static float quantize(double[] values, int from, int length, byte[] result, int offset) {
+        double max = 0.0;
+        for (int i = 0; i < length; i++) {
+            max = Math.max(max, Math.abs(values[from + i]));
+        }
+        final double scale = max > 0.0 ? max / 127.0 : 1.0;
+        for (int i = 0; i < length; i++) {
+            result[offset + i] = (byte) Math.round(values[from + i] / scale);
+        }
+        return (float) scale;
+    }
+
+    private static float quantize(float[] values, byte[] result) {
+        float max = 0.0f;
+        for (float value : values) {
+            max = Math.max(max, Math.abs(value));
+        }
+        final float scale = max > 0.0f ? max / 127.0f : 1.0f;
+        for (int i = 0; i < values.length; i++) {
+            result[i] = (byte) Math.round(values[i] / scale);
+        }
+        return scale;
+    }
+}
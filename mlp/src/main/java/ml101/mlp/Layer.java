@@ -1,51 +1,177 @@
 package ml101.mlp;
 
 import ml101.mlp.activation.ActivationFn;
+import ml101.mlp.activation.LeakyReluFn;
+import ml101.mlp.activation.LogisticFn;
+import ml101.mlp.activation.ReluFn;
+import ml101.mlp.activation.SoftmaxFn;
+import ml101.mlp.activation.StepFn;
+import ml101.mlp.optimizer.Optimizer;
+import ml101.mlp.optimizer.Sgd;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.lang.foreign.MemorySegment;
 import java.util.Arrays;
+import java.util.Random;
 
-import static java.lang.Math.random;
+import static java.lang.foreign.ValueLayout.JAVA_DOUBLE;
 import static ml101.mlp.NumUtilities.activate;
+import static ml101.mlp.NumUtilities.addAndClear;
+import static ml101.mlp.NumUtilities.addSparseTransposedProduct;
+import static ml101.mlp.NumUtilities.addTransposedProduct;
+import static ml101.mlp.NumUtilities.axpy;
 import static ml101.mlp.NumUtilities.crossMultiply;
+import static ml101.mlp.NumUtilities.dot;
+import static ml101.mlp.NumUtilities.multiply;
+import static ml101.mlp.NumUtilities.multiplyByTransposed;
+import static ml101.mlp.NumUtilities.sparseMultiplyByTransposed;
 import static ml101.mlp.NumUtilities.vectorAdd;
 
+/**
+ * A fully connected layer.
+ * Weights are stored in a single row-major array: the weight from input i to output j is at j * numInputs + i.
+ */
 public class Layer implements Serializable {
+    private static final long serialVersionUID = 5252330923472738624L;
+    /*
+     * The serialized form keeps the original jagged double[][] weights, so existing .mlp files still load.
+     */
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("activationFn", ActivationFn.class),
+            new ObjectStreamField("weights", double[][].class),
+            new ObjectStreamField("bias", double[].class)
+    };
     transient final private static Logger logger = LoggerFactory.getLogger(Layer.class);
-    final private ActivationFn activationFn;
-    final double[][]   weights;
-    final double[]     bias;
+    // not final, only so that readObject can assign them
+    private ActivationFn activationFn;
+    int      numInputs;
+    int      numOutputs;
+    double[] weights;
+    double[] bias;
 
     transient double[]   output;
-    transient private double[]   errors;
-    transient private double[][] deltaWeights;
-    transient private double[]   deltaBias;
+    transient double[]   errors;
+    transient private double[]   deltaWeights;
+    transient double[]   deltaBias;
+    transient double[]   batchOutput;
+    transient double[]   batchErrors;
+    transient private Optimizer.State weightState;
+    transient Optimizer.State biasState;
 
-    Layer(ActivationFn activationFn, int numInputs, int numOutputs) {
-        this.activationFn = activationFn;
-        this.weights = new double[numOutputs][];
-        this.bias    = new double[numOutputs];
+    Layer(ActivationFn activationFn, int numInputs, int numOutputs, Random random) {
+        this(activationFn, numInputs, numOutputs, new double[numOutputs * numInputs], new double[numOutputs]);
+        initializeWeights(random);
+    }
+
+    /*
+     * Draws the initial weights and biases, a row of weights at a time.
+     */
+    final void initializeWeights(Random random) {
+        final double[] row = new double[numInputs];
+        if (activationFn instanceof LogisticFn || activationFn instanceof StepFn) {
+            // the original initialization, kept so that existing networks train the same
+            for (int j = 0; j < numOutputs; j++) {
+                this.bias[j] = random.nextDouble();
+                for (int i = 0; i < numInputs; i++) {
+                    row[i] = random.nextDouble();
+                }
+                setRow(j, row, 0);
+            }
+            return;
+        }
+        // zero-mean uniform weights and zero biases, scaled so activations neither vanish nor blow up:
+        // He initialization for the rectifiers, Glorot initialization for the others
+        final double range = activationFn instanceof ReluFn || activationFn instanceof LeakyReluFn
+                ? Math.sqrt(6.0 / numInputs)
+                : Math.sqrt(6.0 / (numInputs + numOutputs));
         for (int j = 0; j < numOutputs; j++) {
-            this.weights[j] = new double[numInputs];
-            this.bias[j]    = random();
             for (int i = 0; i < numInputs; i++) {
-                this.weights[j][i] = random();
+                row[i] = range * (2.0 * random.nextDouble() - 1.0);
             }
+            setRow(j, row, 0);
         }
     }
 
+    /*
+     * Creates a layer from existing weights (row-major) and biases, e.g. read from a model file.
+     */
+    Layer(ActivationFn activationFn, int numInputs, int numOutputs, double[] weights, double[] bias) {
+        this.activationFn = activationFn;
+        this.numInputs  = numInputs;
+        this.numOutputs = numOutputs;
+        this.weights = weights;
+        this.bias    = bias;
+    }
+
+    /*
+     * Creates a replica that shares weights and biases with the given layer, but has its own computation buffers.
+     * Used by training workers so that each thread accumulates its own deltas.
+     */
+    Layer(Layer shared) {
+        this.activationFn = shared.activationFn;
+        this.numInputs  = shared.numInputs;
+        this.numOutputs = shared.numOutputs;
+        this.weights = shared.weights;
+        this.bias    = shared.bias;
+        initializeComputationBuffers();
+    }
+
+    /*
+     * @return Returns a replica, see Layer(Layer)
+     */
+    Layer replica() {
+        return new Layer(this);
+    }
+
+    /*
+     * Gets the weights ready to be changed by several threads at once, see applyErrors.
+     * Those on the heap always are.
+     */
+    void prepareForWriting() {
+    }
+
+    /*
+     * @return Returns a copy with its own weights and biases, without computation buffers
+     */
+    Layer copy() {
+        return new Layer(activationFn, numInputs, numOutputs, weights.clone(), bias.clone());
+    }
+
+    /*
+     * Copies the weights and biases of a layer with the same shape into this one.
+     */
+    void copyWeightsFrom(Layer other) {
+        MemorySegment.copy(other.weightSegment(), 0, weightSegment(), 0, weightSegment().byteSize());
+        System.arraycopy(other.bias, 0, bias, 0, bias.length);
+    }
+
     int numOutputs() {
-        return weights.length;
+        return numOutputs;
+    }
+
+    ActivationFn activationFn() {
+        return activationFn;
     }
 
     int numInputs() {
-        return weights[0].length;
+        return numInputs;
     }
 
     double[] feedForward(double[] input) {
-        crossMultiply(output, weights, input);
+        return feedForward(input, output);
+    }
+
+    /*
+     * Feed forward into the given buffer instead of this layer's own, so callers can keep their own scratch space.
+     */
+    double[] feedForward(double[] input, double[] output) {
+        multiplyByWeights(output, input);
         vectorAdd(output, output, bias);
         activate(output, activationFn);
         return output;
@@ -56,87 +182,420 @@ public class Layer implements Serializable {
      * for an XOR mlp.
      */
     int setWeightsAndBiases(int start, double[] rawWeights) {
-        int numOutputs = weights.length;
-        int numInputs = weights[0].length;
         for (int j = 0; j < numOutputs; j++) {
             bias[j] = rawWeights[start++];
-            weights[j] = Arrays.copyOfRange(rawWeights, start, start + numInputs);
+            setRow(j, rawWeights, start);
             start += numInputs;
         }
         return start;
     }
 
     /*
-     * Initializes computation buffers. These arrays are used to avoid multiple calls to 'new'.
+     * The inverse of setWeightsAndBiases: copies the biases and weights to 'buffer' from 'start' on.
+     * @return Returns the position after them
      */
-    void initializeComputationBuffers() {
-        int numOutputs = weights.length;
-        int numInputs = weights[0].length;
-        this.output       = new double[numOutputs];
-        this.errors       = new double[numOutputs];
-        this.deltaWeights = new double[numOutputs][];
-        this.deltaBias = new double[numOutputs];
+    int getWeightsAndBiases(int start, double[] buffer) {
+        final MemorySegment weights = weightSegment();
         for (int j = 0; j < numOutputs; j++) {
-            this.output[j] = 0.0;
-            this.errors[j] = 0.0;
-            this.deltaWeights[j] = new double[numInputs];
-            this.deltaBias[j] = 0.0;
-            for (int i = 0; i < numInputs; i++) {
-                this.deltaWeights[j][i] = 0.0;
-            }
+            buffer[start++] = bias[j];
+            MemorySegment.copy(weights, JAVA_DOUBLE, (long) j * numInputs * Double.BYTES, buffer, start, numInputs);
+            start += numInputs;
         }
+        return start;
+    }
+
+    /*
+     * Initializes the buffers used by the batched methods, for up to 'batchSize' samples at a time.
+     */
+    void initializeBatchBuffers(int batchSize) {
+        this.batchOutput = new double[batchSize * numOutputs];
+        this.batchErrors = new double[batchSize * numOutputs];
     }
 
     void displayWeightsAndBias() {
-        for (int j = 0; j < weights.length; j++) {
+        for (int j = 0; j < numOutputs; j++) {
             final StringBuilder builder = new StringBuilder();
             builder.append("  ")
                     .append(bias[j]);
-            for (int i = 0; i < weights[j].length; i++) {
+            for (int i = 0; i < numInputs; i++) {
                 builder.append("  ")
-                        .append(weights[j][i]);
+                        .append(weight(j, i));
             }
             logger.info(builder.toString());
         }
     }
 
     void computeErrorAtOutputLayer(double[] expected, double[] output) {
+        computeErrorAtOutputLayer(expected, output, errors);
+    }
+
+    /*
+     * Same as computeErrorAtOutputLayer, into the caller's buffer.
+     */
+    void computeErrorAtOutputLayer(double[] expected, double[] output, double[] errors) {
         for (int j = 0; j < output.length; j++) {
-            double delta = expected[j] - output[j];
-            errors[j] = delta * activationFn.derivative(output[j]);
+            errors[j] = expected[j] - output[j];
+        }
+        if (!crossEntropyOfSoftmax()) {
+            activationFn.multiplyByDerivative(output, errors, 0, output.length);
         }
     }
 
+    /*
+     * A softmax output layer is trained with categorical cross-entropy (see MLP.computeCost). The cost's gradient
+     * times the softmax Jacobian is exactly expected - output, so the errors are left as they are.
+     */
+    private boolean crossEntropyOfSoftmax() {
+        return activationFn instanceof SoftmaxFn;
+    }
+
     void propagateErrors(final Layer currentLayer) {
-        final Layer previousLayer = this;
-        for (int i = 0; i < currentLayer.numInputs(); i++) {
-            double delta = 0.0;
-            for (int j = 0; j < currentLayer.numOutputs(); j++) {
-                delta += currentLayer.weights[j][i] * currentLayer.errors[j];
+        propagateErrors(currentLayer, currentLayer.errors, output, errors);
+    }
+
+    /*
+     * Same as propagateErrors, with the caller's buffers: the current layer's errors, and this layer's output
+     * and errors.
+     */
+    void propagateErrors(final Layer currentLayer, double[] currentErrors, double[] output, double[] errors) {
+        currentLayer.errorsAtInputs(currentErrors, errors);
+        activationFn.multiplyByDerivative(output, errors, 0, numOutputs);
+    }
+
+    void computeDeltaWeightsAndBias(final double[] input, final double learningRate) {
+        for (int j = 0; j < numOutputs; j++) {
+            deltaBias[j] += learningRate * errors[j];
+        }
+        addToDeltaWeights(input, learningRate);
+    }
+
+    /*
+     * Batched feed forward. 'inputs' holds 'batchSize' samples of numInputs values each, one after the other,
+     * and the result holds their outputs the same way.
+     */
+    double[] feedForward(double[] inputs, int batchSize) {
+        return feedForward(inputs, batchSize, batchOutput);
+    }
+
+    double[] feedForward(double[] inputs, int batchSize, double[] batchOutput) {
+        multiplyByWeights(batchOutput, inputs, batchSize);
+        for (int b = 0; b < batchSize; b++) {
+            final int row = b * numOutputs;
+            for (int j = 0; j < numOutputs; j++) {
+                batchOutput[row + j] += bias[j];
             }
-            previousLayer.errors[i] = delta * activationFn.derivative(previousLayer.output[i]);
+            activationFn.compute(batchOutput, row, numOutputs);
         }
+        return batchOutput;
     }
 
-    void computeDeltaWeightsAndBias(final double[] input, final double learningRate) {
-        final Layer currentLayer = this;
-        for (int j = 0; j < currentLayer.numOutputs(); j++) {
-            currentLayer.deltaBias[j] += learningRate * currentLayer.errors[j];
-            for (int i = 0; i < currentLayer.numInputs(); i++) {
-                currentLayer.deltaWeights[j][i] +=
-                        learningRate * currentLayer.errors[j] * input[i];
+    /*
+     * Batched feed forward of sparse inputs: sample b has values[k] at input indices[k], for k from rowStart[b]
+     * to rowStart[b + 1]. Only the weights of the non-zero inputs are read.
+     */
+    double[] feedForward(int[] rowStart, int[] indices, double[] values, int batchSize) {
+        return feedForward(rowStart, indices, values, batchSize, batchOutput);
+    }
+
+    double[] feedForward(int[] rowStart, int[] indices, double[] values, int batchSize, double[] batchOutput) {
+        multiplyByWeights(batchOutput, rowStart, indices, values, batchSize);
+        for (int b = 0; b < batchSize; b++) {
+            final int row = b * numOutputs;
+            for (int j = 0; j < numOutputs; j++) {
+                batchOutput[row + j] += bias[j];
             }
+            activationFn.compute(batchOutput, row, numOutputs);
         }
+        return batchOutput;
     }
 
-    void updateTotalWeightsAndBias() {
-        for (int j = 0; j < weights.length; j++) {
-            for (int i = 0; i < weights[j].length; i++) {
-                weights[j][i] += deltaWeights[j][i];
-                deltaWeights[j][i] = 0.0;
+    void computeErrorAtOutputLayer(double[] expected, double[] output, int batchSize) {
+        for (int k = 0; k < batchSize * numOutputs; k++) {
+            batchErrors[k] = expected[k] - output[k];
+        }
+        if (!crossEntropyOfSoftmax()) {
+            multiplyByDerivative(output, batchErrors, batchSize);
+        }
+    }
+
+    void propagateErrors(final Layer currentLayer, int batchSize) {
+        currentLayer.errorsAtInputs(batchErrors, batchSize);
+        multiplyByDerivative(batchOutput, batchErrors, batchSize);
+    }
+
+    /*
+     * One sample at a time, since the derivative of a RowActivationFn depends on the whole row.
+     */
+    private void multiplyByDerivative(double[] outputs, double[] errors, int batchSize) {
+        for (int b = 0; b < batchSize; b++) {
+            activationFn.multiplyByDerivative(outputs, errors, b * numOutputs, numOutputs);
+        }
+    }
+
+    void computeDeltaWeightsAndBias(final double[] inputs, int batchSize, final double learningRate) {
+        addToDeltaWeights(inputs, batchSize, learningRate);
+        for (int b = 0; b < batchSize; b++) {
+            final int row = b * numOutputs;
+            for (int j = 0; j < numOutputs; j++) {
+                deltaBias[j] += learningRate * batchErrors[row + j];
+            }
+        }
+    }
+
+    /*
+     * Same as computeDeltaWeightsAndBias for sparse inputs: zero inputs leave their delta weights untouched.
+     */
+    void computeDeltaWeightsAndBias(final int[] rowStart, final int[] indices, final double[] values,
+                                    int batchSize, final double learningRate) {
+        addToDeltaWeights(rowStart, indices, values, batchSize, learningRate);
+        for (int b = 0; b < batchSize; b++) {
+            final int row = b * numOutputs;
+            for (int j = 0; j < numOutputs; j++) {
+                deltaBias[j] += learningRate * batchErrors[row + j];
             }
-            bias[j] += deltaBias[j];
-            deltaBias[j] = 0.0;
+        }
+    }
+
+    /*
+     * One step of SGD straight into the weights and biases, from one sample's errors and input, without
+     * going through the deltas or the optimizer. Used by asynchronous training, where several threads call this
+     * on the same layer at once: updates that race may be lost, which Hogwild training tolerates.
+     */
+    void applyErrors(final double[] errors, final double[] input, final double learningRate) {
+        addToWeights(learningRate, errors, input);
+        for (int j = 0; j < numOutputs; j++) {
+            bias[j] += learningRate * errors[j];
+        }
+    }
+
+    /*
+     * The same for a sparse input: only the weights of its non-zero values change.
+     */
+    void applyErrors(final double[] errors, final int[] rowStart, final int[] indices, final double[] values,
+                     final double learningRate) {
+        addToWeights(learningRate, errors, rowStart, indices, values);
+        for (int j = 0; j < numOutputs; j++) {
+            bias[j] += learningRate * errors[j];
+        }
+    }
+
+    /*
+     * Weight storage: the methods from here on are the only ones that touch the weights and their deltas,
+     * so OffHeapLayer can keep them in memory segments by overriding just these.
+     */
+
+    /*
+     * @return Returns the weights as a segment of doubles (a view of the array, for a layer on the heap)
+     */
+    MemorySegment weightSegment() {
+        return MemorySegment.ofArray(weights);
+    }
+
+    /*
+     * @return Returns the weights as an array, which is a copy for a layer off the heap
+     */
+    double[] weightArray() {
+        return weights;
+    }
+
+    double weight(int j, int i) {
+        return weights[j * numInputs + i];
+    }
+
+    /*
+     * Sets the weights of output j to source[offset .. offset + numInputs].
+     */
+    void setRow(int j, double[] source, int offset) {
+        System.arraycopy(source, offset, weights, j * numInputs, numInputs);
+    }
+
+    /*
+     * Sets the weights at 'indices' (into the row-major weights) to zero.
+     */
+    void clearWeights(int[] indices) {
+        for (int index : indices) {
+            weights[index] = 0.0;
+        }
+    }
+
+    /*
+     * output = weights * input, for one sample.
+     */
+    void multiplyByWeights(double[] output, double[] input) {
+        crossMultiply(output, weights, numInputs, input);
+    }
+
+    /*
+     * The same for 'batchSize' samples, one after the other.
+     */
+    void multiplyByWeights(double[] batchOutput, double[] inputs, int batchSize) {
+        multiplyByTransposed(batchOutput, inputs, weights, batchSize, numInputs, numOutputs);
+    }
+
+    /*
+     * The same for sparse samples, see feedForward(int[], int[], double[], int).
+     */
+    void multiplyByWeights(double[] batchOutput, int[] rowStart, int[] indices, double[] values, int batchSize) {
+        sparseMultiplyByTransposed(batchOutput, rowStart, indices, values, weights, batchSize, numInputs, numOutputs);
+    }
+
+    /*
+     * result = transpose(weights) * errors: the errors at this layer's outputs carried back to its inputs.
+     * Walks the weights row by row, so memory is read sequentially.
+     */
+    void errorsAtInputs(double[] errors, double[] result) {
+        Arrays.fill(result, 0.0);
+        for (int j = 0; j < numOutputs; j++) {
+            axpy(errors[j], weights, j * numInputs, result, 0, numInputs);
+        }
+    }
+
+    /*
+     * The same for 'batchSize' samples of batchErrors.
+     */
+    void errorsAtInputs(double[] result, int batchSize) {
+        multiply(result, batchErrors, weights, batchSize, numOutputs, numInputs);
+    }
+
+    /*
+     * weights += scale * errors * transpose(input), for one sample.
+     */
+    void addToWeights(final double scale, final double[] errors, final double[] input) {
+        for (int j = 0; j < numOutputs; j++) {
+            axpy(scale * errors[j], input, 0, weights, j * numInputs, numInputs);
+        }
+    }
+
+    /*
+     * The same for one sparse sample, given as in feedForward(int[], int[], double[], int).
+     */
+    void addToWeights(final double scale, final double[] errors, final int[] rowStart, final int[] indices,
+                      final double[] values) {
+        addSparseTransposedProduct(weights, scale, errors, rowStart, indices, values, numOutputs, 1, numInputs);
+    }
+
+    void addToDeltaWeights(final double[] input, final double learningRate) {
+        for (int j = 0; j < numOutputs; j++) {
+            axpy(learningRate * errors[j], input, 0, deltaWeights, j * numInputs, numInputs);
+        }
+    }
+
+    void addToDeltaWeights(final double[] inputs, int batchSize, final double learningRate) {
+        addTransposedProduct(deltaWeights, learningRate, batchErrors, inputs, numOutputs, batchSize, numInputs);
+    }
+
+    void addToDeltaWeights(final int[] rowStart, final int[] indices, final double[] values,
+                           int batchSize, final double learningRate) {
+        addSparseTransposedProduct(deltaWeights, learningRate, batchErrors, rowStart, indices, values,
+                numOutputs, batchSize, numInputs);
+    }
+
+    /*
+     * Adds the deltas accumulated by a replica to this layer's deltas, then clears the replica's deltas.
+     */
+    void addDeltaWeightsAndBias(final Layer replica) {
+        addAndClear(deltaWeights, replica.deltaWeights);
+        addAndClear(deltaBias, replica.deltaBias);
+    }
+
+    /*
+     * Copies the accumulated deltas, of the weights then of the biases, to 'buffer' from 'start' on,
+     * e.g. to sum them with the deltas of other processes.
+     * @return Returns the position after them
+     */
+    int getDeltas(int start, double[] buffer) {
+        System.arraycopy(deltaWeights, 0, buffer, start, deltaWeights.length);
+        System.arraycopy(deltaBias, 0, buffer, start + deltaWeights.length, deltaBias.length);
+        return start + deltaWeights.length + deltaBias.length;
+    }
+
+    /*
+     * The inverse of getDeltas.
+     */
+    int setDeltas(int start, double[] buffer) {
+        System.arraycopy(buffer, start, deltaWeights, 0, deltaWeights.length);
+        System.arraycopy(buffer, start + deltaWeights.length, deltaBias, 0, deltaBias.length);
+        return start + deltaWeights.length + deltaBias.length;
+    }
+
+    /*
+     * @return Returns the L2 norm of the accumulated deltas (weights and biases), before they're applied
+     */
+    double gradientNorm() {
+        return Math.sqrt(dot(deltaWeights, 0, deltaWeights, 0, deltaWeights.length)
+                + dot(deltaBias, 0, deltaBias, 0, deltaBias.length));
+    }
+
+    double weightNorm() {
+        return Math.sqrt(dot(weights, 0, weights, 0, weights.length) + dot(bias, 0, bias, 0, bias.length));
+    }
+
+    /*
+     * Initializes computation buffers. These arrays are used to avoid multiple calls to 'new'.
+     */
+    void initializeComputationBuffers() {
+        this.output       = new double[numOutputs];
+        this.errors       = new double[numOutputs];
+        this.deltaWeights = new double[numOutputs * numInputs];
+        this.deltaBias    = new double[numOutputs];
+        initializeOptimizer(new Sgd(), 1.0);
+    }
+
+    /*
+     * Sets how updateTotalWeightsAndBias applies the accumulated deltas. Starts out as adding them as they are.
+     */
+    void initializeOptimizer(Optimizer optimizer, double learningRate) {
+        this.weightState = optimizer.newState(weights.length, learningRate);
+        this.biasState   = optimizer.newState(bias.length, learningRate);
+    }
+
+    /*
+     * @return Returns copies of the optimizer state of the weights [0] and of the biases [1]
+     */
+    double[][][] saveOptimizerState() {
+        return new double[][][] {weightState.save(), biasState.save()};
+    }
+
+    /*
+     * Restores state saved by the same kind of optimizer. Plain SGD saves nothing, so there's nothing to restore.
+     */
+    void restoreOptimizerState(double[][][] saved) {
+        if (saved[0].length > 0) {
+            weightState.restore(saved[0]);
+            biasState.restore(saved[1]);
+        }
+    }
+
+    /*
+     * Applies the accumulated deltas through the optimizer, which also clears them.
+     */
+    void updateTotalWeightsAndBias() {
+        weightState.update(weights, deltaWeights);
+        biasState.update(bias, deltaBias);
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        final double[][] rows = new double[numOutputs][];
+        for (int j = 0; j < numOutputs; j++) {
+            rows[j] = Arrays.copyOfRange(weights, j * numInputs, (j + 1) * numInputs);
+        }
+        final ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("activationFn", activationFn);
+        fields.put("weights", rows);
+        fields.put("bias", bias);
+        out.writeFields();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        final ObjectInputStream.GetField fields = in.readFields();
+        final double[][] rows = (double[][]) fields.get("weights", null);
+        activationFn = (ActivationFn) fields.get("activationFn", null);
+        bias = (double[]) fields.get("bias", null);
+        numOutputs = rows.length;
+        numInputs  = rows[0].length;
+        weights = new double[numOutputs * numInputs];
+        for (int j = 0; j < numOutputs; j++) {
+            System.arraycopy(rows[j], 0, weights, j * numInputs, numInputs);
         }
     }
 }
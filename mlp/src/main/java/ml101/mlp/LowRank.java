@@ -0,0 +1,334 @@
+package ml101.mlp;
+
+import ml101.mlp.activation.LinearFn;
+import ml101.mlp.data.TrainingData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.foreign.MemorySegment;
+import java.util.Arrays;
+import java.util.Random;
+
+import static java.lang.foreign.ValueLayout.JAVA_DOUBLE;
+import static ml101.mlp.NumUtilities.axpy;
+import static ml101.mlp.NumUtilities.dot;
+import static ml101.mlp.NumUtilities.multiplyByTransposed;
+
+/**
+ * Low-rank factorization of a layer: its numOutputs x numInputs weights W are replaced by the product of two thin
+ * matrices, numOutputs x r times r x numInputs, so a sample takes r * (numInputs + numOutputs) multiplications
+ * instead of numInputs * numOutputs. The factors are two plain layers: the first one, r x numInputs with a linear
+ * activation and no bias, and the second one, with the activation and the biases of the original layer.
+ * They train, serialize and serve like any other layers, e.g. for fine-tuning after the factorization.
+ *
+ * The factors come from a truncated singular value decomposition, which gives the best rank r approximation of W.
+ * It is computed by randomized subspace iteration (Halko, Martinsson and Tropp, "Finding structure with
+ * randomness", 2011): a few products of W with a random r + 10 column block, orthonormalized, capture W's top
+ * singular vectors, and the small remaining problem is solved with Jacobi rotations. Each factor gets the
+ * square root of the singular values.
+ */
+final class LowRank {
+    private static final Logger logger = LoggerFactory.getLogger(LowRank.class);
+    private static final int OVERSAMPLING = 10;
+    private static final int POWER_ITERATIONS = 3;
+    private static final int MIN_RANK = 4;
+
+    private LowRank() {
+    }
+
+    /*
+     * The top singular values s, the left singular vectors u (rows x rank, row-major) and the right singular
+     * vectors vt (rank x columns, one per row) of a rows x columns matrix.
+     */
+    record Svd(double[] s, double[] u, double[] vt, int rows, int columns) {
+        int rank() {
+            return s.length;
+        }
+    }
+
+    /**
+     * @return Returns the largest rank at which the factors take less compute than the layer
+     */
+    static int maxUsefulRank(final Layer layer) {
+        final long m = layer.numOutputs();
+        final long n = layer.numInputs();
+        return (int) Math.max(0, (m * n - 1) / (m + n));
+    }
+
+    /*
+     * @return Returns the two layers of the rank 'rank' truncation of 'svd' of 'layer'
+     */
+    static Layer[] factors(final Layer layer, final Svd svd, final int rank) {
+        final int m = layer.numOutputs();
+        final int n = layer.numInputs();
+        final double[] first = new double[rank * n];
+        final double[] second = new double[m * rank];
+        for (int c = 0; c < rank; c++) {
+            final double root = Math.sqrt(svd.s()[c]);
+            axpy(root, svd.vt(), c * n, first, c * n, n);
+            for (int j = 0; j < m; j++) {
+                second[j * rank + c] = root * svd.u()[j * svd.rank() + c];
+            }
+        }
+        return new Layer[] {
+                new Layer(new LinearFn(), n, rank, first, new double[rank]),
+                new Layer(layer.activationFn(), rank, m, second, layer.bias.clone())};
+    }
+
+    /*
+     * @return Returns a copy of 'mlp' with layer 'l' replaced by 'factors'
+     */
+    static MLP replace(final MLP mlp, final int l, final Layer[] factors) {
+        final Layer[] layers = new Layer[mlp.layers.length + factors.length - 1];
+        for (int k = 0; k < l; k++) {
+            layers[k] = mlp.layers[k].copy();
+        }
+        System.arraycopy(factors, 0, layers, l, factors.length);
+        for (int k = l + 1; k < mlp.layers.length; k++) {
+            layers[k + factors.length - 1] = mlp.layers[k].copy();
+        }
+        final MLP factorized = new MLP(layers);
+        factorized.initializeComputationBuffers();
+        return factorized;
+    }
+
+    static MLP factorize(final MLP mlp, final int l, final int rank) {
+        final Layer layer = mlp.layers[l];
+        return replace(mlp, l, factors(layer, svd(layer, rank, new Random(l)), rank));
+    }
+
+    /*
+     * Tries ranks 4, 8, 16... (up to maxUsefulRank) until the validation accuracy is within 'budget' of the
+     * original network's, then bisects down to the lowest rank that is, with truncations of the last decomposition.
+     * Leaves the layer as it is if no rank that saves compute is accurate enough.
+     */
+    static MLP factorize(final MLP mlp, final int l, final TrainingData validation, final double budget) {
+        final Layer layer = mlp.layers[l];
+        final double target = Validation.evaluate(mlp, validation, 0).accuracy() - budget;
+        final int maxRank = maxUsefulRank(layer);
+        final Random random = new Random(l);
+        int rank = Math.min(MIN_RANK, maxRank);
+        int failed = 0;
+        while (rank > 0) {
+            final Svd svd = svd(layer, rank, random);
+            MLP best = replace(mlp, l, factors(layer, svd, rank));
+            if (Validation.evaluate(best, validation, 0).accuracy() >= target) {
+                // the lowest accurate rank is in (failed, rank]
+                int low = failed;
+                int high = rank;
+                while (high - low > 1) {
+                    final int middle = (low + high) / 2;
+                    final MLP candidate = replace(mlp, l, factors(layer, svd, middle));
+                    if (Validation.evaluate(candidate, validation, 0).accuracy() >= target) {
+                        high = middle;
+                        best = candidate;
+                    }
+                    else {
+                        low = middle;
+                    }
+                }
+                logger.info("Layer {} ({}x{}) factorized at rank {}", l, layer.numOutputs(), layer.numInputs(),
+                        high);
+                return best;
+            }
+            failed = rank;
+            rank = rank < maxRank ? Math.min(2 * rank, maxRank) : 0;
+        }
+        logger.info("Layer {} ({}x{}) kept: no rank up to {} is accurate enough", l, layer.numOutputs(),
+                layer.numInputs(), maxRank);
+        return replace(mlp, l, new Layer[] {layer.copy()});
+    }
+
+    /*
+     * Truncated SVD of the weights of 'layer', to 'rank' singular values. The weights are only read a row at a
+     * time, so an off-heap layer is never copied to the heap whole.
+     */
+    static Svd svd(final Layer layer, final int rank, final Random random) {
+        final int m = layer.numOutputs();
+        final int n = layer.numInputs();
+        final int k = Math.min(rank + OVERSAMPLING, Math.min(m, n));
+
+        // q (k x m): an orthonormal basis of the range of W, as rows, from W times random vectors
+        final double[] omega = new double[k * n];
+        for (int i = 0; i < omega.length; i++) {
+            omega[i] = random.nextGaussian();
+        }
+        final double[] q = new double[k * m];
+        final double[] z = new double[k * n];
+        timesTransposedWeights(q, omega, layer, k);
+        orthonormalize(q, k, m);
+        // power iterations sharpen the basis towards the top singular vectors
+        for (int iteration = 0; iteration < POWER_ITERATIONS; iteration++) {
+            timesWeights(z, q, layer, k);
+            orthonormalize(z, k, n);
+            timesTransposedWeights(q, z, layer, k);
+            orthonormalize(q, k, m);
+        }
+
+        // b = q * W (k x n) has W's top singular values; its own come from the eigenvectors of b * b^T
+        final double[] b = new double[k * n];
+        timesWeights(b, q, layer, k);
+        final double[] gram = new double[k * k];
+        multiplyByTransposed(gram, b, b, k, n, k);
+        final double[] vectors = new double[k * k];
+        final double[] values = eigen(gram, k, vectors);
+
+        final int r = Math.min(rank, k);
+        final double[] s = new double[r];
+        final double[] u = new double[m * r];
+        final double[] vt = new double[r * n];
+        for (int c = 0; c < r; c++) {
+            s[c] = Math.sqrt(Math.max(0.0, values[c]));
+            // u = q^T * e, and vt = e^T * b / s, for the eigenvector e
+            for (int i = 0; i < k; i++) {
+                final double e = vectors[i * k + c];
+                for (int j = 0; j < m; j++) {
+                    u[j * r + c] += e * q[i * m + j];
+                }
+                if (s[c] > 0.0) {
+                    axpy(e / s[c], b, i * n, vt, c * n, n);
+                }
+            }
+        }
+        return new Svd(s, u, vt, m, n);
+    }
+
+    /*
+     * result (rows x numOutputs) = a (rows x numInputs) * W^T, for the weights W of 'layer'.
+     */
+    private static void timesTransposedWeights(double[] result, double[] a, Layer layer, int rows) {
+        final int m = layer.numOutputs();
+        final int n = layer.numInputs();
+        final double[] row = new double[n];
+        for (int j = 0; j < m; j++) {
+            copyRow(layer, j, row);
+            for (int r = 0; r < rows; r++) {
+                result[r * m + j] = dot(a, r * n, row, 0, n);
+            }
+        }
+    }
+
+    /*
+     * result (rows x numInputs) = a (rows x numOutputs) * W, for the weights W of 'layer'.
+     */
+    private static void timesWeights(double[] result, double[] a, Layer layer, int rows) {
+        final int m = layer.numOutputs();
+        final int n = layer.numInputs();
+        final double[] row = new double[n];
+        Arrays.fill(result, 0, rows * n, 0.0);
+        for (int j = 0; j < m; j++) {
+            copyRow(layer, j, row);
+            for (int r = 0; r < rows; r++) {
+                axpy(a[r * m + j], row, 0, result, r * n, n);
+            }
+        }
+    }
+
+    private static void copyRow(Layer layer, int j, double[] row) {
+        MemorySegment.copy(layer.weightSegment(), JAVA_DOUBLE, (long) j * row.length * Double.BYTES, row, 0,
+                row.length);
+    }
+
+    /*
+     * Modified Gram-Schmidt on the rows of a (rows x columns), twice, so the rows stay orthogonal to rounding.
+     * Rows that are (nearly) dependent on the previous ones are set to zero.
+     */
+    private static void orthonormalize(final double[] a, final int rows, final int columns) {
+        for (int pass = 0; pass < 2; pass++) {
+            for (int r = 0; r < rows; r++) {
+                for (int p = 0; p < r; p++) {
+                    axpy(-dot(a, p * columns, a, r * columns, columns), a, p * columns, a, r * columns, columns);
+                }
+                final double norm = Math.sqrt(dot(a, r * columns, a, r * columns, columns));
+                final double scale = norm > 1e-12 ? 1.0 / norm : 0.0;
+                for (int i = r * columns; i < (r + 1) * columns; i++) {
+                    a[i] *= scale;
+                }
+            }
+        }
+    }
+
+    /*
+     * Eigenvalues of a symmetric k x k matrix (destroyed) by cyclic Jacobi rotations, in decreasing order.
+     * Eigenvector c is column c of 'vectors'.
+     */
+    static double[] eigen(final double[] a, final int k, final double[] vectors) {
+        for (int i = 0; i < k; i++) {
+            vectors[i * k + i] = 1.0;
+        }
+        for (int sweep = 0; sweep < 100; sweep++) {
+            double off = 0.0;
+            double total = 0.0;
+            for (int i = 0; i < k; i++) {
+                for (int j = 0; j < k; j++) {
+                    total += a[i * k + j] * a[i * k + j];
+                    if (i != j) {
+                        off += a[i * k + j] * a[i * k + j];
+                    }
+                }
+            }
+            if (off <= 1e-30 * total) {
+                break;
+            }
+            for (int p = 0; p < k - 1; p++) {
+                for (int r = p + 1; r < k; r++) {
+                    rotate(a, vectors, k, p, r);
+                }
+            }
+        }
+        final double[] values = new double[k];
+        for (int i = 0; i < k; i++) {
+            values[i] = a[i * k + i];
+        }
+        // selection sort, swapping the eigenvector columns along
+        for (int c = 0; c < k; c++) {
+            int largest = c;
+            for (int d = c + 1; d < k; d++) {
+                if (values[d] > values[largest]) {
+                    largest = d;
+                }
+            }
+            final double value = values[c];
+            values[c] = values[largest];
+            values[largest] = value;
+            for (int i = 0; i < k; i++) {
+                final double swap = vectors[i * k + c];
+                vectors[i * k + c] = vectors[i * k + largest];
+                vectors[i * k + largest] = swap;
+            }
+        }
+        return values;
+    }
+
+    /*
+     * The Jacobi rotation that zeroes a[p][r] (and a[r][p]), applied to a and accumulated into vectors.
+     */
+    private static void rotate(final double[] a, final double[] vectors, final int k, final int p, final int r) {
+        final double apr = a[p * k + r];
+        if (apr == 0.0) {
+            return;
+        }
+        final double theta = (a[r * k + r] - a[p * k + p]) / (2.0 * apr);
+        final double t = (theta >= 0.0 ? 1.0 : -1.0) / (Math.abs(theta) + Math.sqrt(theta * theta + 1.0));
+        final double c = 1.0 / Math.sqrt(t * t + 1.0);
+        final double s = t * c;
+        for (int i = 0; i < k; i++) {
+            final double aip = a[i * k + p];
+            final double air = a[i * k + r];
+            a[i * k + p] = c * aip - s * air;
+            a[i * k + r] = s * aip + c * air;
+        }
+        for (int i = 0; i < k; i++) {
+            final double api = a[p * k + i];
+            final double ari = a[r * k + i];
+            a[p * k + i] = c * api - s * ari;
+            a[r * k + i] = s * api + c * ari;
+        }
+        for (int i = 0; i < k; i++) {
+            final double vip = vectors[i * k + p];
+            final double vir = vectors[i * k + r];
+            vectors[i * k + p] = c * vip - s * vir;
+            vectors[i * k + r] = s * vip + c * vir;
+        }
+    }
+}
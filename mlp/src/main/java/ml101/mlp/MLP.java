@@ -1,33 +1,103 @@
 package ml101.mlp;
 
 import ml101.mlp.activation.ActivationFn;
+import ml101.mlp.activation.SoftmaxFn;
 
 import java.io.*;
+import java.lang.foreign.Arena;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.function.BiConsumer;
 import java.util.function.BiPredicate;
 
+import ml101.mlp.data.Pipeline;
 import ml101.mlp.data.TrainingData;
+import ml101.mlp.optimizer.Optimizer;
+import ml101.mlp.optimizer.Sgd;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Multi-layer Perceptron
  */
-public class MLP implements Serializable {
+public class MLP implements Serializable, AutoCloseable {
+    private static final long serialVersionUID = 1598115714839984021L;
     transient private final static Logger logger = LoggerFactory.getLogger(MLP.class);
+    /*
+     * Number of samples pushed through the layers together by the batched (matrix-matrix) methods.
+     */
+    static final int BLOCK_SIZE = 32;
+    /*
+     * Below this fraction of non-zero inputs, the first layer only reads and updates the weights of the non-zero
+     * inputs. Above it, the dense kernels are faster: with the Vector API, they break even at about 0.18.
+     */
+    static final double SPARSE_DENSITY = 0.15;
     private double learningRate;
     transient private BiPredicate<Long, Double> stopCriteria;
     transient private BiConsumer<Long, Double> reporter;
+    transient private int batchSize;
+    transient private boolean shuffle;
+    transient private int threads;
+    transient private boolean hogwild;
+    transient private AllReduce allReduce;
+    transient private Random random;
+    transient private Optimizer optimizer;
+    transient private Validation validation;
+    transient private Checkpointing checkpointing;
+    transient private Pruning pruning;
+    transient private long startIteration;
+    transient private Metrics metrics;
+    transient private boolean sparseInputs;
+    transient private Boolean sparseInputSetting;
+    transient private AtomicReferenceArray<InferenceContext> contexts;
+    // holds the weights of OffHeapLayers, null for a network on the heap
+    transient Arena arena;
 
     final Layer[] layers;
 
     /**
      * MLP Constructor
      */
-    private MLP(final ActivationFn activationFn, final int[] nodesPerLayer) {
+    private MLP(final ActivationFn[] activationFns, final int[] nodesPerLayer, final Random random,
+                final Arena arena) {
         layers = new Layer[nodesPerLayer.length - 1];
         for (int l = 0; l < layers.length; l++) {
-            layers[l] = new Layer(activationFn, nodesPerLayer[l], nodesPerLayer[l + 1]);
+            layers[l] = arena != null
+                    ? new OffHeapLayer(activationFns[l], nodesPerLayer[l], nodesPerLayer[l + 1], random, arena)
+                    : new Layer(activationFns[l], nodesPerLayer[l], nodesPerLayer[l + 1], random);
+        }
+        this.arena = arena;
+    }
+
+    /*
+     * Creates a network from existing layers, e.g. read from a model file.
+     */
+    MLP(final Layer[] layers) {
+        this.layers = layers;
+    }
+
+    /*
+     * Moves the weights of every layer off the heap, into a new arena.
+     */
+    private void moveOffHeap() {
+        arena = Arena.ofShared();
+        for (int l = 0; l < layers.length; l++) {
+            layers[l] = OffHeapLayer.of(layers[l], arena);
+        }
+    }
+
+    /**
+     * Frees the memory of a network built with Builder.offHeap. The network can't be used afterwards.
+     * Does nothing for a network on the heap.
+     */
+    @Override
+    public void close() {
+        if (arena != null) {
+            arena.close();
         }
     }
 
@@ -45,55 +115,670 @@ public class MLP implements Serializable {
     /*
      * Initializes computation buffers. These arrays are used to avoid multiple calls to 'new'.
      */
-    private void initializeComputationBuffers() {
+    void initializeComputationBuffers() {
         for (int l = 0; l < layers.length; l++) {
             layers[l].initializeComputationBuffers();
+            layers[l].initializeBatchBuffers(BLOCK_SIZE);
+            layers[l].initializeOptimizer(optimizer != null ? optimizer : new Sgd(), learningRate);
         }
+        contexts = new AtomicReferenceArray<>(2 * Runtime.getRuntime().availableProcessors());
+        metrics = new Metrics(layers.length);
+    }
+
+    /*
+     * @return Returns the class name of the optimizer the layers keep state for, as recorded in checkpoints
+     */
+    String optimizerName() {
+        return (optimizer != null ? optimizer.getClass() : Sgd.class).getName();
     }
 
 
     /**
-     * Feed forward computation
+     * Feed forward computation.
+     * Uses the network's own buffers, so it must not be called from several threads at once;
+     * use predict or an InferenceContext for that.
+     * @return Returns the output layer's buffer, which is overwritten by the next call
      */
     public double[] feedForward(double... input) {
+        final Metrics.FeedForwardEvent event = Metrics.beginFeedForward();
         double[] layerOutput = input;
         for (int l = 0; l < layers.length; l++) {
             layerOutput = layers[l].feedForward(layerOutput);
         }
+        metrics.inferenceEnded(event, 1);
         return layerOutput;
     }
 
     /**
-     * Train using batch back propagation
+     * Feed forward computation for many samples, as matrix-matrix multiplications. Safe to call from many threads.
+     * @return Returns the output for each input, in new arrays
+     */
+    public double[][] feedForward(double[][] inputs) {
+        final double[][] outputs = new double[inputs.length][layers[layers.length - 1].numOutputs()];
+        final Metrics.FeedForwardEvent event = Metrics.beginFeedForward();
+        final InferenceContext context = acquireContext();
+        try {
+            context.feedForward(inputs, outputs);
+        }
+        finally {
+            releaseContext(context);
+        }
+        metrics.inferenceEnded(event, inputs.length);
+        return outputs;
+    }
+
+    /**
+     * Feed forward computation, copying the output into 'result'.
+     * Safe to call from many threads (including virtual threads) at once, and doesn't allocate once warmed up.
+     */
+    public double[] predict(double[] input, double[] result) {
+        final Metrics.FeedForwardEvent event = Metrics.beginFeedForward();
+        final InferenceContext context = acquireContext();
+        try {
+            return context.predict(input, result);
+        }
+        finally {
+            releaseContext(context);
+            metrics.inferenceEnded(event, 1);
+        }
+    }
+
+    /**
+     * @return Returns the training and inference counters so far
+     */
+    public Metrics.Snapshot metrics() {
+        return metrics.snapshot();
+    }
+
+    /**
+     * @return Returns how many values each input has
+     */
+    public int numInputs() {
+        return layers[0].numInputs();
+    }
+
+    /**
+     * @return Returns how many values each output has
+     */
+    public int numOutputs() {
+        return layers[layers.length - 1].numOutputs();
+    }
+
+    /**
+     * @return Returns the number of weights and biases
+     */
+    public long numParameters() {
+        long count = 0;
+        for (Layer layer : layers) {
+            count += (long) layer.numInputs() * layer.numOutputs() + layer.numOutputs();
+        }
+        return count;
+    }
+
+    /**
+     * @return Returns new scratch space for running this network from one thread
+     */
+    public InferenceContext newInferenceContext() {
+        return new InferenceContext(layers);
+    }
+
+    /**
+     * @return Returns a single precision copy of this network, for serving
+     */
+    public FloatMLP toFloat32() {
+        return new FloatMLP(layers);
+    }
+
+    /**
+     * @return Returns a copy of this network with 8 bit quantized weights, for serving
+     */
+    public Int8MLP toInt8() {
+        return new Int8MLP(layers);
+    }
+
+    /**
+     * @return Returns a copy of this network with only its non-zero weights, for serving a pruned network
+     */
+    public SparseMLP toSparse() {
+        return new SparseMLP(layers);
+    }
+
+    /**
+     * @return Returns a copy of this network with layer 'l' replaced by a rank 'rank' factorization: two layers,
+     * numInputs to 'rank' outputs with a linear activation, then 'rank' to numOutputs with the layer's activation,
+     * whose product is the best rank 'rank' approximation of the layer's weights (by truncated SVD).
+     * A sample then takes rank * (numInputs + numOutputs) multiplications instead of numInputs * numOutputs.
+     * Fine-tune the copy with Builder.from.
+     */
+    public MLP factorize(final int l, final int rank) {
+        return LowRank.factorize(this, l, rank);
+    }
+
+    /**
+     * The same with the lowest rank whose accuracy on 'validation' is at most 'accuracyBudget' (e.g. 0.01)
+     * below this network's. The copy keeps the layer as it is if no rank that saves compute is good enough.
+     */
+    public MLP factorize(final int l, final TrainingData validation, final double accuracyBudget) {
+        return LowRank.factorize(this, l, validation, accuracyBudget);
+    }
+
+    /**
+     * Sets the 'sparsity' fraction of the weights of smallest magnitude in each layer to zero, e.g. after training.
+     * Further training moves them away from zero again, unless it's set up with Builder.pruning.
+     */
+    public void prune(final double sparsity) {
+        for (Layer layer : layers) {
+            Pruning.prune(layer, sparsity);
+        }
+    }
+
+    /*
+     * Takes a context from the lock-free pool, starting at a slot picked by thread, or creates one if none is free.
+     */
+    private InferenceContext acquireContext() {
+        final int start = (int) (Thread.currentThread().threadId() % contexts.length());
+        for (int k = 0; k < contexts.length(); k++) {
+            final InferenceContext context = contexts.getAndSet((start + k) % contexts.length(), null);
+            if (context != null) {
+                return context;
+            }
+        }
+        return newInferenceContext();
+    }
+
+    /*
+     * Returns a context to the first empty slot of the pool, or drops it when the pool is full.
+     */
+    private void releaseContext(final InferenceContext context) {
+        final int start = (int) (Thread.currentThread().threadId() % contexts.length());
+        for (int k = 0; k < contexts.length(); k++) {
+            if (contexts.compareAndSet((start + k) % contexts.length(), null, context)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Train using back propagation.
+     * Each epoch is split into mini-batches of 'batchSize' samples (or one full batch), optionally shuffled.
+     * Every batch is sharded across the worker threads, and the weights are updated once per batch.
+     * With Builder.hogwild, the threads update the weights after every sample instead, see trainAsynchronously.
+     * With Builder.distributed, 'trainingData' is this process's shard, see sumAcrossProcesses.
      */
     public void train(final TrainingData trainingData) {
-        long iteration = 0;
-        double totalCost;
-        do {
-            totalCost = 0.0;
-            for (int n = 0; n < trainingData.length(); n++) {
-                double[] output = feedForward(trainingData.input(n));
-                totalCost += computeCost(trainingData.output(n), output);
-                computeDeltaWeightsAndBias(trainingData.output(n), output, trainingData.input(n));
+        if (hogwild) {
+            if (allReduce != null) {
+                throw new UnsupportedOperationException("Hogwild training can't be distributed");
+            }
+            trainAsynchronously(trainingData);
+            return;
+        }
+        final int length = trainingData.length();
+        final int size = batchSize > 0 ? Math.min(batchSize, length) : length;
+        final int batches = batchesPerEpoch(length, size);
+        final double totalLength = allReduce != null ? Arrays.stream(allReduce.gather(length)).sum() : length;
+        final int[] order = new int[length];
+        for (int n = 0; n < length; n++) {
+            order[n] = n;
+        }
+        final Worker[] workers = createWorkers();
+        final ForkJoinPool pool = workers.length > 1 ? new ForkJoinPool(workers.length) : null;
+        final double[] sums = allReduce != null ? new double[(int) numParameters() + 1] : null;
+        if (allReduce != null) {
+            copyWeightsFromFirstProcess(sums);
+        }
+        chooseInputs(trainingData);
+        startTraining();
+        Throwable failure = null;
+        try {
+            long iteration = startIteration;
+            double totalCost;
+            do {
+                final long epochStart = System.nanoTime();
+                if (shuffle) {
+                    shuffle(order);
+                }
+                totalCost = 0.0;
+                for (int b = 0; b < batches; b++) {
+                    final long batchStart = System.nanoTime();
+                    final int start = Math.min(b * size, length);
+                    final int end = Math.min(start + size, length);
+                    final double cost = trainBatch(pool, workers, trainingData, order, start, end);
+                    totalCost += allReduce != null ? sumAcrossProcesses(sums, cost) : cost;
+                    updateTotalWeightsAndBias(workers, b == batches - 1);
+                    metrics.batchEnded(iteration + 1, end - start, System.nanoTime() - batchStart);
+                }
+                metrics.epochEnded(iteration + 1, length, System.nanoTime() - epochStart, totalCost / totalLength);
+                // use reportStatus lambda (BiConsumer) to display current status
+                reporter.accept(++iteration, totalCost / totalLength);
+            } while (!anyProcess(endOfEpoch(iteration, totalCost)));
+        }
+        catch (final Throwable ex) {
+            failure = ex;
+            throw ex;
+        }
+        finally {
+            finishTraining(pool, failure);
+        }
+    }
+
+    /**
+     * Train using back propagation, on the batches prefetched by a pipeline.
+     * The pipeline decides on the batch size and the shuffling; the weights are updated once per batch,
+     * and the stop criteria are checked at the end of each epoch. The pipeline is left open.
+     * Not available with Builder.hogwild, which needs random access to the samples, nor with Builder.distributed.
+     */
+    public void train(final Pipeline pipeline) {
+        if (hogwild) {
+            throw new UnsupportedOperationException("Hogwild training needs TrainingData, not a Pipeline");
+        }
+        if (allReduce != null) {
+            throw new UnsupportedOperationException("Distributed training needs TrainingData, not a Pipeline");
+        }
+        final int[] order = new int[pipeline.batchSize()];
+        for (int n = 0; n < order.length; n++) {
+            order[n] = n;
+        }
+        final Worker[] workers = createWorkers();
+        final ForkJoinPool pool = workers.length > 1 ? new ForkJoinPool(workers.length) : null;
+        startTraining();
+        Throwable failure = null;
+        try {
+            long iteration = startIteration;
+            double totalCost = 0.0;
+            long epochStart = System.nanoTime();
+            boolean firstBatch = true;
+            while (true) {
+                final Pipeline.Batch batch = pipeline.take();
+                final long batchStart = System.nanoTime();
+                if (firstBatch) {
+                    chooseInputs(batch);
+                    firstBatch = false;
+                }
+                final boolean endOfEpoch = batch.endOfEpoch();
+                final int batchLength = batch.length();
+                try {
+                    totalCost += trainBatch(pool, workers, batch, order, 0, batchLength);
+                    updateTotalWeightsAndBias(workers, endOfEpoch);
+                }
+                finally {
+                    pipeline.release(batch);
+                }
+                metrics.batchEnded(iteration + 1, batchLength, System.nanoTime() - batchStart);
+                if (endOfEpoch) {
+                    final long now = System.nanoTime();
+                    metrics.epochEnded(iteration + 1, pipeline.length(), now - epochStart,
+                            totalCost / pipeline.length());
+                    epochStart = now;
+                    reporter.accept(++iteration, totalCost / pipeline.length());
+                    if (endOfEpoch(iteration, totalCost)) {
+                        return;
+                    }
+                    totalCost = 0.0;
+                }
+            }
+        }
+        catch (final Throwable ex) {
+            failure = ex;
+            throw ex;
+        }
+        finally {
+            finishTraining(pool, failure);
+        }
+    }
+
+    /*
+     * Hogwild training: every thread takes the next chunk of samples of the (shuffled) epoch and, for each sample,
+     * applies an SGD step of learningRate straight to the shared weights. There are no locks: a thread may read
+     * weights another one is changing, and updates that race may be lost. With wide, sparse inputs, samples
+     * rarely touch the same first-layer weights, and training converges as with sequential per-sample SGD,
+     * at close to 'threads' times the speed. The optimizer and the batch size are not used.
+     * Pruned weights are set back to zero at the end of each epoch rather than after every step.
+     */
+    private void trainAsynchronously(final TrainingData trainingData) {
+        final int length = trainingData.length();
+        final int[] order = new int[length];
+        for (int n = 0; n < length; n++) {
+            order[n] = n;
+        }
+        if (!(optimizer == null || optimizer instanceof Sgd)) {
+            logger.warn("Hogwild training applies plain SGD steps, {} is not used",
+                    optimizer.getClass().getSimpleName());
+        }
+        for (Layer layer : layers) {
+            layer.prepareForWriting();
+        }
+        final HogwildWorker[] workers = new HogwildWorker[Math.max(1, threads)];
+        for (int w = 0; w < workers.length; w++) {
+            workers[w] = new HogwildWorker();
+        }
+        final ForkJoinPool pool = workers.length > 1 ? new ForkJoinPool(workers.length) : null;
+        chooseInputs(trainingData);
+        startTraining();
+        Throwable failure = null;
+        try {
+            long iteration = startIteration;
+            double totalCost;
+            do {
+                final long epochStart = System.nanoTime();
+                if (shuffle) {
+                    shuffle(order);
+                }
+                final AtomicInteger next = new AtomicInteger();
+                totalCost = 0.0;
+                if (pool == null) {
+                    totalCost = workers[0].train(trainingData, order, next);
+                }
+                else {
+                    final ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[workers.length];
+                    for (int w = 0; w < workers.length; w++) {
+                        final HogwildWorker worker = workers[w];
+                        tasks[w] = pool.submit(() -> worker.train(trainingData, order, next));
+                    }
+                    for (int w = 0; w < workers.length; w++) {
+                        tasks[w].join();
+                        totalCost += workers[w].cost;
+                    }
+                }
+                if (pruning != null) {
+                    // the steps of the epoch moved the pruned weights, which must be zero when it prunes further
+                    pruning.maskWeights(this);
+                }
+                for (HogwildWorker worker : workers) {
+                    metrics.addAllocatedBytes(worker.allocatedBytes);
+                    worker.allocatedBytes = 0;
+                }
+                for (int l = 0; l < layers.length; l++) {
+                    // no gradients are accumulated, so there's no gradient norm
+                    metrics.norms(l, Double.NaN, layers[l].weightNorm());
+                }
+                final long nanos = System.nanoTime() - epochStart;
+                metrics.batchEnded(iteration + 1, length, nanos);
+                metrics.epochEnded(iteration + 1, length, nanos, totalCost / length);
+                reporter.accept(++iteration, totalCost / length);
+            } while (!endOfEpoch(iteration, totalCost));
+        }
+        catch (final Throwable ex) {
+            failure = ex;
+            throw ex;
+        }
+        finally {
+            finishTraining(pool, failure);
+        }
+    }
+
+    /*
+     * Picks sparse or dense inputs for the first layer, as set with the builder, or else from the fraction of
+     * non-zero values in some of the samples.
+     */
+    private void chooseInputs(final TrainingData trainingData) {
+        if (sparseInputSetting != null) {
+            sparseInputs = sparseInputSetting;
+            return;
+        }
+        final int length = trainingData.length();
+        final int samples = Math.min(length, 256);
+        long values = 0;
+        long nonZeros = 0;
+        for (int s = 0; s < samples; s++) {
+            final double[] input = trainingData.input((int) ((long) s * length / samples));
+            values += input.length;
+            for (double value : input) {
+                if (value != 0.0) {
+                    nonZeros++;
+                }
+            }
+        }
+        final double density = values > 0 ? (double) nonZeros / values : 1.0;
+        sparseInputs = density < SPARSE_DENSITY;
+        logger.debug("{}% of the inputs are non-zero, using {} inputs", Math.round(100 * density),
+                sparseInputs ? "sparse" : "dense");
+    }
+
+    private void startTraining() {
+        if (validation != null) {
+            validation.start();
+        }
+        if (checkpointing != null) {
+            checkpointing.start(startIteration);
+        }
+    }
+
+    /*
+     * Hands the epoch's weights to the checkpointing and the validation, if any.
+     * @return Returns true if training should stop: by the stop criteria, or early, by the validation
+     */
+    private boolean endOfEpoch(final long iteration, final double totalCost) {
+        if (pruning != null) {
+            pruning.epochEnded(iteration, this);
+        }
+        if (checkpointing != null) {
+            checkpointing.epochEnded(iteration, this);
+        }
+        if (validation != null) {
+            validation.epochEnded(iteration, this);
+            if (validation.shouldStop()) {
+                logger.info("Stopping early at iteration {}, best validation {}", iteration, validation.best());
+                return true;
+            }
+        }
+        return stopCriteria.test(iteration, totalCost);
+    }
+
+    /*
+     * In distributed training, every process runs as many batches as the process with the largest shard, so that
+     * they all sum their deltas the same number of times; the processes that run out of samples first sum empty
+     * batches.
+     */
+    private int batchesPerEpoch(final int length, final int size) {
+        if (allReduce == null) {
+            return size > 0 ? (length + size - 1) / size : 0;
+        }
+        int batches = 0;
+        for (double other : allReduce.gather(size > 0 ? (length + size - 1) / size : 0)) {
+            batches = Math.max(batches, (int) other);
+        }
+        return batches;
+    }
+
+    /*
+     * Replaces the weights and biases with those of the process of rank 0, so that every process starts from the
+     * same network, whatever its seed. The optimizer state isn't copied.
+     */
+    private void copyWeightsFromFirstProcess(final double[] sums) {
+        Arrays.fill(sums, 0.0);
+        if (allReduce.rank() == 0) {
+            int start = 0;
+            for (Layer layer : layers) {
+                start = layer.getWeightsAndBiases(start, sums);
+            }
+        }
+        allReduce.sum(sums);
+        setWeightsAndBiases(sums);
+    }
+
+    /*
+     * Data-parallel training: replaces this process's deltas with the sum of the deltas of every process,
+     * so all of them then make the same update, as if one process had trained on every shard's batch.
+     * @return Returns the total cost of the batches of every process
+     */
+    private double sumAcrossProcesses(final double[] sums, final double cost) {
+        int start = 0;
+        for (Layer layer : layers) {
+            start = layer.getDeltas(start, sums);
+        }
+        sums[start] = cost;
+        allReduce.sum(sums);
+        start = 0;
+        for (Layer layer : layers) {
+            start = layer.setDeltas(start, sums);
+        }
+        return sums[start];
+    }
+
+    /*
+     * In distributed training, every process stops as soon as one of them would, e.g. by its validation.
+     */
+    private boolean anyProcess(final boolean stop) {
+        if (allReduce == null) {
+            return stop;
+        }
+        final double[] votes = {stop ? 1.0 : 0.0};
+        allReduce.sum(votes);
+        return votes[0] > 0.0;
+    }
+
+    /*
+     * Finishes every component, even when one of them fails. If training itself failed ('failure'), their
+     * failures are added to it as suppressed, so it stays the one thrown; otherwise the first one is thrown.
+     */
+    private void finishTraining(final ForkJoinPool pool, final Throwable failure) {
+        if (pool != null) {
+            pool.shutdown();
+        }
+        RuntimeException error = null;
+        if (checkpointing != null) {
+            try {
+                checkpointing.finish();
+            }
+            catch (final RuntimeException ex) {
+                error = ex;
+            }
+        }
+        if (validation != null) {
+            try {
+                validation.finish(this);
+            }
+            catch (final RuntimeException ex) {
+                if (error == null) {
+                    error = ex;
+                }
+                else {
+                    error.addSuppressed(ex);
+                }
+            }
+        }
+        if (error != null) {
+            if (failure == null) {
+                throw error;
+            }
+            failure.addSuppressed(error);
+        }
+    }
+
+    /*
+     * A copy of the network with its own weights and buffers, e.g. to evaluate on another thread.
+     */
+    MLP snapshot() {
+        final Layer[] copies = new Layer[layers.length];
+        for (int l = 0; l < layers.length; l++) {
+            copies[l] = layers[l].copy();
+        }
+        final MLP snapshot = new MLP(copies);
+        snapshot.initializeComputationBuffers();
+        return snapshot;
+    }
+
+    /*
+     * Copies the weights and biases of a network with the same shape, e.g. a snapshot, into this one.
+     */
+    void copyWeightsFrom(final MLP other) {
+        for (int l = 0; l < layers.length; l++) {
+            layers[l].copyWeightsFrom(other.layers[l]);
+        }
+    }
+
+    /*
+     * The first worker uses this network's own layers; the others get replicas with their own delta buffers.
+     */
+    private Worker[] createWorkers() {
+        final Worker[] workers = new Worker[Math.max(1, threads)];
+        workers[0] = new Worker(layers);
+        for (int w = 1; w < workers.length; w++) {
+            final Layer[] replicas = new Layer[layers.length];
+            for (int l = 0; l < layers.length; l++) {
+                replicas[l] = layers[l].replica();
+                replicas[l].initializeBatchBuffers(BLOCK_SIZE);
+            }
+            workers[w] = new Worker(replicas);
+        }
+        return workers;
+    }
+
+    /*
+     * Fisher-Yates shuffle, driven by the configured seed so that runs can be reproduced.
+     */
+    private void shuffle(final int[] order) {
+        for (int n = order.length - 1; n > 0; n--) {
+            final int k = random.nextInt(n + 1);
+            final int swap = order[n];
+            order[n] = order[k];
+            order[k] = swap;
+        }
+    }
+
+    /**
+     * Accumulates the deltas of one batch, split into contiguous shards (one per worker).
+     * Shards are reduced in worker order, so results are deterministic for a given seed and thread count.
+     * @return Returns the total cost of the batch
+     */
+    private double trainBatch(final ForkJoinPool pool, final Worker[] workers, final TrainingData trainingData,
+                              final int[] order, final int start, final int end) {
+        if (pool == null) {
+            return workers[0].train(trainingData, order, start, end);
+        }
+        final int shard = (end - start + workers.length - 1) / workers.length;
+        final ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[workers.length];
+        for (int w = 0; w < workers.length; w++) {
+            final Worker worker = workers[w];
+            final int from = Math.min(start + w * shard, end);
+            final int to = Math.min(from + shard, end);
+            tasks[w] = pool.submit(() -> worker.train(trainingData, order, from, to));
+        }
+        double cost = 0.0;
+        for (int w = 0; w < workers.length; w++) {
+            tasks[w].join();
+            cost += workers[w].cost;
+        }
+        for (int w = 1; w < workers.length; w++) {
+            for (int l = 0; l < layers.length; l++) {
+                layers[l].addDeltaWeightsAndBias(workers[w].layers[l]);
             }
-            updateTotalWeightsAndBias();
-            // use reportStatus lambda (BiConsumer) to display current status
-            reporter.accept(++iteration, totalCost / trainingData.length());
-        } while (!stopCriteria.test(iteration, totalCost));
+        }
+        return cost;
     }
 
     /**
-     * @return Returns the 'cost' at the output layers
+     * @return Returns the 'cost' at the output layers: categorical cross-entropy for a softmax output layer,
+     * binary cross-entropy otherwise
      */
-    private double computeCost(double[] expected, double[] output) {
+    double computeCost(double[] expected, double[] output, int length) {
+        if (layers[layers.length - 1].activationFn() instanceof SoftmaxFn) {
+            return categoricalCrossEntropy(expected, output, length);
+        }
         double cost = 0;
-        for (int j = 0; j < expected.length; j++) {
+        for (int j = 0; j < length; j++) {
             cost += -expected[j] * Math.log(output[j])
                     - (1.0-expected[j]) * Math.log(1.0 - output[j]);
         }
         return cost;
     }
 
+    /*
+     * Probabilities are floored at the smallest normal double, so a softmax output that underflowed to zero
+     * gives a large but finite cost. The gradient doesn't go through the log: for softmax with this cost,
+     * the error at the output layer is expected - output, see SoftmaxFn.
+     */
+    private static double categoricalCrossEntropy(double[] expected, double[] output, int length) {
+        double cost = 0;
+        for (int j = 0; j < length; j++) {
+            if (expected[j] != 0.0) {
+                cost -= expected[j] * Math.log(Math.max(output[j], Double.MIN_NORMAL));
+            }
+        }
+        return cost;
+    }
+
     /*
      * Used to generate gradient graph
      */
@@ -101,30 +786,36 @@ public class MLP implements Serializable {
         double cost = 0.0;
         for (int n = 0; n < trainingData.length(); n++) {
             double[] output = feedForward(trainingData.input(n));
-            cost += computeCost(trainingData.output(n), output);
+            cost += computeCost(trainingData.output(n), output, output.length);
         }
         return cost / trainingData.length();
     }
     /**
-     * Computes the change in weights and biases, starting at the output layers, going backwards.
+     * Updates the network weigts and biases from the gradients of the last batch, through the optimizer.
+     * Also hands the workers' layer times to the metrics, and on the last batch of an epoch, the norms.
      */
-    private void computeDeltaWeightsAndBias(double[] expected, double[] output, double[] input) {
-        layers[layers.length-1].computeErrorAtOutputLayer(expected, output);
-        for (int l = layers.length-1; l > 0; l--) {
-            final Layer currentLayer = layers[l];
-            final Layer previousLayer = layers[l-1];
-            previousLayer.propagateErrors(currentLayer);
-            currentLayer.computeDeltaWeightsAndBias(previousLayer.output, learningRate);
+    private void updateTotalWeightsAndBias(final Worker[] workers, final boolean endOfEpoch) {
+        for (Worker worker : workers) {
+            for (int l = 0; l < layers.length; l++) {
+                metrics.addForward(l, worker.forwardNanos[l]);
+                metrics.addBackprop(l, worker.backpropNanos[l]);
+                worker.forwardNanos[l] = 0;
+                worker.backpropNanos[l] = 0;
+            }
+            metrics.addAllocatedBytes(worker.allocatedBytes);
+            worker.allocatedBytes = 0;
         }
-        layers[0].computeDeltaWeightsAndBias(input, learningRate);
-    }
-
-    /**
-     * Updates the network weigts and biases
-     */
-    private void updateTotalWeightsAndBias() {
         for (int l = 0; l < layers.length; l++) {
+            final double gradientNorm = endOfEpoch ? layers[l].gradientNorm() : 0.0;
+            final long start = System.nanoTime();
             layers[l].updateTotalWeightsAndBias();
+            metrics.addUpdate(l, System.nanoTime() - start);
+            if (endOfEpoch) {
+                metrics.norms(l, gradientNorm, layers[l].weightNorm());
+            }
+        }
+        if (pruning != null) {
+            pruning.maskWeights(this);
         }
     }
 
@@ -140,6 +831,165 @@ public class MLP implements Serializable {
         }
     }
 
+    /**
+     * Computation state of one training thread.
+     * Each worker runs samples through its own set of layers, which share weights with the network.
+     * Samples are copied into blocks of BLOCK_SIZE, and each block goes through the batched layer methods.
+     */
+    private class Worker {
+        final Layer[] layers;
+        final double[] inputs;
+        final double[] expected;
+        // sparse inputs of a block: sample b has values[k] at index indices[k], for k in [rowStart[b], rowStart[b+1])
+        final int[] rowStart;
+        final int[] indices;
+        final double[] values;
+        final long[] forwardNanos;
+        final long[] backpropNanos;
+        long allocatedBytes;
+        double cost;
+
+        Worker(final Layer[] layers) {
+            this.layers = layers;
+            this.forwardNanos = new long[layers.length];
+            this.backpropNanos = new long[layers.length];
+            this.inputs = new double[BLOCK_SIZE * layers[0].numInputs()];
+            this.rowStart = new int[BLOCK_SIZE + 1];
+            this.indices = new int[BLOCK_SIZE * layers[0].numInputs()];
+            this.values = new double[BLOCK_SIZE * layers[0].numInputs()];
+            this.expected = new double[BLOCK_SIZE * layers[layers.length - 1].numOutputs()];
+        }
+
+        double train(final TrainingData trainingData, final int[] order, final int from, final int to) {
+            final int numInputs = layers[0].numInputs();
+            final int numOutputs = layers[layers.length - 1].numOutputs();
+            final long allocated = Metrics.threadAllocatedBytes();
+            cost = 0.0;
+            for (int start = from; start < to; start += BLOCK_SIZE) {
+                final int size = Math.min(BLOCK_SIZE, to - start);
+                for (int b = 0; b < size; b++) {
+                    final int n = order[start + b];
+                    if (sparseInputs) {
+                        rowStart[b + 1] = rowStart[b] + trainingData.sparseInput(n, indices, values, rowStart[b]);
+                    }
+                    else {
+                        System.arraycopy(trainingData.input(n), 0, inputs, b * numInputs, numInputs);
+                    }
+                    System.arraycopy(trainingData.output(n), 0, expected, b * numOutputs, numOutputs);
+                }
+                double[] output = feedForward(size);
+                cost += computeCost(expected, output, size * numOutputs);
+                computeDeltaWeightsAndBias(output, size);
+            }
+            allocatedBytes += Metrics.threadAllocatedBytes() - allocated;
+            return cost;
+        }
+
+        double[] feedForward(int size) {
+            double[] layerOutput = inputs;
+            for (int l = 0; l < layers.length; l++) {
+                final long start = System.nanoTime();
+                layerOutput = l == 0 && sparseInputs
+                        ? layers[0].feedForward(rowStart, indices, values, size)
+                        : layers[l].feedForward(layerOutput, size);
+                forwardNanos[l] += System.nanoTime() - start;
+            }
+            return layerOutput;
+        }
+
+        /**
+         * Computes the change in weights and biases, starting at the output layers, going backwards.
+         */
+        void computeDeltaWeightsAndBias(double[] output, int size) {
+            long start = System.nanoTime();
+            layers[layers.length-1].computeErrorAtOutputLayer(expected, output, size);
+            for (int l = layers.length-1; l > 0; l--) {
+                final Layer currentLayer = layers[l];
+                final Layer previousLayer = layers[l-1];
+                // propagating through a layer's weights counts as that layer's time
+                previousLayer.propagateErrors(currentLayer, size);
+                currentLayer.computeDeltaWeightsAndBias(previousLayer.batchOutput, size, 1.0);
+                final long now = System.nanoTime();
+                backpropNanos[l] += now - start;
+                start = now;
+            }
+            if (sparseInputs) {
+                layers[0].computeDeltaWeightsAndBias(rowStart, indices, values, size, 1.0);
+            }
+            else {
+                layers[0].computeDeltaWeightsAndBias(inputs, size, 1.0);
+            }
+            backpropNanos[0] += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Computation state of one Hogwild training thread: its own outputs and errors for every layer, and its own
+     * sparse input buffers. The weights are the network's, shared with the other threads.
+     */
+    private class HogwildWorker {
+        // samples claimed at a time, so threads don't contend on the shared counter
+        private static final int CHUNK = 64;
+        final double[][] outputs = new double[layers.length][];
+        final double[][] errors = new double[layers.length][];
+        final int[] rowStart = new int[2];
+        final int[] indices = new int[layers[0].numInputs()];
+        final double[] values = new double[layers[0].numInputs()];
+        long allocatedBytes;
+        double cost;
+
+        HogwildWorker() {
+            for (int l = 0; l < layers.length; l++) {
+                outputs[l] = new double[layers[l].numOutputs()];
+                errors[l] = new double[layers[l].numOutputs()];
+            }
+        }
+
+        double train(final TrainingData trainingData, final int[] order, final AtomicInteger next) {
+            final long allocated = Metrics.threadAllocatedBytes();
+            final int last = layers.length - 1;
+            cost = 0.0;
+            int start;
+            while ((start = next.getAndAdd(CHUNK)) < order.length) {
+                final int end = Math.min(start + CHUNK, order.length);
+                for (int k = start; k < end; k++) {
+                    final int n = order[k];
+                    final double[] input = sparseInputs ? null : trainingData.input(n);
+                    if (sparseInputs) {
+                        rowStart[1] = trainingData.sparseInput(n, indices, values, 0);
+                        layers[0].feedForward(rowStart, indices, values, 1, outputs[0]);
+                    }
+                    else {
+                        layers[0].feedForward(input, outputs[0]);
+                    }
+                    for (int l = 1; l <= last; l++) {
+                        layers[l].feedForward(outputs[l - 1], outputs[l]);
+                    }
+                    final double[] expected = trainingData.output(n);
+                    cost += computeCost(expected, outputs[last], outputs[last].length);
+
+                    // errors of every layer first, then the updates, so the step is that of the weights read
+                    // by the forward pass (as far as the other threads leave them alone)
+                    layers[last].computeErrorAtOutputLayer(expected, outputs[last], errors[last]);
+                    for (int l = last; l > 0; l--) {
+                        layers[l - 1].propagateErrors(layers[l], errors[l], outputs[l - 1], errors[l - 1]);
+                    }
+                    for (int l = last; l > 0; l--) {
+                        layers[l].applyErrors(errors[l], outputs[l - 1], learningRate);
+                    }
+                    if (sparseInputs) {
+                        layers[0].applyErrors(errors[0], rowStart, indices, values, learningRate);
+                    }
+                    else {
+                        layers[0].applyErrors(errors[0], input, learningRate);
+                    }
+                }
+            }
+            allocatedBytes += Metrics.threadAllocatedBytes() - allocated;
+            return cost;
+        }
+    }
+
     /**
      * Save the network in a file
      */
@@ -151,15 +1001,37 @@ public class MLP implements Serializable {
         }
     }
 
+    /**
+     * Save the network in a file, in the binary model format (see ModelFile)
+     */
+    public void saveBinary(String filename) throws IOException {
+        ModelFile.write(this, filename);
+    }
+
     /**
      * MLP configuration object.
      * Collects configuration info, then builds a MLP.
      */
     public static class Builder {
         transient private ActivationFn activationFn = null;
+        transient private ActivationFn[] activationFns = null;
         transient private int[] nodesPerLayer = null;
         transient private double[] rawWeights = null;
         transient private double learningRate = 0.01;
+        transient private int batchSize = 0;
+        transient private boolean shuffle = false;
+        transient private int threads = 1;
+        transient private boolean hogwild = false;
+        transient private AllReduce allReduce = null;
+        transient private Random random = new Random();
+        transient private Optimizer optimizer = new Sgd();
+        transient private Validation validation = null;
+        transient private Checkpointing checkpointing = null;
+        transient private Pruning pruning = null;
+        transient private String resumeFrom = null;
+        transient private MLP network = null;
+        transient private Boolean sparseInputs = null;
+        transient private boolean offHeap = false;
         transient private BiPredicate<Long, Double> stopCriteria = (iteration, cost) -> iteration < 1000;
         transient private BiConsumer<Long, Double> reporter = (iteration, cost) -> {
             if (iteration % 1000 == 0) {
@@ -168,23 +1040,94 @@ public class MLP implements Serializable {
         };
 
         public MLP load() {
+            final Checkpointing.State checkpoint = resumeFrom != null ? readCheckpoint() : null;
             final MLP mlp;
-            mlp = new MLP(activationFn, nodesPerLayer);
+            if (checkpoint != null) {
+                mlp = checkpoint.mlp();
+                mlp.startIteration = checkpoint.iteration();
+                if (offHeap) {
+                    mlp.moveOffHeap();
+                }
+            }
+            else if (network != null) {
+                mlp = network;
+                if (offHeap && mlp.arena == null) {
+                    mlp.moveOffHeap();
+                }
+            }
+            else {
+                mlp = new MLP(layerActivations(), nodesPerLayer, random, offHeap ? Arena.ofShared() : null);
+            }
             mlp.learningRate = learningRate;
+            mlp.batchSize = batchSize;
+            mlp.shuffle = shuffle;
+            mlp.threads = threads;
+            mlp.hogwild = hogwild;
+            mlp.allReduce = allReduce;
+            mlp.random = random;
+            mlp.optimizer = optimizer;
+            mlp.validation = validation;
+            mlp.checkpointing = checkpointing;
+            mlp.pruning = pruning;
+            mlp.sparseInputSetting = sparseInputs;
             mlp.reporter = reporter;
             mlp.stopCriteria = stopCriteria;
             mlp.initializeComputationBuffers();
             if (rawWeights != null) {
                 mlp.setWeightsAndBiases(rawWeights);
             }
+            if (checkpoint != null) {
+                checkpoint.restore(mlp, mlp.optimizerName());
+            }
             return mlp;
         }
 
+        private Checkpointing.State readCheckpoint() {
+            try {
+                return Checkpointing.read(resumeFrom);
+            }
+            catch (final IOException ex) {
+                throw new IllegalArgumentException("Can't read checkpoint: " + resumeFrom, ex);
+            }
+        }
+
+        /**
+         * Activation function of every layer, unless set per layer with activations.
+         */
         public Builder activation(final ActivationFn fn) {
             this.activationFn = fn;
             return this;
         }
 
+        /**
+         * Activation function of each layer, from the first hidden layer to the output layer,
+         * e.g. activations(new ReluFn(), new SoftmaxFn()) for a classifier with one hidden layer.
+         * SoftmaxFn is only allowed in the output layer, where it is trained with categorical cross-entropy.
+         */
+        public Builder activations(final ActivationFn... fns) {
+            this.activationFns = fns;
+            return this;
+        }
+
+        private ActivationFn[] layerActivations() {
+            final int numLayers = nodesPerLayer.length - 1;
+            if (activationFns == null) {
+                final ActivationFn[] fns = new ActivationFn[numLayers];
+                Arrays.fill(fns, activationFn);
+                return fns;
+            }
+            if (activationFns.length != numLayers) {
+                throw new IllegalArgumentException("Expected " + numLayers + " activation functions, got "
+                        + activationFns.length);
+            }
+            for (int l = 0; l < numLayers - 1; l++) {
+                if (activationFns[l] instanceof SoftmaxFn) {
+                    throw new IllegalArgumentException("SoftmaxFn is only supported in the output layer");
+                }
+            }
+            return activationFns;
+        }
+
         public Builder layers(final int... nodesPerLayer) {
             this.nodesPerLayer = nodesPerLayer;
             return this;
@@ -200,6 +1143,141 @@ public class MLP implements Serializable {
             return this;
         }
 
+        /**
+         * Number of samples per weight update. Zero (the default) trains on the full batch.
+         */
+        public Builder batchSize(int batchSize) {
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * Shuffle the order of the training samples at the start of each epoch.
+         */
+        public Builder shuffle(boolean shuffle) {
+            this.shuffle = shuffle;
+            return this;
+        }
+
+        /**
+         * Number of threads each batch is split across, e.g. Runtime.getRuntime().availableProcessors().
+         */
+        public Builder threads(int threads) {
+            this.threads = threads;
+            return this;
+        }
+
+        /**
+         * Asynchronous (Hogwild) training: the threads set with threads each take samples in turn and update the
+         * shared weights after every one, without locks, instead of summing the gradients of a batch.
+         * Scales with the number of cores, at the cost of occasionally lost updates, which SGD tolerates,
+         * especially with wide, sparse inputs. Steps are plain SGD of learningRate; the optimizer and batch size
+         * are not used. Only for train(TrainingData). With pruning, the pruned weights move during an epoch and
+         * are set back to zero at its end.
+         */
+        public Builder hogwild(boolean hogwild) {
+            this.hogwild = hogwild;
+            return this;
+        }
+
+        /**
+         * Data-parallel training across processes, e.g. JVMs on several machines: each process trains the same
+         * network on its own shard of the data (see TrainingData.shard), and after every batch the deltas of all
+         * the processes are summed, so they all make the same update, in lockstep. Training starts from the
+         * weights of the process of rank 0, and stops in every process as soon as one would stop.
+         * The batch size is per process: the update after each batch is for size() times as many samples.
+         * Set validation and checkpoints on one process only. Only for train(TrainingData), without hogwild.
+         */
+        public Builder distributed(AllReduce allReduce) {
+            this.allReduce = allReduce;
+            return this;
+        }
+
+        /**
+         * Whether the first layer takes the inputs as their non-zero values only (true) or as they are (false).
+         * By default, this is chosen when training starts, from how many of the input values are zero.
+         */
+        public Builder sparseInputs(boolean sparseInputs) {
+            this.sparseInputs = sparseInputs;
+            return this;
+        }
+
+        /**
+         * Keep the weights, their deltas and the optimizer state off the heap, in native memory that's freed by
+         * MLP.close, so large networks run with a small heap and short GC pauses. Training and inference compute
+         * the same as on the heap. A binary model file loaded with this option is memory-mapped, not read:
+         * its weights are only copied when training first changes them.
+         * The optimizers in ml101.mlp.optimizer keep their state off the heap too; others fall back to heap copies,
+         * see Optimizer.newState(long, double, Arena).
+         */
+        public Builder offHeap(boolean offHeap) {
+            this.offHeap = offHeap;
+            return this;
+        }
+
+        /**
+         * Seed for the initial weights and the shuffling, for reproducible training.
+         */
+        public Builder seed(long seed) {
+            this.random = new Random(seed);
+            return this;
+        }
+
+        /**
+         * How gradients are turned into weight updates, e.g. new Adam(). Plain SGD by default.
+         * The learning rate is the one set with learningRate.
+         */
+        public Builder optimizer(Optimizer optimizer) {
+            this.optimizer = optimizer;
+            return this;
+        }
+
+        /**
+         * Evaluate on a held-out set in the background during training, and stop early when it stops improving.
+         */
+        public Builder validation(Validation validation) {
+            this.validation = validation;
+            return this;
+        }
+
+        /**
+         * Write checkpoints in the background during training.
+         */
+        public Builder checkpoints(Checkpointing checkpointing) {
+            this.checkpointing = checkpointing;
+            return this;
+        }
+
+        /**
+         * Prune the weights of smallest magnitude while training, see Pruning.
+         * In distributed training, set it on every process.
+         */
+        public Builder pruning(Pruning pruning) {
+            this.pruning = pruning;
+            return this;
+        }
+
+        /**
+         * Continue training from a checkpoint: its weights, optimizer state and iteration count replace the
+         * layers, activations and weights set on this builder. Everything else (learning rate, optimizer,
+         * batch size, stop criteria...) comes from this builder; use the same optimizer as the checkpointed run.
+         * Shuffling restarts from this builder's seed.
+         */
+        public Builder resume(String checkpoint) {
+            this.resumeFrom = checkpoint;
+            return this;
+        }
+
+        /**
+         * Train (and return from load) 'mlp' itself, e.g. a network changed by MLP.factorize, for fine-tuning:
+         * its layers and weights replace the layers, activations and weights set on this builder. Everything
+         * else (learning rate, optimizer, batch size, stop criteria...) comes from this builder.
+         */
+        public Builder from(MLP mlp) {
+            this.network = mlp;
+            return this;
+        }
+
         public Builder reportStatus(BiConsumer<Long, Double> reporter) {
             this.reporter = reporter;
             return this;
@@ -210,10 +1288,20 @@ public class MLP implements Serializable {
             return this;
         }
 
+        /**
+         * Loads a network saved by save (Java serialization) or saveBinary (binary model format).
+         * Only the offHeap setting of this builder applies.
+         */
         public MLP load(String filename) throws Exception {
+            if (ModelFile.isModelFile(filename)) {
+                return offHeap ? ModelFile.map(filename) : ModelFile.read(filename);
+            }
             try (ObjectInputStream stream
                          = new ObjectInputStream(new BufferedInputStream(new FileInputStream(filename)))) {
                 final MLP mlp = (MLP)stream.readObject();
+                if (offHeap) {
+                    mlp.moveOffHeap();
+                }
                 mlp.initializeComputationBuffers();
                 return mlp;
             }
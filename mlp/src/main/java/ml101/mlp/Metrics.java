@@ -0,0 +1,281 @@
+package ml101.mlp;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Training and inference counters of one network, readable at any time with MLP.metrics().
+ *
+ * Per-layer times are summed over all worker threads, so with several threads they can add up to more than
+ * the wall time. Allocated bytes are counted when the JVM tracks per-thread allocation, as HotSpot does
+ * by default. Norms are taken on the last batch of each epoch. Hogwild training counts each epoch as one batch,
+ * doesn't time the layers, and has no gradient norms (NaN). The same numbers are recorded as
+ * JDK Flight Recorder events (category "ml101"), e.g. java -XX:StartFlightRecording ...
+ */
+public class Metrics {
+    private static final com.sun.management.ThreadMXBean threads = threadBean();
+    // checked before creating an event, so that no event object is allocated when nobody records them
+    private static final EventType feedForwardType = EventType.getEventType(FeedForwardEvent.class);
+    private static final EventType batchType = EventType.getEventType(BatchEvent.class);
+    private static final EventType epochType = EventType.getEventType(EpochEvent.class);
+    private static final EventType layerType = EventType.getEventType(LayerEvent.class);
+
+    private final LongAdder[] forwardNanos;
+    private final LongAdder[] backpropNanos;
+    private final LongAdder[] updateNanos;
+    private final double[] gradientNorms;
+    private final double[] weightNorms;
+    private final LongAdder allocatedBytes = new LongAdder();
+    private final LongAdder inferences = new LongAdder();
+    private volatile long epochs;
+    private volatile long batches;
+    private volatile long samples;
+    private volatile long trainingNanos;
+    private volatile long lastEpochNanos;
+    private volatile long lastBatchNanos;
+    private volatile double lastCost;
+    private volatile long samplesPerEpoch;
+    private long allocatedAtEpochStart;
+
+    /**
+     * Counters at one point in time. Times are in nanoseconds; costs are averages per sample; inferences
+     * count the samples passed through feedForward and predict.
+     */
+    public record Snapshot(long epochs, long batches, long samples, long trainingNanos, long lastEpochNanos,
+                           long lastBatchNanos, double samplesPerSecond, double lastCost,
+                           long allocatedBytes, long inferences, List<LayerSnapshot> layers) {
+    }
+
+    public record LayerSnapshot(long forwardNanos, long backpropNanos, long updateNanos,
+                                double gradientNorm, double weightNorm) {
+    }
+
+    Metrics(final int numLayers) {
+        forwardNanos = adders(numLayers);
+        backpropNanos = adders(numLayers);
+        updateNanos = adders(numLayers);
+        gradientNorms = new double[numLayers];
+        weightNorms = new double[numLayers];
+    }
+
+    public Snapshot snapshot() {
+        final List<LayerSnapshot> layers = new ArrayList<>();
+        synchronized (this) {
+            for (int l = 0; l < forwardNanos.length; l++) {
+                layers.add(new LayerSnapshot(forwardNanos[l].sum(), backpropNanos[l].sum(), updateNanos[l].sum(),
+                        gradientNorms[l], weightNorms[l]));
+            }
+        }
+        final long epochNanos = lastEpochNanos;
+        final double samplesPerSecond = epochNanos > 0 ? samplesPerEpoch * 1e9 / epochNanos : 0.0;
+        return new Snapshot(epochs, batches, samples, trainingNanos, epochNanos, lastBatchNanos, samplesPerSecond,
+                lastCost, allocatedBytes.sum(), inferences.sum(), layers);
+    }
+
+    void addForward(final int layer, final long nanos) {
+        forwardNanos[layer].add(nanos);
+    }
+
+    void addBackprop(final int layer, final long nanos) {
+        backpropNanos[layer].add(nanos);
+    }
+
+    void addUpdate(final int layer, final long nanos) {
+        updateNanos[layer].add(nanos);
+    }
+
+    void addAllocatedBytes(final long bytes) {
+        allocatedBytes.add(bytes);
+    }
+
+    /*
+     * @return Returns a started feed forward event, or null when nobody records them, so that inference
+     * doesn't allocate an event object per call
+     */
+    static FeedForwardEvent beginFeedForward() {
+        if (!feedForwardType.isEnabled()) {
+            return null;
+        }
+        final FeedForwardEvent event = new FeedForwardEvent();
+        event.begin();
+        return event;
+    }
+
+    void inferenceEnded(final FeedForwardEvent event, final int samples) {
+        inferences.add(samples);
+        if (event != null && event.shouldCommit()) {
+            event.samples = samples;
+            event.commit();
+        }
+    }
+
+    synchronized void norms(final int layer, final double gradientNorm, final double weightNorm) {
+        gradientNorms[layer] = gradientNorm;
+        weightNorms[layer] = weightNorm;
+    }
+
+    void batchEnded(final long epoch, final int size, final long nanos) {
+        batches++;
+        samples += size;
+        trainingNanos += nanos;
+        lastBatchNanos = nanos;
+        if (batchType.isEnabled()) {
+            final BatchEvent event = new BatchEvent();
+            event.epoch = epoch;
+            event.size = size;
+            event.time = nanos;
+            event.commit();
+        }
+    }
+
+    void epochEnded(final long epoch, final int length, final long nanos, final double cost) {
+        final long allocatedTotal = allocatedBytes.sum();
+        final long allocated = allocatedTotal - allocatedAtEpochStart;
+        allocatedAtEpochStart = allocatedTotal;
+        epochs++;
+        samplesPerEpoch = length;
+        lastEpochNanos = nanos;
+        lastCost = cost;
+        if (epochType.isEnabled()) {
+            final EpochEvent event = new EpochEvent();
+            event.epoch = epoch;
+            event.samples = length;
+            event.time = nanos;
+            event.samplesPerSecond = length * 1e9 / nanos;
+            event.cost = cost;
+            event.allocated = allocated;
+            event.commit();
+        }
+        if (layerType.isEnabled()) {
+            final Snapshot snapshot = snapshot();
+            for (int l = 0; l < snapshot.layers().size(); l++) {
+                final LayerSnapshot layer = snapshot.layers().get(l);
+                final LayerEvent perLayer = new LayerEvent();
+                perLayer.epoch = epoch;
+                perLayer.layer = l;
+                perLayer.forward = layer.forwardNanos();
+                perLayer.backprop = layer.backpropNanos();
+                perLayer.update = layer.updateNanos();
+                perLayer.gradientNorm = layer.gradientNorm();
+                perLayer.weightNorm = layer.weightNorm();
+                perLayer.commit();
+            }
+        }
+    }
+
+    /*
+     * @return Returns the bytes allocated so far by the current thread, or 0 if the JVM can't tell or doesn't
+     * track them
+     */
+    static long threadAllocatedBytes() {
+        return threads != null ? threads.getCurrentThreadAllocatedBytes() : 0L;
+    }
+
+    /*
+     * Only used when allocation tracking is already on (the default on HotSpot): the bean is JVM-wide,
+     * so turning it on is left to the application.
+     */
+    private static com.sun.management.ThreadMXBean threadBean() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean
+                && bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled()) {
+            return bean;
+        }
+        return null;
+    }
+
+    private static LongAdder[] adders(final int count) {
+        final LongAdder[] adders = new LongAdder[count];
+        for (int k = 0; k < count; k++) {
+            adders[k] = new LongAdder();
+        }
+        return adders;
+    }
+
+    @Name("ml101.TrainEpoch")
+    @Label("Training Epoch")
+    @Category("ml101")
+    @StackTrace(false)
+    static class EpochEvent extends Event {
+        @Label("Epoch")
+        long epoch;
+        @Label("Samples")
+        int samples;
+        @Label("Time")
+        @Timespan
+        long time;
+        @Label("Samples per Second")
+        double samplesPerSecond;
+        @Label("Cost")
+        @Description("Average cost per sample")
+        double cost;
+        @Label("Allocated")
+        @Description("Bytes allocated by the training threads during the epoch")
+        @DataAmount
+        long allocated;
+    }
+
+    @Name("ml101.TrainBatch")
+    @Label("Training Batch")
+    @Category("ml101")
+    @StackTrace(false)
+    static class BatchEvent extends Event {
+        @Label("Epoch")
+        long epoch;
+        @Label("Size")
+        int size;
+        @Label("Time")
+        @Timespan
+        long time;
+    }
+
+    @Name("ml101.Layer")
+    @Label("Layer Totals")
+    @Description("Time spent in a layer since training started, and its norms at the end of the epoch")
+    @Category("ml101")
+    @StackTrace(false)
+    static class LayerEvent extends Event {
+        @Label("Epoch")
+        long epoch;
+        @Label("Layer")
+        int layer;
+        @Label("Forward")
+        @Timespan
+        long forward;
+        @Label("Backprop")
+        @Timespan
+        long backprop;
+        @Label("Update")
+        @Timespan
+        long update;
+        @Label("Gradient Norm")
+        double gradientNorm;
+        @Label("Weight Norm")
+        double weightNorm;
+    }
+
+    /**
+     * One MLP.feedForward or predict call. Disabled by default, since it fires per sample.
+     */
+    @Name("ml101.FeedForward")
+    @Label("Feed Forward")
+    @Category("ml101")
+    @Enabled(false)
+    @StackTrace(false)
+    static class FeedForwardEvent extends Event {
+        @Label("Samples")
+        int samples;
+    }
+}
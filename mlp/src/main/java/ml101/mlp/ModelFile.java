@@ -0,0 +1,319 @@
+package ml101.mlp;
+
+import ml101.mlp.activation.ActivationFn;
+import ml101.mlp.activation.LeakyReluFn;
+import ml101.mlp.activation.LinearFn;
+import ml101.mlp.activation.LogisticFn;
+import ml101.mlp.activation.ReluFn;
+import ml101.mlp.activation.SoftmaxFn;
+import ml101.mlp.activation.StepFn;
+import ml101.mlp.activation.TanhFn;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Compact binary model format, read and written through memory-mapped files.
+ *
+ * All values are little-endian:
+ * <pre>
+ *   "MLPB"                      magic
+ *   int     version             currently 1
+ *   int     number of layers
+ *   per layer:
+ *     int     numInputs
+ *     int     numOutputs
+ *     int     length of the activation name, followed by its UTF-8 bytes
+ *     int     number of activation parameters, followed by the parameters as doubles
+ *   padding to a multiple of 8 bytes
+ *   per layer:
+ *     double[numOutputs]              biases
+ *     double[numOutputs * numInputs]  weights, row-major
+ * </pre>
+ * Weight blocks are 8-byte aligned, so they can be copied straight into double arrays, or used in place by mapping
+ * the file (see map).
+ */
+public class ModelFile {
+    static final int MAGIC = 0x42504c4d; // "MLPB", read as a little-endian int
+    static final int VERSION = 1;
+    // the largest double array most JVMs allocate
+    private static final long MAX_HEAP_WEIGHTS = Integer.MAX_VALUE - 8;
+    private static final ValueLayout.OfInt INT = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    private static final ValueLayout.OfDouble DOUBLE =
+            ValueLayout.JAVA_DOUBLE_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * Writes the network's layers into a binary model file.
+     */
+    public static void write(MLP mlp, String filename) throws IOException {
+        final Layer[] layers = mlp.layers;
+        final byte[][] names = new byte[layers.length][];
+        final double[][] parameters = new double[layers.length][];
+        long headerSize = 12;
+        long dataSize = 0;
+        for (int l = 0; l < layers.length; l++) {
+            names[l] = activationName(layers[l].activationFn()).getBytes(StandardCharsets.UTF_8);
+            parameters[l] = activationParameters(layers[l].activationFn());
+            headerSize += 16 + names[l].length + 8L * parameters[l].length;
+            dataSize += 8L * layers[l].bias.length + layers[l].weightSegment().byteSize();
+        }
+        final long dataOffset = align(headerSize);
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+             Arena arena = Arena.ofConfined()) {
+            final MemorySegment segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, dataOffset + dataSize, arena);
+            long offset = 0;
+            segment.set(INT, offset, MAGIC);
+            segment.set(INT, offset + 4, VERSION);
+            segment.set(INT, offset + 8, layers.length);
+            offset += 12;
+            for (int l = 0; l < layers.length; l++) {
+                segment.set(INT, offset, layers[l].numInputs());
+                segment.set(INT, offset + 4, layers[l].numOutputs());
+                segment.set(INT, offset + 8, names[l].length);
+                offset += 12;
+                MemorySegment.copy(names[l], 0, segment, ValueLayout.JAVA_BYTE, offset, names[l].length);
+                offset += names[l].length;
+                segment.set(INT, offset, parameters[l].length);
+                offset += 4;
+                MemorySegment.copy(parameters[l], 0, segment, DOUBLE, offset, parameters[l].length);
+                offset += 8L * parameters[l].length;
+            }
+            offset = dataOffset;
+            for (Layer layer : layers) {
+                MemorySegment.copy(layer.bias, 0, segment, DOUBLE, offset, layer.bias.length);
+                offset += 8L * layer.bias.length;
+                final MemorySegment weights = layer.weightSegment();
+                MemorySegment.copy(weights, ValueLayout.JAVA_DOUBLE, 0, segment, DOUBLE, offset,
+                        weights.byteSize() / 8);
+                offset += weights.byteSize();
+            }
+            segment.force();
+        }
+    }
+
+    /**
+     * Reads a binary model file. The file is memory-mapped, and the weight blocks are bulk-copied into the layers.
+     */
+    public static MLP read(String filename) throws IOException {
+        try (Arena arena = Arena.ofConfined()) {
+            return read(filename, arena, false);
+        }
+    }
+
+    /**
+     * Maps a binary model file and uses its weight blocks in place, as the weights of off-heap layers: only the
+     * biases are read into the heap. The mapping is read-only; training copies the weights before changing them,
+     * so the file is never written. The mapping is released by closing the network.
+     */
+    public static MLP map(String filename) throws IOException {
+        final Arena arena = Arena.ofShared();
+        try {
+            final MLP mlp = read(filename, arena, true);
+            mlp.arena = arena;
+            return mlp;
+        }
+        catch (IOException | RuntimeException ex) {
+            arena.close();
+            throw ex;
+        }
+    }
+
+    private static MLP read(String filename, Arena arena, boolean offHeap) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            final MemorySegment segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), arena);
+            if (segment.byteSize() < 12 || segment.get(INT, 0) != MAGIC) {
+                throw new IllegalArgumentException("Not a binary model file: " + filename);
+            }
+            final int version = segment.get(INT, 4);
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported model file version " + version + ": " + filename);
+            }
+            // every count is checked against the mapping before it's used, so a corrupt file can't ask for more
+            final int count = segment.get(INT, 8);
+            check(count > 0 && count <= (segment.byteSize() - 12) / 16, "layer count " + count, filename);
+            final Layer[] layers = new Layer[count];
+            final int[] numInputs = new int[layers.length];
+            final int[] numOutputs = new int[layers.length];
+            final ActivationFn[] activationFns = new ActivationFn[layers.length];
+            long offset = 12;
+            for (int l = 0; l < layers.length; l++) {
+                check(offset + 12 <= segment.byteSize(), "header of layer " + l, filename);
+                numInputs[l] = segment.get(INT, offset);
+                numOutputs[l] = segment.get(INT, offset + 4);
+                check(numInputs[l] > 0 && numOutputs[l] > 0, "size of layer " + l, filename);
+                check(l == 0 || numInputs[l] == numOutputs[l - 1], "inputs of layer " + l, filename);
+                final int nameLength = segment.get(INT, offset + 8);
+                offset += 12;
+                check(nameLength >= 0 && offset + nameLength + 4 <= segment.byteSize(),
+                        "activation of layer " + l, filename);
+                final byte[] name = new byte[nameLength];
+                MemorySegment.copy(segment, ValueLayout.JAVA_BYTE, offset, name, 0, name.length);
+                offset += name.length;
+                final int parameterCount = segment.get(INT, offset);
+                offset += 4;
+                check(parameterCount >= 0 && offset + 8L * parameterCount <= segment.byteSize(),
+                        "activation parameters of layer " + l, filename);
+                final double[] parameters = new double[parameterCount];
+                MemorySegment.copy(segment, DOUBLE, offset, parameters, 0, parameters.length);
+                offset += 8L * parameters.length;
+                activationFns[l] = activation(new String(name, StandardCharsets.UTF_8), parameters);
+            }
+            offset = align(offset);
+            for (int l = 0; l < layers.length; l++) {
+                final long size = (long) numOutputs[l] * numInputs[l];
+                check(offset + 8L * (numOutputs[l] + size) <= segment.byteSize(), "weights of layer " + l, filename);
+                final double[] bias = new double[numOutputs[l]];
+                MemorySegment.copy(segment, DOUBLE, offset, bias, 0, bias.length);
+                offset += 8L * bias.length;
+                if (offHeap) {
+                    layers[l] = new OffHeapLayer(activationFns[l], numInputs[l], numOutputs[l],
+                            weights(segment, offset, size, arena), bias, arena);
+                }
+                else {
+                    if (size > MAX_HEAP_WEIGHTS) {
+                        throw new IllegalArgumentException("Layer " + l + " has " + size + " weights, more than a "
+                                + "heap layer holds; map the file off-heap instead: " + filename);
+                    }
+                    final double[] weights = new double[(int) size];
+                    MemorySegment.copy(segment, DOUBLE, offset, weights, 0, weights.length);
+                    layers[l] = new Layer(activationFns[l], numInputs[l], numOutputs[l], weights, bias);
+                }
+                offset += 8L * size;
+            }
+            final MLP mlp = new MLP(layers);
+            mlp.initializeComputationBuffers();
+            return mlp;
+        }
+    }
+
+    private static void check(boolean valid, String what, String filename) {
+        if (!valid) {
+            throw new IllegalArgumentException("Truncated or corrupt binary model file (" + what + "): " + filename);
+        }
+    }
+
+    /*
+     * @return Returns the 'size' weights at 'offset' as native-order doubles: a slice of the mapping where the
+     * native order is little-endian, else a byte-swapped copy
+     */
+    private static MemorySegment weights(MemorySegment segment, long offset, long size, Arena arena) {
+        if (ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN) {
+            return segment.asSlice(offset, 8L * size);
+        }
+        final MemorySegment weights = arena.allocate(8L * size, 8);
+        MemorySegment.copy(segment, DOUBLE, offset, weights, ValueLayout.JAVA_DOUBLE, 0, size);
+        return weights;
+    }
+
+    /**
+     * @return Returns true if the file starts with the binary model magic number
+     */
+    public static boolean isModelFile(String filename) throws IOException {
+        final Path path = Paths.get(filename);
+        if (Files.size(path) < 4) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final ByteBuffer magic = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(magic, 0);
+            return magic.getInt(0) == MAGIC;
+        }
+    }
+
+    /**
+     * Converts a Java-serialized .mlp file into a binary model file.
+     */
+    public static void convert(String mlpFilename, String modelFilename) throws Exception {
+        write(new MLP.Builder().load(mlpFilename), modelFilename);
+    }
+
+    /**
+     * Command line converter: ModelFile input.mlp output.mlpb
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.err.println("Usage: ModelFile <input.mlp> <output.mlpb>");
+            System.exit(1);
+        }
+        convert(args[0], args[1]);
+    }
+
+    private static long align(long offset) {
+        return (offset + 7) & ~7L;
+    }
+
+    private static String activationName(ActivationFn fn) {
+        if (fn instanceof LogisticFn) {
+            return "logistic";
+        }
+        if (fn instanceof StepFn) {
+            return "step";
+        }
+        if (fn instanceof ReluFn) {
+            return "relu";
+        }
+        if (fn instanceof LeakyReluFn) {
+            return "leaky_relu";
+        }
+        if (fn instanceof TanhFn) {
+            return "tanh";
+        }
+        if (fn instanceof SoftmaxFn) {
+            return "softmax";
+        }
+        if (fn instanceof LinearFn) {
+            return "linear";
+        }
+        throw new IllegalArgumentException("Activation not supported by the model format: " + fn.getClass().getName());
+    }
+
+    private static double[] activationParameters(ActivationFn fn) {
+        if (fn instanceof LogisticFn logistic) {
+            return new double[] {logistic.steepness()};
+        }
+        if (fn instanceof LeakyReluFn leakyRelu) {
+            return new double[] {leakyRelu.slope()};
+        }
+        return new double[0];
+    }
+
+    private static double parameter(String name, double[] parameters) {
+        if (parameters.length != 1) {
+            throw new IllegalArgumentException("Activation " + name + " takes one parameter, not "
+                    + parameters.length);
+        }
+        return parameters[0];
+    }
+
+    private static ActivationFn activation(String name, double[] parameters) {
+        switch (name) {
+            case "logistic":
+                return new LogisticFn(parameter(name, parameters));
+            case "step":
+                return new StepFn();
+            case "relu":
+                return new ReluFn();
+            case "leaky_relu":
+                return new LeakyReluFn(parameter(name, parameters));
+            case "tanh":
+                return new TanhFn();
+            case "softmax":
+                return new SoftmaxFn();
+            case "linear":
+                return new LinearFn();
+            default:
+                throw new IllegalArgumentException("Unknown activation in model file: " + name);
+        }
+    }
+}
@@ -1,8 +1,21 @@
 package ml101.mlp;
 
 import ml101.mlp.activation.ActivationFn;
+import ml101.mlp.kernels.Kernels;
 
+/**
+ * Numeric helpers. The hot loops are delegated to the Kernels selected at startup (scalar or Vector API).
+ */
 public class NumUtilities {
+    private static final Kernels kernels = Kernels.select();
+
+    /**
+     * @return Returns the kernels in use
+     */
+    public static Kernels kernels() {
+        return kernels;
+    }
+
     /**
      * Cross Multiply a Matrix with a Vector.
      */
@@ -15,14 +28,86 @@ public class NumUtilities {
         }
     }
 
+    /**
+     * Cross Multiply a row-major Matrix with a Vector.
+     * @param columns Number of columns in each row of the matrix
+     */
+    public static void crossMultiply(double[] result, double[] matrix, int columns, double[] vector) {
+        kernels.crossMultiply(result, matrix, columns, vector);
+    }
+
     /**
      * Adds two vectors.
      */
     public static void vectorAdd(double[] result, double[] v1, double[] v2) {
-        int length = Math.min(v1.length, v2.length);
-        for (int i = 0; i < length; i++) {
-            result[i] = v1[i] + v2[i];
-        }
+        kernels.vectorAdd(result, v1, v2);
+    }
+
+    /**
+     * @return Returns the dot product of a[aOffset ..] and b[bOffset ..], over 'length' elements
+     */
+    public static double dot(double[] a, int aOffset, double[] b, int bOffset, int length) {
+        return kernels.dot(a, aOffset, b, bOffset, length);
+    }
+
+    /**
+     * y[yOffset ..] += alpha * x[xOffset ..], over 'length' elements.
+     */
+    public static void axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int length) {
+        kernels.axpy(alpha, x, xOffset, y, yOffset, length);
+    }
+
+    /**
+     * Adds the deltas to the result, then clears the deltas.
+     */
+    public static void addAndClear(double[] result, double[] deltas) {
+        kernels.addAndClear(result, deltas, result.length);
+    }
+
+    /**
+     * Matrix-matrix multiply, with the second matrix transposed: result = a * transpose(b).
+     * @see Kernels#multiplyByTransposed
+     */
+    public static void multiplyByTransposed(double[] result, double[] a, double[] b,
+                                            int rows, int inner, int columns) {
+        kernels.multiplyByTransposed(result, a, b, rows, inner, columns);
+    }
+
+    /**
+     * Matrix-matrix multiply: result = a * b.
+     * @see Kernels#multiply
+     */
+    public static void multiply(double[] result, double[] a, double[] b, int rows, int inner, int columns) {
+        kernels.multiply(result, a, b, rows, inner, columns);
+    }
+
+    /**
+     * Accumulates a scaled matrix-matrix multiply, with the first matrix transposed:
+     * result += scale * transpose(a) * b.
+     * @see Kernels#addTransposedProduct
+     */
+    public static void addTransposedProduct(double[] result, double scale, double[] a, double[] b,
+                                            int rows, int inner, int columns) {
+        kernels.addTransposedProduct(result, scale, a, b, rows, inner, columns);
+    }
+
+    /**
+     * Matrix-matrix multiply of a sparse matrix (given by its non-zero values) by a transposed one.
+     * @see Kernels#sparseMultiplyByTransposed
+     */
+    public static void sparseMultiplyByTransposed(double[] result, int[] rowStart, int[] indices, double[] values,
+                                                  double[] b, int rows, int inner, int columns) {
+        kernels.sparseMultiplyByTransposed(result, rowStart, indices, values, b, rows, inner, columns);
+    }
+
+    /**
+     * Accumulates a scaled matrix-matrix multiply of a transposed matrix and a sparse one.
+     * @see Kernels#addSparseTransposedProduct
+     */
+    public static void addSparseTransposedProduct(double[] result, double scale, double[] a,
+                                                  int[] rowStart, int[] indices, double[] values,
+                                                  int rows, int inner, int columns) {
+        kernels.addSparseTransposedProduct(result, scale, a, rowStart, indices, values, rows, inner, columns);
     }
 
     public static double[][][] zerosFrom(double[][][] shape) {
@@ -55,9 +140,7 @@ public class NumUtilities {
      * @param vector Output values for a vector
      */
     public static void activate(double[] vector, ActivationFn fn) {
-        for (int i = 0; i < vector.length; i++) {
-            vector[i] = fn.compute(vector[i]);
-        }
+        fn.compute(vector, 0, vector.length);
     }
 
     public static double square(double v) {
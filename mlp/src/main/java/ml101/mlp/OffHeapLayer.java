@@ -0,0 +1,311 @@
+package ml101.mlp;
+
+import ml101.mlp.activation.ActivationFn;
+import ml101.mlp.kernels.Kernels;
+import ml101.mlp.optimizer.Optimizer;
+import ml101.mlp.optimizer.Sgd;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.util.Arrays;
+import java.util.Random;
+
+import static java.lang.foreign.ValueLayout.JAVA_DOUBLE;
+import static ml101.mlp.NumUtilities.addAndClear;
+import static ml101.mlp.NumUtilities.dot;
+
+/**
+ * A layer whose weights, their deltas and the optimizer state of the weights live off the heap, in memory segments
+ * of an arena. Only the per-output arrays (biases, outputs, errors) stay on the heap, so a large network needs
+ * little heap and gives the garbage collector almost nothing to scan or copy.
+ *
+ * Computes exactly what Layer computes. The deltas and the optimizer state are only allocated when training
+ * first needs them, so a network that's only used for inference takes just its weights.
+ * Serializes as a plain Layer.
+ */
+class OffHeapLayer extends Layer {
+    private static final long serialVersionUID = 1L;
+    private static final Kernels kernels = NumUtilities.kernels();
+
+    private transient final Arena arena;
+    private transient MemorySegment weightMemory;
+    private transient MemorySegment deltaMemory;
+    private transient Optimizer optimizer;
+    private transient double learningRate;
+    private transient Optimizer.SegmentState weightState;
+
+    /*
+     * A new layer, initialized the same way as Layer(ActivationFn, int, int, Random).
+     */
+    OffHeapLayer(ActivationFn activationFn, int numInputs, int numOutputs, Random random, Arena arena) {
+        super(activationFn, numInputs, numOutputs, null, new double[numOutputs]);
+        this.arena = arena;
+        this.weightMemory = Optimizer.allocate(arena, (long) numOutputs * numInputs);
+        initializeWeights(random);
+    }
+
+    /*
+     * A layer over existing row-major weights allocated in (or mapped into) 'arena', e.g. from a model file.
+     */
+    OffHeapLayer(ActivationFn activationFn, int numInputs, int numOutputs, MemorySegment weights, double[] bias,
+                 Arena arena) {
+        super(activationFn, numInputs, numOutputs, null, bias);
+        this.arena = arena;
+        this.weightMemory = weights;
+    }
+
+    /*
+     * A replica, see Layer(Layer). Its deltas are freed with it, since workers come and go with every training run.
+     */
+    private OffHeapLayer(OffHeapLayer shared) {
+        super(shared.activationFn(), shared.numInputs, shared.numOutputs, null, shared.bias);
+        this.arena = Arena.ofAuto();
+        this.weightMemory = shared.writableWeights();
+        initializeComputationBuffers();
+    }
+
+    /*
+     * @return Returns a copy of a layer, with its weights in 'arena'
+     */
+    static OffHeapLayer of(Layer layer, Arena arena) {
+        final MemorySegment weights = Optimizer.allocate(arena, size(layer));
+        weights.copyFrom(layer.weightSegment());
+        return new OffHeapLayer(layer.activationFn(), layer.numInputs, layer.numOutputs, weights, layer.bias.clone(),
+                arena);
+    }
+
+    private static long size(Layer layer) {
+        return (long) layer.numOutputs * layer.numInputs;
+    }
+
+    /*
+     * Weights mapped read-only from a model file are copied into the arena before their first change,
+     * so a network that's only used for inference keeps sharing the file's pages.
+     */
+    private MemorySegment writableWeights() {
+        if (weightMemory.isReadOnly()) {
+            final MemorySegment copy = Optimizer.allocate(arena, size(this));
+            copy.copyFrom(weightMemory);
+            weightMemory = copy;
+        }
+        return weightMemory;
+    }
+
+    /*
+     * Copies mapped weights now, on one thread, since threads that each found them read-only would each
+     * make a copy and lose the others' updates.
+     */
+    @Override
+    void prepareForWriting() {
+        writableWeights();
+    }
+
+    private MemorySegment deltas() {
+        if (deltaMemory == null) {
+            deltaMemory = Optimizer.allocate(arena, size(this));
+        }
+        return deltaMemory;
+    }
+
+    private Optimizer.SegmentState weightState() {
+        if (weightState == null) {
+            weightState = optimizer.newState(size(this), learningRate, arena);
+        }
+        return weightState;
+    }
+
+    @Override
+    Layer replica() {
+        return new OffHeapLayer(this);
+    }
+
+    /*
+     * The copy's weights are freed when it's no longer used, so snapshots don't have to be closed.
+     */
+    @Override
+    Layer copy() {
+        return of(this, Arena.ofAuto());
+    }
+
+    @Override
+    void copyWeightsFrom(Layer other) {
+        writableWeights().copyFrom(other.weightSegment());
+        System.arraycopy(other.bias, 0, bias, 0, bias.length);
+    }
+
+    @Override
+    MemorySegment weightSegment() {
+        return weightMemory;
+    }
+
+    @Override
+    double[] weightArray() {
+        return weightMemory.toArray(JAVA_DOUBLE);
+    }
+
+    @Override
+    double weight(int j, int i) {
+        return weightMemory.getAtIndex(JAVA_DOUBLE, (long) j * numInputs + i);
+    }
+
+    @Override
+    void setRow(int j, double[] source, int offset) {
+        MemorySegment.copy(source, offset, writableWeights(), JAVA_DOUBLE, (long) j * numInputs * Double.BYTES,
+                numInputs);
+    }
+
+    @Override
+    void clearWeights(int[] indices) {
+        final MemorySegment weights = writableWeights();
+        for (int index : indices) {
+            weights.setAtIndex(JAVA_DOUBLE, index, 0.0);
+        }
+    }
+
+    @Override
+    void multiplyByWeights(double[] output, double[] input) {
+        kernels.crossMultiply(output, weightMemory, numInputs, input);
+    }
+
+    @Override
+    void multiplyByWeights(double[] batchOutput, double[] inputs, int batchSize) {
+        kernels.multiplyByTransposed(batchOutput, inputs, weightMemory, batchSize, numInputs, numOutputs);
+    }
+
+    @Override
+    void multiplyByWeights(double[] batchOutput, int[] rowStart, int[] indices, double[] values, int batchSize) {
+        kernels.sparseMultiplyByTransposed(batchOutput, rowStart, indices, values, weightMemory,
+                batchSize, numInputs, numOutputs);
+    }
+
+    @Override
+    void errorsAtInputs(double[] errors, double[] result) {
+        Arrays.fill(result, 0.0);
+        for (int j = 0; j < numOutputs; j++) {
+            kernels.axpy(errors[j], weightMemory, (long) j * numInputs, result, 0, numInputs);
+        }
+    }
+
+    @Override
+    void errorsAtInputs(double[] result, int batchSize) {
+        kernels.multiply(result, batchErrors, weightMemory, batchSize, numOutputs, numInputs);
+    }
+
+    @Override
+    void addToWeights(final double scale, final double[] errors, final double[] input) {
+        final MemorySegment weights = writableWeights();
+        for (int j = 0; j < numOutputs; j++) {
+            kernels.axpy(scale * errors[j], input, 0, weights, (long) j * numInputs, numInputs);
+        }
+    }
+
+    @Override
+    void addToWeights(final double scale, final double[] errors, final int[] rowStart, final int[] indices,
+                      final double[] values) {
+        kernels.addSparseTransposedProduct(writableWeights(), scale, errors, rowStart, indices, values,
+                numOutputs, 1, numInputs);
+    }
+
+    @Override
+    void addToDeltaWeights(final double[] input, final double learningRate) {
+        final MemorySegment deltas = deltas();
+        for (int j = 0; j < numOutputs; j++) {
+            kernels.axpy(learningRate * errors[j], input, 0, deltas, (long) j * numInputs, numInputs);
+        }
+    }
+
+    @Override
+    void addToDeltaWeights(final double[] inputs, int batchSize, final double learningRate) {
+        kernels.addTransposedProduct(deltas(), learningRate, batchErrors, inputs, numOutputs, batchSize, numInputs);
+    }
+
+    @Override
+    void addToDeltaWeights(final int[] rowStart, final int[] indices, final double[] values,
+                           int batchSize, final double learningRate) {
+        kernels.addSparseTransposedProduct(deltas(), learningRate, batchErrors, rowStart, indices, values,
+                numOutputs, batchSize, numInputs);
+    }
+
+    @Override
+    void addDeltaWeightsAndBias(final Layer replica) {
+        kernels.addAndClear(deltas(), ((OffHeapLayer) replica).deltas(), size(this));
+        addAndClear(deltaBias, replica.deltaBias);
+    }
+
+    @Override
+    int getDeltas(int start, double[] buffer) {
+        final int size = (int) size(this);
+        MemorySegment.copy(deltas(), JAVA_DOUBLE, 0, buffer, start, size);
+        System.arraycopy(deltaBias, 0, buffer, start + size, deltaBias.length);
+        return start + size + deltaBias.length;
+    }
+
+    @Override
+    int setDeltas(int start, double[] buffer) {
+        final int size = (int) size(this);
+        MemorySegment.copy(buffer, start, deltas(), JAVA_DOUBLE, 0, size);
+        System.arraycopy(buffer, start + size, deltaBias, 0, deltaBias.length);
+        return start + size + deltaBias.length;
+    }
+
+    @Override
+    double gradientNorm() {
+        return Math.sqrt(sumOfSquares(deltas()) + dot(deltaBias, 0, deltaBias, 0, deltaBias.length));
+    }
+
+    @Override
+    double weightNorm() {
+        return Math.sqrt(sumOfSquares(weightMemory) + dot(bias, 0, bias, 0, bias.length));
+    }
+
+    private static double sumOfSquares(MemorySegment segment) {
+        double sum = 0.0;
+        for (long i = 0; i < segment.byteSize() / Double.BYTES; i++) {
+            final double value = segment.getAtIndex(JAVA_DOUBLE, i);
+            sum += value * value;
+        }
+        return sum;
+    }
+
+    @Override
+    void initializeComputationBuffers() {
+        this.output    = new double[numOutputs];
+        this.errors    = new double[numOutputs];
+        this.deltaBias = new double[numOutputs];
+        initializeOptimizer(new Sgd(), 1.0);
+    }
+
+    @Override
+    void initializeOptimizer(Optimizer optimizer, double learningRate) {
+        this.optimizer    = optimizer;
+        this.learningRate = learningRate;
+        this.weightState  = null;
+        this.biasState    = optimizer.newState(bias.length, learningRate);
+    }
+
+    @Override
+    double[][][] saveOptimizerState() {
+        return new double[][][] {weightState().save(), biasState.save()};
+    }
+
+    @Override
+    void restoreOptimizerState(double[][][] saved) {
+        if (saved[0].length > 0) {
+            weightState().restore(saved[0]);
+            biasState.restore(saved[1]);
+        }
+    }
+
+    @Override
+    void updateTotalWeightsAndBias() {
+        weightState().update(writableWeights(), deltas());
+        biasState.update(bias, deltaBias);
+    }
+
+    /*
+     * Serialized as a Layer on the heap, so saved networks load the same whichever storage they were trained with.
+     */
+    private Object writeReplace() {
+        return new Layer(activationFn(), numInputs, numOutputs, weightArray(), bias);
+    }
+}
@@ -0,0 +1,183 @@
+package ml101.mlp;
+
+import ml101.mlp.data.TrainingData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.foreign.MemorySegment;
+import java.util.Arrays;
+
+import static java.lang.foreign.ValueLayout.JAVA_DOUBLE;
+
+/**
+ * Iterative magnitude pruning while a network trains: at the end of each epoch, the weights of smallest magnitude
+ * in each layer are set to zero, and kept at zero by every later update, so training adapts the remaining ones.
+ * Hogwild training moves them during an epoch, and sets them back to zero at its end.
+ *
+ * The fraction of pruned weights grows from zero to the target over a number of epochs, quickly at first and
+ * more slowly towards the end: sparsity(t) = target * (1 - (1 - t / epochs)^3), as in Zhu and Gupta,
+ * "To prune, or not to prune" (2017). Biases are not pruned.
+ * Set on MLP.Builder with pruning(...); prune a trained network at once with MLP.prune, and serve a pruned one
+ * with MLP.toSparse.
+ */
+public class Pruning {
+    private static final Logger logger = LoggerFactory.getLogger(Pruning.class);
+    private final double target;
+    private int startEpoch = 0;
+    private int epochs = 10;
+
+    private double sparsity;
+    // per layer, the indices of the weights kept at zero
+    private int[][] pruned;
+
+    /**
+     * Sparsity, size, latency and accuracy of a network served by MLP.predict, and of a pruned copy served by
+     * SparseMLP. Latencies are the average over the samples, in microseconds.
+     */
+    public record Report(double sparsity, long denseBytes, long sparseBytes, double denseMicros,
+                         double sparseMicros, double denseAccuracy, double sparseAccuracy) {
+        @Override
+        public String toString() {
+            return String.format("sparsity %.1f%%: size %d -> %d bytes (%.1fx), latency %.1f -> %.1f us (%.1fx), "
+                    + "accuracy %.4f -> %.4f", 100 * sparsity, denseBytes, sparseBytes,
+                    (double) denseBytes / sparseBytes, denseMicros, sparseMicros, denseMicros / sparseMicros,
+                    denseAccuracy, sparseAccuracy);
+        }
+    }
+
+    /**
+     * @param target Fraction of the weights of each layer that end up pruned, e.g. 0.9
+     */
+    public Pruning(final double target) {
+        if (target < 0.0 || target >= 1.0) {
+            throw new IllegalArgumentException("Sparsity must be in [0, 1), got " + target);
+        }
+        this.target = target;
+    }
+
+    /**
+     * Train this many epochs before pruning anything (0 by default).
+     */
+    public Pruning startEpoch(final int startEpoch) {
+        this.startEpoch = startEpoch;
+        return this;
+    }
+
+    /**
+     * Reach the target sparsity after this many epochs of pruning (10 by default).
+     */
+    public Pruning epochs(final int epochs) {
+        this.epochs = Math.max(1, epochs);
+        return this;
+    }
+
+    /**
+     * @return Returns the sparsity the schedule calls for at the end of epoch 'iteration'
+     */
+    double sparsityAt(final long iteration) {
+        final double progress = Math.min(1.0, Math.max(0.0, (double) (iteration - startEpoch) / epochs));
+        return target * (1.0 - Math.pow(1.0 - progress, 3));
+    }
+
+    /*
+     * Called by the training thread at the end of each epoch, before the weights are handed to the validation.
+     */
+    void epochEnded(final long iteration, final MLP mlp) {
+        final double next = sparsityAt(iteration);
+        if (pruned == null || next > sparsity) {
+            sparsity = next;
+            pruned = new int[mlp.layers.length][];
+            for (int l = 0; l < mlp.layers.length; l++) {
+                pruned[l] = prune(mlp.layers[l], sparsity);
+            }
+            logger.debug("Pruned {}% of the weights at iteration {}", Math.round(100 * sparsity), iteration);
+        }
+        else {
+            maskWeights(mlp);
+        }
+    }
+
+    /*
+     * Called after every update of the weights, which moves pruned weights away from zero.
+     */
+    void maskWeights(final MLP mlp) {
+        if (pruned != null) {
+            for (int l = 0; l < mlp.layers.length; l++) {
+                mlp.layers[l].clearWeights(pruned[l]);
+            }
+        }
+    }
+
+    /**
+     * Sets the 'sparsity' fraction of the weights of smallest magnitude in 'layer' to zero. Among weights of
+     * the same magnitude, those with the lowest index go first.
+     * The weights are read in place, but finding the threshold sorts a heap array of their magnitudes, as large
+     * as the layer, so an off-heap layer still needs that much heap while it's pruned.
+     * @return Returns the indices of the pruned weights, in increasing order
+     */
+    static int[] prune(final Layer layer, final double sparsity) {
+        final MemorySegment weights = layer.weightSegment();
+        final int size = layer.numInputs() * layer.numOutputs();
+        final int count = (int) Math.round(sparsity * size);
+        if (count == 0) {
+            return new int[0];
+        }
+        final double[] magnitudes = new double[size];
+        for (int i = 0; i < size; i++) {
+            magnitudes[i] = Math.abs(weights.getAtIndex(JAVA_DOUBLE, i));
+        }
+        Arrays.sort(magnitudes);
+        final double threshold = magnitudes[count - 1];
+        int below = 0;
+        for (int i = 0; i < count && magnitudes[i] < threshold; i++) {
+            below++;
+        }
+        // every weight below the threshold, and the first ones at the threshold
+        final int[] pruned = new int[count];
+        int atThreshold = count - below;
+        int k = 0;
+        for (int i = 0; i < size; i++) {
+            final double magnitude = Math.abs(weights.getAtIndex(JAVA_DOUBLE, i));
+            if (magnitude < threshold || magnitude == threshold && atThreshold-- > 0) {
+                pruned[k++] = i;
+            }
+        }
+        layer.clearWeights(pruned);
+        return pruned;
+    }
+
+    /**
+     * Prunes a copy of 'mlp' to 'sparsity' (on top of any pruning it already has), and compares it, served by
+     * SparseMLP, with 'mlp' served as it is, on 'data'.
+     */
+    public static Report report(final MLP mlp, final double sparsity, final TrainingData data) {
+        final MLP pruned = mlp.snapshot();
+        pruned.prune(sparsity);
+        final SparseMLP sparse = pruned.toSparse();
+        final double[] output = new double[mlp.numOutputs()];
+        int denseCorrect = 0;
+        int sparseCorrect = 0;
+        long denseNanos = 0;
+        long sparseNanos = 0;
+        // a first round of each, so both are compiled before they're timed
+        for (int round = 0; round < 2; round++) {
+            denseCorrect = 0;
+            sparseCorrect = 0;
+            long start = System.nanoTime();
+            for (int n = 0; n < data.length(); n++) {
+                mlp.predict(data.input(n), output);
+                denseCorrect += Validation.isCorrect(data.output(n), output) ? 1 : 0;
+            }
+            denseNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int n = 0; n < data.length(); n++) {
+                sparse.predict(data.input(n), output);
+                sparseCorrect += Validation.isCorrect(data.output(n), output) ? 1 : 0;
+            }
+            sparseNanos = System.nanoTime() - start;
+        }
+        return new Report(sparse.sparsity(), Double.BYTES * mlp.numParameters(), sparse.sizeInBytes(),
+                denseNanos / 1e3 / data.length(), sparseNanos / 1e3 / data.length(),
+                (double) denseCorrect / data.length(), (double) sparseCorrect / data.length());
+    }
+}
@@ -0,0 +1,218 @@
+package ml101.mlp;
+
+import ml101.mlp.data.TrainingData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Evaluates a network on a held-out data set while it trains, and stops training when the loss stops improving.
+ *
+ * At the end of an epoch, the weights are copied into a snapshot, which is evaluated on a background thread
+ * while training goes on. If the previous snapshot is still being evaluated, the epoch is skipped,
+ * so training never waits and at most one snapshot is pending. The snapshot with the lowest loss is kept.
+ * Set on MLP.Builder with validation(...).
+ */
+public class Validation {
+    private static final Logger logger = LoggerFactory.getLogger(Validation.class);
+    private final TrainingData data;
+    private int patience = 10;
+    private double minDelta = 0.0;
+    private boolean restoreBest = true;
+    private Consumer<Result> reporter = result -> logger.info("\t{}\t{}\t{}", result.epoch(), result.loss(),
+            result.accuracy());
+
+    private final List<Result> history = new ArrayList<>();
+    private final AtomicBoolean busy = new AtomicBoolean();
+    private ExecutorService executor;
+    private Future<?> pending;
+    private Result best;
+    private MLP bestSnapshot;
+
+    /**
+     * Validation loss and accuracy of the weights at the end of an epoch.
+     * Accuracy counts samples whose largest output matches the largest expected value
+     * (or, for a single output, both on the same side of 0.5).
+     */
+    public record Result(long epoch, double loss, double accuracy) {
+    }
+
+    public Validation(final TrainingData data) {
+        this.data = data;
+    }
+
+    /**
+     * Stop after this many evaluated epochs without a lower loss (10 by default). Zero never stops early.
+     */
+    public Validation patience(final int patience) {
+        this.patience = patience;
+        return this;
+    }
+
+    /**
+     * The loss has to drop by more than this to count as an improvement.
+     */
+    public Validation minDelta(final double minDelta) {
+        this.minDelta = minDelta;
+        return this;
+    }
+
+    /**
+     * Put the best snapshot's weights back into the network when training ends (true by default).
+     */
+    public Validation restoreBest(final boolean restoreBest) {
+        this.restoreBest = restoreBest;
+        return this;
+    }
+
+    /**
+     * Called on the validation thread with each result.
+     */
+    public Validation reportTo(final Consumer<Result> reporter) {
+        this.reporter = reporter;
+        return this;
+    }
+
+    /**
+     * @return Returns the results so far, in epoch order
+     */
+    public synchronized List<Result> history() {
+        return new ArrayList<>(history);
+    }
+
+    /**
+     * @return Returns the result with the lowest loss, or null before the first evaluation
+     */
+    public synchronized Result best() {
+        return best;
+    }
+
+    /**
+     * @return Returns a copy of the network at its best epoch, or null before the first evaluation
+     */
+    public synchronized MLP bestSnapshot() {
+        return bestSnapshot;
+    }
+
+    synchronized void start() {
+        history.clear();
+        best = null;
+        bestSnapshot = null;
+        if (executor == null) {
+            executor = Executors.newSingleThreadExecutor(Thread.ofPlatform().daemon().name("mlp-validation").factory());
+        }
+    }
+
+    /*
+     * Called by the training thread at the end of each epoch. Copies the weights only if the validation
+     * thread is idle.
+     */
+    void epochEnded(final long epoch, final MLP mlp) {
+        if (!busy.compareAndSet(false, true)) {
+            return;
+        }
+        final MLP snapshot = mlp.snapshot();
+        pending = executor.submit(() -> {
+            try {
+                evaluate(epoch, snapshot);
+            }
+            finally {
+                busy.set(false);
+            }
+        });
+    }
+
+    /**
+     * @return Returns true once 'patience' evaluated epochs went by without improvement
+     */
+    synchronized boolean shouldStop() {
+        return patience > 0 && best != null && countAfter(best.epoch()) >= patience;
+    }
+
+    /*
+     * Called by the training thread when training ends: waits for the last evaluation, then restores the
+     * best weights if asked to.
+     */
+    void finish(final MLP mlp) {
+        try {
+            if (pending != null) {
+                pending.get();
+            }
+        }
+        catch (final Exception ex) {
+            throw new IllegalStateException("Validation failed", ex);
+        }
+        finally {
+            executor.shutdown();
+            executor = null;
+        }
+        final MLP snapshot = bestSnapshot();
+        if (restoreBest && snapshot != null) {
+            mlp.copyWeightsFrom(snapshot);
+        }
+    }
+
+    /**
+     * @return Returns the average cost and the accuracy of 'mlp' on 'data', from any thread
+     */
+    public static Result evaluate(final MLP mlp, final TrainingData data, final long epoch) {
+        final double[] output = new double[mlp.numOutputs()];
+        double cost = 0.0;
+        int correct = 0;
+        for (int n = 0; n < data.length(); n++) {
+            final double[] expected = data.output(n);
+            mlp.predict(data.input(n), output);
+            cost += mlp.computeCost(expected, output, output.length);
+            if (isCorrect(expected, output)) {
+                correct++;
+            }
+        }
+        return new Result(epoch, cost / data.length(), (double) correct / data.length());
+    }
+
+    private void evaluate(final long epoch, final MLP snapshot) {
+        final Result result = evaluate(snapshot, data, epoch);
+        synchronized (this) {
+            history.add(result);
+            if (best == null || result.loss() < best.loss() - minDelta) {
+                best = result;
+                bestSnapshot = snapshot;
+            }
+        }
+        reporter.accept(result);
+    }
+
+    private int countAfter(final long epoch) {
+        int count = 0;
+        for (Result result : history) {
+            if (result.epoch() > epoch) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    static boolean isCorrect(final double[] expected, final double[] output) {
+        if (output.length == 1) {
+            return (output[0] >= 0.5) == (expected[0] >= 0.5);
+        }
+        return argmax(output) == argmax(expected);
+    }
+
+    static int argmax(final double[] values) {
+        int best = 0;
+        for (int j = 1; j < values.length; j++) {
+            if (values[j] > values[best]) {
+                best = j;
+            }
+        }
+        return best;
+    }
+}
@@ -1,6 +1,30 @@
 package ml101.mlp.activation;
 
+/**
+ * An activation function.
+ * Derivatives are taken as a function of the activated value, fz = compute(z), which is what the layers keep.
+ */
 public interface ActivationFn {
     double compute(double z);
     double derivative(double z);
+
+    /**
+     * Activates values[offset .. offset + length) in place: one sample's outputs of a layer.
+     * Implementations override this with a loop the JIT can vectorize, or with functions (like softmax)
+     * that depend on the whole row.
+     */
+    default void compute(double[] values, int offset, int length) {
+        for (int k = offset; k < offset + length; k++) {
+            values[k] = compute(values[k]);
+        }
+    }
+
+    /**
+     * Multiplies errors[k] by the derivative at outputs[k], for k in [offset, offset + length).
+     */
+    default void multiplyByDerivative(double[] outputs, double[] errors, int offset, int length) {
+        for (int k = offset; k < offset + length; k++) {
+            errors[k] *= derivative(outputs[k]);
+        }
+    }
 }
@@ -0,0 +1,51 @@
+package ml101.mlp.activation;
+
+import java.io.Serializable;
+
+/**
+ * Leaky rectified linear unit: z for positive z, slope * z otherwise.
+ */
+public class LeakyReluFn implements ActivationFn, Serializable {
+    private static final long serialVersionUID = 1L;
+    private final double slope;
+
+    public LeakyReluFn() {
+        this(0.01);
+    }
+
+    public LeakyReluFn(double slope) {
+        this.slope = slope;
+    }
+
+    public double slope() {
+        return slope;
+    }
+
+    @Override
+    public double compute(double z) {
+        return z > 0.0 ? z : slope * z;
+    }
+
+    /*
+     * A positive slope keeps the sign of z, so the activated value tells which side z was on.
+     */
+    @Override
+    public double derivative(double fz) {
+        return fz > 0.0 ? 1.0 : slope;
+    }
+
+    @Override
+    public void compute(double[] values, int offset, int length) {
+        for (int k = offset; k < offset + length; k++) {
+            final double z = values[k];
+            values[k] = z > 0.0 ? z : slope * z;
+        }
+    }
+
+    @Override
+    public void multiplyByDerivative(double[] outputs, double[] errors, int offset, int length) {
+        for (int k = offset; k < offset + length; k++) {
+            errors[k] *= outputs[k] > 0.0 ? 1.0 : slope;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package ml101.mlp.activation;
+
+import java.io.Serializable;
+
+/**
+ * Identity, z: the layer's output is just its weighted sum, e.g. the first of the two layers of a low-rank
+ * factorization (see MLP.factorize).
+ */
+public class LinearFn implements ActivationFn, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public double compute(double z) {
+        return z;
+    }
+
+    @Override
+    public double derivative(double fz) {
+        return 1.0;
+    }
+
+    @Override
+    public void compute(double[] values, int offset, int length) {
+    }
+
+    @Override
+    public void multiplyByDerivative(double[] outputs, double[] errors, int offset, int length) {
+    }
+}
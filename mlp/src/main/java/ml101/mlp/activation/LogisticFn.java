@@ -1,14 +1,25 @@
 package ml101.mlp.activation;
 
+import ml101.mlp.NumUtilities;
+
 import java.io.Serializable;
 
+/**
+ * Logistic (sigmoid) function, 1 / (1 + e^(-steepness * z)).
+ * Whole rows are computed by the selected kernels, with SIMD exponentials when the Vector API is available.
+ */
 public class LogisticFn implements ActivationFn, Serializable {
+    private static final long serialVersionUID = 7885927982371738576L;
     private double steepness;
 
     public LogisticFn(double steepness) {
         this.steepness = steepness;
     }
 
+    public double steepness() {
+        return steepness;
+    }
+
     @Override
     public double compute(double z) {
         return 1.0 / (1.0 + Math.exp(-steepness * z));
@@ -19,4 +30,16 @@ public class LogisticFn implements ActivationFn, Serializable {
         //double fz = compute(z);
         return fz * (1.0 - fz);
     }
+
+    @Override
+    public void compute(double[] values, int offset, int length) {
+        NumUtilities.kernels().logistic(values, offset, length, steepness);
+    }
+
+    @Override
+    public void multiplyByDerivative(double[] outputs, double[] errors, int offset, int length) {
+        for (int k = offset; k < offset + length; k++) {
+            errors[k] *= outputs[k] * (1.0 - outputs[k]);
+        }
+    }
 }
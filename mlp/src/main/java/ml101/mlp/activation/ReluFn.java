@@ -0,0 +1,34 @@
+package ml101.mlp.activation;
+
+import java.io.Serializable;
+
+/**
+ * Rectified linear unit, max(0, z).
+ */
+public class ReluFn implements ActivationFn, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public double compute(double z) {
+        return Math.max(0.0, z);
+    }
+
+    @Override
+    public double derivative(double fz) {
+        return fz > 0.0 ? 1.0 : 0.0;
+    }
+
+    @Override
+    public void compute(double[] values, int offset, int length) {
+        for (int k = offset; k < offset + length; k++) {
+            values[k] = Math.max(0.0, values[k]);
+        }
+    }
+
+    @Override
+    public void multiplyByDerivative(double[] outputs, double[] errors, int offset, int length) {
+        for (int k = offset; k < offset + length; k++) {
+            errors[k] = outputs[k] > 0.0 ? errors[k] : 0.0;
+        }
+    }
+}
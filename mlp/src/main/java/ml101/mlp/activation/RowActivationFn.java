@@ -0,0 +1,30 @@
+package ml101.mlp.activation;
+
+/**
+ * An activation function of a whole row of values, like softmax, rather than of each value on its own.
+ * Only the row methods mean anything: layers always call those, on one sample's outputs at a time.
+ */
+public abstract class RowActivationFn implements ActivationFn {
+
+    @Override
+    public final double compute(double z) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " is a function of whole rows");
+    }
+
+    @Override
+    public final double derivative(double fz) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " is a function of whole rows");
+    }
+
+    /**
+     * Activates the row values[offset .. offset + length) in place.
+     */
+    @Override
+    public abstract void compute(double[] values, int offset, int length);
+
+    /**
+     * Multiplies the row errors[offset .. offset + length) by the Jacobian of the function, given its outputs.
+     */
+    @Override
+    public abstract void multiplyByDerivative(double[] outputs, double[] errors, int offset, int length);
+}
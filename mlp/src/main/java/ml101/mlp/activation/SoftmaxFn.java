@@ -0,0 +1,48 @@
+package ml101.mlp.activation;
+
+import java.io.Serializable;
+
+/**
+ * Softmax, for the output layer of a classifier: turns a row of values into probabilities that add up to 1.
+ *
+ * An output layer with softmax is trained with the categorical cross-entropy cost (see MLP.computeCost),
+ * whose gradient through softmax is simply expected - output, so that layer doesn't go through
+ * multiplyByDerivative at all (see Layer.computeErrorAtOutputLayer).
+ */
+public class SoftmaxFn extends RowActivationFn implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /*
+     * Subtracts the row's maximum first, so exp doesn't overflow.
+     */
+    @Override
+    public void compute(double[] values, int offset, int length) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (int k = offset; k < offset + length; k++) {
+            max = Math.max(max, values[k]);
+        }
+        double sum = 0.0;
+        for (int k = offset; k < offset + length; k++) {
+            values[k] = Math.exp(values[k] - max);
+            sum += values[k];
+        }
+        final double scale = 1.0 / sum;
+        for (int k = offset; k < offset + length; k++) {
+            values[k] *= scale;
+        }
+    }
+
+    /*
+     * The Jacobian of softmax is diag(s) - s s', so errors[k] becomes s[k] * (errors[k] - sum of s[j] * errors[j]).
+     */
+    @Override
+    public void multiplyByDerivative(double[] outputs, double[] errors, int offset, int length) {
+        double dot = 0.0;
+        for (int k = offset; k < offset + length; k++) {
+            dot += outputs[k] * errors[k];
+        }
+        for (int k = offset; k < offset + length; k++) {
+            errors[k] = outputs[k] * (errors[k] - dot);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package ml101.mlp.activation;
+
+import ml101.mlp.NumUtilities;
+
+import java.io.Serializable;
+
+/**
+ * Hyperbolic tangent. Outputs are in (-1, 1), so it doesn't suit the cross-entropy cost as an output layer.
+ */
+public class TanhFn implements ActivationFn, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public double compute(double z) {
+        return Math.tanh(z);
+    }
+
+    @Override
+    public double derivative(double fz) {
+        return 1.0 - fz * fz;
+    }
+
+    @Override
+    public void compute(double[] values, int offset, int length) {
+        NumUtilities.kernels().tanh(values, offset, length);
+    }
+
+    @Override
+    public void multiplyByDerivative(double[] outputs, double[] errors, int offset, int length) {
+        for (int k = offset; k < offset + length; k++) {
+            errors[k] *= 1.0 - outputs[k] * outputs[k];
+        }
+    }
+}
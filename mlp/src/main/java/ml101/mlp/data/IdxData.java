@@ -0,0 +1,101 @@
+package ml101.mlp.data;
+
+import java.util.Arrays;
+
+/**
+ * Training data read from a pair of memory-mapped IDX files, e.g. the MNIST images and labels.
+ *
+ * Items are decoded when they are asked for, so the data set can be larger than the heap.
+ * Unsigned byte inputs are scaled to [0, 1]; other types are used as they are.
+ * Outputs whose items are single values (class labels) are one-hot encoded; other outputs are used as they are.
+ *
+ * input(n) and output(n) decode into buffers owned by the calling thread. The returned array is overwritten by the
+ * next call from the same thread, so copy it if it has to be kept.
+ */
+public class IdxData implements TrainingData {
+    private final IdxFile inputs;
+    private final IdxFile outputs;
+    private final int length;
+    private final double inputScale;
+    private final int numClasses;
+    private final ThreadLocal<double[]> inputBuffer;
+    private final ThreadLocal<double[]> outputBuffer;
+
+    public IdxData(final String inputFileName, final String outputFileName) {
+        this(new IdxFile(inputFileName), new IdxFile(outputFileName), 0);
+    }
+
+    /**
+     * @param numClasses  Number of classes for one-hot encoded labels, or 0 to use the largest label + 1
+     */
+    public IdxData(final String inputFileName, final String outputFileName, final int numClasses) {
+        this(new IdxFile(inputFileName), new IdxFile(outputFileName), numClasses);
+    }
+
+    private IdxData(final IdxFile inputs, final IdxFile outputs, final int numClasses) {
+        if (inputs.count() != outputs.count()) {
+            throw new IllegalArgumentException("Number of items does not match");
+        }
+        this.inputs = inputs;
+        this.outputs = outputs;
+        this.length = inputs.count();
+        this.inputScale = inputs.type() == IdxFile.UNSIGNED_BYTE ? 1.0 / 255.0 : 1.0;
+        if (outputs.itemSize() != 1) {
+            this.numClasses = 0;
+        }
+        else if (numClasses > 0) {
+            this.numClasses = numClasses;
+        }
+        else {
+            this.numClasses = largestLabel(outputs) + 1;
+        }
+        final int outputSize = this.numClasses > 0 ? this.numClasses : outputs.itemSize();
+        this.inputBuffer = ThreadLocal.withInitial(() -> new double[inputs.itemSize()]);
+        this.outputBuffer = ThreadLocal.withInitial(() -> new double[outputSize]);
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public double[] input(final int n) {
+        final double[] result = inputBuffer.get();
+        inputs.read(n, result, inputScale);
+        return result;
+    }
+
+    @Override
+    public double[] output(final int n) {
+        final double[] result = outputBuffer.get();
+        if (numClasses > 0) {
+            final int label = (int) outputs.get(n, 0);
+            if (label < 0 || label >= numClasses) {
+                throw new IllegalArgumentException("Label " + label + " out of range for item " + n);
+            }
+            Arrays.fill(result, 0.0);
+            result[label] = 1.0;
+        }
+        else {
+            outputs.read(n, result, 1.0);
+        }
+        return result;
+    }
+
+    /**
+     * @return Returns the dimensions of one input item, e.g. {28, 28} for MNIST images
+     */
+    public int[] inputDimensions() {
+        final int[] dimensions = inputs.dimensions();
+        return Arrays.copyOfRange(dimensions, 1, dimensions.length);
+    }
+
+    private static int largestLabel(final IdxFile labels) {
+        int largest = 0;
+        for (int n = 0; n < labels.count(); n++) {
+            largest = Math.max(largest, (int) labels.get(n, 0));
+        }
+        return largest;
+    }
+}
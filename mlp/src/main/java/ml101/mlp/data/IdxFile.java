@@ -0,0 +1,168 @@
+package ml101.mlp.data;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A memory-mapped IDX file: a big-endian header (two zero bytes, a type code, the number of dimensions,
+ * then each dimension's size as an int) followed by the items.
+ * The first dimension is the number of items; the remaining dimensions make up one item.
+ * Items are decoded from the mapping on demand, so the file is never fully loaded onto the heap.
+ */
+class IdxFile {
+    static final int UNSIGNED_BYTE = 0x08;
+    static final int BYTE = 0x09;
+    static final int SHORT = 0x0B;
+    static final int INT = 0x0C;
+    static final int FLOAT = 0x0D;
+    static final int DOUBLE = 0x0E;
+
+    private static final ValueLayout.OfShort SHORT_LAYOUT =
+            ValueLayout.JAVA_SHORT_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+    private static final ValueLayout.OfInt INT_LAYOUT =
+            ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+    private static final ValueLayout.OfFloat FLOAT_LAYOUT =
+            ValueLayout.JAVA_FLOAT_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+    private static final ValueLayout.OfDouble DOUBLE_LAYOUT =
+            ValueLayout.JAVA_DOUBLE_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+
+    private final MemorySegment segment;
+    private final int type;
+    private final int typeSize;
+    private final int[] dimensions;
+    private final long dataOffset;
+    private final int count;
+    private final int itemSize;
+
+    IdxFile(final String filename) {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            // the automatic arena unmaps the file once this object is no longer reachable
+            segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), Arena.ofAuto());
+        }
+        catch (final IOException ex) {
+            throw new IllegalArgumentException("Can't read file: " + filename, ex);
+        }
+        if (segment.byteSize() < 4 || segment.get(ValueLayout.JAVA_BYTE, 0) != 0
+                || segment.get(ValueLayout.JAVA_BYTE, 1) != 0) {
+            throw new IllegalArgumentException("Invalid IDX file: " + filename);
+        }
+        type = segment.get(ValueLayout.JAVA_BYTE, 2) & 0xff;
+        typeSize = typeSize(type, filename);
+        dimensions = new int[segment.get(ValueLayout.JAVA_BYTE, 3) & 0xff];
+        dataOffset = 4L + 4L * dimensions.length;
+        if (dimensions.length == 0 || segment.byteSize() < dataOffset) {
+            throw new IllegalArgumentException("Invalid IDX header: " + filename);
+        }
+        long size = 1;
+        for (int d = 0; d < dimensions.length; d++) {
+            dimensions[d] = segment.get(INT_LAYOUT, 4L + 4L * d);
+            if (dimensions[d] < 0) {
+                throw new IllegalArgumentException("Invalid IDX dimension: " + filename);
+            }
+            if (d > 0) {
+                size *= dimensions[d];
+            }
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("IDX items too large: " + filename);
+        }
+        count = dimensions[0];
+        itemSize = (int) size;
+        final long expected = dataOffset + (long) count * itemSize * typeSize;
+        if (segment.byteSize() < expected) {
+            throw new IllegalArgumentException("IDX file is truncated, expected " + expected + " bytes but found "
+                    + segment.byteSize() + ": " + filename);
+        }
+    }
+
+    int count() {
+        return count;
+    }
+
+    int itemSize() {
+        return itemSize;
+    }
+
+    int type() {
+        return type;
+    }
+
+    int[] dimensions() {
+        return Arrays.copyOf(dimensions, dimensions.length);
+    }
+
+    double get(final int n, final int i) {
+        final long offset = dataOffset + ((long) n * itemSize + i) * typeSize;
+        switch (type) {
+            case UNSIGNED_BYTE: return segment.get(ValueLayout.JAVA_BYTE, offset) & 0xff;
+            case BYTE:          return segment.get(ValueLayout.JAVA_BYTE, offset);
+            case SHORT:         return segment.get(SHORT_LAYOUT, offset);
+            case INT:           return segment.get(INT_LAYOUT, offset);
+            case FLOAT:         return segment.get(FLOAT_LAYOUT, offset);
+            default:            return segment.get(DOUBLE_LAYOUT, offset);
+        }
+    }
+
+    /*
+     * Decodes item n into 'result', multiplying each value by 'scale'.
+     * The type switch is outside the loops, so each loop reads one type sequentially.
+     */
+    void read(final int n, final double[] result, final double scale) {
+        final long offset = dataOffset + (long) n * itemSize * typeSize;
+        switch (type) {
+            case UNSIGNED_BYTE:
+                for (int i = 0; i < itemSize; i++) {
+                    result[i] = (segment.get(ValueLayout.JAVA_BYTE, offset + i) & 0xff) * scale;
+                }
+                break;
+            case BYTE:
+                for (int i = 0; i < itemSize; i++) {
+                    result[i] = segment.get(ValueLayout.JAVA_BYTE, offset + i) * scale;
+                }
+                break;
+            case SHORT:
+                for (int i = 0; i < itemSize; i++) {
+                    result[i] = segment.get(SHORT_LAYOUT, offset + 2L * i) * scale;
+                }
+                break;
+            case INT:
+                for (int i = 0; i < itemSize; i++) {
+                    result[i] = segment.get(INT_LAYOUT, offset + 4L * i) * scale;
+                }
+                break;
+            case FLOAT:
+                for (int i = 0; i < itemSize; i++) {
+                    result[i] = segment.get(FLOAT_LAYOUT, offset + 4L * i) * scale;
+                }
+                break;
+            default:
+                for (int i = 0; i < itemSize; i++) {
+                    result[i] = segment.get(DOUBLE_LAYOUT, offset + 8L * i) * scale;
+                }
+        }
+    }
+
+    private static int typeSize(final int type, final String filename) {
+        switch (type) {
+            case UNSIGNED_BYTE:
+            case BYTE:
+                return 1;
+            case SHORT:
+                return 2;
+            case INT:
+            case FLOAT:
+                return 4;
+            case DOUBLE:
+                return 8;
+            default:
+                throw new IllegalArgumentException("Unknown IDX type 0x" + Integer.toHexString(type) + ": " + filename);
+        }
+    }
+}
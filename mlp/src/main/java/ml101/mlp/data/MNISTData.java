@@ -29,7 +29,7 @@ public class MNISTData implements TrainingData {
 
             // read labels
             byte[] labelData = new byte[length];
-            labels.read(labelData);
+            labels.readFully(labelData);
             for (int j = 0; j < length; j++) {
                 output[j] = new double[10];
                 for (int i = 0; i < 10; i++) {
@@ -49,7 +49,7 @@ public class MNISTData implements TrainingData {
             for (int i = 0; i < length; i++) {
                 byte[] imageData = new byte[imageSize];
                 input[i] = new double[imageSize];
-                images.read(imageData);
+                images.readFully(imageData);
                 for (int j = 0; j < imageSize; j++) {
                     int x = imageData[j] & 0xff;
                     input[i][j] = x / 255.0;
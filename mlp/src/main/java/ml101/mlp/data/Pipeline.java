@@ -0,0 +1,258 @@
+package ml101.mlp.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Prefetches mini-batches of a TrainingData set on a background thread, so that reading, decoding and
+ * transforming samples overlaps with training.
+ *
+ * The prefetch thread goes through the data epoch after epoch, optionally shuffled, and fills a fixed set of
+ * reusable batches: while training works on one batch, up to 'prefetch' more are being filled or wait ready.
+ * Batches have to be given back with release once they are used. Close the pipeline to stop the prefetch thread.
+ */
+public class Pipeline implements AutoCloseable {
+    private final TrainingData data;
+    private final int batchSize;
+    private final Random random;
+    private final List<Transform> transforms;
+    private final BlockingQueue<Batch> free;
+    private final BlockingQueue<Batch> ready = new LinkedBlockingQueue<>();
+    private final Batch failed = new Batch(0, 0, 0);
+    private final Batch stopped = new Batch(0, 0, 0);
+    private volatile boolean closed;
+    private volatile Thread producer;
+    private volatile Throwable failure;
+
+    private Pipeline(final Builder builder) {
+        this.data = builder.data;
+        this.batchSize = builder.batchSize > 0 ? Math.min(builder.batchSize, data.length()) : data.length();
+        this.random = builder.random;
+        this.transforms = new ArrayList<>(builder.transforms);
+        this.free = new ArrayBlockingQueue<>(builder.prefetch + 1);
+        final int numInputs = data.input(0).length;
+        final int numOutputs = data.output(0).length;
+        for (int k = 0; k <= builder.prefetch; k++) {
+            free.add(new Batch(batchSize, numInputs, numOutputs));
+        }
+    }
+
+    /**
+     * @return Returns the number of samples in one epoch
+     */
+    public int length() {
+        return data.length();
+    }
+
+    public int batchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Waits for the next batch. Rethrows, as an IllegalStateException, any failure of the prefetch thread,
+     * and throws one once the pipeline is closed, including in a thread waiting here when it's closed.
+     */
+    public Batch take() {
+        if (closed) {
+            throw new IllegalStateException("Pipeline closed");
+        }
+        try {
+            final Batch batch = ready.take();
+            if (batch == failed) {
+                ready.add(failed);
+                throw new IllegalStateException("Prefetching failed", failure);
+            }
+            if (batch == stopped) {
+                ready.add(stopped);
+                throw new IllegalStateException("Pipeline closed");
+            }
+            return batch;
+        }
+        catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a batch", ex);
+        }
+    }
+
+    /**
+     * Gives a batch back to be refilled. The batch must not be used afterwards.
+     */
+    public void release(final Batch batch) {
+        free.add(batch);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        final Thread thread = producer;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    private void produce() {
+        producer = Thread.currentThread();
+        try {
+            final int length = data.length();
+            final int[] order = new int[length];
+            for (int n = 0; n < length; n++) {
+                order[n] = n;
+            }
+            while (!closed) {
+                if (random != null) {
+                    shuffle(order);
+                }
+                for (int start = 0; start < length && !closed; start += batchSize) {
+                    final Batch batch = free.take();
+                    batch.fill(order, start, Math.min(start + batchSize, length), start + batchSize >= length);
+                    ready.add(batch);
+                }
+            }
+        }
+        catch (final InterruptedException ex) {
+            // closed
+        }
+        catch (final Throwable ex) {
+            failure = ex;
+            ready.add(failed);
+            return;
+        }
+        // wakes up any thread waiting in take
+        ready.add(stopped);
+    }
+
+    /*
+     * Fisher-Yates shuffle, driven by the configured seed so that runs can be reproduced.
+     */
+    private void shuffle(final int[] order) {
+        for (int n = order.length - 1; n > 0; n--) {
+            final int k = random.nextInt(n + 1);
+            final int swap = order[n];
+            order[n] = order[k];
+            order[k] = swap;
+        }
+    }
+
+    /**
+     * A mini-batch: copies of the samples, after the transforms.
+     */
+    public class Batch implements TrainingData {
+        private final double[][] inputs;
+        private final double[][] outputs;
+        private int length;
+        private boolean endOfEpoch;
+
+        private Batch(final int batchSize, final int numInputs, final int numOutputs) {
+            this.inputs = new double[batchSize][numInputs];
+            this.outputs = new double[batchSize][numOutputs];
+        }
+
+        private void fill(final int[] order, final int from, final int to, final boolean endOfEpoch) {
+            for (int b = 0; b < to - from; b++) {
+                final int n = order[from + b];
+                System.arraycopy(data.input(n), 0, inputs[b], 0, inputs[b].length);
+                System.arraycopy(data.output(n), 0, outputs[b], 0, outputs[b].length);
+                for (Transform transform : transforms) {
+                    transform.apply(inputs[b], outputs[b]);
+                }
+            }
+            this.length = to - from;
+            this.endOfEpoch = endOfEpoch;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public double[] input(final int n) {
+            return inputs[n];
+        }
+
+        @Override
+        public double[] output(final int n) {
+            return outputs[n];
+        }
+
+        /**
+         * @return Returns true for the last batch of an epoch
+         */
+        public boolean endOfEpoch() {
+            return endOfEpoch;
+        }
+    }
+
+    /**
+     * Pipeline configuration object.
+     */
+    public static class Builder {
+        private final TrainingData data;
+        private int batchSize = 0;
+        private int prefetch = 2;
+        private Random random = null;
+        private Executor executor = null;
+        private final List<Transform> transforms = new ArrayList<>();
+
+        public Builder(final TrainingData data) {
+            this.data = data;
+        }
+
+        /**
+         * Number of samples per batch. Zero (the default) makes each epoch a single batch.
+         */
+        public Builder batchSize(final int batchSize) {
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * Number of batches filled ahead of training (2 by default, i.e. double buffering).
+         */
+        public Builder prefetch(final int prefetch) {
+            this.prefetch = Math.max(1, prefetch);
+            return this;
+        }
+
+        /**
+         * Shuffle the samples at the start of each epoch, with the given seed.
+         */
+        public Builder shuffle(final long seed) {
+            this.random = new Random(seed);
+            return this;
+        }
+
+        /**
+         * Adds a transform, applied to every sample after the ones added before it.
+         */
+        public Builder transform(final Transform transform) {
+            this.transforms.add(transform);
+            return this;
+        }
+
+        /**
+         * Runs the prefetch loop on the given executor, instead of a new daemon thread.
+         * The loop occupies one of the executor's threads until the pipeline is closed.
+         */
+        public Builder executor(final Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        public Pipeline start() {
+            final Pipeline pipeline = new Pipeline(this);
+            if (executor != null) {
+                executor.execute(pipeline::produce);
+            }
+            else {
+                Thread.ofPlatform().daemon().name("mlp-prefetch").start(pipeline::produce);
+            }
+            return pipeline;
+        }
+    }
+}
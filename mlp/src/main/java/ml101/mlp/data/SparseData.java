@@ -0,0 +1,91 @@
+package ml101.mlp.data;
+
+import java.util.Arrays;
+
+/**
+ * Training data whose inputs are stored as their non-zero values and indices, e.g. bag-of-words features.
+ *
+ * input(n) expands into a buffer owned by the calling thread. The returned array is overwritten by the next call
+ * from the same thread, so copy it if it has to be kept. Training reads the non-zero values directly.
+ */
+public class SparseData implements TrainingData {
+    private final int[][] indices;
+    private final double[][] values;
+    private final double[][] outputs;
+    private final ThreadLocal<double[]> inputBuffer;
+
+    /**
+     * @param numInputs  Number of values of each (expanded) input
+     * @param indices    For each sample, the indices of its non-zero inputs, increasing and less than numInputs
+     * @param values     For each sample, the values at those indices
+     */
+    public SparseData(int numInputs, int[][] indices, double[][] values, double[][] outputs) {
+        if (indices.length != values.length || indices.length != outputs.length) {
+            throw new IllegalArgumentException("Number of items does not match");
+        }
+        for (int n = 0; n < indices.length; n++) {
+            if (indices[n].length != values[n].length) {
+                throw new IllegalArgumentException("Indices and values of item " + n + " don't match");
+            }
+            int previous = -1;
+            for (int index : indices[n]) {
+                if (index <= previous || index >= numInputs) {
+                    throw new IllegalArgumentException("Index " + index + " out of order or range for item " + n);
+                }
+                previous = index;
+            }
+        }
+        this.indices = indices;
+        this.values = values;
+        this.outputs = outputs;
+        this.inputBuffer = ThreadLocal.withInitial(() -> new double[numInputs]);
+    }
+
+    /**
+     * @return Returns a sparse copy of the given data set
+     */
+    public static SparseData of(TrainingData data) {
+        final int length = data.length();
+        final int numInputs = data.input(0).length;
+        final int[] indexBuffer = new int[numInputs];
+        final double[] valueBuffer = new double[numInputs];
+        final int[][] indices = new int[length][];
+        final double[][] values = new double[length][];
+        final double[][] outputs = new double[length][];
+        for (int n = 0; n < length; n++) {
+            final int count = data.sparseInput(n, indexBuffer, valueBuffer, 0);
+            indices[n] = Arrays.copyOf(indexBuffer, count);
+            values[n] = Arrays.copyOf(valueBuffer, count);
+            outputs[n] = data.output(n).clone();
+        }
+        return new SparseData(numInputs, indices, values, outputs);
+    }
+
+    @Override
+    public int length() {
+        return indices.length;
+    }
+
+    @Override
+    public double[] input(int n) {
+        final double[] result = inputBuffer.get();
+        Arrays.fill(result, 0.0);
+        for (int k = 0; k < indices[n].length; k++) {
+            result[indices[n][k]] = values[n][k];
+        }
+        return result;
+    }
+
+    @Override
+    public double[] output(int n) {
+        return outputs[n];
+    }
+
+    @Override
+    public int sparseInput(int n, int[] indices, double[] values, int offset) {
+        final int count = this.indices[n].length;
+        System.arraycopy(this.indices[n], 0, indices, offset, count);
+        System.arraycopy(this.values[n], 0, values, offset, count);
+        return count;
+    }
+}
@@ -4,4 +4,56 @@ public interface TrainingData {
     int length();
     double[] input(int n);
     double[] output(int n);
+
+    /**
+     * Writes the non-zero values of the n-th input, and their indices, into the arrays from 'offset' on.
+     * The arrays have room for the whole input. Sparse data sets can override this to skip input(n).
+     * @return Returns the number of non-zero values
+     */
+    default int sparseInput(int n, int[] indices, double[] values, int offset) {
+        final double[] input = input(n);
+        int count = 0;
+        for (int i = 0; i < input.length; i++) {
+            if (input[i] != 0.0) {
+                indices[offset + count] = i;
+                values[offset + count] = input[i];
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return Returns a view of shard 'index' of 'count' contiguous shards of about the same length, e.g. the
+     * samples one process trains on in distributed training
+     */
+    default TrainingData shard(int index, int count) {
+        if (index < 0 || index >= count) {
+            throw new IllegalArgumentException("Shard " + index + " is not in [0, " + count + ")");
+        }
+        final TrainingData data = this;
+        final int from = (int) ((long) index * length() / count);
+        final int to = (int) ((long) (index + 1) * length() / count);
+        return new TrainingData() {
+            @Override
+            public int length() {
+                return to - from;
+            }
+
+            @Override
+            public double[] input(int n) {
+                return data.input(from + n);
+            }
+
+            @Override
+            public double[] output(int n) {
+                return data.output(from + n);
+            }
+
+            @Override
+            public int sparseInput(int n, int[] indices, double[] values, int offset) {
+                return data.sparseInput(from + n, indices, values, offset);
+            }
+        };
+    }
 }
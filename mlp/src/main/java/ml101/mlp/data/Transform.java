@@ -0,0 +1,37 @@
+package ml101.mlp.data;
+
+import java.util.Random;
+
+/**
+ * A preprocessing or augmentation step of a Pipeline.
+ * Transforms run on the pipeline's prefetch thread, on the batch's own copies of a sample, so they may change
+ * 'input' and 'output' in place.
+ */
+@FunctionalInterface
+public interface Transform {
+    void apply(double[] input, double[] output);
+
+    /**
+     * @return Returns a transform that maps each input value x to (x - mean) / stdDev
+     */
+    static Transform normalize(final double mean, final double stdDev) {
+        final double scale = 1.0 / stdDev;
+        return (input, output) -> {
+            for (int i = 0; i < input.length; i++) {
+                input[i] = (input[i] - mean) * scale;
+            }
+        };
+    }
+
+    /**
+     * @return Returns a transform that adds gaussian noise to each input value, seeded for reproducible runs
+     */
+    static Transform gaussianNoise(final double stdDev, final long seed) {
+        final Random random = new Random(seed);
+        return (input, output) -> {
+            for (int i = 0; i < input.length; i++) {
+                input[i] += stdDev * random.nextGaussian();
+            }
+        };
+    }
+}
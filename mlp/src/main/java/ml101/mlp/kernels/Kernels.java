@@ -0,0 +1,247 @@
+package ml101.mlp.kernels;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.foreign.MemorySegment;
+import java.util.Arrays;
+
+import static java.lang.foreign.ValueLayout.JAVA_DOUBLE;
+
+/**
+ * Numeric kernels used by the hot loops of the network.
+ * Matrices are row-major double arrays.
+ *
+ * The implementation is picked once, by the 'ml101.kernels' system property:
+ * 'vector' uses the Vector API (requires --add-modules jdk.incubator.vector), 'scalar' uses plain loops.
+ * When the property isn't set, the Vector API is used if its module is available. Any other value is an error.
+ */
+public interface Kernels {
+    /**
+     * @return Returns the dot product of a[aOffset ..] and b[bOffset ..], over 'length' elements
+     */
+    double dot(double[] a, int aOffset, double[] b, int bOffset, int length);
+
+    /**
+     * Cross Multiply a row-major Matrix with a Vector.
+     * @param columns Number of columns in each row of the matrix
+     */
+    void crossMultiply(double[] result, double[] matrix, int columns, double[] vector);
+
+    /**
+     * Adds two vectors, over the length of the shorter one.
+     */
+    void vectorAdd(double[] result, double[] v1, double[] v2);
+
+    /**
+     * y[yOffset ..] += alpha * x[xOffset ..], over 'length' elements.
+     */
+    void axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int length);
+
+    /**
+     * Adds the deltas to the result, then clears the deltas, in one pass.
+     */
+    void addAndClear(double[] result, double[] deltas, int length);
+
+    /**
+     * Matrix-matrix multiply, with the second matrix transposed: result = a * transpose(b).
+     * a is rows x inner and b is columns x inner, so both are read along their rows.
+     * Used to push a batch of samples (the rows of a) through a layer's weights (the rows of b).
+     */
+    void multiplyByTransposed(double[] result, double[] a, double[] b, int rows, int inner, int columns);
+
+    /**
+     * Matrix-matrix multiply: result = a * b.
+     * a is rows x inner and b is inner x columns.
+     * Used to propagate a batch of errors (the rows of a) back through a layer's weights (b).
+     */
+    void multiply(double[] result, double[] a, double[] b, int rows, int inner, int columns);
+
+    /**
+     * Accumulates a scaled matrix-matrix multiply, with the first matrix transposed:
+     * result += scale * transpose(a) * b.
+     * a is inner x rows and b is inner x columns; result is rows x columns.
+     * Used to add the delta weights of a batch: the errors (a) times the inputs (b) of every sample.
+     */
+    void addTransposedProduct(double[] result, double scale, double[] a, double[] b,
+                              int rows, int inner, int columns);
+
+    /**
+     * Matrix-matrix multiply of a sparse matrix by a transposed one: result = a * transpose(b).
+     * a is rows x inner, given by its non-zero values: row r has values[k] in column indices[k],
+     * for k from rowStart[r] to rowStart[r + 1]. b is columns x inner.
+     * Used to push a batch of sparse samples (the rows of a) through a layer's weights (the rows of b).
+     */
+    void sparseMultiplyByTransposed(double[] result, int[] rowStart, int[] indices, double[] values, double[] b,
+                                    int rows, int inner, int columns);
+
+    /**
+     * Accumulates a scaled matrix-matrix multiply of a transposed matrix and a sparse one:
+     * result += scale * transpose(a) * b.
+     * a is inner x rows; b is inner x columns, given by its non-zero values as in sparseMultiplyByTransposed.
+     * Only the columns of the non-zero values are touched.
+     * Used to add the delta weights of a batch of sparse samples: the errors (a) times the inputs (b).
+     * One plain loop for every implementation: the touched columns are scattered, and a vector gather, fma and
+     * scatter of them measured about twice as slow.
+     */
+    default void addSparseTransposedProduct(double[] result, double scale, double[] a,
+                                            int[] rowStart, int[] indices, double[] values,
+                                            int rows, int inner, int columns) {
+        for (int r = 0; r < rows; r++) {
+            final int row = r * columns;
+            for (int k = 0; k < inner; k++) {
+                final double x = scale * a[k * rows + r];
+                for (int p = rowStart[k]; p < rowStart[k + 1]; p++) {
+                    result[row + indices[p]] += x * values[p];
+                }
+            }
+        }
+    }
+
+    /*
+     * Off-heap variants, for weights held in a MemorySegment of native-order doubles. Segment positions are
+     * element indices, not byte offsets. Only the three primitives below need a fast implementation: the matrix
+     * kernels are built on them, row by row, in the order that reads the segment once.
+     */
+
+    /**
+     * @return Returns the dot product of the doubles a[aIndex ..] of a segment and b[bOffset ..]
+     */
+    double dot(MemorySegment a, long aIndex, double[] b, int bOffset, int length);
+
+    /**
+     * y[yOffset ..] += alpha * x[xIndex ..], with x in a segment.
+     */
+    void axpy(double alpha, MemorySegment x, long xIndex, double[] y, int yOffset, int length);
+
+    /**
+     * y[yIndex ..] += alpha * x[xOffset ..], with y in a segment.
+     */
+    void axpy(double alpha, double[] x, int xOffset, MemorySegment y, long yIndex, int length);
+
+    /**
+     * Adds the deltas to the result, then clears the deltas, with both in segments.
+     */
+    default void addAndClear(MemorySegment result, MemorySegment deltas, long length) {
+        for (long i = 0; i < length; i++) {
+            result.setAtIndex(JAVA_DOUBLE, i, result.getAtIndex(JAVA_DOUBLE, i) + deltas.getAtIndex(JAVA_DOUBLE, i));
+        }
+        deltas.asSlice(0, length * Double.BYTES).fill((byte) 0);
+    }
+
+    /**
+     * @see #crossMultiply(double[], double[], int, double[])
+     */
+    default void crossMultiply(double[] result, MemorySegment matrix, int columns, double[] vector) {
+        for (int j = 0; j < result.length; j++) {
+            result[j] = dot(matrix, (long) j * columns, vector, 0, columns);
+        }
+    }
+
+    /**
+     * @see #multiplyByTransposed(double[], double[], double[], int, int, int)
+     */
+    default void multiplyByTransposed(double[] result, double[] a, MemorySegment b, int rows, int inner, int columns) {
+        for (int c = 0; c < columns; c++) {
+            for (int r = 0; r < rows; r++) {
+                result[r * columns + c] = dot(b, (long) c * inner, a, r * inner, inner);
+            }
+        }
+    }
+
+    /**
+     * @see #multiply(double[], double[], double[], int, int, int)
+     */
+    default void multiply(double[] result, double[] a, MemorySegment b, int rows, int inner, int columns) {
+        Arrays.fill(result, 0, rows * columns, 0.0);
+        for (int k = 0; k < inner; k++) {
+            for (int r = 0; r < rows; r++) {
+                axpy(a[r * inner + k], b, (long) k * columns, result, r * columns, columns);
+            }
+        }
+    }
+
+    /**
+     * @see #addTransposedProduct(double[], double, double[], double[], int, int, int)
+     */
+    default void addTransposedProduct(MemorySegment result, double scale, double[] a, double[] b,
+                                      int rows, int inner, int columns) {
+        for (int r = 0; r < rows; r++) {
+            for (int k = 0; k < inner; k++) {
+                axpy(scale * a[k * rows + r], b, k * columns, result, (long) r * columns, columns);
+            }
+        }
+    }
+
+    /**
+     * @see #sparseMultiplyByTransposed(double[], int[], int[], double[], double[], int, int, int)
+     */
+    default void sparseMultiplyByTransposed(double[] result, int[] rowStart, int[] indices, double[] values,
+                                            MemorySegment b, int rows, int inner, int columns) {
+        for (int c = 0; c < columns; c++) {
+            final long row = (long) c * inner;
+            for (int r = 0; r < rows; r++) {
+                double sum = 0.0;
+                for (int k = rowStart[r]; k < rowStart[r + 1]; k++) {
+                    sum += values[k] * b.getAtIndex(JAVA_DOUBLE, row + indices[k]);
+                }
+                result[r * columns + c] = sum;
+            }
+        }
+    }
+
+    /**
+     * @see #addSparseTransposedProduct(double[], double, double[], int[], int[], double[], int, int, int)
+     */
+    default void addSparseTransposedProduct(MemorySegment result, double scale, double[] a,
+                                            int[] rowStart, int[] indices, double[] values,
+                                            int rows, int inner, int columns) {
+        for (int r = 0; r < rows; r++) {
+            final long row = (long) r * columns;
+            for (int k = 0; k < inner; k++) {
+                final double x = scale * a[k * rows + r];
+                for (int p = rowStart[k]; p < rowStart[k + 1]; p++) {
+                    final long index = row + indices[p];
+                    result.setAtIndex(JAVA_DOUBLE, index, result.getAtIndex(JAVA_DOUBLE, index) + x * values[p]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Logistic function in place: values[k] = 1 / (1 + exp(-steepness * values[k])), over 'length' elements.
+     */
+    void logistic(double[] values, int offset, int length, double steepness);
+
+    /**
+     * Hyperbolic tangent in place, over 'length' elements.
+     */
+    void tanh(double[] values, int offset, int length);
+
+    /**
+     * @return Returns the kernels selected by the 'ml101.kernels' system property
+     * @throws IllegalArgumentException if the property is neither 'vector' nor 'scalar'
+     */
+    static Kernels select() {
+        final Logger logger = LoggerFactory.getLogger(Kernels.class);
+        final String name = System.getProperty("ml101.kernels", "");
+        if (!(name.isEmpty() || name.equals("vector") || name.equals("scalar"))) {
+            throw new IllegalArgumentException("Unknown ml101.kernels '" + name + "', use 'vector' or 'scalar'");
+        }
+        final boolean vectorModule = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+        if (name.equals("scalar") || (name.isEmpty() && !vectorModule)) {
+            return new ScalarKernels();
+        }
+        try {
+            // loaded by name, so that this class links without the incubator module
+            final Kernels kernels = (Kernels) Class.forName("ml101.mlp.kernels.VectorKernels")
+                    .getDeclaredConstructor().newInstance();
+            logger.info("Using Vector API kernels");
+            return kernels;
+        }
+        catch (final ReflectiveOperationException | LinkageError ex) {
+            logger.warn("Vector API kernels not available, using scalar kernels: {}", ex.toString());
+            return new ScalarKernels();
+        }
+    }
+}
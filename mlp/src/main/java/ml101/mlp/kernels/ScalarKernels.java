@@ -0,0 +1,255 @@
+package ml101.mlp.kernels;
+
+import java.lang.foreign.MemorySegment;
+import java.util.Arrays;
+
+import static java.lang.foreign.ValueLayout.JAVA_DOUBLE;
+
+/**
+ * Plain Java implementation of the numeric kernels.
+ */
+public class ScalarKernels implements Kernels {
+    /*
+     * Number of doubles per cache block in the matrix-matrix kernels (2 KB per row segment).
+     */
+    static final int BLOCK = 256;
+
+    /*
+     * Sums into four independent partial sums, so the additions don't wait on each other.
+     */
+    @Override
+    public double dot(double[] a, int aOffset, double[] b, int bOffset, int length) {
+        double sum0 = 0.0, sum1 = 0.0, sum2 = 0.0, sum3 = 0.0;
+        int i = 0;
+        for (; i + 3 < length; i += 4) {
+            sum0 += a[aOffset + i]     * b[bOffset + i];
+            sum1 += a[aOffset + i + 1] * b[bOffset + i + 1];
+            sum2 += a[aOffset + i + 2] * b[bOffset + i + 2];
+            sum3 += a[aOffset + i + 3] * b[bOffset + i + 3];
+        }
+        for (; i < length; i++) {
+            sum0 += a[aOffset + i] * b[bOffset + i];
+        }
+        return (sum0 + sum1) + (sum2 + sum3);
+    }
+
+    @Override
+    public void crossMultiply(double[] result, double[] matrix, int columns, double[] vector) {
+        for (int j = 0; j < result.length; j++) {
+            result[j] = dot(vector, 0, matrix, j * columns, columns);
+        }
+    }
+
+    @Override
+    public void vectorAdd(double[] result, double[] v1, double[] v2) {
+        int length = Math.min(v1.length, v2.length);
+        for (int i = 0; i < length; i++) {
+            result[i] = v1[i] + v2[i];
+        }
+    }
+
+    @Override
+    public void axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            y[yOffset + i] += alpha * x[xOffset + i];
+        }
+    }
+
+    @Override
+    public double dot(MemorySegment a, long aIndex, double[] b, int bOffset, int length) {
+        double sum0 = 0.0, sum1 = 0.0;
+        int i = 0;
+        for (; i + 1 < length; i += 2) {
+            sum0 += a.getAtIndex(JAVA_DOUBLE, aIndex + i)     * b[bOffset + i];
+            sum1 += a.getAtIndex(JAVA_DOUBLE, aIndex + i + 1) * b[bOffset + i + 1];
+        }
+        for (; i < length; i++) {
+            sum0 += a.getAtIndex(JAVA_DOUBLE, aIndex + i) * b[bOffset + i];
+        }
+        return sum0 + sum1;
+    }
+
+    @Override
+    public void axpy(double alpha, MemorySegment x, long xIndex, double[] y, int yOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            y[yOffset + i] += alpha * x.getAtIndex(JAVA_DOUBLE, xIndex + i);
+        }
+    }
+
+    @Override
+    public void axpy(double alpha, double[] x, int xOffset, MemorySegment y, long yIndex, int length) {
+        for (int i = 0; i < length; i++) {
+            y.setAtIndex(JAVA_DOUBLE, yIndex + i, y.getAtIndex(JAVA_DOUBLE, yIndex + i) + alpha * x[xOffset + i]);
+        }
+    }
+
+    @Override
+    public void addAndClear(double[] result, double[] deltas, int length) {
+        for (int i = 0; i < length; i++) {
+            result[i] += deltas[i];
+            deltas[i] = 0.0;
+        }
+    }
+
+    /*
+     * Works on 4 x 2 register tiles, over blocks of 'inner' that stay in cache.
+     */
+    @Override
+    public void multiplyByTransposed(double[] result, double[] a, double[] b, int rows, int inner, int columns) {
+        Arrays.fill(result, 0, rows * columns, 0.0);
+        for (int k0 = 0; k0 < inner; k0 += BLOCK) {
+            final int k1 = Math.min(k0 + BLOCK, inner);
+            int r = 0;
+            for (; r + 3 < rows; r += 4) {
+                final int a0 = r * inner, a1 = a0 + inner, a2 = a1 + inner, a3 = a2 + inner;
+                int c = 0;
+                for (; c + 1 < columns; c += 2) {
+                    final int b0 = c * inner, b1 = b0 + inner;
+                    double s00 = 0.0, s01 = 0.0, s10 = 0.0, s11 = 0.0;
+                    double s20 = 0.0, s21 = 0.0, s30 = 0.0, s31 = 0.0;
+                    for (int k = k0; k < k1; k++) {
+                        final double w0 = b[b0 + k], w1 = b[b1 + k];
+                        final double x0 = a[a0 + k], x1 = a[a1 + k], x2 = a[a2 + k], x3 = a[a3 + k];
+                        s00 += x0 * w0; s01 += x0 * w1;
+                        s10 += x1 * w0; s11 += x1 * w1;
+                        s20 += x2 * w0; s21 += x2 * w1;
+                        s30 += x3 * w0; s31 += x3 * w1;
+                    }
+                    result[r * columns + c]           += s00;
+                    result[r * columns + c + 1]       += s01;
+                    result[(r + 1) * columns + c]     += s10;
+                    result[(r + 1) * columns + c + 1] += s11;
+                    result[(r + 2) * columns + c]     += s20;
+                    result[(r + 2) * columns + c + 1] += s21;
+                    result[(r + 3) * columns + c]     += s30;
+                    result[(r + 3) * columns + c + 1] += s31;
+                }
+                for (; c < columns; c++) {
+                    for (int t = 0; t < 4; t++) {
+                        result[(r + t) * columns + c] += dot(a, (r + t) * inner, b, c * inner, k0, k1);
+                    }
+                }
+            }
+            for (; r < rows; r++) {
+                for (int c = 0; c < columns; c++) {
+                    result[r * columns + c] += dot(a, r * inner, b, c * inner, k0, k1);
+                }
+            }
+        }
+    }
+
+    /*
+     * Each row of b is loaded once per 4 rows of the result, over column blocks that stay in cache.
+     */
+    @Override
+    public void multiply(double[] result, double[] a, double[] b, int rows, int inner, int columns) {
+        Arrays.fill(result, 0, rows * columns, 0.0);
+        for (int c0 = 0; c0 < columns; c0 += BLOCK) {
+            final int c1 = Math.min(c0 + BLOCK, columns);
+            int r = 0;
+            for (; r + 3 < rows; r += 4) {
+                final int r0 = r * columns, r1 = r0 + columns, r2 = r1 + columns, r3 = r2 + columns;
+                for (int k = 0; k < inner; k++) {
+                    final double x0 = a[r * inner + k], x1 = a[(r + 1) * inner + k];
+                    final double x2 = a[(r + 2) * inner + k], x3 = a[(r + 3) * inner + k];
+                    final int row = k * columns;
+                    for (int c = c0; c < c1; c++) {
+                        final double w = b[row + c];
+                        result[r0 + c] += x0 * w;
+                        result[r1 + c] += x1 * w;
+                        result[r2 + c] += x2 * w;
+                        result[r3 + c] += x3 * w;
+                    }
+                }
+            }
+            for (; r < rows; r++) {
+                for (int k = 0; k < inner; k++) {
+                    final double x = a[r * inner + k];
+                    final int row = k * columns;
+                    for (int c = c0; c < c1; c++) {
+                        result[r * columns + c] += x * b[row + c];
+                    }
+                }
+            }
+        }
+    }
+
+    /*
+     * Each row of b is loaded once per 4 rows of the result, over column blocks that stay in cache.
+     */
+    @Override
+    public void addTransposedProduct(double[] result, double scale, double[] a, double[] b,
+                                     int rows, int inner, int columns) {
+        for (int c0 = 0; c0 < columns; c0 += BLOCK) {
+            final int c1 = Math.min(c0 + BLOCK, columns);
+            int r = 0;
+            for (; r + 3 < rows; r += 4) {
+                final int r0 = r * columns, r1 = r0 + columns, r2 = r1 + columns, r3 = r2 + columns;
+                for (int k = 0; k < inner; k++) {
+                    final double x0 = scale * a[k * rows + r], x1 = scale * a[k * rows + r + 1];
+                    final double x2 = scale * a[k * rows + r + 2], x3 = scale * a[k * rows + r + 3];
+                    final int row = k * columns;
+                    for (int c = c0; c < c1; c++) {
+                        final double v = b[row + c];
+                        result[r0 + c] += x0 * v;
+                        result[r1 + c] += x1 * v;
+                        result[r2 + c] += x2 * v;
+                        result[r3 + c] += x3 * v;
+                    }
+                }
+            }
+            for (; r < rows; r++) {
+                for (int k = 0; k < inner; k++) {
+                    final double x = scale * a[k * rows + r];
+                    final int row = k * columns;
+                    for (int c = c0; c < c1; c++) {
+                        result[r * columns + c] += x * b[row + c];
+                    }
+                }
+            }
+        }
+    }
+
+    /*
+     * Goes through b a row at a time, so each row stays in cache while all the sparse rows of a are multiplied by it.
+     */
+    @Override
+    public void sparseMultiplyByTransposed(double[] result, int[] rowStart, int[] indices, double[] values,
+                                           double[] b, int rows, int inner, int columns) {
+        for (int c = 0; c < columns; c++) {
+            final int row = c * inner;
+            for (int r = 0; r < rows; r++) {
+                double sum = 0.0;
+                for (int k = rowStart[r]; k < rowStart[r + 1]; k++) {
+                    sum += values[k] * b[row + indices[k]];
+                }
+                result[r * columns + c] = sum;
+            }
+        }
+    }
+
+    /*
+     * Dot product of two row segments [from, to).
+     */
+    private static double dot(double[] a, int aRow, double[] b, int bRow, int from, int to) {
+        double sum = 0.0;
+        for (int k = from; k < to; k++) {
+            sum += a[aRow + k] * b[bRow + k];
+        }
+        return sum;
+    }
+
+    @Override
+    public void logistic(double[] values, int offset, int length, double steepness) {
+        for (int k = offset; k < offset + length; k++) {
+            values[k] = 1.0 / (1.0 + Math.exp(-steepness * values[k]));
+        }
+    }
+
+    @Override
+    public void tanh(double[] values, int offset, int length) {
+        for (int k = offset; k < offset + length; k++) {
+            values[k] = Math.tanh(values[k]);
+        }
+    }
+}
@@ -0,0 +1,355 @@
+package ml101.mlp.kernels;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import static java.lang.foreign.ValueLayout.JAVA_DOUBLE;
+
+import static ml101.mlp.kernels.ScalarKernels.BLOCK;
+
+/**
+ * Kernels written with the Vector API, which the JIT compiles to SIMD instructions (e.g. AVX2 or AVX-512).
+ * Loop tails shorter than a vector are done with scalar code.
+ * Results can differ from ScalarKernels in the last bits, since sums are taken in a different order with fused
+ * multiply-adds.
+ */
+public class VectorKernels implements Kernels {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+    private static final ByteOrder ORDER = ByteOrder.nativeOrder();
+
+    /*
+     * Uses two vector accumulators, so consecutive fused multiply-adds don't wait on each other.
+     */
+    @Override
+    public double dot(double[] a, int aOffset, double[] b, int bOffset, int length) {
+        DoubleVector sum0 = DoubleVector.zero(SPECIES);
+        DoubleVector sum1 = DoubleVector.zero(SPECIES);
+        int i = 0;
+        for (; i + 2 * LANES <= length; i += 2 * LANES) {
+            sum0 = DoubleVector.fromArray(SPECIES, a, aOffset + i)
+                    .fma(DoubleVector.fromArray(SPECIES, b, bOffset + i), sum0);
+            sum1 = DoubleVector.fromArray(SPECIES, a, aOffset + i + LANES)
+                    .fma(DoubleVector.fromArray(SPECIES, b, bOffset + i + LANES), sum1);
+        }
+        for (; i + LANES <= length; i += LANES) {
+            sum0 = DoubleVector.fromArray(SPECIES, a, aOffset + i)
+                    .fma(DoubleVector.fromArray(SPECIES, b, bOffset + i), sum0);
+        }
+        double sum = sum0.add(sum1).reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public void crossMultiply(double[] result, double[] matrix, int columns, double[] vector) {
+        for (int j = 0; j < result.length; j++) {
+            result[j] = dot(vector, 0, matrix, j * columns, columns);
+        }
+    }
+
+    @Override
+    public void vectorAdd(double[] result, double[] v1, double[] v2) {
+        final int length = Math.min(v1.length, v2.length);
+        int i = 0;
+        for (; i < SPECIES.loopBound(length); i += LANES) {
+            DoubleVector.fromArray(SPECIES, v1, i)
+                    .add(DoubleVector.fromArray(SPECIES, v2, i))
+                    .intoArray(result, i);
+        }
+        for (; i < length; i++) {
+            result[i] = v1[i] + v2[i];
+        }
+    }
+
+    @Override
+    public void axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int length) {
+        final DoubleVector scale = DoubleVector.broadcast(SPECIES, alpha);
+        int i = 0;
+        for (; i < SPECIES.loopBound(length); i += LANES) {
+            DoubleVector.fromArray(SPECIES, x, xOffset + i)
+                    .fma(scale, DoubleVector.fromArray(SPECIES, y, yOffset + i))
+                    .intoArray(y, yOffset + i);
+        }
+        for (; i < length; i++) {
+            y[yOffset + i] += alpha * x[xOffset + i];
+        }
+    }
+
+    @Override
+    public double dot(MemorySegment a, long aIndex, double[] b, int bOffset, int length) {
+        DoubleVector sum0 = DoubleVector.zero(SPECIES);
+        DoubleVector sum1 = DoubleVector.zero(SPECIES);
+        final long offset = aIndex * Double.BYTES;
+        int i = 0;
+        for (; i + 2 * LANES <= length; i += 2 * LANES) {
+            sum0 = DoubleVector.fromMemorySegment(SPECIES, a, offset + (long) i * Double.BYTES, ORDER)
+                    .fma(DoubleVector.fromArray(SPECIES, b, bOffset + i), sum0);
+            sum1 = DoubleVector.fromMemorySegment(SPECIES, a, offset + (long) (i + LANES) * Double.BYTES, ORDER)
+                    .fma(DoubleVector.fromArray(SPECIES, b, bOffset + i + LANES), sum1);
+        }
+        for (; i + LANES <= length; i += LANES) {
+            sum0 = DoubleVector.fromMemorySegment(SPECIES, a, offset + (long) i * Double.BYTES, ORDER)
+                    .fma(DoubleVector.fromArray(SPECIES, b, bOffset + i), sum0);
+        }
+        double sum = sum0.add(sum1).reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            sum += a.getAtIndex(JAVA_DOUBLE, aIndex + i) * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public void axpy(double alpha, MemorySegment x, long xIndex, double[] y, int yOffset, int length) {
+        final DoubleVector scale = DoubleVector.broadcast(SPECIES, alpha);
+        final long offset = xIndex * Double.BYTES;
+        int i = 0;
+        for (; i < SPECIES.loopBound(length); i += LANES) {
+            DoubleVector.fromMemorySegment(SPECIES, x, offset + (long) i * Double.BYTES, ORDER)
+                    .fma(scale, DoubleVector.fromArray(SPECIES, y, yOffset + i))
+                    .intoArray(y, yOffset + i);
+        }
+        for (; i < length; i++) {
+            y[yOffset + i] += alpha * x.getAtIndex(JAVA_DOUBLE, xIndex + i);
+        }
+    }
+
+    @Override
+    public void axpy(double alpha, double[] x, int xOffset, MemorySegment y, long yIndex, int length) {
+        final DoubleVector scale = DoubleVector.broadcast(SPECIES, alpha);
+        final long offset = yIndex * Double.BYTES;
+        int i = 0;
+        for (; i < SPECIES.loopBound(length); i += LANES) {
+            final long position = offset + (long) i * Double.BYTES;
+            DoubleVector.fromArray(SPECIES, x, xOffset + i)
+                    .fma(scale, DoubleVector.fromMemorySegment(SPECIES, y, position, ORDER))
+                    .intoMemorySegment(y, position, ORDER);
+        }
+        for (; i < length; i++) {
+            y.setAtIndex(JAVA_DOUBLE, yIndex + i, y.getAtIndex(JAVA_DOUBLE, yIndex + i) + alpha * x[xOffset + i]);
+        }
+    }
+
+    @Override
+    public void addAndClear(double[] result, double[] deltas, int length) {
+        final DoubleVector zero = DoubleVector.zero(SPECIES);
+        int i = 0;
+        for (; i < SPECIES.loopBound(length); i += LANES) {
+            DoubleVector.fromArray(SPECIES, result, i)
+                    .add(DoubleVector.fromArray(SPECIES, deltas, i))
+                    .intoArray(result, i);
+            zero.intoArray(deltas, i);
+        }
+        for (; i < length; i++) {
+            result[i] += deltas[i];
+            deltas[i] = 0.0;
+        }
+    }
+
+    /*
+     * Works on 4 x 2 tiles of vector accumulators, over blocks of 'inner' that stay in cache.
+     */
+    @Override
+    public void multiplyByTransposed(double[] result, double[] a, double[] b, int rows, int inner, int columns) {
+        Arrays.fill(result, 0, rows * columns, 0.0);
+        for (int k0 = 0; k0 < inner; k0 += BLOCK) {
+            final int k1 = Math.min(k0 + BLOCK, inner);
+            final int kv = k0 + SPECIES.loopBound(k1 - k0);
+            int r = 0;
+            for (; r + 3 < rows; r += 4) {
+                final int a0 = r * inner, a1 = a0 + inner, a2 = a1 + inner, a3 = a2 + inner;
+                int c = 0;
+                for (; c + 1 < columns; c += 2) {
+                    final int b0 = c * inner, b1 = b0 + inner;
+                    DoubleVector s00 = DoubleVector.zero(SPECIES), s01 = DoubleVector.zero(SPECIES);
+                    DoubleVector s10 = DoubleVector.zero(SPECIES), s11 = DoubleVector.zero(SPECIES);
+                    DoubleVector s20 = DoubleVector.zero(SPECIES), s21 = DoubleVector.zero(SPECIES);
+                    DoubleVector s30 = DoubleVector.zero(SPECIES), s31 = DoubleVector.zero(SPECIES);
+                    for (int k = k0; k < kv; k += LANES) {
+                        final DoubleVector w0 = DoubleVector.fromArray(SPECIES, b, b0 + k);
+                        final DoubleVector w1 = DoubleVector.fromArray(SPECIES, b, b1 + k);
+                        final DoubleVector x0 = DoubleVector.fromArray(SPECIES, a, a0 + k);
+                        s00 = x0.fma(w0, s00);
+                        s01 = x0.fma(w1, s01);
+                        final DoubleVector x1 = DoubleVector.fromArray(SPECIES, a, a1 + k);
+                        s10 = x1.fma(w0, s10);
+                        s11 = x1.fma(w1, s11);
+                        final DoubleVector x2 = DoubleVector.fromArray(SPECIES, a, a2 + k);
+                        s20 = x2.fma(w0, s20);
+                        s21 = x2.fma(w1, s21);
+                        final DoubleVector x3 = DoubleVector.fromArray(SPECIES, a, a3 + k);
+                        s30 = x3.fma(w0, s30);
+                        s31 = x3.fma(w1, s31);
+                    }
+                    result[r * columns + c]           += s00.reduceLanes(VectorOperators.ADD) + tail(a, a0, b, b0, kv, k1);
+                    result[r * columns + c + 1]       += s01.reduceLanes(VectorOperators.ADD) + tail(a, a0, b, b1, kv, k1);
+                    result[(r + 1) * columns + c]     += s10.reduceLanes(VectorOperators.ADD) + tail(a, a1, b, b0, kv, k1);
+                    result[(r + 1) * columns + c + 1] += s11.reduceLanes(VectorOperators.ADD) + tail(a, a1, b, b1, kv, k1);
+                    result[(r + 2) * columns + c]     += s20.reduceLanes(VectorOperators.ADD) + tail(a, a2, b, b0, kv, k1);
+                    result[(r + 2) * columns + c + 1] += s21.reduceLanes(VectorOperators.ADD) + tail(a, a2, b, b1, kv, k1);
+                    result[(r + 3) * columns + c]     += s30.reduceLanes(VectorOperators.ADD) + tail(a, a3, b, b0, kv, k1);
+                    result[(r + 3) * columns + c + 1] += s31.reduceLanes(VectorOperators.ADD) + tail(a, a3, b, b1, kv, k1);
+                }
+                for (; c < columns; c++) {
+                    for (int t = 0; t < 4; t++) {
+                        result[(r + t) * columns + c] += dot(a, (r + t) * inner + k0, b, c * inner + k0, k1 - k0);
+                    }
+                }
+            }
+            for (; r < rows; r++) {
+                for (int c = 0; c < columns; c++) {
+                    result[r * columns + c] += dot(a, r * inner + k0, b, c * inner + k0, k1 - k0);
+                }
+            }
+        }
+    }
+
+    /*
+     * Each row of b is loaded once per 4 rows of the result, over column blocks that stay in cache.
+     */
+    @Override
+    public void multiply(double[] result, double[] a, double[] b, int rows, int inner, int columns) {
+        Arrays.fill(result, 0, rows * columns, 0.0);
+        for (int c0 = 0; c0 < columns; c0 += BLOCK) {
+            final int c1 = Math.min(c0 + BLOCK, columns);
+            int r = 0;
+            for (; r + 3 < rows; r += 4) {
+                for (int k = 0; k < inner; k++) {
+                    addRows(result, r * columns, columns, b, k * columns, c0, c1,
+                            a[r * inner + k], a[(r + 1) * inner + k],
+                            a[(r + 2) * inner + k], a[(r + 3) * inner + k]);
+                }
+            }
+            for (; r < rows; r++) {
+                for (int k = 0; k < inner; k++) {
+                    axpy(a[r * inner + k], b, k * columns + c0, result, r * columns + c0, c1 - c0);
+                }
+            }
+        }
+    }
+
+    /*
+     * Each row of b is loaded once per 4 rows of the result, over column blocks that stay in cache.
+     */
+    @Override
+    public void addTransposedProduct(double[] result, double scale, double[] a, double[] b,
+                                     int rows, int inner, int columns) {
+        for (int c0 = 0; c0 < columns; c0 += BLOCK) {
+            final int c1 = Math.min(c0 + BLOCK, columns);
+            int r = 0;
+            for (; r + 3 < rows; r += 4) {
+                for (int k = 0; k < inner; k++) {
+                    addRows(result, r * columns, columns, b, k * columns, c0, c1,
+                            scale * a[k * rows + r], scale * a[k * rows + r + 1],
+                            scale * a[k * rows + r + 2], scale * a[k * rows + r + 3]);
+                }
+            }
+            for (; r < rows; r++) {
+                for (int k = 0; k < inner; k++) {
+                    axpy(scale * a[k * rows + r], b, k * columns + c0, result, r * columns + c0, c1 - c0);
+                }
+            }
+        }
+    }
+
+    /*
+     * Same order as the scalar version, with the values of b gathered a vector at a time.
+     */
+    @Override
+    public void sparseMultiplyByTransposed(double[] result, int[] rowStart, int[] indices, double[] values,
+                                           double[] b, int rows, int inner, int columns) {
+        for (int c = 0; c < columns; c++) {
+            final int row = c * inner;
+            for (int r = 0; r < rows; r++) {
+                final int end = rowStart[r + 1];
+                int k = rowStart[r];
+                DoubleVector sum = DoubleVector.zero(SPECIES);
+                for (; k + LANES <= end; k += LANES) {
+                    sum = DoubleVector.fromArray(SPECIES, values, k)
+                            .fma(DoubleVector.fromArray(SPECIES, b, row, indices, k), sum);
+                }
+                double total = sum.reduceLanes(VectorOperators.ADD);
+                for (; k < end; k++) {
+                    total += values[k] * b[row + indices[k]];
+                }
+                result[r * columns + c] = total;
+            }
+        }
+    }
+
+    /*
+     * The exponentials are computed a vector at a time (on x86, by the JIT's SIMD math library).
+     */
+    @Override
+    public void logistic(double[] values, int offset, int length, double steepness) {
+        final DoubleVector scale = DoubleVector.broadcast(SPECIES, -steepness);
+        final DoubleVector one = DoubleVector.broadcast(SPECIES, 1.0);
+        int k = 0;
+        for (; k < SPECIES.loopBound(length); k += LANES) {
+            final DoubleVector exp = DoubleVector.fromArray(SPECIES, values, offset + k)
+                    .mul(scale)
+                    .lanewise(VectorOperators.EXP);
+            one.div(exp.add(one)).intoArray(values, offset + k);
+        }
+        for (; k < length; k++) {
+            values[offset + k] = 1.0 / (1.0 + Math.exp(-steepness * values[offset + k]));
+        }
+    }
+
+    @Override
+    public void tanh(double[] values, int offset, int length) {
+        int k = 0;
+        for (; k < SPECIES.loopBound(length); k += LANES) {
+            DoubleVector.fromArray(SPECIES, values, offset + k)
+                    .lanewise(VectorOperators.TANH)
+                    .intoArray(values, offset + k);
+        }
+        for (; k < length; k++) {
+            values[offset + k] = Math.tanh(values[offset + k]);
+        }
+    }
+
+    /*
+     * Adds x0..x3 times the b row segment [c0, c1) to 4 consecutive rows of the result.
+     */
+    private static void addRows(double[] result, int r0, int columns, double[] b, int row, int c0, int c1,
+                                double x0, double x1, double x2, double x3) {
+        final int r1 = r0 + columns, r2 = r1 + columns, r3 = r2 + columns;
+        final DoubleVector v0 = DoubleVector.broadcast(SPECIES, x0), v1 = DoubleVector.broadcast(SPECIES, x1);
+        final DoubleVector v2 = DoubleVector.broadcast(SPECIES, x2), v3 = DoubleVector.broadcast(SPECIES, x3);
+        final int cv = c0 + SPECIES.loopBound(c1 - c0);
+        int c = c0;
+        for (; c < cv; c += LANES) {
+            final DoubleVector w = DoubleVector.fromArray(SPECIES, b, row + c);
+            w.fma(v0, DoubleVector.fromArray(SPECIES, result, r0 + c)).intoArray(result, r0 + c);
+            w.fma(v1, DoubleVector.fromArray(SPECIES, result, r1 + c)).intoArray(result, r1 + c);
+            w.fma(v2, DoubleVector.fromArray(SPECIES, result, r2 + c)).intoArray(result, r2 + c);
+            w.fma(v3, DoubleVector.fromArray(SPECIES, result, r3 + c)).intoArray(result, r3 + c);
+        }
+        for (; c < c1; c++) {
+            final double w = b[row + c];
+            result[r0 + c] += x0 * w;
+            result[r1 + c] += x1 * w;
+            result[r2 + c] += x2 * w;
+            result[r3 + c] += x3 * w;
+        }
+    }
+
+    /*
+     * Scalar dot product of two row segments [from, to), for the elements left over after the vector loop.
+     */
+    private static double tail(double[] a, int aRow, double[] b, int bRow, int from, int to) {
+        double sum = 0.0;
+        for (int k = from; k < to; k++) {
+            sum += a[aRow + k] * b[bRow + k];
+        }
+        return sum;
+    }
+}
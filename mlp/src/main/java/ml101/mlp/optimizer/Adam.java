@@ -0,0 +1,129 @@
+package ml101.mlp.optimizer;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+
+import static java.lang.foreign.ValueLayout.JAVA_DOUBLE;
+
+/**
+ * Adam: steps scaled per parameter by running averages of the gradient and of its square, with bias correction.
+ * Usually wants a smaller learning rate than Sgd, e.g. 0.001.
+ */
+public class Adam implements Optimizer {
+    private final double beta1;
+    private final double beta2;
+    private final double epsilon;
+
+    public Adam() {
+        this(0.9, 0.999, 1e-8);
+    }
+
+    public Adam(final double beta1, final double beta2, final double epsilon) {
+        this.beta1 = beta1;
+        this.beta2 = beta2;
+        this.epsilon = epsilon;
+    }
+
+    @Override
+    public State newState(final int size, final double learningRate) {
+        return new AdamState(size, learningRate);
+    }
+
+    @Override
+    public SegmentState newState(final long size, final double learningRate, final Arena arena) {
+        return new AdamSegmentState(size, learningRate, arena);
+    }
+
+    private class AdamState implements State {
+        private final double[] mean;
+        private final double[] variance;
+        private final double learningRate;
+        private double beta1Power = 1.0;
+        private double beta2Power = 1.0;
+
+        AdamState(final int size, final double learningRate) {
+            this.mean = new double[size];
+            this.variance = new double[size];
+            this.learningRate = learningRate;
+        }
+
+        @Override
+        public void update(final double[] parameters, final double[] gradients) {
+            beta1Power *= beta1;
+            beta2Power *= beta2;
+            final double meanCorrection = 1.0 / (1.0 - beta1Power);
+            final double varianceCorrection = 1.0 / (1.0 - beta2Power);
+            for (int i = 0; i < parameters.length; i++) {
+                final double gradient = gradients[i];
+                mean[i] = beta1 * mean[i] + (1.0 - beta1) * gradient;
+                variance[i] = beta2 * variance[i] + (1.0 - beta2) * gradient * gradient;
+                parameters[i] += learningRate * mean[i] * meanCorrection
+                        / (Math.sqrt(variance[i] * varianceCorrection) + epsilon);
+                gradients[i] = 0.0;
+            }
+        }
+
+        @Override
+        public double[][] save() {
+            return new double[][] {mean.clone(), variance.clone(), {beta1Power, beta2Power}};
+        }
+
+        @Override
+        public void restore(final double[][] saved) {
+            System.arraycopy(saved[0], 0, mean, 0, mean.length);
+            System.arraycopy(saved[1], 0, variance, 0, variance.length);
+            beta1Power = saved[2][0];
+            beta2Power = saved[2][1];
+        }
+    }
+
+    /*
+     * AdamState with the running averages off-heap.
+     */
+    private class AdamSegmentState implements SegmentState {
+        private final MemorySegment mean;
+        private final MemorySegment variance;
+        private final long size;
+        private final double learningRate;
+        private double beta1Power = 1.0;
+        private double beta2Power = 1.0;
+
+        AdamSegmentState(final long size, final double learningRate, final Arena arena) {
+            this.mean = Optimizer.allocate(arena, size);
+            this.variance = Optimizer.allocate(arena, size);
+            this.size = size;
+            this.learningRate = learningRate;
+        }
+
+        @Override
+        public void update(final MemorySegment parameters, final MemorySegment gradients) {
+            beta1Power *= beta1;
+            beta2Power *= beta2;
+            final double meanCorrection = 1.0 / (1.0 - beta1Power);
+            final double varianceCorrection = 1.0 / (1.0 - beta2Power);
+            for (long i = 0; i < size; i++) {
+                final double gradient = gradients.getAtIndex(JAVA_DOUBLE, i);
+                final double m = beta1 * mean.getAtIndex(JAVA_DOUBLE, i) + (1.0 - beta1) * gradient;
+                final double v = beta2 * variance.getAtIndex(JAVA_DOUBLE, i) + (1.0 - beta2) * gradient * gradient;
+                mean.setAtIndex(JAVA_DOUBLE, i, m);
+                variance.setAtIndex(JAVA_DOUBLE, i, v);
+                parameters.setAtIndex(JAVA_DOUBLE, i, parameters.getAtIndex(JAVA_DOUBLE, i)
+                        + learningRate * m * meanCorrection / (Math.sqrt(v * varianceCorrection) + epsilon));
+            }
+            gradients.fill((byte) 0);
+        }
+
+        @Override
+        public double[][] save() {
+            return new double[][] {mean.toArray(JAVA_DOUBLE), variance.toArray(JAVA_DOUBLE), {beta1Power, beta2Power}};
+        }
+
+        @Override
+        public void restore(final double[][] saved) {
+            MemorySegment.copy(saved[0], 0, mean, JAVA_DOUBLE, 0, saved[0].length);
+            MemorySegment.copy(saved[1], 0, variance, JAVA_DOUBLE, 0, saved[1].length);
+            beta1Power = saved[2][0];
+            beta2Power = saved[2][1];
+        }
+    }
+}
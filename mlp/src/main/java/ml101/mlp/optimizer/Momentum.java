@@ -0,0 +1,73 @@
+package ml101.mlp.optimizer;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+
+import static java.lang.foreign.ValueLayout.JAVA_DOUBLE;
+
+/**
+ * Gradient descent with momentum: each step keeps 'momentum' times the previous step.
+ */
+public class Momentum implements Optimizer {
+    private final double momentum;
+
+    public Momentum() {
+        this(0.9);
+    }
+
+    public Momentum(final double momentum) {
+        this.momentum = momentum;
+    }
+
+    @Override
+    public State newState(final int size, final double learningRate) {
+        final double[] velocity = new double[size];
+        return new State() {
+            @Override
+            public void update(final double[] parameters, final double[] gradients) {
+                for (int i = 0; i < parameters.length; i++) {
+                    velocity[i] = momentum * velocity[i] + learningRate * gradients[i];
+                    parameters[i] += velocity[i];
+                    gradients[i] = 0.0;
+                }
+            }
+
+            @Override
+            public double[][] save() {
+                return new double[][] {velocity.clone()};
+            }
+
+            @Override
+            public void restore(final double[][] saved) {
+                System.arraycopy(saved[0], 0, velocity, 0, velocity.length);
+            }
+        };
+    }
+
+    @Override
+    public SegmentState newState(final long size, final double learningRate, final Arena arena) {
+        final MemorySegment velocity = Optimizer.allocate(arena, size);
+        return new SegmentState() {
+            @Override
+            public void update(final MemorySegment parameters, final MemorySegment gradients) {
+                for (long i = 0; i < size; i++) {
+                    final double v = momentum * velocity.getAtIndex(JAVA_DOUBLE, i)
+                            + learningRate * gradients.getAtIndex(JAVA_DOUBLE, i);
+                    velocity.setAtIndex(JAVA_DOUBLE, i, v);
+                    parameters.setAtIndex(JAVA_DOUBLE, i, parameters.getAtIndex(JAVA_DOUBLE, i) + v);
+                }
+                gradients.fill((byte) 0);
+            }
+
+            @Override
+            public double[][] save() {
+                return new double[][] {velocity.toArray(JAVA_DOUBLE)};
+            }
+
+            @Override
+            public void restore(final double[][] saved) {
+                MemorySegment.copy(saved[0], 0, velocity, JAVA_DOUBLE, 0, saved[0].length);
+            }
+        };
+    }
+}
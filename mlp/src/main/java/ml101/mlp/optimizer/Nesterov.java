@@ -0,0 +1,75 @@
+package ml101.mlp.optimizer;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+
+import static java.lang.foreign.ValueLayout.JAVA_DOUBLE;
+
+/**
+ * Nesterov accelerated gradient, in the form that only needs the gradient at the current parameters:
+ * the step is the new velocity looked ahead by one more momentum step.
+ */
+public class Nesterov implements Optimizer {
+    private final double momentum;
+
+    public Nesterov() {
+        this(0.9);
+    }
+
+    public Nesterov(final double momentum) {
+        this.momentum = momentum;
+    }
+
+    @Override
+    public State newState(final int size, final double learningRate) {
+        final double[] velocity = new double[size];
+        return new State() {
+            @Override
+            public void update(final double[] parameters, final double[] gradients) {
+                for (int i = 0; i < parameters.length; i++) {
+                    final double step = learningRate * gradients[i];
+                    velocity[i] = momentum * velocity[i] + step;
+                    parameters[i] += momentum * velocity[i] + step;
+                    gradients[i] = 0.0;
+                }
+            }
+
+            @Override
+            public double[][] save() {
+                return new double[][] {velocity.clone()};
+            }
+
+            @Override
+            public void restore(final double[][] saved) {
+                System.arraycopy(saved[0], 0, velocity, 0, velocity.length);
+            }
+        };
+    }
+
+    @Override
+    public SegmentState newState(final long size, final double learningRate, final Arena arena) {
+        final MemorySegment velocity = Optimizer.allocate(arena, size);
+        return new SegmentState() {
+            @Override
+            public void update(final MemorySegment parameters, final MemorySegment gradients) {
+                for (long i = 0; i < size; i++) {
+                    final double step = learningRate * gradients.getAtIndex(JAVA_DOUBLE, i);
+                    final double v = momentum * velocity.getAtIndex(JAVA_DOUBLE, i) + step;
+                    velocity.setAtIndex(JAVA_DOUBLE, i, v);
+                    parameters.setAtIndex(JAVA_DOUBLE, i, parameters.getAtIndex(JAVA_DOUBLE, i) + momentum * v + step);
+                }
+                gradients.fill((byte) 0);
+            }
+
+            @Override
+            public double[][] save() {
+                return new double[][] {velocity.toArray(JAVA_DOUBLE)};
+            }
+
+            @Override
+            public void restore(final double[][] saved) {
+                MemorySegment.copy(saved[0], 0, velocity, JAVA_DOUBLE, 0, saved[0].length);
+            }
+        };
+    }
+}
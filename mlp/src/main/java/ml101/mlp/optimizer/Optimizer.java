@@ -0,0 +1,107 @@
+package ml101.mlp.optimizer;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+
+import static java.lang.foreign.ValueLayout.JAVA_DOUBLE;
+
+/**
+ * Turns the gradients accumulated over a batch into a change of the weights (or biases).
+ * Gradients point in the direction that lowers the cost, so they are added to the parameters.
+ */
+public interface Optimizer {
+    /**
+     * @return Returns new state for 'size' parameters, e.g. one layer's weights
+     */
+    State newState(int size, double learningRate);
+
+    /**
+     * @return Returns new state for 'size' parameters held off-heap, with its own arrays allocated in 'arena'
+     *
+     * By default, the heap state of newState(int, double) is used on heap copies of the parameters and gradients,
+     * which are copied in and back out on every update: correct for any optimizer, but it takes two heap arrays of
+     * 'size' doubles and the copying time. Override it to keep the state off the heap too.
+     */
+    default SegmentState newState(long size, double learningRate, Arena arena) {
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException(getClass().getSimpleName() + " keeps its state on the heap, "
+                    + "which can't hold " + size + " parameters; override newState(long, double, Arena)");
+        }
+        final State state = newState((int) size, learningRate);
+        final double[] parameterArray = new double[(int) size];
+        final double[] gradientArray = new double[(int) size];
+        return new SegmentState() {
+            @Override
+            public void update(MemorySegment parameters, MemorySegment gradients) {
+                MemorySegment.copy(parameters, JAVA_DOUBLE, 0, parameterArray, 0, parameterArray.length);
+                MemorySegment.copy(gradients, JAVA_DOUBLE, 0, gradientArray, 0, gradientArray.length);
+                state.update(parameterArray, gradientArray);
+                MemorySegment.copy(parameterArray, 0, parameters, JAVA_DOUBLE, 0, parameterArray.length);
+                MemorySegment.copy(gradientArray, 0, gradients, JAVA_DOUBLE, 0, gradientArray.length);
+            }
+
+            @Override
+            public double[][] save() {
+                return state.save();
+            }
+
+            @Override
+            public void restore(double[][] saved) {
+                state.restore(saved);
+            }
+        };
+    }
+
+    /**
+     * @return Returns 'size' zeroed doubles allocated in 'arena'
+     */
+    static MemorySegment allocate(Arena arena, long size) {
+        return arena.allocate(size * Double.BYTES, Double.BYTES);
+    }
+
+    /**
+     * Per-parameter state of an optimizer, kept in flat arrays parallel to the parameters.
+     */
+    interface State {
+        /**
+         * Updates the parameters from the gradients, and clears the gradients, in a single pass.
+         */
+        void update(double[] parameters, double[] gradients);
+
+        /**
+         * @return Returns a copy of this state's arrays (counters included), e.g. for a checkpoint
+         */
+        default double[][] save() {
+            return new double[0][];
+        }
+
+        /**
+         * Restores state returned by save.
+         */
+        default void restore(double[][] saved) {
+        }
+    }
+
+    /**
+     * Same as State, for parameters and gradients held in segments of native-order doubles.
+     */
+    interface SegmentState {
+        /**
+         * Updates the parameters from the gradients, and clears the gradients.
+         */
+        void update(MemorySegment parameters, MemorySegment gradients);
+
+        /**
+         * @return Returns a copy of this state's segments (counters included), e.g. for a checkpoint
+         */
+        default double[][] save() {
+            return new double[0][];
+        }
+
+        /**
+         * Restores state returned by save.
+         */
+        default void restore(double[][] saved) {
+        }
+    }
+}
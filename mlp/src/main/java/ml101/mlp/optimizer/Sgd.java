@@ -0,0 +1,32 @@
+package ml101.mlp.optimizer;
+
+import java.lang.foreign.Arena;
+
+import static java.lang.foreign.ValueLayout.JAVA_DOUBLE;
+
+/**
+ * Plain stochastic gradient descent: parameters move by learningRate times the gradient.
+ */
+public class Sgd implements Optimizer {
+
+    @Override
+    public State newState(final int size, final double learningRate) {
+        return (parameters, gradients) -> {
+            for (int i = 0; i < parameters.length; i++) {
+                parameters[i] += learningRate * gradients[i];
+                gradients[i] = 0.0;
+            }
+        };
+    }
+
+    @Override
+    public SegmentState newState(final long size, final double learningRate, final Arena arena) {
+        return (parameters, gradients) -> {
+            for (long i = 0; i < size; i++) {
+                parameters.setAtIndex(JAVA_DOUBLE, i,
+                        parameters.getAtIndex(JAVA_DOUBLE, i) + learningRate * gradients.getAtIndex(JAVA_DOUBLE, i));
+            }
+            gradients.fill((byte) 0);
+        };
+    }
+}
@@ -0,0 +1,343 @@
+package ml101.mlp.search;
+
+import ml101.mlp.MLP;
+import ml101.mlp.Validation;
+import ml101.mlp.data.TrainingData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Trains many networks with different hyperparameters at once, and ranks them by their cost on validation data.
+ *
+ *   new HyperparameterSearch(space,
+ *           params -> new MLP.Builder()
+ *                   .activation(new LogisticFn(params.getDouble("steepness")))
+ *                   .layers(784, params.getInt("hidden"), 10)
+ *                   .learningRate(params.getDouble("learningRate")),
+ *           trainingData, validationData)
+ *       .hyperband(27, 3);
+ *
+ * The builder's stop criteria and status reporter are replaced; the epochs are set by the search.
+ * All trials read the same TrainingData instances, from several threads. Each trial trains with the
+ * builder's number of threads (one by default), and as many trials run at once as there are cores,
+ * fewer if their weights, gradients and optimizer state wouldn't fit in the free heap.
+ */
+public class HyperparameterSearch {
+    private static final Logger logger = LoggerFactory.getLogger(HyperparameterSearch.class);
+    // weights, deltas and up to two arrays of optimizer state
+    private static final long BYTES_PER_PARAMETER = 4 * Double.BYTES;
+
+    private final SearchSpace space;
+    private final Function<Hyperparameters, MLP.Builder> model;
+    private final TrainingData trainingData;
+    private final TrainingData validationData;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private long memory = freeMemory();
+    private Random random = new Random();
+    private Consumer<Trial> reporter = trial -> logger.info("{}", trial);
+
+    /**
+     * The outcome of training one network: its cost and accuracy on the validation data after 'epochs' epochs.
+     * The cost is NaN if training failed.
+     */
+    public record Trial(int id, Hyperparameters hyperparameters, long epochs, double loss, double accuracy,
+                        long millis) {
+        @Override
+        public String toString() {
+            return String.format("trial %d: loss %.5f, accuracy %.4f after %d epochs (%.1f s)  %s",
+                    id, loss, accuracy, epochs, millis / 1000.0, hyperparameters);
+        }
+    }
+
+    /**
+     * @param model  Creates the builder of a network for the given hyperparameters
+     */
+    public HyperparameterSearch(final SearchSpace space, final Function<Hyperparameters, MLP.Builder> model,
+                                final TrainingData trainingData, final TrainingData validationData) {
+        this.space = space;
+        this.model = model;
+        this.trainingData = trainingData;
+        this.validationData = validationData;
+    }
+
+    /**
+     * How many trials train at once. The number of cores by default.
+     */
+    public HyperparameterSearch threads(final int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive");
+        }
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * Bytes of heap the trials running at once may take. Three quarters of the free heap by default.
+     */
+    public HyperparameterSearch memory(final long bytes) {
+        this.memory = bytes;
+        return this;
+    }
+
+    /**
+     * Seed for drawing the hyperparameters of random search, successive halving and hyperband.
+     */
+    public HyperparameterSearch seed(final long seed) {
+        this.random = new Random(seed);
+        return this;
+    }
+
+    /**
+     * Called with each trial as it finishes a round of training, from the threads running the trials.
+     */
+    public HyperparameterSearch reportTo(final Consumer<Trial> reporter) {
+        this.reporter = reporter;
+        return this;
+    }
+
+    /**
+     * Trains every combination of the choices for 'epochs' epochs.
+     * @return Returns the trials, best first
+     */
+    public List<Trial> grid(final int epochs) {
+        return run(space.grid(), epochs);
+    }
+
+    /**
+     * Trains 'trials' random draws from the search space for 'epochs' epochs.
+     * @return Returns the trials, best first
+     */
+    public List<Trial> random(final int trials, final int epochs) {
+        return run(sample(trials), epochs);
+    }
+
+    /**
+     * Successive halving: trains 'trials' random draws for minEpochs epochs, keeps the best 1/eta of them,
+     * trains those eta times as long, and so on, until maxEpochs or a single trial is left.
+     * @return Returns all the trials, the ones trained longest first, then by cost
+     */
+    public List<Trial> successiveHalving(final int trials, final int minEpochs, final int maxEpochs, final int eta) {
+        if (minEpochs < 1 || maxEpochs < minEpochs || eta < 2) {
+            throw new IllegalArgumentException("Need 1 <= minEpochs <= maxEpochs and eta >= 2");
+        }
+        final List<Run> runs = new ArrayList<>();
+        for (Hyperparameters hyperparameters : sample(trials)) {
+            runs.add(new Run(runs.size() + 1, hyperparameters));
+        }
+        return ranked(halve(runs, minEpochs, maxEpochs, eta));
+    }
+
+    /**
+     * Hyperband: successive halving several times, from many trials trained briefly to a few trained for
+     * maxEpochs from the start, so that neither a good but slow starter nor a fast one gets dropped early.
+     * @return Returns all the trials, the ones trained longest first, then by cost
+     */
+    public List<Trial> hyperband(final int maxEpochs, final int eta) {
+        if (maxEpochs < 1 || eta < 2) {
+            throw new IllegalArgumentException("Need maxEpochs >= 1 and eta >= 2");
+        }
+        int brackets = 0;
+        while (Math.pow(eta, brackets + 1) <= maxEpochs) {
+            brackets++;
+        }
+        final List<Trial> all = new ArrayList<>();
+        for (int s = brackets; s >= 0; s--) {
+            final int trials = (int) Math.ceil((brackets + 1.0) / (s + 1) * Math.pow(eta, s));
+            final int minEpochs = Math.max(1, (int) (maxEpochs / Math.pow(eta, s)));
+            final List<Run> runs = new ArrayList<>();
+            for (Hyperparameters hyperparameters : sample(trials)) {
+                runs.add(new Run(all.size() + runs.size() + 1, hyperparameters));
+            }
+            logger.debug("Hyperband bracket {}: {} trials from {} epochs", s, trials, minEpochs);
+            all.addAll(halve(runs, minEpochs, maxEpochs, eta));
+        }
+        return ranked(all);
+    }
+
+    /**
+     * @return Returns a table of the trials, in the given order
+     */
+    public static String table(final List<Trial> trials) {
+        final StringBuilder table = new StringBuilder(
+                String.format("%4s %6s %10s %9s %7s %8s  %s%n", "rank", "trial", "loss", "accuracy", "epochs",
+                        "time(s)", "hyperparameters"));
+        for (int rank = 0; rank < trials.size(); rank++) {
+            final Trial trial = trials.get(rank);
+            table.append(String.format("%4d %6d %10.5f %9.4f %7d %8.1f  %s%n", rank + 1, trial.id(), trial.loss(),
+                    trial.accuracy(), trial.epochs(), trial.millis() / 1000.0, trial.hyperparameters()));
+        }
+        return table.toString();
+    }
+
+    private List<Hyperparameters> sample(final int trials) {
+        final List<Hyperparameters> samples = new ArrayList<>();
+        for (int n = 0; n < trials; n++) {
+            samples.add(space.sample(random));
+        }
+        return samples;
+    }
+
+    private List<Trial> run(final List<Hyperparameters> points, final int epochs) {
+        final List<Run> runs = new ArrayList<>();
+        for (Hyperparameters hyperparameters : points) {
+            runs.add(new Run(runs.size() + 1, hyperparameters));
+        }
+        return ranked(train(runs, epochs));
+    }
+
+    /*
+     * Trains all runs to minEpochs, then the best 1/eta to eta times that, and so on.
+     * @return Returns the last trial of every run
+     */
+    private List<Trial> halve(List<Run> runs, final int minEpochs, final int maxEpochs, final int eta) {
+        final List<Trial> finished = new ArrayList<>();
+        long epochs = minEpochs;
+        while (true) {
+            final List<Trial> trials = ranked(train(runs, epochs));
+            final int keep = runs.size() / eta;
+            if (epochs >= maxEpochs || keep < 1) {
+                finished.addAll(trials);
+                return finished;
+            }
+            final List<Run> survivors = new ArrayList<>();
+            for (int k = 0; k < trials.size(); k++) {
+                final Run run = byId(runs, trials.get(k).id());
+                if (k < keep && !Double.isNaN(trials.get(k).loss())) {
+                    survivors.add(run);
+                }
+                else {
+                    finished.add(trials.get(k));
+                    run.mlp = null;
+                }
+            }
+            runs = survivors;
+            epochs = Math.min(epochs * eta, maxEpochs);
+        }
+    }
+
+    /*
+     * Trains every run (further) to 'epochs' epochs in total, on the thread pool.
+     */
+    private List<Trial> train(final List<Run> runs, final long epochs) {
+        final int megabytes = megabytes(memory);
+        final Semaphore budget = new Semaphore(megabytes);
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, runs.size()),
+                Thread.ofPlatform().daemon().name("hyperparameter-search-", 0).factory());
+        try {
+            final List<Future<Trial>> futures = new ArrayList<>();
+            for (Run run : runs) {
+                futures.add(executor.submit((Callable<Trial>) () -> run.train(epochs, budget, megabytes)));
+            }
+            final List<Trial> trials = new ArrayList<>();
+            for (Future<Trial> future : futures) {
+                trials.add(future.get());
+            }
+            return trials;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Search interrupted", e);
+        }
+        catch (ExecutionException e) {
+            throw new IllegalStateException("Search failed", e.getCause());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static List<Trial> ranked(final List<Trial> trials) {
+        final List<Trial> ranked = new ArrayList<>(trials);
+        ranked.sort(Comparator.comparingLong(Trial::epochs).reversed()
+                .thenComparing(Trial::loss, Double::compare));
+        return ranked;
+    }
+
+    private static Run byId(final List<Run> runs, final int id) {
+        return runs.stream().filter(run -> run.id == id).findFirst().orElseThrow();
+    }
+
+    private static int megabytes(final long bytes) {
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, bytes >> 20));
+    }
+
+    private static long freeMemory() {
+        final Runtime runtime = Runtime.getRuntime();
+        return (runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory())) / 4 * 3;
+    }
+
+    /*
+     * One network being trained, possibly over several rounds of successive halving.
+     */
+    private class Run {
+        final int id;
+        final Hyperparameters hyperparameters;
+        MLP mlp;
+        long epochs;
+        long millis;
+        // epochs to train in the current round, read by the stop criteria
+        volatile long roundEpochs;
+
+        Run(final int id, final Hyperparameters hyperparameters) {
+            this.id = id;
+            this.hyperparameters = hyperparameters;
+        }
+
+        /*
+         * Takes megabytes of the budget for the network's arrays, while training.
+         */
+        Trial train(final long totalEpochs, final Semaphore budget, final int budgetMegabytes) {
+            final long start = System.currentTimeMillis();
+            int permits = 0;
+            try {
+                if (mlp == null) {
+                    mlp = model.apply(hyperparameters)
+                            .reportStatus((iteration, cost) -> { })
+                            .stopWhen((iteration, cost) -> iteration >= roundEpochs)
+                            .load();
+                }
+                // a network larger than the whole budget still runs, on its own
+                permits = Math.min(megabytes(mlp.numParameters() * BYTES_PER_PARAMETER), budgetMegabytes);
+                budget.acquire(permits);
+                try {
+                    roundEpochs = totalEpochs - epochs;
+                    if (roundEpochs > 0) {
+                        mlp.train(trainingData);
+                        epochs = totalEpochs;
+                    }
+                }
+                finally {
+                    budget.release(permits);
+                }
+                final Validation.Result result = Validation.evaluate(mlp, validationData, epochs);
+                millis += System.currentTimeMillis() - start;
+                final Trial trial = new Trial(id, hyperparameters, epochs, result.loss(), result.accuracy(), millis);
+                reporter.accept(trial);
+                return trial;
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Search interrupted", e);
+            }
+            catch (RuntimeException e) {
+                logger.warn("Trial {} ({}) failed", id, hyperparameters, e);
+                mlp = null;
+                millis += System.currentTimeMillis() - start;
+                return new Trial(id, hyperparameters, epochs, Double.NaN, Double.NaN, millis);
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package ml101.mlp.search;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * One point of a SearchSpace: a value for each hyperparameter, by name.
+ */
+public final class Hyperparameters {
+    private final Map<String, Object> values;
+
+    Hyperparameters(final Map<String, Object> values) {
+        this.values = Collections.unmodifiableMap(new LinkedHashMap<>(values));
+    }
+
+    public Object get(final String name) {
+        final Object value = values.get(name);
+        if (value == null) {
+            throw new IllegalArgumentException("No hyperparameter " + name);
+        }
+        return value;
+    }
+
+    public int getInt(final String name) {
+        return ((Number) get(name)).intValue();
+    }
+
+    public double getDouble(final String name) {
+        return ((Number) get(name)).doubleValue();
+    }
+
+    public Map<String, Object> values() {
+        return values;
+    }
+
+    @Override
+    public String toString() {
+        return values.entrySet().stream()
+                .map(entry -> entry.getKey() + "=" + format(entry.getValue()))
+                .collect(Collectors.joining(", "));
+    }
+
+    private static String format(final Object value) {
+        if (value instanceof Double number) {
+            return String.format("%.4g", number);
+        }
+        if (value instanceof int[] numbers) {
+            return Arrays.toString(numbers);
+        }
+        return String.valueOf(value);
+    }
+}
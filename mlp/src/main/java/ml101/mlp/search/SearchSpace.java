@@ -0,0 +1,95 @@
+package ml101.mlp.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * The values tried for each hyperparameter, e.g.
+ *
+ *   new SearchSpace()
+ *       .choice("hidden", 16, 64, 256)
+ *       .logUniform("learningRate", 1e-3, 1.0)
+ *
+ * Grid search tries every combination of the choices, so it needs choices only. Random search picks one of the
+ * choices uniformly, and draws from the ranges.
+ */
+public class SearchSpace {
+    private final Map<String, List<Object>> choices = new LinkedHashMap<>();
+    private final Map<String, ToDoubleFunction<Random>> ranges = new LinkedHashMap<>();
+    // all names, in the order they were added
+    private final List<String> names = new ArrayList<>();
+
+    public SearchSpace choice(final String name, final Object... values) {
+        if (values.length == 0) {
+            throw new IllegalArgumentException("No values for " + name);
+        }
+        add(name);
+        choices.put(name, Arrays.asList(values));
+        return this;
+    }
+
+    public SearchSpace uniform(final String name, final double min, final double max) {
+        add(name);
+        ranges.put(name, random -> min + (max - min) * random.nextDouble());
+        return this;
+    }
+
+    /**
+     * Values between min and max, with every factor of 10 as likely as the others, e.g. for learning rates.
+     */
+    public SearchSpace logUniform(final String name, final double min, final double max) {
+        if (min <= 0.0 || max < min) {
+            throw new IllegalArgumentException("Log-uniform range of " + name + " must be positive");
+        }
+        add(name);
+        final double logMin = Math.log(min);
+        final double logMax = Math.log(max);
+        ranges.put(name, random -> Math.exp(logMin + (logMax - logMin) * random.nextDouble()));
+        return this;
+    }
+
+    /**
+     * @return Returns every combination of the choices, the last name varying fastest
+     */
+    List<Hyperparameters> grid() {
+        if (!ranges.isEmpty()) {
+            throw new IllegalStateException("Grid search needs choices only, not ranges: " + ranges.keySet());
+        }
+        List<Map<String, Object>> points = List.of(new LinkedHashMap<>());
+        for (String name : names) {
+            final List<Map<String, Object>> next = new ArrayList<>();
+            for (Map<String, Object> point : points) {
+                for (Object value : choices.get(name)) {
+                    final Map<String, Object> extended = new LinkedHashMap<>(point);
+                    extended.put(name, value);
+                    next.add(extended);
+                }
+            }
+            points = next;
+        }
+        return points.stream().map(Hyperparameters::new).toList();
+    }
+
+    Hyperparameters sample(final Random random) {
+        final Map<String, Object> point = new LinkedHashMap<>();
+        for (String name : names) {
+            final List<Object> values = choices.get(name);
+            point.put(name, values != null
+                    ? values.get(random.nextInt(values.size()))
+                    : ranges.get(name).applyAsDouble(random));
+        }
+        return new Hyperparameters(point);
+    }
+
+    private void add(final String name) {
+        if (names.contains(name)) {
+            throw new IllegalArgumentException("Hyperparameter " + name + " already added");
+        }
+        names.add(name);
+    }
+}
@@ -0,0 +1,108 @@
+package ml101.mlp;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AllReduceTest {
+
+    @Test
+    public void shouldSumAcrossRanks() throws Exception {
+        for (int size : new int[] {1, 2, 3, 5}) {
+            // shorter than the ring, not a multiple of it, and larger than the socket buffers
+            for (int length : new int[] {0, 1, 4, 7, 300_000}) {
+                final double[][] values = new double[size][length];
+                final double[] expected = new double[length];
+                final Random random = new Random(length);
+                for (int r = 0; r < size; r++) {
+                    for (int i = 0; i < length; i++) {
+                        values[r][i] = random.nextInt(1000) - 500;
+                        expected[i] += values[r][i];
+                    }
+                }
+                runRing(size, allReduce -> allReduce.sum(values[allReduce.rank()]));
+                for (int r = 0; r < size; r++) {
+                    assertArrayEquals("size " + size + ", rank " + r, expected, values[r], 0.0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void shouldGatherByRank() throws Exception {
+        final double[][] gathered = new double[3][];
+        runRing(3, allReduce -> gathered[allReduce.rank()] = allReduce.gather(10.0 * allReduce.rank()));
+        for (double[] values : gathered) {
+            assertArrayEquals(new double[] {0.0, 10.0, 20.0}, values, 0.0);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldTimeOutWithoutPeers() throws Exception {
+        AllReduce.connect(0, addresses(2), Duration.ofMillis(200));
+    }
+
+    interface RankTask {
+        void run(AllReduce allReduce) throws Exception;
+    }
+
+    /*
+     * Runs 'task' on every rank of a ring of 'size' threads, all connected on localhost.
+     */
+    static void runRing(int size, RankTask task) throws Exception {
+        final List<InetSocketAddress> addresses = addresses(size);
+        final ExecutorService executor = Executors.newFixedThreadPool(size);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int r = 0; r < size; r++) {
+                final int rank = r;
+                futures.add(executor.submit(() -> {
+                    try (AllReduce allReduce = AllReduce.connect(rank, addresses)) {
+                        task.run(allReduce);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /*
+     * Addresses of free ports on localhost, one per rank.
+     */
+    static List<InetSocketAddress> addresses(int size) throws IOException {
+        final List<InetSocketAddress> addresses = new ArrayList<>();
+        final List<ServerSocket> sockets = new ArrayList<>();
+        try {
+            for (int r = 0; r < size; r++) {
+                final ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+                sockets.add(socket);
+                addresses.add(new InetSocketAddress(InetAddress.getLoopbackAddress(), socket.getLocalPort()));
+            }
+        }
+        finally {
+            for (ServerSocket socket : sockets) {
+                socket.close();
+            }
+        }
+        return addresses;
+    }
+}
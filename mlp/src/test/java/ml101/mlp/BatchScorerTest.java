@@ -0,0 +1,149 @@
+package ml101.mlp;
+
+import ml101.mlp.activation.LogisticFn;
+import ml101.mlp.activation.ReluFn;
+import ml101.mlp.activation.SoftmaxFn;
+import ml101.mlp.data.TrainingData;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class BatchScorerTest {
+
+    @Test
+    public void shouldScoreLikeValidationOnEveryThread() throws Exception {
+        // not a multiple of the chunk size, so the last block is partial
+        final TrainingData data = classes(1000, 5, 1);
+        final MLP mlp = new MLP.Builder()
+                .activations(new ReluFn(), new SoftmaxFn())
+                .layers(20, 16, 5)
+                .learningRate(0.001)
+                .seed(2)
+                .stopWhen((iteration, cost) -> iteration >= 10)
+                .load();
+        mlp.train(data);
+        final Validation.Result expected = Validation.evaluate(mlp, data, 0);
+
+        final File file = File.createTempFile("predictions", ".out");
+        file.deleteOnExit();
+        final BatchScorer.Report report = new BatchScorer(mlp)
+                .threads(4)
+                .topK(3)
+                .predictions(file.getPath())
+                .score(data);
+        assertEquals(1000, report.samples());
+        assertEquals(4, report.threads());
+        assertEquals(expected.loss(), report.loss(), 1e-12);
+        assertEquals(expected.accuracy(), report.accuracy(), 0.0);
+        assertTrue(report.topKAccuracy() >= report.accuracy());
+
+        long total = 0;
+        long diagonal = 0;
+        for (int c = 0; c < 5; c++) {
+            for (int p = 0; p < 5; p++) {
+                total += report.confusion()[c][p];
+            }
+            diagonal += report.confusion()[c][c];
+        }
+        assertEquals(1000, total);
+        assertEquals(report.accuracy(), diagonal / 1000.0, 0.0);
+
+        final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(BatchScorer.MAGIC, buffer.getInt(0));
+        assertEquals(1000L, buffer.getLong(8));
+        assertEquals(5, buffer.getInt(16));
+        assertEquals(3, buffer.getInt(20));
+        final long recordSize = BatchScorer.recordSize(5, 3);
+        assertEquals(BatchScorer.HEADER_SIZE + 1000 * recordSize, buffer.capacity());
+        int topCorrect = 0;
+        for (int n = 0; n < 1000; n++) {
+            final int offset = (int) (BatchScorer.HEADER_SIZE + n * recordSize);
+            final double[] output = mlp.predict(data.input(n), new double[5]);
+            for (int j = 0; j < 5; j++) {
+                assertEquals(output[j], buffer.getDouble(offset + 8 * j), 1e-12);
+            }
+            final int[] top = new int[3];
+            for (int t = 0; t < 3; t++) {
+                top[t] = buffer.getInt(offset + 40 + 4 * t);
+                assertTrue(t == 0 || output[top[t]] <= output[top[t - 1]]);
+            }
+            assertEquals(Validation.argmax(output), top[0]);
+            // no other class has a larger output than the third
+            for (int j = 0; j < 5; j++) {
+                if (j != top[0] && j != top[1] && j != top[2]) {
+                    assertTrue(output[j] <= output[top[2]]);
+                }
+            }
+            final int actual = Validation.argmax(data.output(n));
+            topCorrect += actual == top[0] || actual == top[1] || actual == top[2] ? 1 : 0;
+        }
+        assertEquals(topCorrect / 1000.0, report.topKAccuracy(), 0.0);
+
+        final BatchScorer.Report single = new BatchScorer(mlp).threads(1).topK(3).score(data);
+        assertEquals(report.loss(), single.loss(), 1e-12);
+        assertArrayEquals(report.confusion(), single.confusion());
+    }
+
+    @Test
+    public void shouldSplitASingleOutputInTwoClasses() throws Exception {
+        final MLP mlp = new MLP.Builder()
+                .activations(new LogisticFn(1.0))
+                .layers(20, 1)
+                .seed(3)
+                .load();
+        final TrainingData data = classes(100, 2, 4);
+        final TrainingData binary = new TrainingData() {
+            @Override
+            public int length() {
+                return data.length();
+            }
+
+            @Override
+            public double[] input(int n) {
+                return data.input(n);
+            }
+
+            @Override
+            public double[] output(int n) {
+                return new double[] {data.output(n)[1]};
+            }
+        };
+        final BatchScorer.Report report = new BatchScorer(mlp).topK(5).score(binary);
+        assertEquals(1, report.k());
+        assertEquals(2, report.confusion().length);
+        assertEquals(Validation.evaluate(mlp, binary, 0).accuracy(), report.accuracy(), 0.0);
+        assertEquals(report.accuracy(), report.topKAccuracy(), 0.0);
+    }
+
+    /*
+     * TestData.classes, except that like IdxData, input(n) and output(n) reuse one buffer each (per thread).
+     */
+    private static TrainingData classes(int length, int numClasses, long seed) {
+        final TrainingData data = TestData.classes(length, 20, numClasses, seed);
+        final ThreadLocal<double[]> input = ThreadLocal.withInitial(() -> new double[20]);
+        final ThreadLocal<double[]> output = ThreadLocal.withInitial(() -> new double[numClasses]);
+        return new TrainingData() {
+            @Override
+            public int length() {
+                return length;
+            }
+
+            @Override
+            public double[] input(int n) {
+                System.arraycopy(data.input(n), 0, input.get(), 0, 20);
+                return input.get();
+            }
+
+            @Override
+            public double[] output(int n) {
+                System.arraycopy(data.output(n), 0, output.get(), 0, numClasses);
+                return output.get();
+            }
+        };
+    }
+}
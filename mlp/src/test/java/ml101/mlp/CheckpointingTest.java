@@ -0,0 +1,261 @@
+package ml101.mlp;
+
+import ml101.mlp.activation.ActivationFn;
+import ml101.mlp.activation.LogisticFn;
+import ml101.mlp.data.PlainData;
+import ml101.mlp.data.TrainingData;
+import ml101.mlp.optimizer.Adam;
+import ml101.mlp.optimizer.Momentum;
+import ml101.mlp.optimizer.Nesterov;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class CheckpointingTest {
+    private final TrainingData data = new PlainData(
+            new double[][] {{0.0, 0.0}, {0.0, 1.0}, {1.0, 0.0}, {1.0, 1.0}},
+            new double[][] {{0.0}, {1.0}, {1.0}, {0.0}});
+
+    @Test
+    public void shouldResumeWhereTrainingStopped() throws Exception {
+        final File file = File.createTempFile("xor", ".ckpt");
+        file.deleteOnExit();
+
+        final MLP uninterrupted = builder(20).load();
+        uninterrupted.train(data);
+
+        final MLP first = builder(10).checkpoints(new Checkpointing(file.getPath()).everyEpochs(10)).load();
+        first.train(data);
+        final long[] firstIteration = new long[1];
+        final MLP resumed = builder(20)
+                .resume(file.getPath())
+                .reportStatus((iteration, cost) -> {
+                    if (firstIteration[0] == 0) {
+                        firstIteration[0] = iteration;
+                    }
+                })
+                .load();
+        resumed.train(data);
+
+        assertEquals(11, firstIteration[0]);
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+        for (int l = 0; l < uninterrupted.layers.length; l++) {
+            assertArrayEquals(uninterrupted.layers[l].weights, resumed.layers[l].weights, 0.0);
+            assertArrayEquals(uninterrupted.layers[l].bias, resumed.layers[l].bias, 0.0);
+        }
+    }
+
+    @Test
+    public void shouldLoadCheckpointAsModel() throws Exception {
+        final File file = File.createTempFile("xor", ".ckpt");
+        file.deleteOnExit();
+        final MLP mlp = builder(4).checkpoints(new Checkpointing(file.getPath()).everyEpochs(2)).load();
+        mlp.train(data);
+
+        final MLP loaded = new MLP.Builder().load(file.getPath());
+        assertEquals(mlp.layers.length, loaded.layers.length);
+        assertEquals(2, loaded.layers[0].numInputs());
+    }
+
+    @Test
+    public void shouldFinishValidationWhenACheckpointFails() throws Exception {
+        final File file = File.createTempFile("xor", ".ckpt");
+        file.deleteOnExit();
+        // inverted labels: the validation loss goes up as training goes on, so the best weights are early ones
+        final Validation validation = new Validation(new PlainData(
+                new double[][] {{0.0, 0.0}, {0.0, 1.0}, {1.0, 0.0}, {1.0, 1.0}},
+                new double[][] {{1.0}, {0.0}, {0.0}, {1.0}})).patience(0);
+        final MLP mlp = unsavableBuilder(6, file)
+                .learningRate(0.5)
+                .validation(validation)
+                .load();
+        try {
+            mlp.train(data);
+            fail("The checkpoints can't be written");
+        }
+        catch (IllegalStateException ex) {
+            assertEquals("Checkpointing failed", ex.getMessage());
+        }
+        final MLP best = validation.bestSnapshot();
+        for (int l = 0; l < mlp.layers.length; l++) {
+            assertArrayEquals(best.layers[l].weights, mlp.layers[l].weights, 0.0);
+        }
+    }
+
+    @Test
+    public void shouldKeepTrainingsOwnFailure() throws Exception {
+        final File file = File.createTempFile("xor", ".ckpt");
+        file.deleteOnExit();
+        final MLP mlp = unsavableBuilder(6, file)
+                .reportStatus((iteration, cost) -> {
+                    if (iteration == 3) {
+                        throw new IllegalArgumentException("Reporting failed");
+                    }
+                })
+                .load();
+        try {
+            mlp.train(data);
+            fail("The reporter throws");
+        }
+        catch (IllegalArgumentException ex) {
+            assertEquals("Reporting failed", ex.getMessage());
+            assertEquals(1, ex.getSuppressed().length);
+            assertEquals("Checkpointing failed", ex.getSuppressed()[0].getMessage());
+        }
+    }
+
+    @Test
+    public void shouldReportAFailedWriteAfterLaterCheckpointsSucceed() throws Exception {
+        final File file = File.createTempFile("xor", ".ckpt");
+        file.delete();
+        // a directory that isn't empty can't be replaced by the checkpoint, so the rename fails
+        final File blocker = new File(file, "blocker");
+        assertTrue(blocker.mkdirs());
+        file.deleteOnExit();
+        final MLP mlp = builder(20)
+                .checkpoints(new Checkpointing(file.getPath()).everyEpochs(1))
+                .reportStatus((iteration, cost) -> {
+                    if (iteration == 4) {
+                        blocker.delete();
+                        file.delete();
+                    }
+                    try {
+                        // time for each checkpoint to be written, so later ones aren't all skipped
+                        Thread.sleep(20);
+                    }
+                    catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                })
+                .load();
+        try {
+            mlp.train(data);
+            fail("The first checkpoints can't be written");
+        }
+        catch (IllegalStateException ex) {
+            assertEquals("Checkpointing failed", ex.getMessage());
+            assertTrue(ex.getCause().toString(), ex.getCause() instanceof IOException);
+        }
+        assertTrue(file.isFile());
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void shouldResumeOnlyWithTheSameOptimizer() throws Exception {
+        final File file = File.createTempFile("xor", ".ckpt");
+        file.deleteOnExit();
+        builder(2).optimizer(new Momentum()).checkpoints(new Checkpointing(file.getPath()).everyEpochs(1))
+                .load().train(data);
+
+        builder(4).optimizer(new Momentum()).resume(file.getPath()).load().train(data);
+        for (MLP.Builder other : new MLP.Builder[] {builder(4), builder(4).optimizer(new Nesterov())}) {
+            try {
+                other.resume(file.getPath()).load();
+                fail("Resumed a Momentum checkpoint with another optimizer");
+            }
+            catch (IllegalArgumentException ex) {
+                assertTrue(ex.getMessage(), ex.getMessage().contains(Momentum.class.getName()));
+            }
+        }
+    }
+
+    @Test
+    public void shouldRejectOptimizerStateOfAnotherShape() throws Exception {
+        final File file = File.createTempFile("xor", ".ckpt");
+        file.deleteOnExit();
+        builder(2).checkpoints(new Checkpointing(file.getPath()).everyEpochs(1)).load().train(data);
+        final Checkpointing.State state = Checkpointing.read(file.getPath());
+        final MLP resumed = builder(4).load();
+        // Adam's running averages of the first layer's weights, one short
+        final double[][] weightState = state.optimizerStates()[0][0];
+        weightState[0] = new double[weightState[0].length - 1];
+        try {
+            state.restore(resumed, Adam.class.getName());
+            fail("Restored optimizer state that doesn't fit");
+        }
+        catch (IllegalArgumentException ex) {
+            assertEquals("The checkpoint's optimizer state doesn't fit layer 0", ex.getMessage());
+        }
+    }
+
+    @Test
+    public void shouldRejectTruncatedAndCorruptCheckpoints() throws Exception {
+        final File file = File.createTempFile("xor", ".ckpt");
+        file.deleteOnExit();
+        builder(2).checkpoints(new Checkpointing(file.getPath()).everyEpochs(1)).load().train(data);
+        final byte[] bytes = Files.readAllBytes(file.toPath());
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        final int trailer = (int) buffer.getLong(bytes.length - 12);
+
+        final File corrupt = File.createTempFile("corrupt", ".ckpt");
+        corrupt.deleteOnExit();
+        // every int of the trailer, and its offset, replaced by values out of range: each read either still
+        // works (a changed double) or fails with IllegalArgumentException, never anything else
+        for (int position = trailer; position <= bytes.length - 12; position += 4) {
+            for (int value : new int[] {-1, Integer.MAX_VALUE, 1 << 20}) {
+                final byte[] changed = bytes.clone();
+                ByteBuffer.wrap(changed).order(ByteOrder.LITTLE_ENDIAN).putInt(position, value);
+                Files.write(corrupt.toPath(), changed);
+                try {
+                    Checkpointing.read(corrupt.getPath());
+                }
+                catch (IllegalArgumentException expected) {
+                    // the error for files that can't be read
+                }
+            }
+        }
+        for (int length = trailer; length < bytes.length - 12; length++) {
+            final byte[] truncated = new byte[length + 12];
+            System.arraycopy(bytes, 0, truncated, 0, length);
+            // the trailer's offset and magic kept at the end, so only the state itself is cut short
+            System.arraycopy(bytes, bytes.length - 12, truncated, length, 12);
+            Files.write(corrupt.toPath(), truncated);
+            try {
+                Checkpointing.read(corrupt.getPath());
+                fail("Read a checkpoint cut at " + length);
+            }
+            catch (IllegalArgumentException expected) {
+                // the error for files that can't be read
+            }
+        }
+    }
+
+    /*
+     * Checkpoints every epoch, of a network whose hidden activation the model file format can't store,
+     * so every checkpoint fails.
+     */
+    private MLP.Builder unsavableBuilder(long epochs, File file) {
+        final ActivationFn identity = new ActivationFn() {
+            @Override
+            public double compute(double z) {
+                return z;
+            }
+
+            @Override
+            public double derivative(double fz) {
+                return 1.0;
+            }
+        };
+        return builder(epochs)
+                .activations(identity, new LogisticFn(1.0))
+                .checkpoints(new Checkpointing(file.getPath()).everyEpochs(1));
+    }
+
+    private MLP.Builder builder(long epochs) {
+        return new MLP.Builder()
+                .activation(new LogisticFn(1.0))
+                .layers(2, 3, 1)
+                .learningRate(0.05)
+                .batchSize(2)
+                .optimizer(new Adam())
+                .seed(3)
+                .reportStatus((iteration, cost) -> { })
+                .stopWhen((iteration, cost) -> iteration >= epochs);
+    }
+}
@@ -0,0 +1,88 @@
+package ml101.mlp;
+
+import ml101.mlp.activation.LogisticFn;
+import ml101.mlp.activation.ReluFn;
+import ml101.mlp.activation.SoftmaxFn;
+import ml101.mlp.activation.TanhFn;
+import ml101.mlp.data.TrainingData;
+import ml101.mlp.optimizer.Momentum;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Classification of gaussian blobs with a softmax output layer.
+ */
+public class ClassifierTest {
+    private static final int CLASSES = 4;
+    private static final int INPUTS = 16;
+
+    @Test
+    public void shouldClassifyWithReluAndSoftmax() {
+        final TrainingData data = TestData.classes(400, INPUTS, CLASSES, 1);
+        final double[] costs = new double[1];
+        final MLP mlp = new MLP.Builder()
+                .layers(INPUTS, 32, CLASSES)
+                .activations(new ReluFn(), new SoftmaxFn())
+                .learningRate(0.01)
+                .batchSize(20)
+                .shuffle(true)
+                .optimizer(new Momentum())
+                .seed(2)
+                .reportStatus((iteration, cost) -> costs[0] = cost)
+                .stopWhen((iteration, cost) -> iteration >= 20)
+                .load();
+        mlp.train(data);
+
+        assertTrue(Double.isFinite(costs[0]));
+        assertTrue("cost " + costs[0], costs[0] < 0.1);
+        assertTrue(accuracy(mlp, TestData.classes(200, INPUTS, CLASSES, 3)) > 0.95);
+        final double[] output = mlp.feedForward(data.input(0));
+        assertEquals(1.0, output[0] + output[1] + output[2] + output[3], 1e-12);
+    }
+
+    @Test
+    public void shouldAllowDifferentActivationsPerLayer() {
+        final MLP mlp = new MLP.Builder()
+                .layers(INPUTS, 8, 6, CLASSES)
+                .activations(new TanhFn(), new ReluFn(), new LogisticFn(1.0))
+                .seed(4)
+                .load();
+        assertTrue(mlp.layers[0].activationFn() instanceof TanhFn);
+        assertTrue(mlp.layers[1].activationFn() instanceof ReluFn);
+        assertTrue(mlp.layers[2].activationFn() instanceof LogisticFn);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectSoftmaxInHiddenLayer() {
+        new MLP.Builder()
+                .layers(INPUTS, 8, CLASSES)
+                .activations(new SoftmaxFn(), new SoftmaxFn())
+                .load();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectWrongNumberOfActivations() {
+        new MLP.Builder()
+                .layers(INPUTS, 8, CLASSES)
+                .activations(new ReluFn())
+                .load();
+    }
+
+    private static double accuracy(MLP mlp, TrainingData data) {
+        int correct = 0;
+        for (int n = 0; n < data.length(); n++) {
+            final double[] output = mlp.feedForward(data.input(n));
+            int best = 0;
+            for (int j = 1; j < output.length; j++) {
+                if (output[j] > output[best]) {
+                    best = j;
+                }
+            }
+            if (data.output(n)[best] == 1.0) {
+                correct++;
+            }
+        }
+        return (double) correct / data.length();
+    }
+}
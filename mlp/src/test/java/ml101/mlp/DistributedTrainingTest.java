@@ -0,0 +1,155 @@
+package ml101.mlp;
+
+import ml101.mlp.activation.ReluFn;
+import ml101.mlp.activation.SoftmaxFn;
+import ml101.mlp.data.PlainData;
+import ml101.mlp.data.TrainingData;
+import ml101.mlp.optimizer.Adam;
+import org.junit.Test;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Trains in several JVMs on localhost, each started with this class's main, and compares their networks with
+ * one trained in a single process on the same batches.
+ */
+public class DistributedTrainingTest {
+    private static final TrainingData data = TestData.classes(91, 12, 3, 1);
+
+    @Test
+    public void shouldTrainFullBatchesLikeOneProcess() throws Exception {
+        final MLP[] trained = trainInProcesses(2, 0);
+        final MLP single = builder(0, 0).load();
+        single.train(data);
+        assertSameOutputs(trained[0], trained[1], 0.0);
+        assertSameOutputs(single, trained[0], 1e-9);
+    }
+
+    /*
+     * The shards have 30, 30 and 31 samples: with batches of 10, the last process has one more batch
+     * than the others, which sum empty deltas for it.
+     */
+    @Test
+    public void shouldTrainMiniBatchesOfEveryShardTogether() throws Exception {
+        final int processes = 3;
+        final int batchSize = 10;
+        final MLP[] trained = trainInProcesses(processes, batchSize);
+
+        // one process, with each batch made of the batches of every shard, in rank order
+        final List<double[]> inputs = new ArrayList<>();
+        final List<double[]> outputs = new ArrayList<>();
+        for (int start = 0; start < data.length(); start += batchSize) {
+            for (int r = 0; r < processes; r++) {
+                final TrainingData shard = data.shard(r, processes);
+                for (int n = start; n < Math.min(start + batchSize, shard.length()); n++) {
+                    inputs.add(shard.input(n));
+                    outputs.add(shard.output(n));
+                }
+            }
+        }
+        final MLP single = builder(0, processes * batchSize).load();
+        single.train(new PlainData(inputs.toArray(new double[0][]), outputs.toArray(new double[0][])));
+
+        for (int r = 1; r < processes; r++) {
+            assertSameOutputs(trained[0], trained[r], 0.0);
+        }
+        assertSameOutputs(single, trained[0], 1e-9);
+    }
+
+    /*
+     * Every process gets another seed, so they only start from the same weights if they're copied from rank 0.
+     */
+    private static MLP.Builder builder(int rank, int batchSize) {
+        return new MLP.Builder()
+                .activations(new ReluFn(), new SoftmaxFn())
+                .layers(12, 8, 3)
+                .optimizer(new Adam())
+                .learningRate(0.01)
+                .batchSize(batchSize)
+                .seed(10 + rank)
+                .stopWhen((iteration, cost) -> iteration >= 5);
+    }
+
+    /*
+     * Trains on 'processes' JVMs, each on its shard of the data.
+     * @return Returns the network trained by each of them
+     */
+    private static MLP[] trainInProcesses(int processes, int batchSize) throws Exception {
+        final List<InetSocketAddress> addresses = AllReduceTest.addresses(processes);
+        final StringBuilder ports = new StringBuilder();
+        for (InetSocketAddress address : addresses) {
+            ports.append(ports.length() > 0 ? "," : "").append(address.getPort());
+        }
+        final String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        final List<String> jvmArguments = new ArrayList<>();
+        for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (!argument.startsWith("-agentlib:jdwp")) {
+                jvmArguments.add(argument);
+            }
+        }
+        final Process[] children = new Process[processes];
+        final File[] models = new File[processes];
+        final File[] logs = new File[processes];
+        for (int r = 0; r < processes; r++) {
+            models[r] = File.createTempFile("distributed", ".mlpb");
+            models[r].deleteOnExit();
+            logs[r] = File.createTempFile("distributed", ".log");
+            logs[r].deleteOnExit();
+            final List<String> command = new ArrayList<>();
+            command.add(java);
+            command.addAll(jvmArguments);
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(DistributedTrainingTest.class.getName());
+            command.add(String.valueOf(r));
+            command.add(ports.toString());
+            command.add(String.valueOf(batchSize));
+            command.add(models[r].getPath());
+            children[r] = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(logs[r]).start();
+        }
+        final MLP[] trained = new MLP[processes];
+        try {
+            for (int r = 0; r < processes; r++) {
+                assertTrue("rank " + r + " timed out", children[r].waitFor(2, TimeUnit.MINUTES));
+                assertEquals("rank " + r + ": " + Files.readString(logs[r].toPath()), 0, children[r].exitValue());
+                trained[r] = new MLP.Builder().load(models[r].getPath());
+            }
+        }
+        finally {
+            for (Process child : children) {
+                child.destroyForcibly();
+            }
+        }
+        return trained;
+    }
+
+    /**
+     * One process of a test: DistributedTrainingTest rank port,port,... batchSize modelFile
+     */
+    public static void main(String[] args) throws Exception {
+        final int rank = Integer.parseInt(args[0]);
+        final List<InetSocketAddress> addresses = new ArrayList<>();
+        for (String port : args[1].split(",")) {
+            addresses.add(new InetSocketAddress("localhost", Integer.parseInt(port)));
+        }
+        try (AllReduce allReduce = AllReduce.connect(rank, addresses)) {
+            final MLP mlp = builder(rank, Integer.parseInt(args[2])).distributed(allReduce).load();
+            mlp.train(data.shard(rank, addresses.size()));
+            mlp.saveBinary(args[3]);
+        }
+    }
+
+    private static void assertSameOutputs(MLP expected, MLP actual, double delta) {
+        for (int n = 0; n < data.length(); n++) {
+            assertArrayEquals(expected.feedForward(data.input(n)), actual.feedForward(data.input(n)), delta);
+        }
+    }
+}
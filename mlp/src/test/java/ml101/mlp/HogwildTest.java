@@ -0,0 +1,132 @@
+package ml101.mlp;
+
+import ml101.mlp.activation.ReluFn;
+import ml101.mlp.activation.SoftmaxFn;
+import ml101.mlp.data.Pipeline;
+import ml101.mlp.data.PlainData;
+import ml101.mlp.data.SparseData;
+import ml101.mlp.data.TrainingData;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class HogwildTest {
+    // three classes, picked by which third of the inputs has the most non-zero values
+    private final TrainingData data = sparseData(new Random(1), 300, 60);
+
+    @Test
+    public void shouldMatchPerSampleSgdWithOneThread() {
+        final MLP sequential = builder().batchSize(1).load();
+        final MLP hogwild = builder().hogwild(true).load();
+        sequential.train(data);
+        hogwild.train(data);
+        assertSameOutputs(sequential, hogwild, 1e-9);
+    }
+
+    @Test
+    public void shouldTrainSparseInputsLikeDense() {
+        final MLP dense = builder().hogwild(true).sparseInputs(false).load();
+        final MLP sparse = builder().hogwild(true).sparseInputs(true).load();
+        dense.train(data);
+        sparse.train(SparseData.of(data));
+        assertSameOutputs(dense, sparse, 1e-9);
+    }
+
+    @Test
+    public void shouldLearnWithSeveralThreads() {
+        final List<Double> costs = new ArrayList<>();
+        final MLP mlp = builder()
+                .hogwild(true)
+                .threads(4)
+                .shuffle(true)
+                .stopWhen((iteration, cost) -> iteration >= 20)
+                .reportStatus((iteration, cost) -> costs.add(cost))
+                .load();
+        mlp.train(data);
+
+        assertEquals(20, costs.size());
+        assertTrue(costs.toString(), costs.get(19) < 0.5 * costs.get(0));
+        assertEquals(20, mlp.metrics().epochs());
+        int correct = 0;
+        for (int n = 0; n < data.length(); n++) {
+            correct += argmax(mlp.feedForward(data.input(n))) == argmax(data.output(n)) ? 1 : 0;
+        }
+        assertTrue("accuracy " + correct, correct > 0.9 * data.length());
+    }
+
+    @Test
+    public void shouldLearnOnAMappedModelWithSeveralThreads() throws Exception {
+        final File file = File.createTempFile("model", ".mlpb");
+        file.deleteOnExit();
+        builder().load().saveBinary(file.getPath());
+        final byte[] saved = Files.readAllBytes(file.toPath());
+
+        final List<Double> costs = new ArrayList<>();
+        try (MLP mlp = builder()
+                .from(ModelFile.map(file.getPath()))
+                .hogwild(true)
+                .threads(4)
+                .shuffle(true)
+                .stopWhen((iteration, cost) -> iteration >= 20)
+                .reportStatus((iteration, cost) -> costs.add(cost))
+                .load()) {
+            mlp.train(data);
+            assertTrue(costs.toString(), costs.get(19) < 0.5 * costs.get(0));
+        }
+        // the weights were copied before they changed
+        assertArrayEquals(saved, Files.readAllBytes(file.toPath()));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void shouldRejectPipelines() throws Exception {
+        try (Pipeline pipeline = new Pipeline.Builder(data).batchSize(10).start()) {
+            builder().hogwild(true).load().train(pipeline);
+        }
+    }
+
+    private static MLP.Builder builder() {
+        return new MLP.Builder()
+                .activations(new ReluFn(), new SoftmaxFn())
+                .layers(60, 16, 3)
+                .learningRate(0.05)
+                .seed(2)
+                .stopWhen((iteration, cost) -> iteration >= 3);
+    }
+
+    private static TrainingData sparseData(Random random, int length, int numInputs) {
+        final double[][] inputs = new double[length][numInputs];
+        final double[][] outputs = new double[length][3];
+        for (int n = 0; n < length; n++) {
+            final int label = random.nextInt(3);
+            for (int k = 0; k < 6; k++) {
+                // two thirds of the non-zero values fall in the label's third of the inputs
+                final int third = k < 4 ? label : random.nextInt(3);
+                inputs[n][third * numInputs / 3 + random.nextInt(numInputs / 3)] = 1.0;
+            }
+            outputs[n][label] = 1.0;
+        }
+        return new PlainData(inputs, outputs);
+    }
+
+    private static int argmax(double[] values) {
+        int best = 0;
+        for (int j = 1; j < values.length; j++) {
+            if (values[j] > values[best]) {
+                best = j;
+            }
+        }
+        return best;
+    }
+
+    private void assertSameOutputs(MLP expected, MLP actual, double delta) {
+        for (int n = 0; n < data.length(); n++) {
+            assertArrayEquals(expected.feedForward(data.input(n)), actual.feedForward(data.input(n)), delta);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package ml101.mlp;
+
+import ml101.mlp.activation.LogisticFn;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class InferenceContextTest {
+    private static final double EPS = 1e-12;
+
+    private final MLP mlp = new MLP.Builder()
+            .activation(new LogisticFn(1.0))
+            .layers(20, 30, 5)
+            .seed(1)
+            .load();
+
+    @Test
+    public void shouldMatchFeedForward() {
+        final InferenceContext context = mlp.newInferenceContext();
+        final double[][] inputs = randomInputs(new Random(2), 70);
+        final double[][] batchResults = mlp.feedForward(inputs);
+        for (int n = 0; n < inputs.length; n++) {
+            final double[] expected = mlp.feedForward(inputs[n]).clone();
+            assertArrayEquals(expected, context.feedForward(inputs[n]), EPS);
+            assertArrayEquals(expected, mlp.predict(inputs[n], new double[5]), EPS);
+            assertArrayEquals(expected, batchResults[n], EPS);
+        }
+    }
+
+    @Test
+    public void shouldPredictFromManyVirtualThreads() throws Exception {
+        final double[][] inputs = randomInputs(new Random(3), 200);
+        final double[][] expected = new double[inputs.length][];
+        for (int n = 0; n < inputs.length; n++) {
+            expected[n] = mlp.feedForward(inputs[n]).clone();
+        }
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            final List<Future<Boolean>> results = new ArrayList<>();
+            for (int t = 0; t < 100; t++) {
+                results.add(executor.submit(() -> {
+                    final double[] result = new double[5];
+                    for (int n = 0; n < inputs.length; n++) {
+                        mlp.predict(inputs[n], result);
+                        for (int j = 0; j < result.length; j++) {
+                            if (Math.abs(result[j] - expected[n][j]) > EPS) {
+                                return false;
+                            }
+                        }
+                    }
+                    return true;
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        }
+    }
+
+    @Test
+    public void shouldNotAllocateWhenWarmedUp() {
+        final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final double[] input = randomInputs(new Random(4), 1)[0];
+        final double[] result = new double[5];
+        // warm up in rounds, since on a busy or single-CPU machine the JIT can take a while to compile the path
+        long allocated = Long.MAX_VALUE;
+        for (int round = 0; round < 10 && allocated >= 1000; round++) {
+            for (int n = 0; n < 20000; n++) {
+                mlp.predict(input, result);
+            }
+            final long before = threads.getCurrentThreadAllocatedBytes();
+            for (int n = 0; n < 1000; n++) {
+                mlp.predict(input, result);
+            }
+            allocated = threads.getCurrentThreadAllocatedBytes() - before;
+        }
+        // allow for a few bytes of measurement overhead, but nothing per call
+        assertTrue("allocated " + allocated + " bytes", allocated < 1000);
+    }
+
+    private static double[][] randomInputs(Random random, int count) {
+        final double[][] inputs = new double[count][20];
+        for (double[] input : inputs) {
+            for (int i = 0; i < input.length; i++) {
+                input[i] = random.nextDouble();
+            }
+        }
+        return inputs;
+    }
+}
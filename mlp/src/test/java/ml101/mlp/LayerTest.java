@@ -0,0 +1,149 @@
+package ml101.mlp;
+
+import ml101.mlp.activation.LogisticFn;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LayerTest {
+    private static final double EPS = 1e-12;
+
+    @Test
+    public void shouldMatchJaggedFeedForward() {
+        final Random random = new Random(1);
+        final Layer layer = newLayer(random, 7, 5);
+        final double[] input = randomVector(random, 7);
+
+        final double[] expected = new double[5];
+        NumUtilities.crossMultiply(expected, toJagged(layer), input);
+        NumUtilities.vectorAdd(expected, expected, layer.bias);
+        NumUtilities.activate(expected, new LogisticFn(1.0));
+
+        assertArrayEquals(expected, layer.feedForward(input), EPS);
+    }
+
+    @Test
+    public void shouldMatchJaggedBackPropagation() {
+        final Random random = new Random(2);
+        final Layer hidden = newLayer(random, 4, 6);
+        final Layer output = newLayer(random, 6, 3);
+        final double[] input = randomVector(random, 4);
+        final double[] target = randomVector(random, 3);
+        final double[][] outputWeights = toJagged(output);
+
+        output.computeErrorAtOutputLayer(target, output.feedForward(hidden.feedForward(input)));
+        hidden.propagateErrors(output);
+        output.computeDeltaWeightsAndBias(hidden.output, 0.1);
+        output.updateTotalWeightsAndBias();
+
+        for (int i = 0; i < 6; i++) {
+            double delta = 0.0;
+            for (int j = 0; j < 3; j++) {
+                delta += outputWeights[j][i] * output.errors[j];
+            }
+            assertEquals(delta * hidden.output[i] * (1.0 - hidden.output[i]), hidden.errors[i], EPS);
+        }
+        for (int j = 0; j < 3; j++) {
+            for (int i = 0; i < 6; i++) {
+                assertEquals(outputWeights[j][i] + 0.1 * output.errors[j] * hidden.output[i],
+                        output.weights[j * 6 + i], EPS);
+            }
+        }
+    }
+
+    @Test
+    public void shouldMatchSingleSampleMethodsWhenBatched() {
+        final int batchSize = 5;
+        final Layer hidden = newLayer(new Random(4), 4, 6);
+        final Layer output = newLayer(new Random(5), 6, 3);
+        final Layer batchHidden = newLayer(new Random(4), 4, 6);
+        final Layer batchOutput = newLayer(new Random(5), 6, 3);
+        batchHidden.initializeBatchBuffers(batchSize);
+        batchOutput.initializeBatchBuffers(batchSize);
+        final Random random = new Random(6);
+        final double[] inputs = randomVector(random, batchSize * 4);
+        final double[] targets = randomVector(random, batchSize * 3);
+
+        final double[] results = batchOutput.feedForward(batchHidden.feedForward(inputs, batchSize), batchSize);
+        for (int b = 0; b < batchSize; b++) {
+            final double[] input = Arrays.copyOfRange(inputs, b * 4, (b + 1) * 4);
+            final double[] target = Arrays.copyOfRange(targets, b * 3, (b + 1) * 3);
+            final double[] result = output.feedForward(hidden.feedForward(input));
+            assertArrayEquals(result, Arrays.copyOfRange(results, b * 3, (b + 1) * 3), EPS);
+            output.computeErrorAtOutputLayer(target, result);
+            hidden.propagateErrors(output);
+            output.computeDeltaWeightsAndBias(hidden.output, 0.1);
+            hidden.computeDeltaWeightsAndBias(input, 0.1);
+        }
+        batchOutput.computeErrorAtOutputLayer(targets, results, batchSize);
+        batchHidden.propagateErrors(batchOutput, batchSize);
+        batchOutput.computeDeltaWeightsAndBias(batchHidden.batchOutput, batchSize, 0.1);
+        batchHidden.computeDeltaWeightsAndBias(inputs, batchSize, 0.1);
+
+        for (Layer[] pair : new Layer[][] {{hidden, batchHidden}, {output, batchOutput}}) {
+            pair[0].updateTotalWeightsAndBias();
+            pair[1].updateTotalWeightsAndBias();
+            assertArrayEquals(pair[0].weights, pair[1].weights, EPS);
+            assertArrayEquals(pair[0].bias, pair[1].bias, EPS);
+        }
+    }
+
+    @Test
+    public void shouldMatchDenseMethodsWhenSparse() {
+        final int batchSize = 4;
+        final Layer dense = newLayer(new Random(7), 10, 3);
+        final Layer sparse = newLayer(new Random(7), 10, 3);
+        dense.initializeBatchBuffers(batchSize);
+        sparse.initializeBatchBuffers(batchSize);
+        final Random random = new Random(8);
+        final double[] inputs = new double[batchSize * 10];
+        final int[] rowStart = new int[batchSize + 1];
+        final int[] indices = new int[inputs.length];
+        final double[] values = new double[inputs.length];
+        for (int b = 0; b < batchSize; b++) {
+            rowStart[b + 1] = rowStart[b];
+            for (int i = b; i < 10; i += 3) {
+                inputs[b * 10 + i] = random.nextDouble();
+                indices[rowStart[b + 1]] = i;
+                values[rowStart[b + 1]++] = inputs[b * 10 + i];
+            }
+        }
+        final double[] targets = randomVector(random, batchSize * 3);
+
+        assertArrayEquals(dense.feedForward(inputs, batchSize),
+                sparse.feedForward(rowStart, indices, values, batchSize), EPS);
+        dense.computeErrorAtOutputLayer(targets, dense.batchOutput, batchSize);
+        sparse.computeErrorAtOutputLayer(targets, sparse.batchOutput, batchSize);
+        dense.computeDeltaWeightsAndBias(inputs, batchSize, 0.1);
+        sparse.computeDeltaWeightsAndBias(rowStart, indices, values, batchSize, 0.1);
+        dense.updateTotalWeightsAndBias();
+        sparse.updateTotalWeightsAndBias();
+        assertArrayEquals(dense.weights, sparse.weights, EPS);
+        assertArrayEquals(dense.bias, sparse.bias, EPS);
+    }
+
+    private static Layer newLayer(Random random, int numInputs, int numOutputs) {
+        final Layer layer = new Layer(new LogisticFn(1.0), numInputs, numOutputs, random);
+        layer.initializeComputationBuffers();
+        return layer;
+    }
+
+    private static double[][] toJagged(Layer layer) {
+        final double[][] jagged = new double[layer.numOutputs()][layer.numInputs()];
+        for (int j = 0; j < layer.numOutputs(); j++) {
+            System.arraycopy(layer.weights, j * layer.numInputs(), jagged[j], 0, layer.numInputs());
+        }
+        return jagged;
+    }
+
+    private static double[] randomVector(Random random, int length) {
+        final double[] vector = new double[length];
+        for (int i = 0; i < length; i++) {
+            vector[i] = random.nextDouble();
+        }
+        return vector;
+    }
+}
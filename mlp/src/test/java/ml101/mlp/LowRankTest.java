@@ -0,0 +1,141 @@
+package ml101.mlp;
+
+import ml101.mlp.activation.LinearFn;
+import ml101.mlp.activation.ReluFn;
+import ml101.mlp.activation.SoftmaxFn;
+import ml101.mlp.data.TrainingData;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LowRankTest {
+
+    @Test
+    public void shouldFindEigenvectors() {
+        final Random random = new Random(1);
+        final int k = 12;
+        final double[] a = new double[k * k];
+        for (int i = 0; i < k; i++) {
+            for (int j = 0; j <= i; j++) {
+                a[i * k + j] = a[j * k + i] = random.nextDouble() - 0.5;
+            }
+        }
+        final double[] vectors = new double[k * k];
+        final double[] values = LowRank.eigen(a.clone(), k, vectors);
+        for (int c = 0; c < k; c++) {
+            if (c > 0) {
+                assertTrue(values[c] <= values[c - 1]);
+            }
+            for (int i = 0; i < k; i++) {
+                double product = 0.0;
+                for (int j = 0; j < k; j++) {
+                    product += a[i * k + j] * vectors[j * k + c];
+                }
+                assertEquals(values[c] * vectors[i * k + c], product, 1e-12);
+            }
+        }
+    }
+
+    @Test
+    public void shouldRecoverLowRankWeightsExactly() {
+        // 30 x 40 weights of rank 5
+        final Random random = new Random(2);
+        final double[] left = gaussian(random, 30 * 5);
+        final double[] right = gaussian(random, 5 * 40);
+        final double[] weights = new double[30 * 40];
+        NumUtilities.multiply(weights, left, right, 30, 5, 40);
+        final MLP mlp = new MLP(new Layer[] {
+                new Layer(new ReluFn(), 40, 30, weights, gaussian(random, 30)),
+                new Layer(new SoftmaxFn(), 30, 3, gaussian(random, 90), new double[3])});
+        mlp.initializeComputationBuffers();
+
+        final MLP factorized = mlp.factorize(0, 5);
+        assertEquals(3, factorized.layers.length);
+        assertTrue(factorized.layers[0].activationFn() instanceof LinearFn);
+        assertEquals(5, factorized.layers[0].numOutputs());
+        for (int n = 0; n < 20; n++) {
+            final double[] input = gaussian(random, 40);
+            assertArrayEquals(mlp.feedForward(input), factorized.feedForward(input), 1e-9);
+        }
+    }
+
+    @Test
+    public void shouldApproximateAsWellAsTheTruncatedSpectrum() {
+        final Random random = new Random(3);
+        final Layer layer = new Layer(new ReluFn(), 50, 40, gaussian(random, 40 * 50), new double[40]);
+        final LowRank.Svd full = LowRank.svd(layer, 40, random);
+        final LowRank.Svd truncated = LowRank.svd(layer, 10, random);
+        // Eckart-Young: the squared error of the best rank 10 approximation is the sum of the other s^2
+        double expected = 0.0;
+        for (int c = 10; c < 40; c++) {
+            expected += full.s()[c] * full.s()[c];
+        }
+        final Layer[] factors = LowRank.factors(layer, truncated, 10);
+        final double[] product = new double[40 * 50];
+        NumUtilities.multiply(product, factors[1].weightArray(), factors[0].weightArray(), 40, 10, 50);
+        double error = 0.0;
+        for (int i = 0; i < product.length; i++) {
+            error += (product[i] - layer.weightArray()[i]) * (product[i] - layer.weightArray()[i]);
+        }
+        assertEquals(expected, error, 0.02 * expected);
+    }
+
+    @Test
+    public void shouldPickTheRankForTheAccuracyBudgetAndFineTune() throws Exception {
+        final TrainingData data = TestData.classes(400, 40, 4, 4);
+        final MLP mlp = new MLP.Builder()
+                .activations(new ReluFn(), new SoftmaxFn())
+                .layers(40, 64, 4)
+                .learningRate(0.02)
+                .batchSize(20)
+                .seed(5)
+                .stopWhen((iteration, cost) -> iteration >= 30)
+                .load();
+        mlp.train(data);
+        final double accuracy = Validation.evaluate(mlp, data, 0).accuracy();
+
+        final MLP factorized = mlp.factorize(0, data, 0.02);
+        assertEquals(3, factorized.layers.length);
+        final int rank = factorized.layers[0].numOutputs();
+        assertTrue("rank " + rank, rank < LowRank.maxUsefulRank(mlp.layers[0]));
+        assertTrue(Validation.evaluate(factorized, data, 0).accuracy() >= accuracy - 0.02);
+        // half the rank doesn't meet the budget (one less might: it's a different randomized decomposition)
+        if (rank > 1) {
+            final MLP lower = mlp.factorize(0, rank / 2);
+            assertTrue(Validation.evaluate(lower, data, 0).accuracy() < accuracy - 0.02);
+        }
+
+        final List<Double> costs = new ArrayList<>();
+        final MLP tuned = new MLP.Builder()
+                .from(factorized)
+                .learningRate(0.005)
+                .batchSize(20)
+                .reportStatus((iteration, cost) -> costs.add(cost))
+                .stopWhen((iteration, cost) -> iteration >= 5)
+                .load();
+        tuned.train(data);
+        assertTrue(costs.toString(), costs.get(4) < costs.get(0));
+
+        final File file = File.createTempFile("factorized", ".mlpb");
+        file.deleteOnExit();
+        tuned.saveBinary(file.getPath());
+        final MLP loaded = new MLP.Builder().load(file.getPath());
+        assertTrue(loaded.layers[0].activationFn() instanceof LinearFn);
+        for (int n = 0; n < data.length(); n++) {
+            assertArrayEquals(tuned.feedForward(data.input(n)), loaded.feedForward(data.input(n)), 0.0);
+        }
+    }
+
+    private static double[] gaussian(Random random, int length) {
+        final double[] values = new double[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = random.nextGaussian();
+        }
+        return values;
+    }
+}
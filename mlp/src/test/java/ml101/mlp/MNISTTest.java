@@ -1,5 +1,6 @@
 package ml101.mlp;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 import java.nio.file.Files;
@@ -10,11 +11,13 @@ import org.junit.Before;
 import org.junit.Test;
 
 import ml101.mlp.activation.LogisticFn;
+import ml101.mlp.data.IdxData;
 import ml101.mlp.data.MNISTData;
+import ml101.mlp.data.TrainingData;
 
 public class MNISTTest {
-    private MNISTData trainingData;
-    private MNISTData testData;
+    private TrainingData trainingData;
+    private TrainingData testData;
 
     @Before
     public void loadData() {
@@ -25,10 +28,10 @@ public class MNISTTest {
         && Files.exists(Paths.get("../data/mnist/t10k-labels-idx1-ubyte"));
     Assume.assumeTrue("MNIST data not found in ../data/mnist — skipping MNIST tests", hasData);
 
-    trainingData = new MNISTData(
+    trainingData = new IdxData(
         "../data/mnist/train-images-idx3-ubyte",
         "../data/mnist/train-labels-idx1-ubyte");
-    testData = new MNISTData(
+    testData = new IdxData(
         "../data/mnist/t10k-images-idx3-ubyte",
         "../data/mnist/t10k-labels-idx1-ubyte");
     }
@@ -39,6 +42,17 @@ public class MNISTTest {
         assertEquals(10000, testData.length());
     }
 
+    @Test
+    public void shouldMatchEagerlyLoadedData() {
+        final MNISTData eager = new MNISTData(
+                "../data/mnist/t10k-images-idx3-ubyte",
+                "../data/mnist/t10k-labels-idx1-ubyte");
+        for (int n = 0; n < eager.length(); n++) {
+            assertArrayEquals(eager.input(n), testData.input(n), 0.0);
+            assertArrayEquals(eager.output(n), testData.output(n), 0.0);
+        }
+    }
+
     @Test
     public void shouldTrainAndSave() throws Exception {
         final MLP mlp = new MLP.Builder()
@@ -51,4 +65,52 @@ public class MNISTTest {
         mlp.save("mnist1200.mlp");
     }
 
-}
\ No newline at end of file
+    @Test
+    public void shouldKeepAccuracyInFloat32AndInt8() {
+        final MLP mlp = new MLP.Builder()
+                .layers(28*28, 1200, 10)
+                .activation(new LogisticFn(1.0))
+                .learningRate(0.05)
+                .batchSize(100)
+                .shuffle(true)
+                .threads(Runtime.getRuntime().availableProcessors())
+                .seed(1)
+                .stopWhen((iteration, cost) -> iteration >= 3)
+                .reportStatus((iteration, cost) -> System.out.println(iteration + "\t" + cost))
+                .load();
+        mlp.train(trainingData);
+        final double doubleAccuracy = accuracy(testData, mlp::predict);
+        final double floatAccuracy = accuracy(testData, mlp.toFloat32()::predict);
+        final double int8Accuracy = accuracy(testData, mlp.toInt8()::predict);
+        System.out.println("accuracy double/float32/int8: " + doubleAccuracy + "/" + floatAccuracy + "/" + int8Accuracy);
+        System.out.println("size float32/int8: " + mlp.toFloat32().sizeInBytes() + "/" + mlp.toInt8().sizeInBytes());
+        assertEquals(doubleAccuracy, floatAccuracy, 0.001);
+        assertEquals(doubleAccuracy, int8Accuracy, 0.01);
+    }
+
+    private interface Model {
+        double[] predict(double[] input, double[] result);
+    }
+
+    private static double accuracy(TrainingData data, Model model) {
+        final double[] result = new double[10];
+        int correct = 0;
+        for (int n = 0; n < data.length(); n++) {
+            model.predict(data.input(n), result);
+            if (argmax(result) == argmax(data.output(n))) {
+                correct++;
+            }
+        }
+        return (double) correct / data.length();
+    }
+
+    private static int argmax(double[] values) {
+        int best = 0;
+        for (int j = 1; j < values.length; j++) {
+            if (values[j] > values[best]) {
+                best = j;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,84 @@
+package ml101.mlp;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import ml101.mlp.activation.LogisticFn;
+import ml101.mlp.data.TrainingData;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MetricsTest {
+
+    @Test
+    public void shouldCountEpochsBatchesAndLayerTimes() {
+        final MLP mlp = newMLP(2);
+        mlp.train(TestData.classes(40, 4, 3, 2));
+        mlp.predict(new double[] {0.1, 0.2, 0.3, 0.4}, new double[3]);
+        mlp.feedForward(new double[][] {{0.1, 0.2, 0.3, 0.4}, {0.4, 0.3, 0.2, 0.1}});
+
+        final Metrics.Snapshot metrics = mlp.metrics();
+        assertEquals(5, metrics.epochs());
+        assertEquals(5 * 4, metrics.batches());
+        assertEquals(5 * 40, metrics.samples());
+        assertEquals(3, metrics.inferences());
+        assertTrue(metrics.samplesPerSecond() > 0.0);
+        assertTrue(metrics.trainingNanos() >= metrics.lastEpochNanos());
+        assertEquals(2, metrics.layers().size());
+        for (Metrics.LayerSnapshot layer : metrics.layers()) {
+            assertTrue(layer.forwardNanos() > 0);
+            assertTrue(layer.backpropNanos() > 0);
+            assertTrue(layer.updateNanos() > 0);
+            assertTrue(layer.gradientNorm() > 0.0);
+            assertTrue(layer.weightNorm() > 0.0);
+        }
+    }
+
+    @Test
+    public void shouldRecordFlightRecorderEvents() throws Exception {
+        final Path file = File.createTempFile("metrics", ".jfr").toPath();
+        try (Recording recording = new Recording()) {
+            recording.enable("ml101.TrainEpoch");
+            recording.enable("ml101.TrainBatch");
+            recording.enable("ml101.Layer");
+            recording.enable("ml101.FeedForward");
+            recording.start();
+            final MLP mlp = newMLP(3);
+            mlp.train(TestData.classes(40, 4, 3, 2));
+            mlp.predict(new double[] {0.1, 0.2, 0.3, 0.4}, new double[3]);
+            recording.stop();
+            recording.dump(file);
+
+            final List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+            assertEquals(5, count(events, "ml101.TrainEpoch"));
+            assertEquals(5 * 4, count(events, "ml101.TrainBatch"));
+            assertEquals(5 * 2, count(events, "ml101.Layer"));
+            assertEquals(1, count(events, "ml101.FeedForward"));
+        }
+        finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static long count(List<RecordedEvent> events, String name) {
+        return events.stream().filter(event -> event.getEventType().getName().equals(name)).count();
+    }
+
+    private static MLP newMLP(int seed) {
+        return new MLP.Builder()
+                .activation(new LogisticFn(1.0))
+                .layers(4, 6, 3)
+                .learningRate(0.1)
+                .batchSize(10)
+                .seed(seed)
+                .reportStatus((iteration, cost) -> { })
+                .stopWhen((iteration, cost) -> iteration >= 5)
+                .load();
+    }
+}
@@ -0,0 +1,98 @@
+package ml101.mlp;
+
+import ml101.mlp.activation.LogisticFn;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ModelFileTest {
+    private final MLP mlp = new MLP.Builder()
+            .activation(new LogisticFn(0.5))
+            .layers(7, 5, 3)
+            .seed(1)
+            .load();
+
+    @Test
+    public void shouldRoundTripThroughBinaryFormat() throws Exception {
+        final File file = File.createTempFile("model", ".mlpb");
+        file.deleteOnExit();
+        mlp.saveBinary(file.getPath());
+
+        assertTrue(ModelFile.isModelFile(file.getPath()));
+        assertSameOutputs(mlp, new MLP.Builder().load(file.getPath()));
+    }
+
+    @Test
+    public void shouldConvertSerializedModel() throws Exception {
+        final File serialized = File.createTempFile("model", ".mlp");
+        final File binary = File.createTempFile("model", ".mlpb");
+        serialized.deleteOnExit();
+        binary.deleteOnExit();
+        mlp.save(serialized.getPath());
+        ModelFile.convert(serialized.getPath(), binary.getPath());
+
+        assertFalse(ModelFile.isModelFile(serialized.getPath()));
+        assertSameOutputs(mlp, ModelFile.read(binary.getPath()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectOtherFiles() throws Exception {
+        final File file = File.createTempFile("model", ".mlp");
+        file.deleteOnExit();
+        mlp.save(file.getPath());
+        ModelFile.read(file.getPath());
+    }
+
+    @Test
+    public void shouldRejectTruncatedAndCorruptFiles() throws Exception {
+        final File file = File.createTempFile("model", ".mlpb");
+        file.deleteOnExit();
+        mlp.saveBinary(file.getPath());
+        final byte[] bytes = Files.readAllBytes(file.toPath());
+        for (int length = 0; length < bytes.length; length++) {
+            assertRejected(Arrays.copyOf(bytes, length));
+        }
+        // layer count, then the first layer's outputs, name length and parameter count ("logistic" is 8 bytes)
+        for (int offset : new int[] {8, 16, 20, 32}) {
+            for (int value : new int[] {-1, 0, Integer.MAX_VALUE}) {
+                final byte[] corrupt = bytes.clone();
+                ByteBuffer.wrap(corrupt).order(ByteOrder.LITTLE_ENDIAN).putInt(offset, value);
+                assertRejected(corrupt);
+            }
+        }
+    }
+
+    private static void assertRejected(byte[] bytes) throws Exception {
+        final File file = File.createTempFile("corrupt", ".mlpb");
+        file.deleteOnExit();
+        Files.write(file.toPath(), bytes);
+        for (boolean offHeap : new boolean[] {false, true}) {
+            try {
+                final MLP read = offHeap ? ModelFile.map(file.getPath()) : ModelFile.read(file.getPath());
+                read.close();
+                fail("Read a corrupt file of " + bytes.length + " bytes");
+            }
+            catch (IllegalArgumentException expected) {
+                // the error the format uses for files it can't read
+            }
+        }
+    }
+
+    private static void assertSameOutputs(MLP expected, MLP actual) {
+        final Random random = new Random(2);
+        for (int n = 0; n < 10; n++) {
+            final double[] input = new double[7];
+            for (int i = 0; i < input.length; i++) {
+                input[i] = random.nextDouble();
+            }
+            assertArrayEquals(expected.feedForward(input), actual.feedForward(input), 0.0);
+        }
+    }
+}
@@ -3,6 +3,8 @@ package ml101.mlp;
 import ml101.mlp.activation.ActivationFn;
 import org.junit.Test;
 
+import java.util.Random;
+
 import static org.junit.Assert.*;
 
 public class NumUtilitiesTest {
@@ -104,4 +106,82 @@ public class NumUtilitiesTest {
 
         assertEquals(25.0, NumUtilities.square(-5.0), EPS);
     }
+
+    @Test
+    public void testMultiplyByTransposed() {
+        final Random random = new Random(1);
+        for (int[] shape : new int[][] {{1, 1, 1}, {5, 7, 3}, {9, 300, 6}}) {
+            final int rows = shape[0], inner = shape[1], columns = shape[2];
+            final double[] a = randomMatrix(random, rows * inner);
+            final double[] b = randomMatrix(random, columns * inner);
+            final double[] result = new double[rows * columns];
+
+            NumUtilities.multiplyByTransposed(result, a, b, rows, inner, columns);
+
+            for (int r = 0; r < rows; r++) {
+                for (int c = 0; c < columns; c++) {
+                    double expected = 0.0;
+                    for (int k = 0; k < inner; k++) {
+                        expected += a[r * inner + k] * b[c * inner + k];
+                    }
+                    assertEquals(expected, result[r * columns + c], EPS);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testMultiply() {
+        final Random random = new Random(2);
+        for (int[] shape : new int[][] {{1, 1, 1}, {5, 7, 3}, {9, 6, 300}}) {
+            final int rows = shape[0], inner = shape[1], columns = shape[2];
+            final double[] a = randomMatrix(random, rows * inner);
+            final double[] b = randomMatrix(random, inner * columns);
+            final double[] result = randomMatrix(random, rows * columns);
+
+            NumUtilities.multiply(result, a, b, rows, inner, columns);
+
+            for (int r = 0; r < rows; r++) {
+                for (int c = 0; c < columns; c++) {
+                    double expected = 0.0;
+                    for (int k = 0; k < inner; k++) {
+                        expected += a[r * inner + k] * b[k * columns + c];
+                    }
+                    assertEquals(expected, result[r * columns + c], EPS);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testAddTransposedProduct() {
+        final Random random = new Random(3);
+        for (int[] shape : new int[][] {{1, 1, 1}, {5, 7, 3}, {9, 6, 300}}) {
+            final int rows = shape[0], inner = shape[1], columns = shape[2];
+            final double[] a = randomMatrix(random, inner * rows);
+            final double[] b = randomMatrix(random, inner * columns);
+            final double[] initial = randomMatrix(random, rows * columns);
+            final double[] result = initial.clone();
+
+            NumUtilities.addTransposedProduct(result, 0.5, a, b, rows, inner, columns);
+
+            for (int r = 0; r < rows; r++) {
+                for (int c = 0; c < columns; c++) {
+                    double expected = initial[r * columns + c];
+                    for (int k = 0; k < inner; k++) {
+                        expected += 0.5 * a[k * rows + r] * b[k * columns + c];
+                    }
+                    assertEquals(expected, result[r * columns + c], EPS);
+                }
+            }
+        }
+    }
+
+    private static double[] randomMatrix(Random random, int size) {
+        final double[] matrix = new double[size];
+        for (int k = 0; k < size; k++) {
+            matrix[k] = random.nextDouble() - 0.5;
+        }
+        return matrix;
+    }
 }
@@ -0,0 +1,107 @@
+package ml101.mlp;
+
+import ml101.mlp.activation.ReluFn;
+import ml101.mlp.activation.SoftmaxFn;
+import ml101.mlp.data.TrainingData;
+import ml101.mlp.optimizer.Adam;
+import ml101.mlp.optimizer.Momentum;
+import ml101.mlp.optimizer.Nesterov;
+import ml101.mlp.optimizer.Optimizer;
+import ml101.mlp.optimizer.Sgd;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class OffHeapLayerTest {
+    private final TrainingData data = TestData.classes(96, 40, 3, 1);
+
+    @Test
+    public void shouldTrainLikeHeapLayers() {
+        for (Optimizer optimizer : new Optimizer[] {new Sgd(), new Momentum(), new Nesterov(), new Adam()}) {
+            final MLP heap = builder(optimizer).load();
+            try (MLP offHeap = builder(optimizer).offHeap(true).load()) {
+                assertTrue(offHeap.layers[0] instanceof OffHeapLayer);
+                heap.train(data);
+                offHeap.train(data);
+                assertSameOutputs(heap, offHeap, 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void shouldMapModelFileWithoutChangingIt() throws Exception {
+        final File file = File.createTempFile("model", ".mlpb");
+        file.deleteOnExit();
+        final MLP heap = builder(new Sgd()).load();
+        heap.saveBinary(file.getPath());
+        final byte[] saved = Files.readAllBytes(file.toPath());
+
+        try (MLP mapped = new MLP.Builder().offHeap(true).load(file.getPath())) {
+            assertTrue(mapped.layers[0].weightSegment().isReadOnly());
+            assertSameOutputs(heap, mapped, 0.0);
+
+            mapped.copyWeightsFrom(builder(new Sgd()).seed(3).load());
+            assertFalse(mapped.layers[0].weightSegment().isReadOnly());
+            assertArrayEquals(saved, Files.readAllBytes(file.toPath()));
+        }
+    }
+
+    @Test
+    public void shouldSaveAsHeapLayers() throws Exception {
+        final File file = File.createTempFile("model", ".mlp");
+        file.deleteOnExit();
+        try (MLP offHeap = builder(new Sgd()).offHeap(true).load()) {
+            offHeap.train(data);
+            offHeap.save(file.getPath());
+
+            final MLP loaded = new MLP.Builder().load(file.getPath());
+            assertFalse(loaded.layers[0] instanceof OffHeapLayer);
+            assertSameOutputs(offHeap, loaded, 0.0);
+        }
+    }
+
+    @Test
+    public void shouldPruneFactorizeAndServeLikeHeapLayers() {
+        final MLP heap = builder(new Sgd()).load();
+        try (MLP offHeap = builder(new Sgd()).offHeap(true).load()) {
+            heap.train(data);
+            offHeap.copyWeightsFrom(heap);
+            heap.prune(0.5);
+            offHeap.prune(0.5);
+            assertSameOutputs(heap, offHeap, 0.0);
+            assertSameOutputs(heap.factorize(0, 5), offHeap.factorize(0, 5), 0.0);
+
+            final SparseMLP[] sparse = {heap.toSparse(), offHeap.toSparse()};
+            final FloatMLP[] float32 = {heap.toFloat32(), offHeap.toFloat32()};
+            final Int8MLP[] int8 = {heap.toInt8(), offHeap.toInt8()};
+            final double[][] outputs = new double[2][3];
+            for (int n = 0; n < data.length(); n++) {
+                final double[] input = data.input(n);
+                assertArrayEquals(sparse[0].predict(input, outputs[0]), sparse[1].predict(input, outputs[1]), 0.0);
+                assertArrayEquals(float32[0].predict(input, outputs[0]), float32[1].predict(input, outputs[1]), 0.0);
+                assertArrayEquals(int8[0].predict(input, outputs[0]), int8[1].predict(input, outputs[1]), 0.0);
+            }
+        }
+    }
+
+    private static MLP.Builder builder(Optimizer optimizer) {
+        return new MLP.Builder()
+                .activations(new ReluFn(), new SoftmaxFn())
+                .layers(40, 33, 3)
+                .optimizer(optimizer)
+                .learningRate(0.01)
+                .batchSize(48)
+                .threads(2)
+                .seed(2)
+                .stopWhen((iteration, cost) -> iteration >= 5);
+    }
+
+    private void assertSameOutputs(MLP expected, MLP actual, double delta) {
+        for (int n = 0; n < data.length(); n++) {
+            assertArrayEquals(expected.feedForward(data.input(n)), actual.feedForward(data.input(n)), delta);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package ml101.mlp;
+
+import ml101.mlp.activation.ReluFn;
+import ml101.mlp.activation.SoftmaxFn;
+import ml101.mlp.data.TrainingData;
+import ml101.mlp.optimizer.Adam;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PruningTest {
+    // three gaussian blobs in 30 dimensions
+    private final TrainingData data = TestData.classes(300, 30, 3, 1);
+
+    @Test
+    public void shouldPruneTheSmallestWeights() {
+        final MLP original = builder().load();
+        final MLP mlp = builder().load();
+        mlp.prune(0.8);
+        for (int l = 0; l < mlp.layers.length; l++) {
+            final double[] before = original.layers[l].weightArray();
+            final double[] after = mlp.layers[l].weightArray();
+            double largestPruned = 0.0;
+            double smallestKept = Double.MAX_VALUE;
+            int zeros = 0;
+            for (int i = 0; i < after.length; i++) {
+                if (after[i] == 0.0) {
+                    largestPruned = Math.max(largestPruned, Math.abs(before[i]));
+                    zeros++;
+                }
+                else {
+                    assertEquals(before[i], after[i], 0.0);
+                    smallestKept = Math.min(smallestKept, Math.abs(after[i]));
+                }
+            }
+            assertEquals(Math.round(0.8 * after.length), zeros);
+            assertTrue(largestPruned <= smallestKept);
+        }
+    }
+
+    @Test
+    public void sparseShouldComputeLikeThePrunedNetwork() {
+        final MLP mlp = builder().load();
+        mlp.train(data);
+        mlp.prune(0.9);
+        final SparseMLP sparse = mlp.toSparse();
+        for (int n = 0; n < data.length(); n++) {
+            assertArrayEquals(mlp.feedForward(data.input(n)), sparse.predict(data.input(n), new double[3]), 1e-12);
+        }
+        assertEquals(0.9, sparse.sparsity(), 1e-3);
+        final long nonZeros = Math.round(0.1 * 30 * 16) + Math.round(0.1 * 16 * 3);
+        assertEquals(12 * nonZeros + 4 * (16 + 1 + 3 + 1) + 8 * (16 + 3), sparse.sizeInBytes());
+    }
+
+    @Test
+    public void shouldFollowTheSchedule() {
+        final Pruning pruning = new Pruning(0.8).startEpoch(2).epochs(4);
+        assertEquals(0.0, pruning.sparsityAt(2), 0.0);
+        assertEquals(0.8 * (1 - Math.pow(0.75, 3)), pruning.sparsityAt(3), 1e-12);
+        assertEquals(0.8, pruning.sparsityAt(6), 1e-12);
+        assertEquals(0.8, pruning.sparsityAt(100), 1e-12);
+    }
+
+    @Test
+    public void shouldKeepPrunedWeightsAtZeroWhileTraining() {
+        for (boolean offHeap : new boolean[] {false, true}) {
+            try (MLP mlp = builder()
+                    .optimizer(new Adam())
+                    .batchSize(30)
+                    .offHeap(offHeap)
+                    .pruning(new Pruning(0.75).epochs(10))
+                    .stopWhen((iteration, cost) -> iteration >= 30)
+                    .load()) {
+                mlp.train(data);
+                for (Layer layer : mlp.layers) {
+                    final double[] weights = layer.weightArray();
+                    int zeros = 0;
+                    for (double weight : weights) {
+                        zeros += weight == 0.0 ? 1 : 0;
+                    }
+                    assertEquals(Math.round(0.75 * weights.length), zeros);
+                }
+                final Pruning.Report report = Pruning.report(mlp, 0.0, data);
+                assertEquals(0.75, report.sparsity(), 0.01);
+                assertTrue(report.toString(), report.sparseAccuracy() > 0.9);
+                assertEquals(report.denseAccuracy(), report.sparseAccuracy(), 0.0);
+                assertTrue(report.sparseBytes() < report.denseBytes() / 2);
+            }
+        }
+    }
+
+    @Test
+    public void shouldKeepPrunedWeightsAtZeroWithHogwild() {
+        final MLP[] trained = new MLP[1];
+        final boolean[][] zeros = new boolean[2][];
+        final List<String> revived = new ArrayList<>();
+        trained[0] = builder()
+                .hogwild(true)
+                .threads(2)
+                .pruning(new Pruning(0.75).epochs(5))
+                // the status follows the steps of an epoch, and the stop criteria the pruning after them
+                .reportStatus((iteration, cost) -> {
+                    for (int l = 0; l < zeros.length && zeros[l] != null; l++) {
+                        final double[] weights = trained[0].layers[l].weightArray();
+                        for (int i = 0; i < weights.length; i++) {
+                            if (zeros[l][i] && weights[i] != 0.0) {
+                                revived.add("weight " + i + " of layer " + l + " at iteration " + iteration);
+                            }
+                        }
+                    }
+                })
+                .stopWhen((iteration, cost) -> {
+                    for (int l = 0; l < zeros.length; l++) {
+                        final double[] weights = trained[0].layers[l].weightArray();
+                        zeros[l] = new boolean[weights.length];
+                        for (int i = 0; i < weights.length; i++) {
+                            zeros[l][i] = weights[i] == 0.0;
+                        }
+                    }
+                    return iteration >= 10;
+                })
+                .load();
+        trained[0].train(data);
+        assertTrue(revived.toString(), revived.isEmpty());
+        for (Layer layer : trained[0].layers) {
+            int count = 0;
+            for (double weight : layer.weightArray()) {
+                count += weight == 0.0 ? 1 : 0;
+            }
+            assertEquals(Math.round(0.75 * layer.numInputs() * layer.numOutputs()), count);
+        }
+    }
+
+    private static MLP.Builder builder() {
+        return new MLP.Builder()
+                .activations(new ReluFn(), new SoftmaxFn())
+                .layers(30, 16, 3)
+                .learningRate(0.01)
+                .seed(2)
+                .stopWhen((iteration, cost) -> iteration >= 20);
+    }
+}
@@ -0,0 +1,46 @@
+package ml101.mlp;
+
+import ml101.mlp.activation.LogisticFn;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class QuantizationTest {
+    private final MLP mlp = new MLP.Builder()
+            .activation(new LogisticFn(1.0))
+            .layers(50, 40, 10)
+            .seed(1)
+            .load();
+
+    @Test
+    public void float32ShouldStayCloseToDouble() {
+        final FloatMLP model = mlp.toFloat32();
+        final Random random = new Random(2);
+        for (int n = 0; n < 100; n++) {
+            final double[] input = randomInput(random);
+            assertArrayEquals(mlp.feedForward(input), model.predict(input, new double[10]), 1e-5);
+        }
+        assertEquals(4L * (50 * 40 + 40 + 40 * 10 + 10), model.sizeInBytes());
+    }
+
+    @Test
+    public void int8ShouldStayCloseToDouble() {
+        final Int8MLP model = mlp.toInt8();
+        final Random random = new Random(3);
+        for (int n = 0; n < 100; n++) {
+            final double[] input = randomInput(random);
+            assertArrayEquals(mlp.feedForward(input), model.predict(input, new double[10]), 0.02);
+        }
+        assertEquals(50 * 40 + 8 * 40 + 40 * 10 + 8 * 10, model.sizeInBytes());
+    }
+
+    private static double[] randomInput(Random random) {
+        final double[] input = new double[50];
+        for (int i = 0; i < input.length; i++) {
+            input[i] = random.nextDouble() - 0.5;
+        }
+        return input;
+    }
+}
@@ -0,0 +1,41 @@
+package ml101.mlp;
+
+import ml101.mlp.data.PlainData;
+import ml101.mlp.data.TrainingData;
+
+import java.util.Random;
+
+/**
+ * Synthetic data sets shared by the tests.
+ */
+public final class TestData {
+
+    private TestData() {
+    }
+
+    /**
+     * Gaussian blobs: sample n is of class n % classes (one-hot outputs), with inputs drawn around its class's mean.
+     * The means only depend on the number of inputs and classes, so data sets with different seeds are samples of
+     * the same problem, e.g. training and validation data.
+     */
+    public static TrainingData classes(int samples, int inputs, int classes, long seed) {
+        final Random centers = new Random(0);
+        final double[][] means = new double[classes][inputs];
+        for (double[] mean : means) {
+            for (int i = 0; i < inputs; i++) {
+                mean[i] = 2.0 * centers.nextGaussian();
+            }
+        }
+        final Random random = new Random(seed);
+        final double[][] values = new double[samples][inputs];
+        final double[][] outputs = new double[samples][classes];
+        for (int n = 0; n < samples; n++) {
+            final int label = n % classes;
+            for (int i = 0; i < inputs; i++) {
+                values[n][i] = means[label][i] + random.nextGaussian();
+            }
+            outputs[n][label] = 1.0;
+        }
+        return new PlainData(values, outputs);
+    }
+}
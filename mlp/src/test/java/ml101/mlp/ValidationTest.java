@@ -0,0 +1,61 @@
+package ml101.mlp;
+
+import ml101.mlp.activation.LogisticFn;
+import ml101.mlp.activation.ReluFn;
+import ml101.mlp.activation.SoftmaxFn;
+import ml101.mlp.data.TrainingData;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ValidationTest {
+
+    @Test
+    public void shouldStopWhenLossPlateaus() {
+        final Validation validation = new Validation(TestData.classes(50, 4, 3, 1)).patience(3).reportTo(result -> { });
+        final long[] epochs = new long[1];
+        final MLP mlp = new MLP.Builder()
+                .activation(new LogisticFn(1.0))
+                .layers(4, 5, 3)
+                .learningRate(0.0)
+                .validation(validation)
+                .reportStatus((iteration, cost) -> epochs[0] = iteration)
+                .stopWhen((iteration, cost) -> iteration >= 100000)
+                .load();
+        mlp.train(TestData.classes(50, 4, 3, 2));
+
+        assertTrue("stopped at " + epochs[0], epochs[0] < 100000);
+        assertTrue(validation.history().size() >= 4);
+        assertEquals(validation.history().get(0), validation.best());
+    }
+
+    @Test
+    public void shouldKeepAndRestoreBestSnapshot() {
+        final TrainingData validationData = TestData.classes(100, 4, 3, 3);
+        final Validation validation = new Validation(validationData).patience(5).reportTo(result -> { });
+        final MLP mlp = new MLP.Builder()
+                .layers(4, 16, 3)
+                .activations(new ReluFn(), new SoftmaxFn())
+                .learningRate(0.05)
+                .batchSize(10)
+                .shuffle(true)
+                .seed(4)
+                .validation(validation)
+                .reportStatus((iteration, cost) -> { })
+                .stopWhen((iteration, cost) -> iteration >= 50)
+                .load();
+        mlp.train(TestData.classes(200, 4, 3, 5));
+
+        final Validation.Result best = validation.best();
+        assertNotNull(best);
+        assertTrue("accuracy " + best.accuracy(), best.accuracy() > 0.9);
+        for (Validation.Result result : validation.history()) {
+            assertTrue(result.loss() >= best.loss());
+        }
+        final MLP snapshot = validation.bestSnapshot();
+        for (int l = 0; l < mlp.layers.length; l++) {
+            assertArrayEquals(snapshot.layers[l].weights, mlp.layers[l].weights, 0.0);
+            assertArrayEquals(snapshot.layers[l].bias, mlp.layers[l].bias, 0.0);
+        }
+    }
+}
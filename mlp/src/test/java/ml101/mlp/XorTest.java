@@ -2,8 +2,13 @@ package ml101.mlp;
 
 import ml101.mlp.activation.LogisticFn;
 import ml101.mlp.activation.StepFn;
+import ml101.mlp.data.Pipeline;
 import ml101.mlp.data.PlainData;
 import ml101.mlp.data.TrainingData;
+import ml101.mlp.optimizer.Adam;
+import ml101.mlp.optimizer.Momentum;
+import ml101.mlp.optimizer.Nesterov;
+import ml101.mlp.optimizer.Optimizer;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -60,6 +65,109 @@ public class XorTest {
         assertEquals(0.0, mlp.feedForward(1.0, 1.0)[0], DELTA);
     }
 
+    @Test
+    public void shouldWorkWithShuffledMiniBatchXOR() {
+        final MLP mlp = new MLP.Builder()
+                .activation(new LogisticFn(1.0))
+                .layers(2, 2, 1)
+                .learningRate(0.5)
+                .batchSize(2)
+                .shuffle(true)
+                .threads(2)
+                .seed(42)
+                .stopWhen((iteration, cost) -> iteration >= 20000)
+                .load();
+        mlp.train(xorData());
+        assertEquals(0.0, mlp.feedForward(0.0, 0.0)[0], DELTA);
+        assertEquals(1.0, mlp.feedForward(0.0, 1.0)[0], DELTA);
+        assertEquals(1.0, mlp.feedForward(1.0, 0.0)[0], DELTA);
+        assertEquals(0.0, mlp.feedForward(1.0, 1.0)[0], DELTA);
+    }
+
+    @Test
+    public void shouldTrainDeterministicallyForSameSeedAndThreads() {
+        final double[][] results = new double[2][];
+        for (int run = 0; run < results.length; run++) {
+            final MLP mlp = new MLP.Builder()
+                    .activation(new LogisticFn(1.0))
+                    .layers(2, 3, 1)
+                    .learningRate(0.5)
+                    .batchSize(3)
+                    .shuffle(true)
+                    .threads(3)
+                    .seed(7)
+                    .stopWhen((iteration, cost) -> iteration >= 200)
+                    .load();
+            mlp.train(xorData());
+            results[run] = new double[] {
+                    mlp.feedForward(0.0, 0.0)[0], mlp.feedForward(0.0, 1.0)[0],
+                    mlp.feedForward(1.0, 0.0)[0], mlp.feedForward(1.0, 1.0)[0]};
+        }
+        assertArrayEquals(results[0], results[1], 0.0);
+    }
+
+    @Test
+    public void shouldWorkWithOptimizers() {
+        for (Optimizer optimizer : new Optimizer[] {new Momentum(), new Nesterov(), new Adam()}) {
+            final MLP mlp = new MLP.Builder()
+                    .activation(new LogisticFn(1.0))
+                    .layers(2, 3, 1)
+                    .learningRate(optimizer instanceof Adam ? 0.05 : 0.1)
+                    .batchSize(2)
+                    .shuffle(true)
+                    .optimizer(optimizer)
+                    .seed(42)
+                    .stopWhen((iteration, cost) -> iteration >= 2000)
+                    .load();
+            mlp.train(xorData());
+            final String name = optimizer.getClass().getSimpleName();
+            assertEquals(name, 0.0, mlp.feedForward(0.0, 0.0)[0], 0.1);
+            assertEquals(name, 1.0, mlp.feedForward(0.0, 1.0)[0], 0.1);
+            assertEquals(name, 1.0, mlp.feedForward(1.0, 0.0)[0], 0.1);
+            assertEquals(name, 0.0, mlp.feedForward(1.0, 1.0)[0], 0.1);
+        }
+    }
+
+    @Test
+    public void shouldTrainTheSameThroughPipeline() {
+        final double[][] results = new double[2][];
+        for (int run = 0; run < results.length; run++) {
+            final MLP mlp = new MLP.Builder()
+                    .activation(new LogisticFn(1.0))
+                    .layers(2, 3, 1)
+                    .learningRate(0.5)
+                    .batchSize(3)
+                    .threads(2)
+                    .seed(7)
+                    .stopWhen((iteration, cost) -> iteration >= 200)
+                    .load();
+            if (run == 0) {
+                mlp.train(xorData());
+            }
+            else {
+                try (Pipeline pipeline = new Pipeline.Builder(xorData()).batchSize(3).start()) {
+                    mlp.train(pipeline);
+                }
+            }
+            results[run] = new double[] {
+                    mlp.feedForward(0.0, 0.0)[0], mlp.feedForward(0.0, 1.0)[0],
+                    mlp.feedForward(1.0, 0.0)[0], mlp.feedForward(1.0, 1.0)[0]};
+        }
+        assertArrayEquals(results[0], results[1], 0.0);
+    }
+
+    private static TrainingData xorData() {
+        return new PlainData(
+                new double[][] {{0.0, 0.0},
+                                {0.0, 1.0},
+                                {1.0, 0.0},
+                                {1.0, 1.0}},
+                new double[][] {{0.0},
+                                {1.0},
+                                {1.0},
+                                {0.0}});
+    }
+
     @Test
     public void shouldSaveAndLoadXor() throws Exception {
         final MLP mlp = new MLP.Builder()
@@ -98,7 +206,7 @@ public class XorTest {
                         {0.0}});
         System.out.println("weight\tcost");
         for (double w = -2.0; w < 2.0; w += 0.01) {
-            mlp.layers[0].weights[1][0] = w;
+            mlp.layers[0].weights[1 * 2 + 0] = w;
             double cost = mlp.computeCost(td);
             System.out.println(w + "\t" + cost);
         }
@@ -0,0 +1,84 @@
+package ml101.mlp.activation;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ActivationFnTest {
+    private static final double EPS = 1e-12;
+
+    @Test
+    public void rowMethodsShouldMatchElementMethods() {
+        final ActivationFn[] fns = {new LogisticFn(1.5), new ReluFn(), new LeakyReluFn(0.1), new TanhFn(),
+                new LinearFn()};
+        final Random random = new Random(1);
+        for (ActivationFn fn : fns) {
+            // odd length and offset, to cover the vector loop tails
+            final double[] values = new double[37];
+            final double[] errors = new double[37];
+            for (int k = 0; k < values.length; k++) {
+                values[k] = 8.0 * (random.nextDouble() - 0.5);
+                errors[k] = random.nextDouble() - 0.5;
+            }
+            final double[] outputs = values.clone();
+            fn.compute(outputs, 3, 31);
+            final double[] scaled = errors.clone();
+            fn.multiplyByDerivative(outputs, scaled, 3, 31);
+            final String name = fn.getClass().getSimpleName();
+            for (int k = 0; k < values.length; k++) {
+                final boolean inRow = k >= 3 && k < 34;
+                assertEquals(name, inRow ? fn.compute(values[k]) : values[k], outputs[k], EPS);
+                assertEquals(name, inRow ? errors[k] * fn.derivative(outputs[k]) : errors[k], scaled[k], EPS);
+            }
+        }
+    }
+
+    @Test
+    public void softmaxShouldGiveProbabilities() {
+        final double[] values = {5.0, 1000.0, 1001.0, 1002.0, 7.0};
+        new SoftmaxFn().compute(values, 1, 3);
+        final double sum = Math.exp(-2) + Math.exp(-1) + 1.0;
+        assertArrayEquals(new double[] {5.0, Math.exp(-2) / sum, Math.exp(-1) / sum, 1.0 / sum, 7.0}, values, EPS);
+    }
+
+    @Test
+    public void softmaxDerivativeShouldMatchFiniteDifferences() {
+        final SoftmaxFn fn = new SoftmaxFn();
+        final double[] z = {0.3, -1.2, 2.0, 0.5};
+        final double[] errors = {1.0, -0.5, 0.25, 2.0};
+        final double[] outputs = z.clone();
+        fn.compute(outputs, 0, outputs.length);
+        final double[] scaled = errors.clone();
+        fn.multiplyByDerivative(outputs, scaled, 0, scaled.length);
+        // the derivative of sum of errors[j] * softmax(z)[j] by z[k]
+        final double h = 1e-6;
+        for (int k = 0; k < z.length; k++) {
+            final double[] plus = z.clone();
+            final double[] minus = z.clone();
+            plus[k] += h;
+            minus[k] -= h;
+            fn.compute(plus, 0, plus.length);
+            fn.compute(minus, 0, minus.length);
+            double difference = 0.0;
+            for (int j = 0; j < z.length; j++) {
+                difference += errors[j] * (plus[j] - minus[j]) / (2 * h);
+            }
+            assertEquals(difference, scaled[k], 1e-8);
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void softmaxShouldOnlyWorkOnRows() {
+        new SoftmaxFn().compute(1.0);
+    }
+
+    @Test
+    public void leakyReluShouldKeepSmallSlopeForNegatives() {
+        final LeakyReluFn fn = new LeakyReluFn(0.1);
+        assertEquals(-0.3, fn.compute(-3.0), EPS);
+        assertEquals(0.1, fn.derivative(fn.compute(-3.0)), EPS);
+        assertEquals(1.0, fn.derivative(fn.compute(3.0)), EPS);
+    }
+}
@@ -0,0 +1,84 @@
+package ml101.mlp.data;
+
+import org.junit.Test;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class IdxDataTest {
+
+    @Test
+    public void shouldReadUnsignedByteImagesAndLabels() throws IOException {
+        final File images = idxFile(IdxFile.UNSIGNED_BYTE, new int[] {3, 2, 2}, out -> {
+            for (int k = 0; k < 12; k++) {
+                out.writeByte(k * 20);
+            }
+        });
+        final File labels = idxFile(IdxFile.UNSIGNED_BYTE, new int[] {3}, out -> {
+            out.writeByte(2);
+            out.writeByte(0);
+            out.writeByte(1);
+        });
+
+        final IdxData data = new IdxData(images.getPath(), labels.getPath());
+        assertEquals(3, data.length());
+        assertArrayEquals(new int[] {2, 2}, data.inputDimensions());
+        assertArrayEquals(new double[] {160 / 255.0, 180 / 255.0, 200 / 255.0, 220 / 255.0}, data.input(2), 1e-15);
+        assertArrayEquals(new double[] {0.0, 0.0, 1.0}, data.output(0), 0.0);
+        assertArrayEquals(new double[] {1.0, 0.0, 0.0}, data.output(1), 0.0);
+        assertEquals(5, new IdxData(images.getPath(), labels.getPath(), 5).output(2).length);
+    }
+
+    @Test
+    public void shouldReadFloatInputsAndOutputs() throws IOException {
+        final File inputs = idxFile(IdxFile.FLOAT, new int[] {2, 3}, out -> {
+            for (int k = 0; k < 6; k++) {
+                out.writeFloat(k - 2.5f);
+            }
+        });
+        final File outputs = idxFile(IdxFile.SHORT, new int[] {2, 2}, out -> {
+            for (int k = 0; k < 4; k++) {
+                out.writeShort(-k);
+            }
+        });
+
+        final IdxData data = new IdxData(inputs.getPath(), outputs.getPath());
+        assertArrayEquals(new double[] {0.5, 1.5, 2.5}, data.input(1), 0.0);
+        assertArrayEquals(new double[] {-2.0, -3.0}, data.output(1), 0.0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectTruncatedFile() throws IOException {
+        final File images = idxFile(IdxFile.UNSIGNED_BYTE, new int[] {3, 2, 2}, out -> out.write(new byte[11]));
+        new IdxFile(images.getPath());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectUnknownType() throws IOException {
+        final File images = idxFile(0x42, new int[] {1}, out -> out.write(new byte[8]));
+        new IdxFile(images.getPath());
+    }
+
+    private interface Writer {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private static File idxFile(int type, int[] dimensions, Writer writer) throws IOException {
+        final File file = File.createTempFile("data", ".idx");
+        file.deleteOnExit();
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            out.writeShort(0);
+            out.writeByte(type);
+            out.writeByte(dimensions.length);
+            for (int dimension : dimensions) {
+                out.writeInt(dimension);
+            }
+            writer.write(out);
+        }
+        return file;
+    }
+}
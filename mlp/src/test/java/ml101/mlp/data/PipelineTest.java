@@ -0,0 +1,95 @@
+package ml101.mlp.data;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class PipelineTest {
+    private final TrainingData data = new PlainData(
+            new double[][] {{0}, {1}, {2}, {3}, {4}, {5}, {6}},
+            new double[][] {{0}, {10}, {20}, {30}, {40}, {50}, {60}});
+
+    @Test
+    public void shouldCoverEverySampleOncePerEpoch() {
+        try (Pipeline pipeline = new Pipeline.Builder(data).batchSize(3).shuffle(1).prefetch(2).start()) {
+            for (int epoch = 0; epoch < 3; epoch++) {
+                final Set<Double> seen = new HashSet<>();
+                final int[] sizes = new int[3];
+                for (int b = 0; b < 3; b++) {
+                    final Pipeline.Batch batch = pipeline.take();
+                    sizes[b] = batch.length();
+                    assertEquals(b == 2, batch.endOfEpoch());
+                    for (int n = 0; n < batch.length(); n++) {
+                        assertEquals(10 * batch.input(n)[0], batch.output(n)[0], 0.0);
+                        seen.add(batch.input(n)[0]);
+                    }
+                    pipeline.release(batch);
+                }
+                assertArrayEquals(new int[] {3, 3, 1}, sizes);
+                assertEquals(7, seen.size());
+            }
+        }
+    }
+
+    @Test
+    public void shouldApplyTransformsInOrder() {
+        try (Pipeline pipeline = new Pipeline.Builder(data)
+                .transform(Transform.normalize(1.0, 2.0))
+                .transform((input, output) -> output[0] = -output[0])
+                .start()) {
+            final Pipeline.Batch batch = pipeline.take();
+            assertEquals(7, batch.length());
+            assertTrue(batch.endOfEpoch());
+            assertEquals(2.5, batch.input(6)[0], 0.0);
+            assertEquals(-60.0, batch.output(6)[0], 0.0);
+            assertEquals(6.0, data.input(6)[0], 0.0);
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldRethrowPrefetchFailures() {
+        try (Pipeline pipeline = new Pipeline.Builder(data)
+                .transform((input, output) -> {
+                    throw new IllegalArgumentException("bad sample");
+                })
+                .start()) {
+            pipeline.take();
+        }
+    }
+
+    @Test
+    public void shouldWakeUpATakeWaitingWhenClosed() throws Exception {
+        final Pipeline pipeline = new Pipeline.Builder(data).batchSize(3).prefetch(1).start();
+        // both batches are out and not released, so the next take waits
+        pipeline.take();
+        pipeline.take();
+        final AtomicReference<Throwable> thrown = new AtomicReference<>();
+        final Thread consumer = Thread.ofPlatform().start(() -> {
+            try {
+                pipeline.take();
+            }
+            catch (Throwable ex) {
+                thrown.set(ex);
+            }
+        });
+        while (consumer.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+        pipeline.close();
+        consumer.join(10_000);
+        assertFalse(consumer.isAlive());
+        assertTrue(thrown.get() instanceof IllegalStateException);
+        assertEquals("Pipeline closed", thrown.get().getMessage());
+        try {
+            pipeline.take();
+            fail("Took a batch from a closed pipeline");
+        }
+        catch (IllegalStateException expected) {
+            assertEquals("Pipeline closed", expected.getMessage());
+        }
+    }
+}
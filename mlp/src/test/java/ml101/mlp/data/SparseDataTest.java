@@ -0,0 +1,78 @@
+package ml101.mlp.data;
+
+import ml101.mlp.MLP;
+import ml101.mlp.activation.LogisticFn;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SparseDataTest {
+
+    @Test
+    public void shouldExpandToDenseInputs() {
+        final SparseData data = new SparseData(5, new int[][] {{1, 3}, {}},
+                new double[][] {{0.5, 2.0}, {}}, new double[][] {{1.0}, {0.0}});
+        assertEquals(2, data.length());
+        assertArrayEquals(new double[] {0.0, 0.5, 0.0, 2.0, 0.0}, data.input(0), 0.0);
+        assertArrayEquals(new double[5], data.input(1), 0.0);
+
+        final int[] indices = new int[5];
+        final double[] values = new double[5];
+        assertEquals(2, data.sparseInput(0, indices, values, 1));
+        assertArrayEquals(new int[] {0, 1, 3, 0, 0}, indices);
+        assertArrayEquals(new double[] {0.0, 0.5, 2.0, 0.0, 0.0}, values, 0.0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectIndicesOutOfOrder() {
+        new SparseData(5, new int[][] {{3, 1}}, new double[][] {{0.5, 2.0}}, new double[][] {{1.0}});
+    }
+
+    @Test
+    public void shouldTrainLikeDenseData() {
+        final PlainData dense = data(200, 100, new Random(1));
+        final MLP denseMLP = newMLP().sparseInputs(false).load();
+        final MLP sparseMLP = newMLP().load();
+        denseMLP.train(dense);
+        sparseMLP.train(SparseData.of(dense));
+
+        final Random random = new Random(2);
+        for (int n = 0; n < 10; n++) {
+            final double[] input = dense.input(random.nextInt(dense.length()));
+            assertArrayEquals(denseMLP.feedForward(new double[][] {input})[0],
+                    sparseMLP.feedForward(new double[][] {input})[0], 1e-9);
+        }
+    }
+
+    private static MLP.Builder newMLP() {
+        return new MLP.Builder()
+                .activation(new LogisticFn(1.0))
+                .layers(100, 8, 2)
+                .learningRate(0.1)
+                .batchSize(50)
+                .seed(3)
+                .reportStatus((iteration, cost) -> { })
+                .stopWhen((iteration, cost) -> iteration >= 5);
+    }
+
+    /*
+     * Inputs with about 5% non-zero values, labelled by whether the first half has more of them than the second.
+     */
+    private static PlainData data(int samples, int numInputs, Random random) {
+        final double[][] inputs = new double[samples][numInputs];
+        final double[][] outputs = new double[samples][2];
+        for (int n = 0; n < samples; n++) {
+            int balance = 0;
+            for (int i = 0; i < numInputs; i++) {
+                if (random.nextInt(20) == 0) {
+                    inputs[n][i] = random.nextDouble();
+                    balance += i < numInputs / 2 ? 1 : -1;
+                }
+            }
+            outputs[n][balance > 0 ? 0 : 1] = 1.0;
+        }
+        return new PlainData(inputs, outputs);
+    }
+}
@@ -0,0 +1,236 @@
+package ml101.mlp.kernels;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.util.Random;
+
+import static java.lang.foreign.ValueLayout.JAVA_DOUBLE;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the Vector API kernels give the same numbers as the scalar kernels.
+ */
+public class KernelsTest {
+    private static final double EPS = 1e-9;
+    // lengths around the vector widths and the cache block, to cover the loop tails
+    private static final int[] LENGTHS = {1, 3, 4, 7, 8, 17, 255, 256, 257, 784};
+
+    private final Kernels scalar = new ScalarKernels();
+    private Kernels vector;
+    private final Random random = new Random(1);
+
+    @Before
+    public void createVectorKernels() {
+        Assume.assumeTrue("jdk.incubator.vector not available — skipping Vector API tests",
+                ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent());
+        vector = new VectorKernels();
+    }
+
+    @Test
+    public void dotShouldMatchScalar() {
+        for (int length : LENGTHS) {
+            final double[] a = randomVector(length + 3);
+            final double[] b = randomVector(length + 5);
+            assertEquals(scalar.dot(a, 3, b, 5, length), vector.dot(a, 3, b, 5, length), EPS);
+        }
+    }
+
+    @Test
+    public void crossMultiplyShouldMatchScalar() {
+        for (int columns : LENGTHS) {
+            final double[] matrix = randomVector(9 * columns);
+            final double[] input = randomVector(columns);
+            final double[] expected = new double[9];
+            final double[] actual = new double[9];
+            scalar.crossMultiply(expected, matrix, columns, input);
+            vector.crossMultiply(actual, matrix, columns, input);
+            assertArrayEquals(expected, actual, EPS);
+        }
+    }
+
+    @Test
+    public void vectorAddShouldMatchScalar() {
+        for (int length : LENGTHS) {
+            final double[] v1 = randomVector(length);
+            final double[] v2 = randomVector(length + 1);
+            final double[] expected = new double[length];
+            final double[] actual = new double[length];
+            scalar.vectorAdd(expected, v1, v2);
+            vector.vectorAdd(actual, v1, v2);
+            assertArrayEquals(expected, actual, EPS);
+        }
+    }
+
+    @Test
+    public void axpyAndAddAndClearShouldMatchScalar() {
+        for (int length : LENGTHS) {
+            final double[] x = randomVector(length + 2);
+            final double[] expected = randomVector(length + 1);
+            final double[] actual = expected.clone();
+            scalar.axpy(0.3, x, 2, expected, 1, length);
+            vector.axpy(0.3, x, 2, actual, 1, length);
+            assertArrayEquals(expected, actual, EPS);
+
+            final double[] deltas = randomVector(expected.length);
+            final double[] vectorDeltas = deltas.clone();
+            scalar.addAndClear(expected, deltas, expected.length);
+            vector.addAndClear(actual, vectorDeltas, actual.length);
+            assertArrayEquals(expected, actual, EPS);
+            assertArrayEquals(new double[deltas.length], vectorDeltas, 0.0);
+        }
+    }
+
+    @Test
+    public void matrixKernelsShouldMatchScalar() {
+        for (int[] shape : new int[][] {{1, 1, 1}, {5, 7, 3}, {9, 300, 6}, {32, 784, 10}, {6, 10, 257}}) {
+            final int rows = shape[0], inner = shape[1], columns = shape[2];
+
+            final double[] a = randomVector(rows * inner);
+            final double[] b = randomVector(columns * inner);
+            final double[] expected = new double[rows * columns];
+            final double[] actual = new double[rows * columns];
+            scalar.multiplyByTransposed(expected, a, b, rows, inner, columns);
+            vector.multiplyByTransposed(actual, a, b, rows, inner, columns);
+            assertArrayEquals("multiplyByTransposed", expected, actual, EPS);
+
+            final double[] c = randomVector(inner * columns);
+            scalar.multiply(expected, a, c, rows, inner, columns);
+            vector.multiply(actual, a, c, rows, inner, columns);
+            assertArrayEquals("multiply", expected, actual, EPS);
+
+            final double[] d = randomVector(inner * rows);
+            scalar.addTransposedProduct(expected, 0.1, d, c, rows, inner, columns);
+            vector.addTransposedProduct(actual, 0.1, d, c, rows, inner, columns);
+            assertArrayEquals("addTransposedProduct", expected, actual, EPS);
+        }
+    }
+
+    @Test
+    public void activationKernelsShouldMatchScalar() {
+        for (int length : LENGTHS) {
+            final double[] expected = randomVector(length + 2);
+            for (int k = 0; k < expected.length; k++) {
+                expected[k] *= 40.0;
+            }
+            final double[] actual = expected.clone();
+            scalar.logistic(expected, 2, length, 1.5);
+            vector.logistic(actual, 2, length, 1.5);
+            assertArrayEquals("logistic", expected, actual, EPS);
+            scalar.tanh(expected, 1, length);
+            vector.tanh(actual, 1, length);
+            assertArrayEquals("tanh", expected, actual, EPS);
+        }
+    }
+
+    @Test
+    public void selectShouldRejectUnknownNames() {
+        final String saved = System.getProperty("ml101.kernels");
+        try {
+            System.setProperty("ml101.kernels", "scalar");
+            assertTrue(Kernels.select() instanceof ScalarKernels);
+            System.setProperty("ml101.kernels", "vectr");
+            Kernels.select();
+            fail("Selected kernels for an unknown name");
+        }
+        catch (IllegalArgumentException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("vectr"));
+        }
+        finally {
+            if (saved == null) {
+                System.clearProperty("ml101.kernels");
+            }
+            else {
+                System.setProperty("ml101.kernels", saved);
+            }
+        }
+    }
+
+    @Test
+    public void sparseKernelsShouldMatchDense() {
+        for (int[] shape : new int[][] {{1, 1, 1}, {5, 7, 3}, {9, 300, 6}, {32, 784, 10}}) {
+            final int rows = shape[0], inner = shape[1], columns = shape[2];
+            final double[] a = randomVector(rows * inner);
+            final int[] rowStart = new int[rows + 1];
+            final int[] indices = new int[a.length];
+            final double[] values = new double[a.length];
+            for (int r = 0; r < rows; r++) {
+                rowStart[r + 1] = rowStart[r];
+                for (int i = 0; i < inner; i++) {
+                    if (random.nextInt(4) == 0) {
+                        indices[rowStart[r + 1]] = i;
+                        values[rowStart[r + 1]++] = a[r * inner + i];
+                    }
+                    else {
+                        a[r * inner + i] = 0.0;
+                    }
+                }
+            }
+            final double[] b = randomVector(columns * inner);
+            final double[] expected = new double[rows * columns];
+            scalar.multiplyByTransposed(expected, a, b, rows, inner, columns);
+            for (Kernels kernels : new Kernels[] {scalar, vector}) {
+                final double[] actual = new double[rows * columns];
+                kernels.sparseMultiplyByTransposed(actual, rowStart, indices, values, b, rows, inner, columns);
+                assertArrayEquals("sparseMultiplyByTransposed", expected, actual, EPS);
+            }
+
+            final double[] errors = randomVector(rows * columns);
+            final double[] expectedDeltas = randomVector(columns * inner);
+            final double[] initial = expectedDeltas.clone();
+            scalar.addTransposedProduct(expectedDeltas, 0.1, errors, a, columns, rows, inner);
+            for (Kernels kernels : new Kernels[] {scalar, vector}) {
+                final double[] actual = initial.clone();
+                kernels.addSparseTransposedProduct(actual, 0.1, errors, rowStart, indices, values,
+                        columns, rows, inner);
+                assertArrayEquals("addSparseTransposedProduct", expectedDeltas, actual, EPS);
+            }
+        }
+    }
+
+    @Test
+    public void segmentKernelsShouldMatchArrays() {
+        for (int[] shape : new int[][] {{1, 1, 1}, {5, 7, 3}, {32, 257, 10}}) {
+            final int rows = shape[0], inner = shape[1], columns = shape[2];
+            final double[] a = randomVector(rows * inner);
+            final double[] b = randomVector(columns * inner);
+            final double[] errors = randomVector(rows * columns);
+            final double[] expected = new double[rows * columns];
+            final double[] expectedBack = new double[rows * inner];
+            final double[] expectedDeltas = randomVector(columns * inner);
+            final double[] initial = expectedDeltas.clone();
+            scalar.multiplyByTransposed(expected, a, b, rows, inner, columns);
+            scalar.multiply(expectedBack, errors, b, rows, columns, inner);
+            scalar.addTransposedProduct(expectedDeltas, 0.1, errors, a, columns, rows, inner);
+            for (Kernels kernels : new Kernels[] {scalar, vector}) {
+                try (Arena arena = Arena.ofConfined()) {
+                    final MemorySegment weights = arena.allocate(8L * b.length, 8);
+                    final MemorySegment deltas = arena.allocate(8L * initial.length, 8);
+                    MemorySegment.copy(b, 0, weights, JAVA_DOUBLE, 0, b.length);
+                    MemorySegment.copy(initial, 0, deltas, JAVA_DOUBLE, 0, initial.length);
+
+                    final double[] actual = new double[rows * columns];
+                    kernels.multiplyByTransposed(actual, a, weights, rows, inner, columns);
+                    assertArrayEquals("multiplyByTransposed", expected, actual, EPS);
+                    final double[] actualBack = new double[rows * inner];
+                    kernels.multiply(actualBack, errors, weights, rows, columns, inner);
+                    assertArrayEquals("multiply", expectedBack, actualBack, EPS);
+                    kernels.addTransposedProduct(deltas, 0.1, errors, a, columns, rows, inner);
+                    assertArrayEquals("addTransposedProduct", expectedDeltas, deltas.toArray(JAVA_DOUBLE), EPS);
+                }
+            }
+        }
+    }
+
+    private double[] randomVector(int length) {
+        final double[] vector = new double[length];
+        for (int i = 0; i < length; i++) {
+            vector[i] = random.nextDouble() - 0.5;
+        }
+        return vector;
+    }
+}
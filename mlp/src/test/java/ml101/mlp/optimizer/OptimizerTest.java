@@ -0,0 +1,76 @@
+package ml101.mlp.optimizer;
+
+import org.junit.Test;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+
+import static java.lang.foreign.ValueLayout.JAVA_DOUBLE;
+
+import static org.junit.Assert.*;
+
+public class OptimizerTest {
+    private static final double EPS = 1e-12;
+
+    @Test
+    public void sgdShouldAddScaledGradientsAndClearThem() {
+        final double[] parameters = {1.0, 2.0};
+        final double[] gradients = {0.5, -1.0};
+        new Sgd().newState(2, 0.1).update(parameters, gradients);
+        assertArrayEquals(new double[] {1.05, 1.9}, parameters, EPS);
+        assertArrayEquals(new double[] {0.0, 0.0}, gradients, 0.0);
+    }
+
+    @Test
+    public void momentumShouldKeepPreviousStep() {
+        final double[] parameters = {0.0};
+        final Optimizer.State state = new Momentum(0.5).newState(1, 0.1);
+        state.update(parameters, new double[] {1.0});
+        assertEquals(0.1, parameters[0], EPS);
+        state.update(parameters, new double[] {1.0});
+        assertEquals(0.1 + 0.15, parameters[0], EPS);
+    }
+
+    @Test
+    public void nesterovShouldLookAhead() {
+        final double[] parameters = {0.0};
+        final Optimizer.State state = new Nesterov(0.5).newState(1, 0.1);
+        state.update(parameters, new double[] {1.0});
+        assertEquals(0.5 * 0.1 + 0.1, parameters[0], EPS);
+        state.update(parameters, new double[] {1.0});
+        assertEquals(0.15 + 0.5 * 0.15 + 0.1, parameters[0], EPS);
+    }
+
+    @Test
+    public void adamShouldTakeLearningRateSizedFirstStep() {
+        final double[] parameters = {0.0, 0.0};
+        final Optimizer.State state = new Adam().newState(2, 0.01);
+        state.update(parameters, new double[] {100.0, -0.001});
+        // bias correction makes the first step learningRate * sign(gradient), whatever the gradient's size
+        assertEquals(0.01, parameters[0], 1e-9);
+        assertEquals(-0.01, parameters[1], 1e-6);
+    }
+
+    @Test
+    public void heapStateShouldServeOffHeapParameters() {
+        // an optimizer with only heap state: the same steps as Momentum, through the default off-heap newState
+        final Momentum momentum = new Momentum(0.5);
+        final Optimizer heapOnly = momentum::newState;
+        try (Arena arena = Arena.ofConfined()) {
+            final MemorySegment parameters = Optimizer.allocate(arena, 2);
+            final MemorySegment gradients = Optimizer.allocate(arena, 2);
+            final Optimizer.SegmentState state = heapOnly.newState(2L, 0.1, arena);
+            final Optimizer.State expected = momentum.newState(2, 0.1);
+            final double[] expectedParameters = new double[2];
+            for (int step = 0; step < 3; step++) {
+                gradients.setAtIndex(JAVA_DOUBLE, 0, 1.0);
+                gradients.setAtIndex(JAVA_DOUBLE, 1, -2.0);
+                state.update(parameters, gradients);
+                expected.update(expectedParameters, new double[] {1.0, -2.0});
+                assertArrayEquals(expectedParameters, parameters.toArray(JAVA_DOUBLE), EPS);
+                assertArrayEquals(new double[2], gradients.toArray(JAVA_DOUBLE), 0.0);
+            }
+            assertArrayEquals(expected.save(), state.save());
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package ml101.mlp.search;
+
+import ml101.mlp.MLP;
+import ml101.mlp.TestData;
+import ml101.mlp.activation.LogisticFn;
+import ml101.mlp.data.TrainingData;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.*;
+
+public class HyperparameterSearchTest {
+    private final TrainingData training = TestData.classes(150, 4, 3, 1);
+    private final TrainingData validation = TestData.classes(60, 4, 3, 2);
+
+    @Test
+    public void shouldRankEveryGridPoint() {
+        final Set<String> threads = ConcurrentHashMap.newKeySet();
+        final List<HyperparameterSearch.Trial> trials = search(new SearchSpace()
+                .choice("hidden", 3, 8)
+                .choice("steepness", 1.0, 2.0)
+                .choice("learningRate", 0.0, 0.5))
+                .threads(4)
+                .reportTo(trial -> threads.add(Thread.currentThread().getName()))
+                .grid(20);
+
+        assertEquals(8, trials.size());
+        for (int k = 1; k < trials.size(); k++) {
+            assertTrue(trials.get(k - 1).loss() <= trials.get(k).loss());
+            assertEquals(20, trials.get(k).epochs());
+        }
+        // without learning, the networks stay as bad as they started
+        assertEquals(0.5, trials.get(0).hyperparameters().getDouble("learningRate"), 0.0);
+        assertEquals(0.0, trials.get(7).hyperparameters().getDouble("learningRate"), 0.0);
+        assertTrue(threads.size() > 1);
+
+        final String table = HyperparameterSearch.table(trials);
+        assertEquals(9, table.split("\n").length);
+        assertTrue(table, table.contains("hidden=3, steepness=1.000, learningRate=0.5000"));
+    }
+
+    @Test
+    public void shouldDrawTheSameRandomTrialsForTheSameSeed() {
+        final SearchSpace space = new SearchSpace()
+                .choice("hidden", 3, 8)
+                .uniform("steepness", 0.5, 2.0)
+                .logUniform("learningRate", 0.01, 1.0);
+        final List<HyperparameterSearch.Trial> first = search(space).seed(3).random(4, 3);
+        final List<HyperparameterSearch.Trial> second = search(space).seed(3).random(4, 3);
+        for (int k = 0; k < first.size(); k++) {
+            assertEquals(first.get(k).hyperparameters().toString(), second.get(k).hyperparameters().toString());
+            final double learningRate = first.get(k).hyperparameters().getDouble("learningRate");
+            assertTrue(learningRate >= 0.01 && learningRate <= 1.0);
+        }
+    }
+
+    @Test
+    public void shouldTrainOnlyTheBestTrialsLonger() {
+        final List<HyperparameterSearch.Trial> trials = search(new SearchSpace()
+                .choice("hidden", 3, 8)
+                .logUniform("learningRate", 0.001, 1.0))
+                .seed(4)
+                .successiveHalving(9, 2, 18, 3);
+
+        assertEquals(9, trials.size());
+        assertEquals(18, trials.get(0).epochs());
+        assertEquals(6, trials.get(1).epochs());
+        assertEquals(6, trials.get(2).epochs());
+        for (int k = 3; k < 9; k++) {
+            assertEquals(2, trials.get(k).epochs());
+        }
+    }
+
+    @Test
+    public void shouldRunHyperbandBrackets() {
+        final List<HyperparameterSearch.Trial> trials = search(new SearchSpace()
+                .choice("hidden", 3, 8)
+                .logUniform("learningRate", 0.001, 1.0))
+                .seed(5)
+                .hyperband(9, 3);
+
+        // brackets of 9, 5 and 3 trials, starting at 1, 3 and 9 epochs
+        assertEquals(17, trials.size());
+        assertEquals(9, trials.get(0).epochs());
+        assertEquals(17, trials.stream().map(HyperparameterSearch.Trial::id).distinct().count());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldNotGridSearchRanges() {
+        search(new SearchSpace().uniform("learningRate", 0.0, 1.0)).grid(1);
+    }
+
+    @Test
+    public void shouldRecordFailedTrialsLast() {
+        final List<HyperparameterSearch.Trial> trials = new HyperparameterSearch(
+                new SearchSpace().choice("hidden", -1, 4),
+                params -> new MLP.Builder()
+                        .activation(new LogisticFn(1.0))
+                        .layers(4, params.getInt("hidden"), 3)
+                        .learningRate(0.5)
+                        .seed(6),
+                training, validation)
+                .reportTo(trial -> { })
+                .grid(2);
+        assertEquals(4, trials.get(0).hyperparameters().getInt("hidden"));
+        assertTrue(Double.isNaN(trials.get(1).loss()));
+    }
+
+    private HyperparameterSearch search(SearchSpace space) {
+        return new HyperparameterSearch(space,
+                params -> new MLP.Builder()
+                        .activation(new LogisticFn(params.values().containsKey("steepness")
+                                ? params.getDouble("steepness") : 1.0))
+                        .layers(4, params.getInt("hidden"), 3)
+                        .learningRate(params.getDouble("learningRate"))
+                        .batchSize(10)
+                        .seed(7),
+                training, validation)
+                .reportTo(trial -> { });
+    }
+}
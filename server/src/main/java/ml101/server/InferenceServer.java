@@ -0,0 +1,178 @@
+package ml101.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import ml101.mlp.MLP;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Serves predictions of a trained network over HTTP, using the JDK's built-in server and a virtual thread
+ * per request.
+ *
+ *   POST /predict  {"input": [0.0, 0.5, ...]}  ->  {"output": [...], "label": 3}
+ *   GET  /health                               ->  {"status": "UP", "inputs": 784, "outputs": 10, ...}
+ *
+ * Concurrent predict requests are grouped by a MicroBatcher and run as one batched feed forward.
+ * Request bodies larger than maxBodyBytes are refused with 413, without reading more of them than that.
+ *
+ * Start with: java ml101.server.InferenceServer model.mlp [port] [maxBatchSize] [maxDelayMicros] [maxBodyBytes]
+ */
+public class InferenceServer implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(InferenceServer.class);
+    public static final int DEFAULT_MAX_BATCH_SIZE = 64;
+    public static final long DEFAULT_MAX_DELAY_MICROS = 2000;
+    public static final int DEFAULT_MAX_BODY_BYTES = 1 << 20;
+    private static final long TIMEOUT_MILLIS = 10_000;
+
+    static {
+        // without TCP_NODELAY, small responses wait ~40ms for the client's delayed ACK (Nagle's algorithm)
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final MLP mlp;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final MicroBatcher batcher;
+    private final int maxBodyBytes;
+
+    /**
+     * Starts serving 'mlp' on 'port', or on any free port if 0, taking request bodies of up to
+     * DEFAULT_MAX_BODY_BYTES.
+     */
+    public InferenceServer(MLP mlp, int port, int maxBatchSize, long maxDelayMicros) throws IOException {
+        this(mlp, port, maxBatchSize, maxDelayMicros, DEFAULT_MAX_BODY_BYTES);
+    }
+
+    /**
+     * Starts serving 'mlp' on 'port', or on any free port if 0, taking request bodies of up to 'maxBodyBytes'.
+     */
+    public InferenceServer(MLP mlp, int port, int maxBatchSize, long maxDelayMicros, int maxBodyBytes)
+            throws IOException {
+        if (maxBodyBytes < 1 || maxBodyBytes > Integer.MAX_VALUE - 9) {
+            throw new IllegalArgumentException("maxBodyBytes out of range: " + maxBodyBytes);
+        }
+        this.mlp = mlp;
+        this.maxBodyBytes = maxBodyBytes;
+        this.batcher = new MicroBatcher(mlp::feedForward, maxBatchSize, maxDelayMicros,
+                Runtime.getRuntime().availableProcessors());
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.setExecutor(executor);
+        server.createContext("/predict", this::predict);
+        server.createContext("/health", this::health);
+        server.start();
+        logger.info("Serving {}-input network on port {}, batches of up to {} within {}µs",
+                mlp.numInputs(), port(), maxBatchSize, maxDelayMicros);
+    }
+
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(1);
+        batcher.close();
+        executor.close();
+    }
+
+    private void predict(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                respond(exchange, 405, Json.error("use POST"));
+                return;
+            }
+            final String length = exchange.getRequestHeaders().getFirst("Content-Length");
+            if (length != null && !(length.matches("[0-9]{1,10}") && Long.parseLong(length) <= maxBodyBytes)) {
+                respond(exchange, 413, Json.error("request body over " + maxBodyBytes + " bytes"));
+                return;
+            }
+            // chunked requests have no length, so the body is read one byte past the limit to tell
+            final byte[] body = exchange.getRequestBody().readNBytes(maxBodyBytes + 1);
+            if (body.length > maxBodyBytes) {
+                respond(exchange, 413, Json.error("request body over " + maxBodyBytes + " bytes"));
+                return;
+            }
+            final double[] input;
+            try {
+                input = Json.parseNumbers(new String(body, StandardCharsets.UTF_8));
+            }
+            catch (IllegalArgumentException e) {
+                respond(exchange, 400, Json.error(e.getMessage()));
+                return;
+            }
+            if (input.length != mlp.numInputs()) {
+                respond(exchange, 400, Json.error("expected " + mlp.numInputs() + " inputs, got " + input.length));
+                return;
+            }
+            final double[] output;
+            try {
+                output = batcher.submit(input).get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            }
+            catch (ExecutionException | TimeoutException e) {
+                logger.warn("Prediction failed", e);
+                respond(exchange, 503, Json.error("prediction failed"));
+                return;
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                respond(exchange, 503, Json.error("interrupted"));
+                return;
+            }
+            int label = 0;
+            for (int j = 1; j < output.length; j++) {
+                if (output[j] > output[label]) {
+                    label = j;
+                }
+            }
+            final StringBuilder json = new StringBuilder("{\"output\":");
+            Json.append(json, output).append(",\"label\":").append(label).append('}');
+            respond(exchange, 200, json.toString());
+        }
+    }
+
+    private void health(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            respond(exchange, 200, "{\"status\":\"UP\",\"inputs\":" + mlp.numInputs()
+                    + ",\"outputs\":" + mlp.numOutputs()
+                    + ",\"inferences\":" + mlp.metrics().inferences() + "}");
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        final byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: java ml101.server.InferenceServer model.mlp [port] [maxBatchSize] "
+                    + "[maxDelayMicros] [maxBodyBytes]");
+            System.exit(1);
+        }
+        final MLP mlp = new MLP.Builder().load(args[0]);
+        final InferenceServer server = new InferenceServer(mlp,
+                args.length > 1 ? Integer.parseInt(args[1]) : 8080,
+                args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_MAX_BATCH_SIZE,
+                args.length > 3 ? Long.parseLong(args[3]) : DEFAULT_MAX_DELAY_MICROS,
+                args.length > 4 ? Integer.parseInt(args[4]) : DEFAULT_MAX_BODY_BYTES);
+        Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+    }
+}
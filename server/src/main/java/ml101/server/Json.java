@@ -0,0 +1,93 @@
+package ml101.server;
+
+import java.util.regex.Pattern;
+
+/*
+ * Just enough JSON for the server: reading one array of numbers, and writing numbers, arrays and error messages.
+ */
+final class Json {
+    // a JSON number: no NaN, Infinity, hexadecimal or type suffixes, which Double.parseDouble also takes
+    private static final Pattern NUMBER = Pattern.compile("-?(0|[1-9][0-9]*)(\\.[0-9]+)?([eE][+-]?[0-9]+)?");
+
+    private Json() {
+    }
+
+    /*
+     * Reads the first array of numbers in 'body', e.g. [0.1, 0.2] or {"input": [0.1, 0.2]}.
+     * Numbers too large for a double are rejected, like anything else that isn't a finite JSON number.
+     */
+    static double[] parseNumbers(String body) {
+        final int start = body.indexOf('[');
+        final int end = body.indexOf(']', start + 1);
+        if (start < 0 || end < 0) {
+            throw new IllegalArgumentException("Expected an array of numbers");
+        }
+        final String content = body.substring(start + 1, end).trim();
+        if (content.isEmpty()) {
+            return new double[0];
+        }
+        final String[] values = content.split(",");
+        final double[] numbers = new double[values.length];
+        for (int n = 0; n < values.length; n++) {
+            final String value = values[n].trim();
+            if (!NUMBER.matcher(value).matches()) {
+                throw new IllegalArgumentException("Not a number: " + value);
+            }
+            numbers[n] = Double.parseDouble(value);
+            if (!Double.isFinite(numbers[n])) {
+                throw new IllegalArgumentException("Not a finite number: " + value);
+            }
+        }
+        return numbers;
+    }
+
+    /*
+     * @return Returns {"error": message}, with the message escaped
+     */
+    static String error(String message) {
+        return appendString(new StringBuilder("{\"error\":"), message).append('}').toString();
+    }
+
+    /*
+     * Appends 'value' as a JSON string: quoted, with quotes, backslashes and control characters escaped.
+     */
+    static StringBuilder appendString(StringBuilder builder, String value) {
+        builder.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '"' -> builder.append("\\\"");
+                case '\\' -> builder.append("\\\\");
+                case '\n' -> builder.append("\\n");
+                case '\r' -> builder.append("\\r");
+                case '\t' -> builder.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        builder.append(String.format("\\u%04x", (int) c));
+                    }
+                    else {
+                        builder.append(c);
+                    }
+                }
+            }
+        }
+        return builder.append('"');
+    }
+
+    static StringBuilder append(StringBuilder builder, double[] values) {
+        builder.append('[');
+        for (int n = 0; n < values.length; n++) {
+            if (n > 0) {
+                builder.append(',');
+            }
+            if (Double.isFinite(values[n])) {
+                builder.append(values[n]);
+            }
+            else {
+                // JSON has no NaN or infinity
+                builder.append("null");
+            }
+        }
+        return builder.append(']');
+    }
+}
@@ -0,0 +1,141 @@
+package ml101.server;
+
+import ml101.mlp.MLP;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Closed-loop load test of an InferenceServer: 'concurrency' virtual threads each send random inputs,
+ * one request after the other, for a number of seconds. Prints requests per second and latency percentiles.
+ *
+ * Run against a running server: java ml101.server.LoadClient http://localhost:8080 [concurrency] [seconds]
+ * or against a model served in the same JVM: java ml101.server.LoadClient model.mlp [concurrency] [seconds]
+ */
+public class LoadClient {
+
+    public record Result(long requests, long errors, double requestsPerSecond,
+                         double p50Millis, double p90Millis, double p99Millis, double maxMillis) {
+        @Override
+        public String toString() {
+            return String.format("%d requests (%d errors), %.0f requests/s, latency p50 %.2f ms, p90 %.2f ms, "
+                    + "p99 %.2f ms, max %.2f ms", requests, errors, requestsPerSecond, p50Millis, p90Millis,
+                    p99Millis, maxMillis);
+        }
+    }
+
+    private final URI predict;
+    private final int numInputs;
+    private final HttpClient client;
+
+    public LoadClient(String url) throws Exception {
+        this.client = HttpClient.newBuilder()
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        this.predict = URI.create(url + "/predict");
+        final String health = client.send(HttpRequest.newBuilder(URI.create(url + "/health")).build(),
+                HttpResponse.BodyHandlers.ofString()).body();
+        final int start = health.indexOf("\"inputs\":") + "\"inputs\":".length();
+        int end = start;
+        while (end < health.length() && Character.isDigit(health.charAt(end))) {
+            end++;
+        }
+        this.numInputs = Integer.parseInt(health.substring(start, end));
+    }
+
+    public Result run(int concurrency, Duration duration) throws Exception {
+        final long stop = System.nanoTime() + duration.toNanos();
+        final AtomicLong errors = new AtomicLong();
+        final long started = System.nanoTime();
+        final long[][] latencies = new long[concurrency][];
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            final Future<?>[] futures = new Future<?>[concurrency];
+            for (int t = 0; t < concurrency; t++) {
+                final int thread = t;
+                futures[t] = executor.submit(() -> {
+                    latencies[thread] = send(new Random(thread), stop, errors);
+                    return null;
+                });
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+        final double seconds = (System.nanoTime() - started) / 1e9;
+        final long[] all = Arrays.stream(latencies).flatMapToLong(Arrays::stream).sorted().toArray();
+        if (all.length == 0) {
+            return new Result(0, errors.get(), 0.0, 0.0, 0.0, 0.0, 0.0);
+        }
+        return new Result(all.length, errors.get(), all.length / seconds,
+                percentile(all, 0.50), percentile(all, 0.90), percentile(all, 0.99), all[all.length - 1] / 1e6);
+    }
+
+    /*
+     * @return Returns the latencies (ns) of the successful requests sent by one thread
+     */
+    private long[] send(Random random, long stop, AtomicLong errors) throws Exception {
+        long[] latencies = new long[1024];
+        int count = 0;
+        final double[] input = new double[numInputs];
+        final StringBuilder body = new StringBuilder();
+        while (System.nanoTime() < stop) {
+            for (int i = 0; i < numInputs; i++) {
+                input[i] = random.nextDouble();
+            }
+            body.setLength(0);
+            Json.append(body.append("{\"input\":"), input).append('}');
+            final HttpRequest request = HttpRequest.newBuilder(predict)
+                    .POST(HttpRequest.BodyPublishers.ofString(body.toString()))
+                    .header("Content-Type", "application/json")
+                    .build();
+            final long start = System.nanoTime();
+            final HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            final long latency = System.nanoTime() - start;
+            if (response.statusCode() != 200) {
+                errors.incrementAndGet();
+                continue;
+            }
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, 2 * count);
+            }
+            latencies[count++] = latency;
+        }
+        return Arrays.copyOf(latencies, count);
+    }
+
+    private static double percentile(long[] sorted, double fraction) {
+        return sorted[Math.min(sorted.length - 1, (int) (fraction * sorted.length))] / 1e6;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: java ml101.server.LoadClient http://host:port|model.mlp [concurrency] [seconds]");
+            System.exit(1);
+        }
+        final int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        final Duration duration = Duration.ofSeconds(args.length > 2 ? Long.parseLong(args[2]) : 10);
+        if (args[0].startsWith("http://") || args[0].startsWith("https://")) {
+            System.out.println(new LoadClient(args[0]).run(concurrency, duration));
+            return;
+        }
+        final MLP mlp = new MLP.Builder().load(args[0]);
+        try (InferenceServer server = new InferenceServer(mlp, 0,
+                InferenceServer.DEFAULT_MAX_BATCH_SIZE, InferenceServer.DEFAULT_MAX_DELAY_MICROS)) {
+            final LoadClient client = new LoadClient("http://localhost:" + server.port());
+            // a short warm-up, so the JIT has compiled the hot paths before measuring
+            client.run(concurrency, Duration.ofSeconds(2));
+            System.out.println(client.run(concurrency, duration));
+        }
+    }
+}
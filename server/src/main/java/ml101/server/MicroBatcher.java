@@ -0,0 +1,143 @@
+package ml101.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Collects single-sample requests from many threads and runs them through the model as one batch.
+ *
+ * A batch is run as soon as it's full, when it holds every request that hasn't been answered yet (there's
+ * nobody else to wait for), or when its oldest request has waited maxDelay. So a lone request doesn't wait,
+ * and under load a batch collects what arrived while the previous one was computed. Several batching
+ * threads take turns, so one batch can be computed while the next one fills up.
+ */
+class MicroBatcher implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(MicroBatcher.class);
+
+    private record Request(double[] input, CompletableFuture<double[]> result, long enqueued) {
+    }
+
+    private final Function<double[][], double[][]> model;
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+    // submitted but not yet answered, whether queued, in a batch being filled or being computed
+    private final AtomicInteger pending = new AtomicInteger();
+    private final Thread[] threads;
+    private volatile boolean closed;
+
+    /**
+     * @param model runs a batch of inputs, and must be safe to call from several threads
+     * @param threads how many batches can be computed at once
+     */
+    MicroBatcher(Function<double[][], double[][]> model, int maxBatchSize, long maxDelayMicros, int threads) {
+        if (maxBatchSize < 1 || maxDelayMicros < 0 || threads < 1) {
+            throw new IllegalArgumentException("maxBatchSize and threads must be positive, maxDelay not negative");
+        }
+        this.model = model;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayNanos = TimeUnit.MICROSECONDS.toNanos(maxDelayMicros);
+        this.threads = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            this.threads[t] = Thread.ofPlatform().daemon().name("micro-batcher-" + t).start(this::run);
+        }
+    }
+
+    /**
+     * @return Returns the model's output for 'input', once its batch has been computed
+     */
+    CompletableFuture<double[]> submit(double[] input) {
+        final Request request = new Request(input, new CompletableFuture<>(), System.nanoTime());
+        pending.incrementAndGet();
+        queue.add(request);
+        // checked after adding, so that a request racing with close is either taken by close or removed here
+        if (closed && queue.remove(request)) {
+            pending.decrementAndGet();
+            request.result().completeExceptionally(new RejectedExecutionException("batcher is closed"));
+        }
+        return request.result();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        Request request;
+        while ((request = queue.poll()) != null) {
+            pending.decrementAndGet();
+            request.result().completeExceptionally(new RejectedExecutionException("batcher is closed"));
+        }
+    }
+
+    private void run() {
+        final List<Request> batch = new ArrayList<>(maxBatchSize);
+        try {
+            while (!closed) {
+                batch.add(queue.take());
+                queue.drainTo(batch, maxBatchSize - batch.size());
+                final long deadline = batch.get(0).enqueued() + maxDelayNanos;
+                long remaining;
+                while (batch.size() < maxBatchSize && batch.size() < pending.get()
+                        && (remaining = deadline - System.nanoTime()) > 0) {
+                    final Request next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                    queue.drainTo(batch, maxBatchSize - batch.size());
+                }
+                compute(batch);
+                batch.clear();
+            }
+        }
+        catch (InterruptedException e) {
+            // closing: requests still in 'batch' are computed, the queue is emptied by close
+            compute(batch);
+        }
+    }
+
+    private void compute(List<Request> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        final double[][] inputs = new double[batch.size()][];
+        for (int n = 0; n < inputs.length; n++) {
+            inputs[n] = batch.get(n).input();
+        }
+        try {
+            final double[][] outputs = model.apply(inputs);
+            for (int n = 0; n < inputs.length; n++) {
+                batch.get(n).result().complete(outputs[n]);
+            }
+        }
+        catch (RuntimeException e) {
+            logger.warn("Batch of {} failed", inputs.length, e);
+            for (Request request : batch) {
+                request.result().completeExceptionally(e);
+            }
+        }
+        finally {
+            pending.addAndGet(-inputs.length);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package ml101.server;
+
+import ml101.mlp.MLP;
+import ml101.mlp.activation.LogisticFn;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class InferenceServerTest {
+    private MLP mlp;
+    private InferenceServer server;
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    @Before
+    public void startServer() throws Exception {
+        mlp = new MLP.Builder()
+                .activation(new LogisticFn(1.0))
+                .layers(6, 8, 3)
+                .seed(1)
+                .load();
+        server = new InferenceServer(mlp, 0, 8, 1000, 1024);
+    }
+
+    @After
+    public void stopServer() {
+        server.close();
+    }
+
+    @Test
+    public void shouldReportHealth() throws Exception {
+        final HttpResponse<String> response = get("/health");
+        assertEquals(200, response.statusCode());
+        assertTrue(response.body(), response.body().contains("\"status\":\"UP\""));
+        assertTrue(response.body(), response.body().contains("\"inputs\":6"));
+    }
+
+    @Test
+    public void shouldPredictLikeFeedForward() throws Exception {
+        final Random random = new Random(2);
+        for (int n = 0; n < 10; n++) {
+            final double[] input = new double[6];
+            for (int i = 0; i < input.length; i++) {
+                input[i] = random.nextDouble();
+            }
+            final HttpResponse<String> response = post(Json.append(new StringBuilder("{\"input\":"), input)
+                    .append('}').toString());
+            assertEquals(200, response.statusCode());
+            final double[] expected = mlp.feedForward(new double[][] {input})[0];
+            assertArrayEquals(expected, Json.parseNumbers(response.body()), 1e-12);
+        }
+    }
+
+    @Test
+    public void shouldRejectBadInput() throws Exception {
+        assertEquals(400, post("[1, 2, 3]").statusCode());
+        assertEquals(400, post("{\"input\": [1, 2, x, 4, 5, 6]}").statusCode());
+        assertEquals(405, get("/predict").statusCode());
+    }
+
+    @Test
+    public void shouldRejectNumbersJsonDoesNotHave() throws Exception {
+        for (String number : new String[] {"NaN", "Infinity", "-Infinity", "0x1p3", "1d", "1e999", "01", ".5"}) {
+            assertEquals(number, 400, post("[1, 2, " + number + ", 4, 5, 6]").statusCode());
+        }
+        assertEquals(200, post("[1, -2, 0.5, 4e-1, 5E+2, 6]").statusCode());
+    }
+
+    @Test
+    public void shouldEscapeErrorMessages() throws Exception {
+        final HttpResponse<String> response = post("[1, 2, \"x\\\\y\u0001\", 4, 5, 6]");
+        assertEquals(400, response.statusCode());
+        assertEquals("{\"error\":\"Not a number: \\\"x\\\\\\\\y\\u0001\\\"\"}", response.body());
+    }
+
+    @Test
+    public void shouldRefuseBodiesOverTheLimit() throws Exception {
+        final String padded = "[1, 2, 3, 4, 5, 6]" + " ".repeat(1024);
+        assertEquals(413, post(padded).statusCode());
+        // no Content-Length, sent in chunks
+        final HttpResponse<String> chunked = client.send(
+                HttpRequest.newBuilder(URI.create("http://localhost:" + server.port() + "/predict"))
+                        .POST(HttpRequest.BodyPublishers.ofInputStream(
+                                () -> new ByteArrayInputStream(padded.getBytes(StandardCharsets.UTF_8))))
+                        .build(),
+                HttpResponse.BodyHandlers.ofString());
+        assertEquals(413, chunked.statusCode());
+        assertEquals(200, post(padded.substring(0, 1024)).statusCode());
+    }
+
+    @Test
+    public void shouldServeLoadClient() throws Exception {
+        final LoadClient.Result result = new LoadClient("http://localhost:" + server.port())
+                .run(16, Duration.ofMillis(500));
+        assertTrue(result.toString(), result.requests() > 0);
+        assertEquals(0, result.errors());
+        assertTrue(result.p99Millis() >= result.p50Millis());
+    }
+
+    private HttpResponse<String> get(String path) throws Exception {
+        return client.send(HttpRequest.newBuilder(URI.create("http://localhost:" + server.port() + path)).build(),
+                HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpResponse<String> post(String body) throws Exception {
+        return client.send(HttpRequest.newBuilder(URI.create("http://localhost:" + server.port() + "/predict"))
+                        .POST(HttpRequest.BodyPublishers.ofString(body)).build(),
+                HttpResponse.BodyHandlers.ofString());
+    }
+}
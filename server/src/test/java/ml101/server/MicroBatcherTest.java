@@ -0,0 +1,70 @@
+package ml101.server;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class MicroBatcherTest {
+
+    @Test
+    public void shouldBatchConcurrentRequests() throws Exception {
+        final AtomicInteger batches = new AtomicInteger();
+        final AtomicInteger largest = new AtomicInteger();
+        try (MicroBatcher batcher = new MicroBatcher(inputs -> {
+            batches.incrementAndGet();
+            largest.accumulateAndGet(inputs.length, Math::max);
+            return doubled(inputs);
+        }, 16, 50_000, 1)) {
+            final List<CompletableFuture<double[]>> results = new ArrayList<>();
+            for (int n = 0; n < 100; n++) {
+                results.add(batcher.submit(new double[] {n, -n}));
+            }
+            for (int n = 0; n < 100; n++) {
+                assertArrayEquals(new double[] {2 * n, -2 * n}, results.get(n).get(5, TimeUnit.SECONDS), 0.0);
+            }
+        }
+        assertTrue("batches " + batches.get(), batches.get() < 100);
+        assertEquals(16, largest.get());
+    }
+
+    @Test
+    public void shouldNotHoldLoneRequestPastMaxDelay() throws Exception {
+        try (MicroBatcher batcher = new MicroBatcher(MicroBatcherTest::doubled, 64, 5_000, 1)) {
+            final long start = System.nanoTime();
+            assertArrayEquals(new double[] {2.0}, batcher.submit(new double[] {1.0}).get(5, TimeUnit.SECONDS), 0.0);
+            final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertTrue("took " + millis + " ms", millis < 1000);
+        }
+    }
+
+    @Test
+    public void shouldFailRequestsOfFailedBatch() throws Exception {
+        try (MicroBatcher batcher = new MicroBatcher(inputs -> {
+            throw new IllegalStateException("broken");
+        }, 4, 0, 1)) {
+            batcher.submit(new double[] {1.0}).get(5, TimeUnit.SECONDS);
+            fail();
+        }
+        catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    private static double[][] doubled(double[][] inputs) {
+        final double[][] outputs = new double[inputs.length][];
+        for (int n = 0; n < inputs.length; n++) {
+            outputs[n] = inputs[n].clone();
+            for (int i = 0; i < outputs[n].length; i++) {
+                outputs[n][i] *= 2;
+            }
+        }
+        return outputs;
+    }
+}